@@ -0,0 +1,142 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifica, no SQLite do aparelho, a configuração que o {@link PetDbHelper} aplica ao banco:
+ * com WAL, as leituras não esperam uma escrita longa, e a conexão principal recebe os PRAGMAs
+ * da {@link PetDbConfig}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbHelperTest {
+
+    private static final String DATABASE_NAME = "pet_db_helper_test.db";
+
+    /** Quanto tempo a transação de escrita fica aberta, se ninguém a liberar antes */
+    private static final long WRITE_MILLIS = 5000;
+
+    private Context mContext;
+    private PetDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new PetDbHelper(mContext, DATABASE_NAME, PetDbConfig.DEFAULT);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readsProceedDuringALongWrite() throws Exception {
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        for (int i = 0; i < 100; i++) {
+            db.insert(PetEntry.TABLE_NAME, null, pet("Pet " + i));
+        }
+
+        // Uma thread abre uma transação, escreve e a deixa aberta, como uma importação longa
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Throwable> writerError = new AtomicReference<>();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                try {
+                    db.insert(PetEntry.TABLE_NAME, null, pet("Uncommitted"));
+                    writing.countDown();
+                    release.await(WRITE_MILLIS, TimeUnit.MILLISECONDS);
+                    db.setTransactionSuccessful();
+                } catch (Throwable e) {
+                    writerError.set(e);
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        };
+        writer.start();
+        assertTrue(writing.await(WRITE_MILLIS, TimeUnit.MILLISECONDS));
+
+        // Sem WAL esta leitura esperaria a conexão principal até o fim da transação
+        long startMillis = SystemClock.uptimeMillis();
+        long count = count(db);
+        long readMillis = SystemClock.uptimeMillis() - startMillis;
+        release.countDown();
+        writer.join();
+
+        assertNull(writerError.get());
+        assertEquals("The read saw an uncommitted row", 100, count);
+        assertTrue("The read waited " + readMillis + " ms for the write",
+                readMillis < WRITE_MILLIS / 5);
+        assertEquals(101, count(db));
+    }
+
+    @Test
+    public void primaryConnectionIsTuned() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        assertTrue(db.isWriteAheadLoggingEnabled());
+
+        // Dentro de uma transação as consultas usam a conexão principal
+        db.beginTransaction();
+        try {
+            assertEquals(-PetDbConfig.DEFAULT.cacheSizeKb, pragma(db, "cache_size"));
+            assertEquals(PetDbConfig.DEFAULT.synchronousMode, pragma(db, "synchronous"));
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ContentValues pet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, "Terrier");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+        return values;
+    }
+
+    private static long count(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT count(*) FROM " + PetEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("PRAGMA " + name, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
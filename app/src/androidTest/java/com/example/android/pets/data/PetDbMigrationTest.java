@@ -0,0 +1,195 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Leva um banco da versão 1, criado com o esquema original do aplicativo, até a versão atual
+ * pelas migrações do {@link PetDbHelper}, e verifica que os animais, os índices, a busca e as
+ * estatísticas estão lá depois.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbMigrationTest {
+
+    private static final String DATABASE_NAME = "pet_migration_test.db";
+
+    /**
+     * Tabela da versão 1, copiada do primeiro PetDbHelper. Fica escrita aqui, e não lida do
+     * {@link PetDbHelper}, para que uma mudança nela não passe despercebida.
+     */
+    private static final String CREATE_V1_PETS_TABLE = "CREATE TABLE pets ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "name TEXT NOT NULL, "
+            + "breed TEXT, "
+            + "gender INTEGER NOT NULL, "
+            + "weight INTEGER NOT NULL DEFAULT 0);";
+
+    /** Índices que a versão atual precisa ter, e o índice que a versão 8 removeu */
+    private static final String[] INDEXES = {
+            "pets_breed_idx",
+            "pets_gender_weight_idx",
+            "pets_weight_idx",
+            "pets_write_key_idx",
+            "pets_name_idx",
+            "pets_gender_name_idx",
+            "pets_gender_idx" };
+    private static final String DROPPED_INDEX = "pets_name_breed_idx";
+
+    /** Animais gravados na versão 1: nome, raça (null quando não tem), gênero e peso */
+    private static final Object[][] PETS = {
+            { "Toto", "Terrier", PetEntry.GENDER_MALE, 7 },
+            { "Binx", "Bombay", PetEntry.GENDER_MALE, 4 },
+            { "Luna", null, PetEntry.GENDER_FEMALE, 12 },
+            { "Toto", "Poodle", PetEntry.GENDER_UNKNOWN, 0 },
+            { "Mel", "Labrador", PetEntry.GENDER_FEMALE, 30 } };
+
+    private Context mContext;
+    private PetDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+
+        SQLiteDatabase db = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        try {
+            db.execSQL(CREATE_V1_PETS_TABLE);
+            for (Object[] pet : PETS) {
+                ContentValues values = new ContentValues();
+                values.put("name", (String) pet[0]);
+                values.put("breed", (String) pet[1]);
+                values.put("gender", (Integer) pet[2]);
+                values.put("weight", (Integer) pet[3]);
+                db.insertOrThrow("pets", null, values);
+            }
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+        mHelper = new PetDbHelper(mContext, DATABASE_NAME, PetDbConfig.DEFAULT);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void migratesToTheCurrentVersion() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        assertEquals(PetSchema.VERSION, db.getVersion());
+    }
+
+    @Test
+    public void petsSurvive() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, new String[] {
+                        PetEntry._ID,
+                        PetEntry.COLUMN_PET_NAME,
+                        PetEntry.COLUMN_PET_BREED,
+                        PetEntry.COLUMN_PET_GENDER,
+                        PetEntry.COLUMN_PET_WEIGHT,
+                        PetEntry.COLUMN_PET_DELETED,
+                        PetEntry.COLUMN_PET_PHOTO,
+                        PetEntry.COLUMN_PET_WRITE_KEY },
+                null, null, null, null, PetEntry._ID);
+        try {
+            assertEquals(PETS.length, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(i + 1, cursor.getLong(0));
+                assertEquals(PETS[i][0], cursor.getString(1));
+                assertEquals(PETS[i][1], cursor.getString(2));
+                assertEquals(PETS[i][2], cursor.getInt(3));
+                assertEquals(PETS[i][3], cursor.getInt(4));
+                // As colunas novas têm os valores de um animal que nunca foi excluído, não tem
+                // foto e não foi inserido pela fila de escritas
+                assertEquals(0, cursor.getInt(5));
+                assertTrue(cursor.isNull(6));
+                assertTrue(cursor.isNull(7));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void indexesExist() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        Set<String> indexes = new HashSet<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'"
+                + " AND tbl_name = ?", new String[] { PetEntry.TABLE_NAME });
+        try {
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (String index : INDEXES) {
+            assertTrue("Missing index " + index, indexes.contains(index));
+        }
+        assertFalse(indexes.contains(DROPPED_INDEX));
+    }
+
+    @Test
+    public void searchAndStatsCoverMigratedPets() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        // A versão 3 indexou os animais que já existiam na tabela de busca
+        Cursor cursor = db.rawQuery("SELECT docid FROM " + PetEntry.SEARCH_TABLE_NAME + " WHERE "
+                + PetEntry.SEARCH_TABLE_NAME + " MATCH ? ORDER BY docid", new String[] { "toto" });
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getLong(0));
+            cursor.moveToNext();
+            assertEquals(4, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+
+        // A versão 4 calculou as estatísticas dos animais que já existiam
+        assertTrue(PetDbHelper.checkStats(db));
+    }
+
+    @Test
+    public void triggersWorkAfterMigration() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Rex");
+        values.put(PetEntry.COLUMN_PET_BREED, "Boxer");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 40);
+        db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+        assertTrue(PetDbHelper.checkStats(db));
+
+        Cursor cursor = db.rawQuery("SELECT docid FROM " + PetEntry.SEARCH_TABLE_NAME + " WHERE "
+                + PetEntry.SEARCH_TABLE_NAME + " MATCH ?", new String[] { "boxer" });
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.IsolatedContext;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+
+import com.example.android.pets.PetProvider;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compara, no SQLite do aparelho, a inserção linha a linha com o bulkInsert do
+ * {@link PetProvider}, que grava o lote numa única transação, e verifica que uma linha inválida
+ * desfaz o lote inteiro. O provedor usa uma cópia isolada do banco, e não a do aplicativo.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderBatchTest {
+
+    private static final String TAG = PetProviderBatchTest.class.getSimpleName();
+
+    /** Nome que o {@link PetDbHelper} dá ao banco; o contexto isolado acrescenta um prefixo */
+    private static final String DATABASE_NAME = "shelter.db";
+
+    private static final int ROWS = 500;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        MockContentResolver resolver = new MockContentResolver();
+        mContext = new IsolatedContext(resolver, new RenamingDelegatingContext(
+                InstrumentationRegistry.getTargetContext(), "test."));
+        mContext.deleteDatabase(DATABASE_NAME);
+
+        PetProvider provider = new PetProvider();
+        provider.attachInfo(mContext, null);
+        resolver.addProvider(PetContract.CONTENT_AUTHORITY, provider);
+        mResolver = resolver;
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void bulkInsertIsFasterThanInsertingRowByRow() {
+        ContentValues[] pets = pets(ROWS);
+
+        // Uma transação (e um fsync) por linha
+        long start = System.nanoTime();
+        for (ContentValues pet : pets) {
+            mResolver.insert(PetEntry.CONTENT_URI, pet);
+        }
+        long rowByRowNanos = System.nanoTime() - start;
+
+        // Uma transação para o lote inteiro
+        start = System.nanoTime();
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+        long bulkNanos = System.nanoTime() - start;
+
+        assertEquals(ROWS, inserted);
+        assertEquals(2 * ROWS, countPets());
+
+        Log.i(TAG, String.format(Locale.US,
+                "%d rows: %.0f rows/s one by one, %.0f rows/s in one transaction (%.1fx)",
+                ROWS, rowsPerSecond(rowByRowNanos), rowsPerSecond(bulkNanos),
+                (double) rowByRowNanos / bulkNanos));
+        assertTrue("bulkInsert took " + bulkNanos + " ns, row by row took " + rowByRowNanos
+                + " ns", bulkNanos < rowByRowNanos);
+    }
+
+    @Test
+    public void invalidRowRollsBackTheBulkInsert() {
+        ContentValues[] pets = pets(10);
+        pets[7].putNull(PetEntry.COLUMN_PET_NAME);
+
+        try {
+            mResolver.bulkInsert(PetEntry.CONTENT_URI, pets);
+            fail("A pet without a name was inserted");
+        } catch (IllegalArgumentException expected) {
+            // As linhas anteriores à inválida também não podem ter sido gravadas
+        }
+        assertEquals(0, countPets());
+    }
+
+    @Test
+    public void failedOperationRollsBackTheBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues pet : pets(3)) {
+            operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                    .withValues(pet)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(PetEntry.CONTENT_URI)
+                .withValue(PetEntry.COLUMN_PET_WEIGHT, -1)
+                .build());
+
+        try {
+            mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            fail("A pet with a negative weight was written");
+        } catch (IllegalArgumentException expected) {
+            // As inserções que vieram antes da atualização inválida também são desfeitas
+        }
+        assertEquals(0, countPets());
+    }
+
+    private int countPets() {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI,
+                new String[] { PetEntry._ID }, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double rowsPerSecond(long nanos) {
+        return ROWS * 1e9 / nanos;
+    }
+
+    private static ContentValues[] pets(int count) {
+        ContentValues[] pets = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+            values.put(PetEntry.COLUMN_PET_BREED, "Breed " + (i % 10));
+            values.put(PetEntry.COLUMN_PET_GENDER, i % 3);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, i % 40);
+            pets[i] = values;
+        }
+        return pets;
+    }
+}
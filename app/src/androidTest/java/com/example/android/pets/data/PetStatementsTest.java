@@ -0,0 +1,148 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compara, no SQLite do aparelho, a atualização de uma linha completa pelo _id feita com a
+ * instrução compilada do {@link PetStatements} com a feita por {@link SQLiteDatabase#update},
+ * que é o caminho que o {@link PetProvider} usava: mede o tempo e as alocações de cada uma.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetStatementsTest {
+
+    private static final String TAG = PetStatementsTest.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "pet_statements_test.db";
+
+    /** Número de animais atualizados em rodízio, e de atualizações medidas */
+    private static final int ROWS = 100;
+    private static final int UPDATES = 5000;
+
+    /** Nomes criados antes da medição, para que as duas formas não aloquem strings novas */
+    private static final String[] NAMES = new String[ROWS];
+    static {
+        for (int i = 0; i < ROWS; i++) {
+            NAMES[i] = "Pet " + i;
+        }
+    }
+
+    /** Uma atualização da linha de número i */
+    private interface Update {
+        void run(int i);
+    }
+
+    private Context mContext;
+    private PetDbHelper mHelper;
+    private SQLiteDatabase mDatabase;
+    private PetStatements mStatements;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mHelper = new PetDbHelper(mContext, DATABASE_NAME, PetDbConfig.DEFAULT);
+        mDatabase = mHelper.getWritableDatabase();
+        mStatements = new PetStatements(mDatabase);
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i + 1, mStatements.insert(name(i), "Breed", PetEntry.GENDER_MALE, i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mStatements.close();
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void compiledUpdateAllocatesLessThanDatabaseUpdate() {
+        Update compiled = new Update() {
+            @Override
+            public void run(int i) {
+                mStatements.updateById(id(i), name(i), "Breed", PetEntry.GENDER_FEMALE, i);
+            }
+        };
+        Update values = new Update() {
+            @Override
+            public void run(int i) {
+                // O que o PetProvider fazia para cada atualização de PET_ID
+                ContentValues row = new ContentValues();
+                row.put(PetEntry.COLUMN_PET_NAME, name(i));
+                row.put(PetEntry.COLUMN_PET_BREED, "Breed");
+                row.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+                row.put(PetEntry.COLUMN_PET_WEIGHT, i);
+                mDatabase.update(PetEntry.TABLE_NAME, row, PetEntry._ID + "=?",
+                        new String[] { String.valueOf(id(i)) });
+            }
+        };
+
+        // Uma rodada de aquecimento compila as duas instruções e enche os caches do SQLite
+        run(compiled);
+        run(values);
+
+        long[] compiledCost = run(compiled);
+        long[] valuesCost = run(values);
+        Log.i(TAG, String.format(Locale.US,
+                "%d updates: compiled %.2f us and %.1f allocations each,"
+                        + " database.update %.2f us and %.1f allocations each",
+                UPDATES, compiledCost[0] / 1000.0 / UPDATES, (double) compiledCost[1] / UPDATES,
+                valuesCost[0] / 1000.0 / UPDATES, (double) valuesCost[1] / UPDATES));
+
+        // Sem contagem de alocações (alguns runtimes não a implementam), só o tempo é registrado
+        assumeTrue(valuesCost[1] > 0);
+        assertTrue("compiled " + compiledCost[1] + " allocations, database.update "
+                + valuesCost[1], compiledCost[1] < valuesCost[1]);
+    }
+
+    /**
+     * Faz {@link #UPDATES} atualizações numa transação, para que o fsync não esconda a
+     * diferença. Retorna o tempo em nanossegundos e o número de objetos alocados pela thread.
+     */
+    @SuppressWarnings("deprecation")
+    private long[] run(Update update) {
+        mDatabase.beginTransaction();
+        try {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            for (int i = 0; i < UPDATES; i++) {
+                update.run(i);
+            }
+            long nanos = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            long allocations = Debug.getThreadAllocCount();
+            mDatabase.setTransactionSuccessful();
+            return new long[] { nanos, allocations };
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private static long id(int i) {
+        return i % ROWS + 1;
+    }
+
+    private static String name(int i) {
+        return NAMES[i % ROWS];
+    }
+}
@@ -1,43 +1,222 @@
 
 package com.example.android.pets;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
+import android.widget.Toast;
 
+import com.example.android.pets.data.LatencyHistogram;
+import com.example.android.pets.data.PetBulkDeleter;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetImporter;
+import com.example.android.pets.data.PetLoadDriver;
+import com.example.android.pets.data.PetPurgeJobService;
+import com.example.android.pets.data.PetQuery;
+import com.example.android.pets.data.PetSnapshot;
+import com.example.android.pets.data.PetSnapshotLoader;
+import com.example.android.pets.data.PetStartupTrace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 
 /**
  *
  * Exibe a lista de animais de estimação que foram inseridos e armazenados no aplicativo.
  */
-public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity implements PetPager.Listener,
+        PetSnapshotLoader.Listener {
 
     /** Identificador para o carregador de dados para animais de estimação  */
     private static final int PET_LOADER = 0;
 
-    /**Adaptador para ListView */
-    PetCursorAdapter mCursorAdapter;
+    /**
+     * Identificador do carregador da busca. O PetPager usa os identificadores a partir de
+     * PET_LOADER, um por página, então o da busca é negativo.
+     */
+    private static final int SEARCH_LOADER = -1;
+
+    /**
+     * Quanto tempo a busca espera depois da última tecla. Cada tecla dentro desse tempo adia
+     * a busca, então uma palavra digitada de uma vez faz uma única consulta.
+     */
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+
+    /** Argumento do carregador da busca com o texto buscado */
+    private static final String ARG_SEARCH_QUERY = "query";
+
+    /** Colunas da busca, as mesmas da lista */
+    private static final String[] SEARCH_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_PHOTO };
+
+    /**
+     * Ordem da busca: os animais mais novos primeiro. Ordenar pela relevância obrigaria o
+     * provedor a ordenar todos os animais encontrados a cada tecla, e um prefixo curto
+     * encontra boa parte da tabela.
+     */
+    private static final String SEARCH_SORT_ORDER = PetEntry._ID + " DESC";
+
+    /** Código da solicitação do arquivo a importar */
+    private static final int REQUEST_IMPORT = 1;
+
+    /** Semente dos animais gerados e da carga mista; a mesma semente repete a mesma carga */
+    private static final long LOAD_SEED = 42;
+
+    /** Taxa e duração do teste de carga */
+    private static final int LOAD_TEST_OPS_PER_SECOND = 200;
+    private static final long LOAD_TEST_DURATION_MS = 30000;
+
+    /** Chaves da ordem e do filtro da lista no estado salvo da atividade */
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_GENDER = "gender";
+    private static final String STATE_SEARCH = "search";
+
+    /** Adaptador para a lista de animais de estimação */
+    PetListAdapter mAdapter;
+
+    /** Carrega o catálogo página por página enquanto o usuário rola a lista */
+    private PetPager mPager;
+
+    /** Posiciona a lista; dele vêm as linhas visíveis passadas ao {@link #mPager} */
+    private LinearLayoutManager mLayoutManager;
+
+    /**
+     * Mantém todo o catálogo em memória, quando R.bool.catalog_snapshot está ligado; nesse
+     * caso {@link #mPager} não é usado. Ele fica num {@link PetSnapshotFragment}, então
+     * sobrevive à rotação.
+     */
+    private PetSnapshotLoader mSnapshotLoader;
+
+    /** Posições do snapshot mostradas na lista, na ordem da lista */
+    private int[] mSnapshotRows = new int[0];
+
+    /** Exibição mostrada quando a lista não tem nenhum animal de estimação */
+    private View mEmptyView;
+
+    /** Carrega as miniaturas das fotos da lista fora da thread principal */
+    private PetThumbnailLoader mThumbnails;
+
+    /**
+     * Ordem da lista ({@link PetQuery#SORT_NAME}, {@link PetQuery#SORT_WEIGHT} ou
+     * {@link PetQuery#SORT_ID}) e gênero mostrado, ou {@link PetQuery#ANY_GENDER}
+     */
+    private String mSort = PetQuery.SORT_NAME;
+    private int mGender = PetQuery.ANY_GENDER;
+
+    /** Texto da busca em andamento, ou null quando a lista mostra o catálogo */
+    private String mSearchQuery;
+
+    private final Handler mHandler = new Handler();
+
+    /** Reinicia a busca com o texto atual, quando o usuário para de digitar */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            restartSearch();
+        }
+    };
+
+    /**
+     * Leva a janela de páginas do {@link #mPager} às linhas visíveis. Roda fora do callback de
+     * rolagem, porque carregar ou descartar uma página altera a lista, o que a RecyclerView não
+     * aceita durante o layout.
+     */
+    private final Runnable mVisibleRangeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mPager != null) {
+                mPager.setVisibleRange(mLayoutManager.findFirstVisibleItemPosition(),
+                        mLayoutManager.findLastVisibleItemPosition());
+            }
+        }
+    };
+
+    /**
+     * Momento, em System.nanoTime(), da tecla que produziu o texto buscado e do início da
+     * consulta desse texto; 0 depois que o resultado é mostrado, para que as atualizações
+     * seguintes do mesmo resultado não sejam medidas.
+     */
+    private long mKeystrokeNanos;
+    private long mSearchStartNanos;
+
+    /**
+     * Tempo da tecla até a lista atualizada, que inclui a espera de {@link #SEARCH_DEBOUNCE_MS},
+     * e tempo da consulta até a lista atualizada, que deve caber num quadro
+     */
+    private final LatencyHistogram mKeystrokeLatency = new LatencyHistogram();
+    private final LatencyHistogram mSearchLatency = new LatencyHistogram();
+
+    /**
+     * Carrega o resultado da busca. Reiniciar o carregador a cada texto novo cancela a consulta
+     * anterior: a partir da API 16 o CursorLoader passa um CancellationSignal ao provedor, que
+     * o repassa ao SQLite, então uma consulta ultrapassada para no meio em vez de terminar.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mSearchCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+                @Override
+                public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                    return new CursorLoader(CatalogActivity.this,
+                            PetEntry.buildSearchUri(args.getString(ARG_SEARCH_QUERY)),
+                            SEARCH_PROJECTION, null, null, SEARCH_SORT_ORDER);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+                    if (mSearchQuery == null) {
+                        return;
+                    }
+                    mAdapter.swapCursor(cursor);
+                    if (mSearchStartNanos != 0) {
+                        recordSearchLatency();
+                    }
+                }
+
+                @Override
+                public void onLoaderReset(Loader<Cursor> loader) {
+                    if (mSearchQuery != null) {
+                        mAdapter.swapCursor(null);
+                    }
+                }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        PetStartupTrace.begin(PetStartupTrace.PHASE_CATALOG_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT, mSort);
+            mGender = savedInstanceState.getInt(STATE_GENDER, mGender);
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH);
+        }
+
         // Configurar FAB para abrir o EditorActividade
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -48,22 +227,30 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Encontre o ListView que será preenchido com os dados do animal de estimação
-        ListView petListView = (ListView) findViewById(R.id.list);
+        // Os animais excluídos só são marcados; agende a purga deles com o aparelho ocioso
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PetPurgeJobService.schedule(this);
+        }
+
+        // Encontre o RecyclerView que será preenchido com os dados do animal de estimação
+        RecyclerView petListView = (RecyclerView) findViewById(R.id.list);
+        mLayoutManager = new LinearLayoutManager(this);
+        petListView.setLayoutManager(mLayoutManager);
+        petListView.setHasFixedSize(true);
 
-        // Encontre e defina a exibição vazia no ListView, de modo que ele só mostra quando a lista possui 0 itens.
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        // O RecyclerView não tem exibição vazia, então ela é mostrada sempre que a lista muda
+        // e fica com 0 itens.
+        mEmptyView = findViewById(R.id.empty_view);
 
-        // Configure um Adaptador para criar um item de lista para cada linha de dados do animal de estimação no Cursor.
-        // Ainda não há dados para animais de estimação (até o carregador terminar), então passe nulo para o cursor.
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
+        // O carregador é do processo: as miniaturas decodificadas sobrevivem à rotação
+        mThumbnails = PetThumbnailLoader.getInstance(this);
 
-        //Configure o ouvinte do clique do item
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Configure um Adaptador para criar um item de lista para cada linha de dados do animal de estimação.
+        // Ainda não há dados para animais de estimação (até a primeira página ser carregada).
+        // O clique num item abre o animal de estimação no editor.
+        mAdapter = new PetListAdapter(this, new PetListAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id, String name, String breed) {
                 // Crie uma nova intenção para acessar {@link EditorActivity}
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
 
@@ -77,13 +264,191 @@ public class CatalogActivity extends AppCompatActivity implements
                 // Defina o URI no campo de dados da intenção
                 intent.setData(currentPetUri);
 
+                // Passe o nome e a raça que a lista já tem, para o editor mostrá-los sem
+                // esperar pelo banco de dados, e o momento do clique, para medir a abertura.
+                intent.putExtra(EditorActivity.EXTRA_PET_NAME, name);
+                intent.putExtra(EditorActivity.EXTRA_PET_BREED, breed);
+                intent.putExtra(EditorActivity.EXTRA_CLICK_UPTIME, SystemClock.uptimeMillis());
+
                 // Inicie o {@link EditorActivity} para exibir os dados para o animal de estimação atual.
                 startActivity(intent);
             }
+        }, mThumbnails);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        petListView.setAdapter(mAdapter);
+        updateEmptyView();
+
+        // Mantenha carregadas só as páginas perto das linhas visíveis; a próxima página começa
+        // a ser carregada quando o usuário chega perto do fim da lista
+        petListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                mHandler.removeCallbacks(mVisibleRangeRunnable);
+                mHandler.post(mVisibleRangeRunnable);
+            }
         });
 
-        // Comece o carregador
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+        // Define uma projeção que especifica as colunas da tabela de que nos preocupamos.
+        String[] projection = {
+                PetEntry._ID,
+                PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO };
+
+        // Reconecte a busca que estava aberta; o carregador sobrevive à rotação
+        if (mSearchQuery != null) {
+            getLoaderManager().initLoader(SEARCH_LOADER, searchArgs(mSearchQuery),
+                    mSearchCallbacks);
+        }
+        PetStartupTrace.end(PetStartupTrace.PHASE_CATALOG_CREATE);
+
+        if (getResources().getBoolean(R.bool.catalog_snapshot)) {
+            // Leia todo o catálogo para a memória; a lista é montada a partir do snapshot, que
+            // já está pronto se a atividade foi recriada por uma rotação
+            mSnapshotLoader = PetSnapshotFragment.getLoader(this);
+            mSnapshotLoader.setListener(this);
+            return;
+        }
+
+        // Comece o carregador da primeira página
+        mPager = new PetPager(this, getLoaderManager(), PET_LOADER, projection, this);
+        mPager.setQuery(mSort, mGender, PetQuery.NO_WEIGHT, PetQuery.NO_WEIGHT);
+        mPager.start(savedInstanceState);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        outState.putInt(STATE_GENDER, mGender);
+        outState.putString(STATE_SEARCH, mSearchQuery);
+        if (mPager != null) {
+            mPager.saveState(outState);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        mHandler.removeCallbacks(mVisibleRangeRunnable);
+        if (mSnapshotLoader != null) {
+            mSnapshotLoader.setListener(null);
+        }
+        mThumbnails.cancelAll(this);
+        super.onDestroy();
+    }
+
+    /**
+     * Muda a ordem e o filtro da lista. As páginas são pedidas de novo ao provedor já filtradas
+     * e ordenadas pelo SQLite; no modo snapshot, o snapshot em memória é filtrado de novo.
+     */
+    private void setQuery(String sort, int gender) {
+        mSort = sort;
+        mGender = gender;
+        if (mPager != null) {
+            mPager.setQuery(sort, gender, PetQuery.NO_WEIGHT, PetQuery.NO_WEIGHT);
+        } else if (mSnapshotLoader != null && mSnapshotLoader.getSnapshot() != null) {
+            onSnapshotChanged(mSnapshotLoader.getSnapshot());
+        }
+    }
+
+    /**
+     * Chamado a cada tecla na caixa de busca. A consulta só começa quando o usuário para de
+     * digitar por {@link #SEARCH_DEBOUNCE_MS}; um texto vazio volta na hora para o catálogo.
+     */
+    private void onSearchTextChanged(String text) {
+        mHandler.removeCallbacks(mSearchRunnable);
+        String query = text.trim();
+        if (query.isEmpty()) {
+            endSearch();
+            return;
+        }
+        if (query.equals(mSearchQuery) && mKeystrokeNanos == 0) {
+            // Só mudaram os espaços: o resultado mostrado continua valendo
+            return;
+        }
+        mSearchQuery = query;
+        mKeystrokeNanos = System.nanoTime();
+        mHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MS);
+    }
+
+    /** Reinicia o carregador da busca com {@link #mSearchQuery}, cancelando a consulta anterior */
+    private void restartSearch() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (mSearchQuery == null) {
+            return;
+        }
+        mSearchStartNanos = System.nanoTime();
+        getLoaderManager().restartLoader(SEARCH_LOADER, searchArgs(mSearchQuery),
+                mSearchCallbacks);
+    }
+
+    /** Fecha a busca e mostra de novo o catálogo, sem precisar consultá-lo */
+    private void endSearch() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        if (mSearchQuery == null) {
+            return;
+        }
+        mSearchQuery = null;
+        mKeystrokeNanos = 0;
+        mSearchStartNanos = 0;
+        // Destruir o carregador também cancela a consulta que estiver em andamento
+        getLoaderManager().destroyLoader(SEARCH_LOADER);
+        if (mPager != null) {
+            mAdapter.showPages();
+        } else if (mSnapshotLoader != null && mSnapshotLoader.getSnapshot() != null) {
+            onSnapshotChanged(mSnapshotLoader.getSnapshot());
+        } else {
+            mAdapter.swapCursor(null);
+        }
+    }
+
+    private static Bundle searchArgs(String query) {
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_QUERY, query);
+        return args;
+    }
+
+    /**
+     * Mede o tempo até o resultado da busca chegar à lista e registra os percentis no log. O
+     * resultado restaurado depois de uma rotação não tem tecla e só conta como consulta.
+     */
+    private void recordSearchLatency() {
+        long now = System.nanoTime();
+        mSearchLatency.record(now - mSearchStartNanos);
+        if (mKeystrokeNanos != 0) {
+            mKeystrokeLatency.record(now - mKeystrokeNanos);
+        }
+        mSearchStartNanos = 0;
+        mKeystrokeNanos = 0;
+        Log.v("CatalogActivity", "Search shown; query to list p50="
+                + mSearchLatency.getPercentileNanos(50) / 1000 + " us p99="
+                + mSearchLatency.getPercentileNanos(99) / 1000 + " us, keystroke to list p99="
+                + mKeystrokeLatency.getPercentileNanos(99) / 1000 + " us over "
+                + mSearchLatency.getCount() + " searches");
+    }
+
+    /**
+     * Mostra a exibição vazia só quando a lista não tem nenhum item.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     /**
@@ -105,19 +470,72 @@ public class CatalogActivity extends AppCompatActivity implements
         Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
     }
 
-    /**
-     * Método auxiliar para excluir todos os animais de estimação no banco de dados.
-     */
-    private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
-    }
-
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflar as opções de menu do arquivo res / menu / menu_catalog.xml.
         // Isso adiciona itens de menu à barra de aplicativos.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        // Restaure a busca antes de ligar os ouvintes: expandir a caixa limpa o texto
+        if (mSearchQuery != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Enter busca na hora, sem esperar
+                onSearchTextChanged(query);
+                restartSearch();
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                onSearchTextChanged(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem,
+                new MenuItemCompat.OnActionExpandListener() {
+                    @Override
+                    public boolean onMenuItemActionExpand(MenuItem item) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onMenuItemActionCollapse(MenuItem item) {
+                        endSearch();
+                        return true;
+                    }
+                });
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        // Marque a ordem e o filtro em uso
+        int sortItem = R.id.sort_name;
+        if (PetQuery.SORT_WEIGHT.equals(mSort)) {
+            sortItem = R.id.sort_weight;
+        } else if (PetQuery.SORT_ID.equals(mSort)) {
+            sortItem = R.id.sort_added;
+        }
+        menu.findItem(sortItem).setChecked(true);
+
+        int genderItem = R.id.filter_all_genders;
+        if (mGender == PetEntry.GENDER_MALE) {
+            genderItem = R.id.filter_male;
+        } else if (mGender == PetEntry.GENDER_FEMALE) {
+            genderItem = R.id.filter_female;
+        } else if (mGender == PetEntry.GENDER_UNKNOWN) {
+            genderItem = R.id.filter_unknown;
+        }
+        menu.findItem(genderItem).setChecked(true);
         return true;
     }
 
@@ -125,44 +543,361 @@ public class CatalogActivity extends AppCompatActivity implements
     public boolean onOptionsItemSelected(MenuItem item) {
         // O usuário clicou em uma opção de menu no menu de transbordamento da barra de aplicativos
         switch (item.getItemId()) {
+            // Responda a um clique numa ordem ou num filtro da lista
+            case R.id.sort_name:
+                setQuery(PetQuery.SORT_NAME, mGender);
+                return true;
+            case R.id.sort_weight:
+                setQuery(PetQuery.SORT_WEIGHT, mGender);
+                return true;
+            case R.id.sort_added:
+                setQuery(PetQuery.SORT_ID, mGender);
+                return true;
+            case R.id.filter_all_genders:
+                setQuery(mSort, PetQuery.ANY_GENDER);
+                return true;
+            case R.id.filter_male:
+                setQuery(mSort, PetEntry.GENDER_MALE);
+                return true;
+            case R.id.filter_female:
+                setQuery(mSort, PetEntry.GENDER_FEMALE);
+                return true;
+            case R.id.filter_unknown:
+                setQuery(mSort, PetEntry.GENDER_UNKNOWN);
+                return true;
             // Responda a um clique na opção de menu "Inserir dados falsos"
             case R.id.action_insert_dummy_data:
                 insertPet();
                 return true;
+            // Responda a um clique numa quantidade de animais gerados
+            case R.id.generate_10k:
+                generate(10000L);
+                return true;
+            case R.id.generate_100k:
+                generate(100000L);
+                return true;
+            case R.id.generate_1m:
+                generate(1000000L);
+                return true;
+            // Responda a um clique na opção de menu "Teste de carga"
+            case R.id.action_load_test:
+                ProgressTaskFragment.start(this, getString(R.string.load_test_progress, 0, 0),
+                        new LoadTestJob(this));
+                return true;
             // Responda a um clique na opção de menu "Excluir todas as entradas"
             case R.id.action_delete_all_entries:
-                deleteAllPets();
+                ProgressTaskFragment.start(this, getString(R.string.delete_all_progress, 0),
+                        new DeleteAllJob(this));
+                return true;
+            // Responda a um clique na opção de menu "Importar animais"
+            case R.id.action_import:
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(Intent.createChooser(intent,
+                        getString(R.string.import_chooser_title)), REQUEST_IMPORT);
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    /** Gera e grava rows animais, mostrando o andamento */
+    private void generate(long rows) {
+        ProgressTaskFragment.start(this, getString(R.string.generate_progress, 0, rows),
+                new GenerateJob(this, rows));
+    }
+
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define uma projeção que especifica as colunas da tabela de que nos preocupamos.
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED };
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            ProgressTaskFragment.start(this, getString(R.string.import_progress, 0),
+                    new ImportJob(this, data.getData()));
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Exclui todos os animais de estimação em partes. As partes já excluídas continuam
+     * excluídas após o cancelamento.
+     */
+    private static class DeleteAllJob extends ProgressTaskFragment.Job
+            implements PetBulkDeleter.Listener {
+
+        private final PetBulkDeleter mDeleter;
+        private Context mContext;
+        private ProgressTaskFragment.Progress mProgress;
+
+        DeleteAllJob(Context context) {
+            mDeleter = new PetBulkDeleter(context.getApplicationContext().getContentResolver(),
+                    this);
+        }
+
+        @Override
+        protected String run(Context context, ProgressTaskFragment.Progress progress) {
+            mContext = context;
+            mProgress = progress;
+            long startMillis = System.currentTimeMillis();
+            try {
+                mDeleter.deleteAll();
+            } catch (RuntimeException e) {
+                Log.e("CatalogActivity", "Error deleting pets", e);
+                return context.getString(R.string.delete_all_failed);
+            }
+            Log.v("CatalogActivity", mDeleter.getPetsDeleted()
+                    + " rows deleted from pet database in "
+                    + (System.currentTimeMillis() - startMillis) + " ms");
+            return context.getString(R.string.delete_all_finished, mDeleter.getPetsDeleted());
+        }
+
+        @Override
+        protected void cancel() {
+            mDeleter.cancel();
+        }
+
+        @Override
+        public void onProgress(long petsDeleted, long petsTotal) {
+            mProgress.publish(petsTotal >= petsDeleted
+                    ? mContext.getString(R.string.delete_all_progress_of, petsDeleted, petsTotal)
+                    : mContext.getString(R.string.delete_all_progress, petsDeleted));
+        }
+    }
+
+    /**
+     * Carrega animais gerados pelo {@link PetLoadDriver}. Os animais já gravados continuam
+     * gravados após o cancelamento.
+     */
+    private static class GenerateJob extends ProgressTaskFragment.Job
+            implements PetLoadDriver.Listener {
+
+        private final PetLoadDriver mDriver;
+        private final long mRows;
+        private Context mContext;
+        private ProgressTaskFragment.Progress mProgress;
+
+        GenerateJob(Context context, long rows) {
+            mDriver = new PetLoadDriver(context.getApplicationContext().getContentResolver(),
+                    LOAD_SEED, this);
+            mRows = rows;
+        }
+
+        @Override
+        protected String run(Context context, ProgressTaskFragment.Progress progress) {
+            mContext = context;
+            mProgress = progress;
+            long startMillis = System.currentTimeMillis();
+            long loaded;
+            try {
+                loaded = mDriver.load(mRows);
+            } catch (RuntimeException e) {
+                Log.e("CatalogActivity", "Error loading generated pets", e);
+                return context.getString(R.string.generate_failed);
+            }
+            long elapsedMillis = System.currentTimeMillis() - startMillis;
+            Log.i("CatalogActivity", "Loaded " + loaded + " generated pets in " + elapsedMillis
+                    + " ms (" + (elapsedMillis == 0 ? 0 : loaded * 1000 / elapsedMillis)
+                    + " rows/s)");
+            return context.getString(R.string.generate_finished, loaded, elapsedMillis);
+        }
+
+        @Override
+        protected void cancel() {
+            mDriver.cancel();
+        }
 
-        // Este carregador executará o método de consulta do ContentProvider em uma linha de fundo
-        return new CursorLoader(this,   // Parent activity context
-                PetEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        @Override
+        public void onProgress(long done, long total) {
+            mProgress.publish(mContext.getString(R.string.generate_progress, done, total));
+        }
+    }
+
+    /**
+     * Executa a carga mista do {@link PetLoadDriver}. O relatório completo, com os percentis de
+     * cada operação, vai para o log; o aviso mostra a vazão alcançada e o p99.
+     */
+    private static class LoadTestJob extends ProgressTaskFragment.Job
+            implements PetLoadDriver.Listener {
+
+        private final PetLoadDriver mDriver;
+        private Context mContext;
+        private ProgressTaskFragment.Progress mProgress;
+
+        LoadTestJob(Context context) {
+            mDriver = new PetLoadDriver(context.getApplicationContext().getContentResolver(),
+                    LOAD_SEED, this);
+        }
+
+        @Override
+        protected String run(Context context, ProgressTaskFragment.Progress progress) {
+            mContext = context;
+            mProgress = progress;
+            PetLoadDriver.Report report;
+            try {
+                report = mDriver.drive(LOAD_TEST_OPS_PER_SECOND, LOAD_TEST_DURATION_MS);
+            } catch (RuntimeException e) {
+                Log.e("CatalogActivity", "Error running the load test", e);
+                return context.getString(R.string.load_test_failed);
+            }
+            Log.i("CatalogActivity", "Load test: " + report);
+            return context.getString(R.string.load_test_finished,
+                    report.getAchievedOpsPerSecond(), report.getTargetOpsPerSecond(),
+                    report.getPercentileMillis(99));
+        }
+
+        @Override
+        protected void cancel() {
+            mDriver.cancel();
+        }
+
+        @Override
+        public void onProgress(long done, long total) {
+            mProgress.publish(mContext.getString(R.string.load_test_progress, done, total));
+        }
+    }
+
+    /**
+     * Importa os animais de um arquivo CSV ou JSON. Os animais já gravados continuam gravados
+     * após o cancelamento.
+     */
+    private static class ImportJob extends ProgressTaskFragment.Job
+            implements PetImporter.Listener {
+
+        /** Quantas rejeições são registradas no log; as demais só são contadas */
+        private static final int MAX_LOGGED_REJECTS = 20;
+
+        private final PetImporter mImporter;
+        private final Uri mUri;
+        private Context mContext;
+        private ProgressTaskFragment.Progress mProgress;
+
+        ImportJob(Context context, Uri uri) {
+            mImporter = new PetImporter(context.getApplicationContext().getContentResolver(),
+                    this);
+            mUri = uri;
+        }
+
+        @Override
+        protected String run(Context context, ProgressTaskFragment.Progress progress) {
+            mContext = context;
+            mProgress = progress;
+            ContentResolver resolver = context.getContentResolver();
+            String type = resolver.getType(mUri);
+            String path = mUri.getLastPathSegment();
+            String format = (type != null && type.contains("json"))
+                    || (path != null && path.endsWith(".json"))
+                    ? PetImporter.FORMAT_JSON : PetImporter.FORMAT_CSV;
+
+            long startMillis = System.currentTimeMillis();
+            try {
+                InputStream in = resolver.openInputStream(mUri);
+                if (in == null) {
+                    return context.getString(R.string.import_failed);
+                }
+                try {
+                    mImporter.importPets(new BufferedReader(new InputStreamReader(in, "UTF-8")),
+                            format);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                Log.e("CatalogActivity", "Error importing " + mUri, e);
+                return context.getString(R.string.import_failed);
+            }
+            Log.i("CatalogActivity", "Imported " + mImporter.getPetsImported() + " of "
+                    + mImporter.getRecordsRead() + " records in "
+                    + (System.currentTimeMillis() - startMillis) + " ms");
+            return context.getString(R.string.import_finished, mImporter.getPetsImported(),
+                    mImporter.getRecordsRejected());
+        }
+
+        @Override
+        protected void cancel() {
+            mImporter.cancel();
+        }
+
+        @Override
+        public void onProgress(long recordsRead, long petsImported) {
+            mProgress.publish(mContext.getString(R.string.import_progress, petsImported));
+        }
+
+        @Override
+        public void onReject(long record, String reason) {
+            if (mImporter.getRecordsRejected() <= MAX_LOGGED_REJECTS) {
+                Log.w("CatalogActivity", "Record " + record + " rejected: " + reason);
+            }
+        }
+    }
+
+    @Override
+    public void onPagesReset() {
+        mAdapter.resetPages();
+    }
+
+    @Override
+    public void onPageLoaded(int page, Cursor cursor, int rowCount) {
+        // O {@link PetListAdapter} copia a página e só atualiza as linhas dela. Durante a
+        // busca a lista mostra o resultado dela, e as páginas só são guardadas para quando ela
+        // terminar.
+        mAdapter.setPage(page, cursor, rowCount);
+        if (page == 0) {
+            traceFirstPage();
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Atualize {@link PetCursorAdapter} com este novo cursor contendo dados de estimação atualizados
-        mCursorAdapter.swapCursor(data);
+    public void onPageDropped(int page) {
+        mAdapter.dropPage(page);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback chamado quando os dados precisam ser excluídos
-        mCursorAdapter.swapCursor(null);
+    public void onSnapshotChanged(PetSnapshot snapshot) {
+        // Os animais do gênero escolhido, na ordem escolhida, como as páginas do PetPager. O
+        // vetor de posições é reaproveitado e só cresce com a tabela.
+        long startNanos = System.nanoTime();
+        if (mSnapshotRows.length < snapshot.size()) {
+            mSnapshotRows = new int[snapshot.size() + snapshot.size() / 4];
+        }
+        int count = snapshot.select(mGender == PetQuery.ANY_GENDER ? PetSnapshot.ANY_GENDER
+                : mGender, 0, Integer.MAX_VALUE, mSnapshotRows);
+        int order = PetSnapshot.ORDER_NAME;
+        if (PetQuery.SORT_WEIGHT.equals(mSort)) {
+            order = PetSnapshot.ORDER_WEIGHT;
+        } else if (PetQuery.SORT_ID.equals(mSort)) {
+            order = PetSnapshot.ORDER_ID;
+        }
+        snapshot.sort(mSnapshotRows, count, order);
+        Log.v("CatalogActivity", "Sorted " + count + " pets from the snapshot in "
+                + (System.nanoTime() - startNanos) / 1000 + " us");
+        // Durante a busca a lista mostra o resultado dela; o snapshot volta quando ela termina
+        if (mSearchQuery == null) {
+            mAdapter.swapSnapshot(snapshot, mSnapshotRows, count);
+        }
+        traceFirstPage();
+    }
+
+    /**
+     * Marca a primeira página (ou o primeiro snapshot) carregada e, no quadro seguinte, a
+     * primeira linha desenhada, que encerra a medição da abertura do aplicativo; veja
+     * {@link PetStartupTrace}. A partir da API 19 o sistema também é avisado, com
+     * reportFullyDrawn, e registra o tempo no log dele.
+     */
+    private void traceFirstPage() {
+        if (PetStartupTrace.isDone(PetStartupTrace.PHASE_FIRST_PAGE)) {
+            return;
+        }
+        PetStartupTrace.end(PetStartupTrace.PHASE_FIRST_PAGE);
+        final View list = findViewById(R.id.list);
+        list.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                list.getViewTreeObserver().removeOnPreDrawListener(this);
+                PetStartupTrace.finish(getResources().getInteger(R.integer.startup_target_ms));
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reportFullyDrawn();
+                }
+                return true;
+            }
+        });
     }
 }
\ No newline at end of file
@@ -3,21 +3,29 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
@@ -25,6 +33,12 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Permite ao usuário criar um novo animal de estimação ou editar um existente.
@@ -32,9 +46,33 @@ import com.example.android.pets.data.PetContract.PetEntry;
 public class EditorActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
+    private static final String LOG_TAG = EditorActivity.class.getSimpleName();
+
+    /**
+     * Extras opcionais da intenção que abre um animal existente: o nome e a raça que quem abre
+     * já tem, mostrados antes de o carregador ler o animal, e o SystemClock.uptimeMillis() do
+     * clique que abriu o editor, para medir o tempo até o formulário ficar editável.
+     */
+    public static final String EXTRA_PET_NAME = "com.example.android.pets.extra.PET_NAME";
+    public static final String EXTRA_PET_BREED = "com.example.android.pets.extra.PET_BREED";
+    public static final String EXTRA_CLICK_UPTIME = "com.example.android.pets.extra.CLICK_UPTIME";
+
     /** Identificador para o carregador de dados para animais de estimação */
     private static final int EXISTING_PET_LOADER = 0;
 
+    /** Código da solicitação da imagem escolhida para a foto */
+    private static final int REQUEST_PHOTO = 1;
+
+    /**
+     * Lado maior, em pixels, da foto gravada. Uma foto da câmera é reduzida antes de ir para o
+     * provedor: as miniaturas do catálogo não precisam de mais que isso, e decodificá-las fica
+     * mais barato.
+     */
+    private static final int MAX_PHOTO_SIDE = 1280;
+
+    /** Qualidade JPEG da foto gravada */
+    private static final int PHOTO_JPEG_QUALITY = 90;
+
     /** URI de conteúdo para o animal de estimação existente (nulo se é um novo animal de estimação) */
     private Uri mCurrentPetUri;
 
@@ -57,6 +95,22 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private int mGender = PetEntry.GENDER_UNKNOWN;
 
+    /**
+     * Últimos valores que o editor (e não o usuário) pôs em cada campo. Um campo só recebe os
+     * valores lidos do banco se ainda estiver com eles, então o que o usuário digitou antes de o
+     * carregador terminar não é perdido.
+     */
+    private String mShownName = "";
+    private String mShownBreed = "";
+    private String mShownWeight = "";
+    private int mShownGenderPosition = 0;
+
+    /** Se o carregador já leu o animal existente; antes disso o peso e o gênero não são conhecidos */
+    private boolean mPetLoaded;
+
+    /** Momento do clique que abriu o editor, ou 0 se não foi informado */
+    private long mClickUptime;
+
     /** Flag booleana que acompanha se o animal de estimação foi editado (verdadeiro) ou não (falso) */
     private boolean mPetHasChanged = false;
 
@@ -115,6 +169,55 @@ public class EditorActivity extends AppCompatActivity implements
         mGenderSpinner.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        if (mCurrentPetUri != null) {
+            seedFromIntent(intent);
+        }
+    }
+
+    /**
+     * Mostra o nome e a raça que vieram na intenção, sem esperar pelo carregador, e mede o tempo
+     * do clique até o primeiro desenho do formulário.
+     */
+    private void seedFromIntent(Intent intent) {
+        final boolean seeded = intent.hasExtra(EXTRA_PET_NAME);
+        if (seeded) {
+            mShownName = applyField(mNameEditText, mShownName,
+                    intent.getStringExtra(EXTRA_PET_NAME));
+            mShownBreed = applyField(mBreedEditText, mShownBreed,
+                    intent.getStringExtra(EXTRA_PET_BREED));
+        }
+
+        mClickUptime = intent.getLongExtra(EXTRA_CLICK_UPTIME, 0);
+        if (mClickUptime == 0) {
+            return;
+        }
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        content.getViewTreeObserver().removeOnPreDrawListener(this);
+                        Log.i(LOG_TAG, "Editable " + (SystemClock.uptimeMillis() - mClickUptime)
+                                + " ms after click" + (seeded ? " (seeded)" : ""));
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Põe value no campo se o usuário não mudou o campo desde que o editor pôs shown nele.
+     * Retorna o valor que o editor deixou no campo: value, ou shown se o campo foi mantido.
+     */
+    private static String applyField(EditText field, String shown, String value) {
+        if (value == null) {
+            value = "";
+        }
+        if (!field.getText().toString().equals(shown)) {
+            return shown;
+        }
+        field.setText(value);
+        return value;
     }
 
     /**
@@ -181,48 +284,36 @@ public class EditorActivity extends AppCompatActivity implements
         ContentValues values = new ContentValues();
         values.put(PetEntry.COLUMN_PET_NAME, nameString);
         values.put(PetEntry.COLUMN_PET_BREED, breedString);
-        values.put(PetEntry.COLUMN_PET_GENDER, mGender);
-        // If the weight is not provided by the user, don't try to parse the string into an
-        // integer value. Use 0 by default.
-        int weight = 0;
-        if (!TextUtils.isEmpty(weightString)) {
-            weight = Integer.parseInt(weightString);
+        // Se o animal existente ainda não foi lido, o peso e o gênero na tela não vieram do banco:
+        // eles só são gravados se o usuário os mudou.
+        boolean unknownValues = mCurrentPetUri != null && !mPetLoaded;
+        if (!unknownValues
+                || mGenderSpinner.getSelectedItemPosition() != mShownGenderPosition) {
+            values.put(PetEntry.COLUMN_PET_GENDER, mGender);
+        }
+        if (!unknownValues || !weightString.equals(mShownWeight)) {
+            // If the weight is not provided by the user, don't try to parse the string into an
+            // integer value. Use 0 by default.
+            int weight = 0;
+            if (!TextUtils.isEmpty(weightString)) {
+                weight = Integer.parseInt(weightString);
+            }
+            values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
         }
-        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
 
+        // A escrita vai para a fila e é gravada em segundo plano; o editor fecha em seguida e o
+        // resultado é mostrado num brinde quando a escrita terminar.
+        PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
         // Determine if this is a new or existing pet by checking if mCurrentPetUri is null or not
         if (mCurrentPetUri == null) {
-            // Este é um animal de estimação NOVO, então insira um novo animal de estimação no provedor,
-            // retornando o conteúdo URI para o novo animal de estimaçãot.
-            Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-
-            // Mostra uma mensagem de brinde dependendo se a inserção foi ou não bem sucedida.
-            if (newUri == null) {
-                // Se o novo conteúdo URI é nulo, houve um erro na inserção.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Caso contrário, a inserção foi bem sucedida e podemos exibir um brinde.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Este é um animal de estimação NOVO, então insira um novo animal de estimação no provedor.
+            writeQueue.insert(values, new ToastCallback(this,
+                    R.string.editor_insert_pet_successful, R.string.editor_insert_pet_failed));
         } else {
-            // Caso contrário, este é um animal de estimação EXISTENTE, então atualize o animal de estimação com conteúdo URI: mCurrentPetUri
-            // e passar no novo ContentValues. Passe em nulo para seleção e seleção
-            // porque mCurrentPetUri já identificará a linha correta no banco de dados que
-            // queremos modificar.
-            int rowsAffected = getContentResolver().update(mCurrentPetUri, values, null, null);
-
-            // Mostra uma mensagem de brinde dependendo se a atualização foi ou não bem-sucedida.
-            if (rowsAffected == 0) {
-                // Se nenhuma linha foi afetada, houve um erro com a atualização.
-                Toast.makeText(this, getString(R.string.editor_update_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Caso contrário, a atualização foi bem-sucedida e podemos exibir um brinde.
-                Toast.makeText(this, getString(R.string.editor_update_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Caso contrário, este é um animal de estimação EXISTENTE, então atualize o animal de
+            // estimação do _id de mCurrentPetUri com o novo ContentValues.
+            writeQueue.update(ContentUris.parseId(mCurrentPetUri), values, new ToastCallback(this,
+                    R.string.editor_update_pet_successful, R.string.editor_update_pet_failed));
         }
     }
 
@@ -241,10 +332,12 @@ public class EditorActivity extends AppCompatActivity implements
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
-        // Se este é um novo animal de estimação, esconda o item de menu "Excluir".
+        // Se este é um novo animal de estimação, esconda o item de menu "Excluir". A foto
+        // também só pode ser escolhida depois que o animal foi salvo e tem um _id.
         if (mCurrentPetUri == null) {
             MenuItem menuItem = menu.findItem(R.id.action_delete);
             menuItem.setVisible(false);
+            menu.findItem(R.id.action_change_photo).setVisible(false);
         }
         return true;
     }
@@ -260,6 +353,14 @@ public class EditorActivity extends AppCompatActivity implements
                 // atividade de saída
                 finish();
                 return true;
+            // Responda a um clique na opção de menu "Trocar foto"
+            case R.id.action_change_photo:
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(Intent.createChooser(intent,
+                        getString(R.string.photo_chooser_title)), REQUEST_PHOTO);
+                return true;
             // Responda a um clique na opção de menu "Excluir"
             case R.id.action_delete:
                 // diálogo de confirmação de pop-up para exclusão
@@ -361,25 +462,38 @@ public class EditorActivity extends AppCompatActivity implements
             int gender = cursor.getInt(genderColumnIndex);
             int weight = cursor.getInt(weightColumnIndex);
 
-            // Atualize as visualizações na tela com os valores do banco de dados
-            mNameEditText.setText(name);
-            mBreedEditText.setText(breed);
-            mWeightEditText.setText(Integer.toString(weight));
+            // Atualize as visualizações na tela com os valores do banco de dados, exceto as que
+            // o usuário já mudou
+            mShownName = applyField(mNameEditText, mShownName, name);
+            mShownBreed = applyField(mBreedEditText, mShownBreed, breed);
+            mShownWeight = applyField(mWeightEditText, mShownWeight, Integer.toString(weight));
 
             // O gênero é um spinner suspenso, portanto, mapeie o valor constante do banco de dados
             // em uma das opções suspensas (0 é Desconhecido, 1 é Masculino, 2 é Feminino).
             // Então chame setSelection () para que a opção seja exibida na tela como a seleção atual.
+            int genderPosition;
             switch (gender) {
                 case PetEntry.GENDER_MALE:
-                    mGenderSpinner.setSelection(1);
+                    genderPosition = 1;
                     break;
                 case PetEntry.GENDER_FEMALE:
-                    mGenderSpinner.setSelection(2);
+                    genderPosition = 2;
                     break;
                 default:
-                    mGenderSpinner.setSelection(0);
+                    genderPosition = 0;
                     break;
             }
+            if (mGenderSpinner.getSelectedItemPosition() == mShownGenderPosition) {
+                mGenderSpinner.setSelection(genderPosition);
+                mShownGenderPosition = genderPosition;
+            }
+
+            mPetLoaded = true;
+            if (mClickUptime != 0) {
+                Log.i(LOG_TAG, "Loaded " + (SystemClock.uptimeMillis() - mClickUptime)
+                        + " ms after click");
+                mClickUptime = 0;
+            }
         }
     }
 
@@ -450,30 +564,131 @@ public class EditorActivity extends AppCompatActivity implements
         alertDialog.show();
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PHOTO && resultCode == RESULT_OK && data != null
+                && data.getData() != null && mCurrentPetUri != null) {
+            new PhotoTask(this, ContentUris.parseId(mCurrentPetUri)).execute(data.getData());
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
     /**
      * Execute a exclusão do animal de estimação no banco de dados.
      */
     private void deletePet() {
         //Execute somente a exclusão se este for um animal de estimação existente
         if (mCurrentPetUri != null) {
-            // Chame o ContentResolver para excluir o animal de estimação no URI do conteúdo fornecido.
-            // Passar nulo para seleção e seleção porque o mCurrentPetUri
-            // URI de conteúdo já identifica o animal de estimação que queremos.
-            int rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-
-            // Mostre uma mensagem de brinde dependendo se a exclusão foi ou não bem-sucedida.
-            if (rowsDeleted == 0) {
-                //Se nenhuma linha foi excluída, houve um erro com a exclusão.
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Caso contrário, a exclusão foi bem sucedida e podemos exibir um brinde.
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Ponha a exclusão na fila; o brinde é mostrado quando ela terminar.
+            PetWriteQueue.getInstance(this).delete(ContentUris.parseId(mCurrentPetUri),
+                    new ToastCallback(this,
+                            R.string.editor_delete_pet_successful, R.string.editor_delete_pet_failed));
         }
 
         // Feche a atividade
         finish();
     }
-}
\ No newline at end of file
+
+    /**
+     * Reduz a imagem escolhida a no máximo {@link #MAX_PHOTO_SIDE} pixels e a grava como foto
+     * do animal pelo URI da foto. Guarda só o contexto do aplicativo, como o
+     * {@link ToastCallback}, já que o editor pode fechar antes de a foto ser gravada.
+     */
+    private static class PhotoTask extends AsyncTask<Uri, Void, Boolean> {
+        private final Context mContext;
+        private final long mPetId;
+
+        PhotoTask(Context context, long petId) {
+            mContext = context.getApplicationContext();
+            mPetId = petId;
+        }
+
+        @Override
+        protected Boolean doInBackground(Uri... uris) {
+            try {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                decode(uris[0], options);
+                int side = Math.max(options.outWidth, options.outHeight);
+                if (side <= 0) {
+                    return false;
+                }
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = 1;
+                while (side / options.inSampleSize > MAX_PHOTO_SIDE) {
+                    options.inSampleSize *= 2;
+                }
+                Bitmap photo = decode(uris[0], options);
+                if (photo == null) {
+                    return false;
+                }
+
+                // O provedor aceita a foto quando o arquivo é fechado, mesmo que a compressão
+                // tenha falhado no meio, então só a foto inteira é enviada
+                ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+                boolean compressed = photo.compress(Bitmap.CompressFormat.JPEG,
+                        PHOTO_JPEG_QUALITY, jpeg);
+                photo.recycle();
+                if (!compressed) {
+                    return false;
+                }
+
+                OutputStream out = mContext.getContentResolver().openOutputStream(
+                        PetEntry.buildPhotoUri(mPetId), "w");
+                if (out == null) {
+                    return false;
+                }
+                try {
+                    jpeg.writeTo(out);
+                } finally {
+                    out.close();
+                }
+                return true;
+            } catch (IOException | SecurityException e) {
+                Log.e(LOG_TAG, "Error saving photo of pet " + mPetId, e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean success) {
+            Toast.makeText(mContext, success ? R.string.editor_photo_successful
+                    : R.string.editor_photo_failed, Toast.LENGTH_SHORT).show();
+        }
+
+        private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+            InputStream in = mContext.getContentResolver().openInputStream(uri);
+            if (in == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            try {
+                return BitmapFactory.decodeStream(in, null, options);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Mostra o resultado de uma escrita da fila num brinde. Guarda só o contexto do aplicativo,
+     * já que o editor normalmente já fechou quando a escrita termina.
+     */
+    private static class ToastCallback implements PetWriteQueue.Callback {
+        private final Context mContext;
+        private final int mSuccessMessage;
+        private final int mFailureMessage;
+
+        ToastCallback(Context context, int successMessage, int failureMessage) {
+            mContext = context.getApplicationContext();
+            mSuccessMessage = successMessage;
+            mFailureMessage = failureMessage;
+        }
+
+        @Override
+        public void onWriteFinished(boolean success) {
+            Toast.makeText(mContext, success ? mSuccessMessage : mFailureMessage,
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+}
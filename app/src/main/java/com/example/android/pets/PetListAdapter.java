@@ -0,0 +1,504 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetSnapshot;
+
+/**
+ * {@link PetListAdapter} is a {@link RecyclerView} adapter that shows the name, breed and photo
+ * thumbnail of each pet in a {@link Cursor} of pet data.
+ *
+ * The cursor is copied into plain arrays when it is swapped in, so binding a row only reads
+ * from those arrays: no view lookups, no column lookups and no new strings while scrolling.
+ * The difference between the old and the new rows is computed with {@link DiffUtil} on a
+ * background thread, and only the rows that changed are redrawn.
+ *
+ * The catalog is shown page by page, as a {@link PetPager} loads it: {@link #setPage} copies
+ * one page and diffs it against the previous copy of that page, and {@link #dropPage} forgets
+ * the copy of a page that left the pager's window. The rows of a page that is not loaded are
+ * blank placeholders until it is loaded again, so only the pages near the screen are in memory.
+ *
+ * The adapter can also show rows of a {@link PetSnapshot}, through {@link #swapSnapshot}. Then
+ * nothing is copied at all: binding a row reads the snapshot columns directly.
+ *
+ * Thumbnails are loaded by a {@link PetThumbnailLoader}, so binding a row never decodes an
+ * image; the request of a row is cancelled when its view is recycled.
+ */
+public class PetListAdapter extends RecyclerView.Adapter<PetListAdapter.PetViewHolder> {
+
+    /** Listener for clicks on a pet in the list */
+    public interface OnPetClickListener {
+        /**
+         * @param id    the _id of the pet that was clicked
+         * @param name  the name of the pet, as shown in the list
+         * @param breed the breed of the pet, or null or empty when it has none
+         */
+        void onPetClick(long id, String name, String breed);
+    }
+
+    /** Text shown when the pet breed is empty, so the summary TextView isn't blank */
+    private final String mUnknownBreed;
+
+    private final OnPetClickListener mListener;
+
+    private final PetThumbnailLoader mThumbnails;
+
+    /** Rows currently shown in the list, when they come from a cursor */
+    private Rows mRows = Rows.EMPTY;
+
+    /**
+     * Copies of the loaded catalog pages, by page number, and the number of rows of the
+     * catalog, loaded or not. They are kept up to date while the list shows something else.
+     */
+    private final SparseArray<Rows> mPages = new SparseArray<>();
+    private int mPagedCount;
+
+    /** True when the list shows the catalog pages */
+    private boolean mShowingPages = true;
+
+    /**
+     * Snapshot currently shown in the list, or null when the rows come from a cursor, and the
+     * positions of the snapshot shown, in list order
+     */
+    private PetSnapshot mSnapshot;
+    private int[] mSnapshotRows;
+    private int mSnapshotCount;
+
+    /** Incremented on every swap, so that a diff for a cursor that was replaced is dropped */
+    private int mGeneration;
+
+    /**
+     * Constructs a new {@link PetListAdapter}.
+     *
+     * @param context    The context
+     * @param listener   Called when the user clicks on a pet
+     * @param thumbnails Loads the photo thumbnails of the rows
+     */
+    public PetListAdapter(Context context, OnPetClickListener listener,
+                          PetThumbnailLoader thumbnails) {
+        mUnknownBreed = context.getString(R.string.unknown_breed);
+        mListener = listener;
+        mThumbnails = thumbnails;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replaces the rows of the list with the rows of the given cursor. The cursor is read right
+     * away, so the caller may keep using it; the list itself is updated once the diff is ready.
+     *
+     * @param cursor The cursor from which to get the data, or null to clear the list
+     */
+    public void swapCursor(Cursor cursor) {
+        final int generation = ++mGeneration;
+        final Rows oldRows = mSnapshot != null || mShowingPages ? Rows.EMPTY : mRows;
+        final Rows newRows = Rows.from(cursor);
+        mSnapshot = null;
+        mSnapshotRows = null;
+        mShowingPages = false;
+
+        if (oldRows.count == 0 || newRows.count == 0) {
+            // Nothing to compare: just show the new rows
+            mRows = newRows;
+            notifyDataSetChanged();
+            return;
+        }
+
+        new AsyncTask<Void, Void, DiffUtil.DiffResult>() {
+            @Override
+            protected DiffUtil.DiffResult doInBackground(Void... params) {
+                return DiffUtil.calculateDiff(new RowsDiff(oldRows, newRows));
+            }
+
+            @Override
+            protected void onPostExecute(DiffUtil.DiffResult result) {
+                if (generation != mGeneration) {
+                    // Another cursor was swapped in while this diff was running
+                    return;
+                }
+                mRows = newRows;
+                result.dispatchUpdatesTo(PetListAdapter.this);
+            }
+            // Not the default serial executor, where the diff would wait behind every other
+            // AsyncTask of the app; a diff made stale by a newer swap is dropped anyway
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Shows the given positions of a snapshot, in order. The snapshot and the positions are
+     * read, not copied, so they must not change until the next swap; call this again after
+     * every change. Since the positions of a snapshot change with every change, there is no
+     * diff: the rows that stay in the list keep their views through their stable ids.
+     *
+     * @param snapshot The snapshot, or null to clear the list
+     * @param rows     The positions of the snapshot to show
+     * @param count    How many positions of rows to show
+     */
+    public void swapSnapshot(PetSnapshot snapshot, int[] rows, int count) {
+        ++mGeneration;
+        mRows = Rows.EMPTY;
+        mShowingPages = false;
+        mSnapshot = snapshot;
+        mSnapshotRows = rows;
+        mSnapshotCount = snapshot != null ? count : 0;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Shows the catalog pages again, after the list showed a search result. Nothing is
+     * queried: the pages that are still loaded are shown right away, and the others as
+     * placeholders until the pager loads them again.
+     */
+    public void showPages() {
+        ++mGeneration;
+        mRows = Rows.EMPTY;
+        mSnapshot = null;
+        mSnapshotRows = null;
+        mShowingPages = true;
+        notifyDataSetChanged();
+    }
+
+    /** Forgets all the catalog pages, before the first page of a new query */
+    public void resetPages() {
+        mPages.clear();
+        mPagedCount = 0;
+        if (mShowingPages) {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Copies a catalog page that was loaded, or loaded again, and updates the rows of that page
+     * and the number of rows of the list. Only this page is diffed, so the work done here does
+     * not grow with the size of the list.
+     *
+     * @param page     The page number; its first row is at page * {@link PetPager#PAGE_SIZE}
+     * @param cursor   The rows of the page, which are read right away
+     * @param rowCount The number of rows of the list, loaded or not
+     */
+    public void setPage(int page, Cursor cursor, int rowCount) {
+        Rows newRows = Rows.from(cursor);
+        Rows oldRows = mPages.get(page);
+        mPages.put(page, newRows);
+        int oldCount = mPagedCount;
+        mPagedCount = rowCount;
+
+        // A short page ends the list: copies of the pages after it are no longer rows
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (mPages.keyAt(i) * PetPager.PAGE_SIZE >= rowCount) {
+                mPages.removeAt(i);
+            }
+        }
+        if (!mShowingPages) {
+            return;
+        }
+
+        int start = page * PetPager.PAGE_SIZE;
+        if (start > oldCount) {
+            // The list skipped ahead of what it shows; there is nothing to compare
+            notifyDataSetChanged();
+            return;
+        }
+        int oldPageCount = Math.min(PetPager.PAGE_SIZE, oldCount - start);
+        if (oldRows != null && oldRows.count == oldPageCount && newRows.count > 0) {
+            DiffUtil.calculateDiff(new RowsDiff(oldRows, newRows))
+                    .dispatchUpdatesTo(new OffsetUpdateCallback(start));
+        } else {
+            // The page was blank placeholders, or is gone: its rows are all new
+            int changed = Math.min(oldPageCount, newRows.count);
+            notifyItemRangeChanged(start, changed);
+            if (newRows.count > changed) {
+                notifyItemRangeInserted(start + changed, newRows.count - changed);
+            } else if (oldPageCount > changed) {
+                notifyItemRangeRemoved(start + changed, oldPageCount - changed);
+            }
+        }
+
+        // The rows after the page keep their positions, unless the list grew or ended here
+        int count = oldCount - oldPageCount + newRows.count;
+        if (rowCount > count) {
+            notifyItemRangeInserted(count, rowCount - count);
+        } else if (rowCount < count) {
+            notifyItemRangeRemoved(rowCount, count - rowCount);
+        }
+    }
+
+    /**
+     * Forgets the copy of a page that left the pager's window. Its rows stay in the list as
+     * placeholders, which are only seen if the user scrolls back faster than the page loads.
+     */
+    public void dropPage(int page) {
+        Rows rows = mPages.get(page);
+        if (rows == null) {
+            return;
+        }
+        mPages.remove(page);
+        if (mShowingPages) {
+            notifyItemRangeChanged(page * PetPager.PAGE_SIZE, rows.count);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        if (mSnapshot != null) {
+            return mSnapshotCount;
+        }
+        return mShowingPages ? mPagedCount : mRows.count;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (mSnapshot != null) {
+            return mSnapshot.getId(mSnapshotRows[position]);
+        }
+        Rows rows = rowsAt(position);
+        if (rows == null) {
+            // A placeholder: negative, so it is never the id of a pet
+            return -1 - position;
+        }
+        return rows.ids[indexAt(position)];
+    }
+
+    /** Returns the name of the pet at the given position, or null for a placeholder */
+    private String getName(int position) {
+        if (mSnapshot != null) {
+            return mSnapshot.getName(mSnapshotRows[position]);
+        }
+        Rows rows = rowsAt(position);
+        return rows != null ? rows.names[indexAt(position)] : null;
+    }
+
+    /** Returns the breed of the pet at the given position, which may be null or empty */
+    private String getBreed(int position) {
+        if (mSnapshot != null) {
+            return mSnapshot.getBreed(mSnapshotRows[position]);
+        }
+        Rows rows = rowsAt(position);
+        return rows != null ? rows.breeds[indexAt(position)] : null;
+    }
+
+    /** Returns the photo file name of the pet at the given position, or null */
+    private String getPhoto(int position) {
+        if (mSnapshot != null) {
+            return mSnapshot.getPhoto(mSnapshotRows[position]);
+        }
+        Rows rows = rowsAt(position);
+        return rows != null ? rows.photos[indexAt(position)] : null;
+    }
+
+    /** Returns the rows that hold the given position, or null if it is a placeholder */
+    private Rows rowsAt(int position) {
+        if (!mShowingPages) {
+            return mRows;
+        }
+        Rows page = mPages.get(position / PetPager.PAGE_SIZE);
+        return page != null && position % PetPager.PAGE_SIZE < page.count ? page : null;
+    }
+
+    /** Returns the index of the given position in the rows that hold it */
+    private int indexAt(int position) {
+        return mShowingPages ? position % PetPager.PAGE_SIZE : position;
+    }
+
+    /**
+     * Makes a new list item view and the view holder that keeps its views.
+     */
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
+    }
+
+    /**
+     * Binds the pet data at the given position to the views of the holder.
+     */
+    @Override
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        if (mSnapshot == null && rowsAt(position) == null) {
+            // The page of this row is still loading: show a blank row
+            holder.mNameTextView.setText(null);
+            holder.mSummaryTextView.setText(null);
+            mThumbnails.load(holder.mPhotoImageView, getItemId(position), null);
+            return;
+        }
+
+        String petName = getName(position);
+        String petBreed = getBreed(position);
+
+        // If the pet breed is empty string or null, then use some default text
+        // that says "Unknown breed", so the TextView isn't blank.
+        if (TextUtils.isEmpty(petBreed)) {
+            petBreed = mUnknownBreed;
+        }
+
+        // Update the TextViews with the attributes for the current pet
+        holder.mNameTextView.setText(petName);
+        holder.mSummaryTextView.setText(petBreed);
+
+        // Shows the thumbnail right away if it is in memory, otherwise queues it
+        mThumbnails.load(holder.mPhotoImageView, getItemId(position), getPhoto(position));
+    }
+
+    /**
+     * Cancels the thumbnail request of a row that scrolled away, so the loader doesn't decode
+     * photos that are no longer on screen.
+     */
+    @Override
+    public void onViewRecycled(PetViewHolder holder) {
+        mThumbnails.cancel(holder.mPhotoImageView);
+        holder.mPhotoImageView.setImageDrawable(null);
+    }
+
+    /**
+     * Keeps the views of a list item, so they are looked up once per view, not once per bind.
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        final TextView mNameTextView;
+        final TextView mSummaryTextView;
+        final ImageView mPhotoImageView;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            mNameTextView = (TextView) itemView.findViewById(R.id.name);
+            mSummaryTextView = (TextView) itemView.findViewById(R.id.summary);
+            mPhotoImageView = (ImageView) itemView.findViewById(R.id.photo);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && getItemId() >= 0) {
+                // The row is handed to the listener, so the editor can show it right away
+                mListener.onPetClick(getItemId(), getName(position), getBreed(position));
+            }
+        }
+    }
+
+    /**
+     * Passes the updates of one page on to the adapter, at the position of the page.
+     */
+    private class OffsetUpdateCallback implements ListUpdateCallback {
+
+        private final int mOffset;
+
+        OffsetUpdateCallback(int offset) {
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(mOffset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(mOffset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(mOffset + fromPosition, mOffset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(mOffset + position, count, payload);
+        }
+    }
+
+    /**
+     * The rows of the list, copied out of a cursor.
+     */
+    private static final class Rows {
+
+        static final Rows EMPTY = new Rows(0);
+
+        final int count;
+        final long[] ids;
+        final String[] names;
+        final String[] breeds;
+        final String[] photos;
+
+        private Rows(int count) {
+            this.count = count;
+            ids = new long[count];
+            names = new String[count];
+            breeds = new String[count];
+            photos = new String[count];
+        }
+
+        static Rows from(Cursor cursor) {
+            if (cursor == null || cursor.getCount() == 0) {
+                return EMPTY;
+            }
+
+            // Find the columns of pet attributes that we're interested in, once per cursor
+            int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            int breedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+            int photoColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_PHOTO);
+
+            Rows rows = new Rows(cursor.getCount());
+            for (int i = 0; cursor.moveToPosition(i); i++) {
+                rows.ids[i] = cursor.getLong(idColumnIndex);
+                rows.names[i] = cursor.getString(nameColumnIndex);
+                rows.breeds[i] = cursor.getString(breedColumnIndex);
+                rows.photos[i] = cursor.getString(photoColumnIndex);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Compares two sets of rows: the same _id is the same pet, and the pet changed if its name,
+     * breed or photo changed.
+     */
+    private static final class RowsDiff extends DiffUtil.Callback {
+
+        private final Rows mOld;
+        private final Rows mNew;
+
+        RowsDiff(Rows oldRows, Rows newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.count;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.count;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.ids[oldItemPosition] == mNew.ids[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return TextUtils.equals(mOld.names[oldItemPosition], mNew.names[newItemPosition])
+                    && TextUtils.equals(mOld.breeds[oldItemPosition], mNew.breeds[newItemPosition])
+                    && TextUtils.equals(mOld.photos[oldItemPosition], mNew.photos[newItemPosition]);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.android.pets;
+
+import android.app.LoaderManager;
+import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Loader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetQuery;
+
+import java.util.ArrayList;
+
+/**
+ * Carrega a lista de animais de estimação em páginas de tamanho fixo, pela ordem e com os
+ * filtros de {@link #setQuery} (por padrão, todos os animais ordenados pelo nome).
+ *
+ * Cada página tem o seu próprio {@link CursorLoader}, que pede ao {@link PetProvider} só as
+ * linhas depois da última linha da página anterior (veja {@link PetQuery}). Os filtros são
+ * aplicados pelo SQLite, então as linhas filtradas nunca saem do provedor.
+ *
+ * Só as páginas perto das linhas visíveis (veja {@link #setVisibleRange}) ficam carregadas: os
+ * carregadores das páginas a mais de {@link #WINDOW_MARGIN} páginas de distância são
+ * destruídos, e delas só se guarda a âncora, ou seja, a última linha da página anterior. Quando
+ * o usuário volta a elas, elas são pedidas de novo a partir da âncora. Assim a memória usada
+ * depende do tamanho da tela, não do quanto o usuário rolou nem do tamanho da tabela.
+ */
+public class PetPager implements LoaderManager.LoaderCallbacks<Cursor> {
+
+    /** Recebe as páginas à medida que são carregadas e descartadas */
+    public interface Listener {
+        /** Todas as páginas foram descartadas, antes da primeira página de uma nova consulta */
+        void onPagesReset();
+
+        /**
+         * Uma página foi carregada, ou carregada de novo porque os dados mudaram. O cursor só
+         * é válido durante a chamada.
+         *
+         * @param page     número da página; a sua primeira linha está em page * PAGE_SIZE
+         * @param cursor   as linhas da página
+         * @param rowCount número de linhas da lista até a última página conhecida
+         */
+        void onPageLoaded(int page, Cursor cursor, int rowCount);
+
+        /**
+         * Uma página saiu da janela de páginas carregadas. As suas linhas continuam contando
+         * em rowCount, e ela é carregada de novo quando o usuário voltar a ela.
+         */
+        void onPageDropped(int page);
+    }
+
+    /** Número de linhas em cada página */
+    public static final int PAGE_SIZE = 50;
+
+    /** Quantas páginas antes e depois das linhas visíveis continuam carregadas */
+    public static final int WINDOW_MARGIN = 1;
+
+    /** Argumentos do carregador de cada página: a última linha da página anterior */
+    private static final String ARG_AFTER_KEY = "after_key";
+    private static final String ARG_AFTER_ID = "after_id";
+
+    /** Chaves da janela de páginas no estado salvo; veja {@link #saveState} */
+    private static final String STATE_WINDOW_START = "pager_window_start";
+    private static final String STATE_WINDOW_END = "pager_window_end";
+
+    private final Context mContext;
+    private final LoaderManager mLoaderManager;
+    private final int mFirstLoaderId;
+    private final String[] mProjection;
+    private final Listener mListener;
+
+    /**
+     * Âncoras das páginas conhecidas, em ordem: a da primeira página é vazia, e a da página
+     * depois da última carregada só existe se a última estava cheia
+     */
+    private final ArrayList<Bundle> mAnchors = new ArrayList<>();
+
+    /** Número de páginas carregadas pelo menos uma vez, e de linhas na última delas */
+    private int mLoadedPages;
+    private int mLastPageRows;
+
+    /** Primeira e última página com carregador, inclusive; -1 quando não há nenhuma */
+    private int mWindowStart = -1;
+    private int mWindowEnd = -1;
+
+    /** Primeira e última página com linhas visíveis; veja {@link #setVisibleRange} */
+    private int mFirstVisiblePage;
+    private int mLastVisiblePage;
+
+    /** Verdadeiro depois de {@link #start} */
+    private boolean mStarted;
+
+    /** Ordem e filtros das páginas; veja {@link #setQuery} */
+    private String mSort = PetQuery.SORT_NAME;
+    private int mGender = PetQuery.ANY_GENDER;
+    private int mMinWeight = PetQuery.NO_WEIGHT;
+    private int mMaxWeight = PetQuery.NO_WEIGHT;
+
+    /**
+     * @param firstLoaderId id do carregador da primeira página; a página n usa firstLoaderId + n
+     * @param projection    colunas de cada página, que precisam incluir o _id, o nome e o peso,
+     *                      que são as chaves de ordenação
+     */
+    public PetPager(Context context, LoaderManager loaderManager, int firstLoaderId,
+                    String[] projection, Listener listener) {
+        mContext = context;
+        mLoaderManager = loaderManager;
+        mFirstLoaderId = firstLoaderId;
+        mProjection = projection;
+        mListener = listener;
+    }
+
+    /**
+     * Começa a carregar a primeira página. Se o LoaderManager já tem a primeira página de uma
+     * configuração anterior (por exemplo, depois de girar a tela), ela é reaproveitada; os
+     * carregadores das outras páginas daquela configuração, guardados em savedState, são
+     * destruídos, porque a lista recomeça do topo.
+     *
+     * @param savedState o estado salvo por {@link #saveState}, ou null
+     */
+    public void start(Bundle savedState) {
+        if (savedState != null) {
+            int end = savedState.getInt(STATE_WINDOW_END, -1);
+            for (int page = Math.max(1, savedState.getInt(STATE_WINDOW_START, -1)); page <= end;
+                    page++) {
+                mLoaderManager.destroyLoader(mFirstLoaderId + page);
+            }
+        }
+        mStarted = true;
+        clearPages();
+        mLoaderManager.initLoader(mFirstLoaderId, mAnchors.get(0), this);
+    }
+
+    /** Guarda a janela de páginas, para que {@link #start} possa liberar os seus carregadores */
+    public void saveState(Bundle outState) {
+        outState.putInt(STATE_WINDOW_START, mWindowStart);
+        outState.putInt(STATE_WINDOW_END, mWindowEnd);
+    }
+
+    /**
+     * Muda a ordem e os filtros da lista. Antes de {@link #start}, só define a consulta (por
+     * exemplo, a que estava em uso antes de girar a tela); depois, descarta as páginas
+     * carregadas e carrega a primeira página da nova consulta.
+     *
+     * @param sort      {@link PetQuery#SORT_ID}, {@link PetQuery#SORT_NAME} ou
+     *                  {@link PetQuery#SORT_WEIGHT}
+     * @param gender    gênero dos animais, ou {@link PetQuery#ANY_GENDER}
+     * @param minWeight menor peso, inclusive, ou {@link PetQuery#NO_WEIGHT}
+     * @param maxWeight maior peso, inclusive, ou {@link PetQuery#NO_WEIGHT}
+     */
+    public void setQuery(String sort, int gender, int minWeight, int maxWeight) {
+        if (sort.equals(mSort) && gender == mGender && minWeight == mMinWeight
+                && maxWeight == mMaxWeight) {
+            return;
+        }
+        mSort = sort;
+        mGender = gender;
+        mMinWeight = minWeight;
+        mMaxWeight = maxWeight;
+        if (!mStarted) {
+            return;
+        }
+
+        // A lista atual continua na tela até a primeira página nova chegar; veja onLoadFinished
+        for (int page = Math.max(1, mWindowStart); page <= mWindowEnd; page++) {
+            mLoaderManager.destroyLoader(mFirstLoaderId + page);
+        }
+        clearPages();
+        mLoaderManager.restartLoader(mFirstLoaderId, mAnchors.get(0), this);
+    }
+
+    /**
+     * Informa as posições visíveis da lista. As páginas que ficaram longe delas são
+     * descartadas, e as que entraram na janela (inclusive a próxima página, quando o usuário
+     * chega perto do fim da lista) começam a ser carregadas.
+     */
+    public void setVisibleRange(int firstPosition, int lastPosition) {
+        mFirstVisiblePage = Math.max(0, firstPosition) / PAGE_SIZE;
+        mLastVisiblePage = Math.max(mFirstVisiblePage, lastPosition / PAGE_SIZE);
+        updateWindow();
+    }
+
+    /** Retorna o número de linhas da lista até a última página conhecida */
+    public int getRowCount() {
+        return mLoadedPages == 0 ? 0 : (mLoadedPages - 1) * PAGE_SIZE + mLastPageRows;
+    }
+
+    /** Esquece todas as páginas; só a primeira, ainda sem carregar, fica na janela */
+    private void clearPages() {
+        mAnchors.clear();
+        mAnchors.add(new Bundle());
+        mLoadedPages = 0;
+        mLastPageRows = 0;
+        mWindowStart = 0;
+        mWindowEnd = 0;
+        mFirstVisiblePage = 0;
+        mLastVisiblePage = 0;
+    }
+
+    /**
+     * Faz a janela de carregadores cobrir as páginas visíveis e {@link #WINDOW_MARGIN} páginas
+     * de cada lado, até a última página conhecida.
+     */
+    private void updateWindow() {
+        if (!mStarted || mLoadedPages == 0) {
+            // A primeira página de uma nova consulta ainda não chegou
+            return;
+        }
+        int end = Math.min(mLastVisiblePage + WINDOW_MARGIN, mAnchors.size() - 1);
+        int start = Math.min(Math.max(0, mFirstVisiblePage - WINDOW_MARGIN), end);
+
+        for (int page = mWindowStart; page <= mWindowEnd; page++) {
+            if (page < start || page > end) {
+                mLoaderManager.destroyLoader(mFirstLoaderId + page);
+                mListener.onPageDropped(page);
+            }
+        }
+        int oldStart = mWindowStart;
+        int oldEnd = mWindowEnd;
+        mWindowStart = start;
+        mWindowEnd = end;
+        // Uma página que já tinha dados chega na hora e pode mudar a janela, por isso o fim
+        // dela é lido de novo a cada volta
+        for (int page = start; page <= mWindowEnd; page++) {
+            if (page < oldStart || page > oldEnd) {
+                mLoaderManager.initLoader(mFirstLoaderId + page, mAnchors.get(page), this);
+            }
+        }
+    }
+
+    @Override
+    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        String afterKey = null;
+        long afterId = -1;
+        if (args != null) {
+            afterKey = args.getString(ARG_AFTER_KEY);
+            afterId = args.getLong(ARG_AFTER_ID, -1);
+        }
+
+        // Este carregador executará o método de consulta do ContentProvider em uma linha de fundo
+        return new CursorLoader(mContext,
+                PetEntry.buildPageUri(mSort, mGender, mMinWeight, mMaxWeight, afterKey, afterId,
+                        PAGE_SIZE),
+                mProjection,
+                null,
+                null,
+                null);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        int page = loader.getId() - mFirstLoaderId;
+        if (page < mWindowStart || page > mWindowEnd) {
+            // Página de uma lista que já foi truncada, ou que saiu da janela
+            return;
+        }
+        Bundle anchor = mAnchors.get(page);
+        if (!sameAnchor(anchorOf(loader), anchor)) {
+            // Carregador de uma configuração anterior, que começa no lugar errado
+            mLoaderManager.restartLoader(loader.getId(), anchor, this);
+            return;
+        }
+        if (page == 0 && mLoadedPages == 0) {
+            // Primeira página de uma nova consulta: só agora a lista anterior sai da tela
+            mListener.onPagesReset();
+        }
+
+        int count = data.getCount();
+        if (page >= mLoadedPages - 1) {
+            mLoadedPages = page + 1;
+            mLastPageRows = count;
+        }
+        if (count < PAGE_SIZE) {
+            // Esta é a última página: descarte as que vinham depois dela
+            for (int i = mAnchors.size() - 1; i > page; i--) {
+                mAnchors.remove(i);
+                if (i <= mWindowEnd) {
+                    mLoaderManager.destroyLoader(mFirstLoaderId + i);
+                }
+            }
+            mWindowEnd = page;
+            mLoadedPages = page + 1;
+            mLastPageRows = count;
+        } else if (page + 1 < mAnchors.size()) {
+            // A página mudou (os dados foram alterados). Se a sua última linha mudou, a página
+            // seguinte começa em outro lugar e, se está carregada, precisa ser carregada de novo.
+            Bundle next = anchorAfter(data);
+            if (!sameAnchor(next, mAnchors.get(page + 1))) {
+                mAnchors.set(page + 1, next);
+                if (page + 1 <= mWindowEnd) {
+                    mLoaderManager.restartLoader(mFirstLoaderId + page + 1, next, this);
+                }
+            }
+        } else {
+            // A última página está cheia: a próxima começa depois dela
+            mAnchors.add(anchorAfter(data));
+        }
+
+        mListener.onPageLoaded(page, data, getRowCount());
+        updateWindow();
+    }
+
+    @Override
+    public void onLoaderReset(Loader<Cursor> loader) {
+        // Nada a fazer: o ouvinte copia as linhas de cada página quando ela chega, e só
+        // guarda o cursor durante onPageLoaded
+    }
+
+    /** Retorna os argumentos da página que começa depois da última linha de pageCursor */
+    private Bundle anchorAfter(Cursor pageCursor) {
+        Bundle args = new Bundle();
+        if (pageCursor.moveToLast()) {
+            // Na ordem pelo _id, o próprio _id é a chave; as outras chaves são nomes de coluna
+            if (!PetQuery.SORT_ID.equals(mSort)) {
+                args.putString(ARG_AFTER_KEY, pageCursor.getString(
+                        pageCursor.getColumnIndexOrThrow(mSort)));
+            }
+            args.putLong(ARG_AFTER_ID, pageCursor.getLong(
+                    pageCursor.getColumnIndexOrThrow(PetEntry._ID)));
+        }
+        return args;
+    }
+
+    /** Retorna os argumentos com que o carregador foi criado, a partir do seu URI */
+    private static Bundle anchorOf(Loader<Cursor> loader) {
+        Bundle args = new Bundle();
+        Uri uri = ((CursorLoader) loader).getUri();
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        if (afterId != null) {
+            args.putString(ARG_AFTER_KEY, uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_KEY));
+            args.putLong(ARG_AFTER_ID, Long.parseLong(afterId));
+        }
+        return args;
+    }
+
+    private static boolean sameAnchor(Bundle a, Bundle b) {
+        String keyA = a.getString(ARG_AFTER_KEY);
+        String keyB = b.getString(ARG_AFTER_KEY);
+        return a.getLong(ARG_AFTER_ID, -1) == b.getLong(ARG_AFTER_ID, -1)
+                && (keyA == null ? keyB == null : keyA.equals(keyB));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.pets;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentManager;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetSnapshotLoader;
+
+/**
+ * Fragmento retido, sem interface, que guarda o {@link PetSnapshotLoader} do catálogo entre as
+ * mudanças de configuração. Ler a tabela inteira a cada rotação custaria, com um milhão de
+ * animais, justamente o tempo que o snapshot existe para economizar; assim ela só é lida de novo
+ * quando a atividade é destruída de vez (ou o processo morre).
+ */
+public class PetSnapshotFragment extends Fragment {
+
+    private static final String TAG = PetSnapshotFragment.class.getSimpleName();
+
+    private PetSnapshotLoader mLoader;
+
+    /**
+     * Retorna o carregador da atividade, criando e iniciando-o na primeira chamada. Quem chama
+     * se registra com {@link PetSnapshotLoader#setListener} e sai ao ser destruído.
+     */
+    public static PetSnapshotLoader getLoader(Activity activity) {
+        FragmentManager fragmentManager = activity.getFragmentManager();
+        PetSnapshotFragment fragment =
+                (PetSnapshotFragment) fragmentManager.findFragmentByTag(TAG);
+        if (fragment == null) {
+            fragment = new PetSnapshotFragment();
+            fragmentManager.beginTransaction().add(fragment, TAG).commit();
+        }
+        if (fragment.mLoader == null) {
+            // Um fragmento novo, ou restaurado depois que o processo morreu
+            fragment.mLoader = new PetSnapshotLoader(
+                    activity.getApplicationContext().getContentResolver());
+            fragment.mLoader.start();
+        }
+        return fragment.mLoader;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+    }
+
+    @Override
+    public void onDestroy() {
+        // Só acontece quando a atividade termina de vez, já que o fragmento é retido
+        if (mLoader != null) {
+            mLoader.stop();
+        }
+        super.onDestroy();
+    }
+}
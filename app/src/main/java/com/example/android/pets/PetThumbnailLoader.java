@@ -0,0 +1,456 @@
+package com.example.android.pets;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carrega as miniaturas das fotos dos animais de estimação para a lista do catálogo.
+ *
+ * Cada miniatura é procurada em dois níveis de cache, antes de decodificar a foto:
+ * um LRU em memória, consultado na thread principal, e uma pasta de miniaturas já reduzidas e
+ * recortadas em quadrado, em JPEG, no cache do aplicativo. Os dois usam como chave o nome do
+ * arquivo da foto ({@link PetEntry#COLUMN_PET_PHOTO}), que muda a cada foto nova, então nenhum
+ * deles precisa ser invalidado.
+ *
+ * A leitura do disco e a decodificação acontecem num número fixo de threads em segundo plano.
+ * A fila é atendida do pedido mais novo para o mais antigo: numa rolagem rápida, as linhas que
+ * acabaram de aparecer são carregadas antes das que já saíram da tela. Quando uma linha é
+ * reciclada ({@link #cancel}), o pedido dela sai da fila, ou, se já estiver em andamento, não é
+ * mais entregue àquela linha.
+ *
+ * Há um único carregador no processo ({@link #getInstance}), então as miniaturas já
+ * decodificadas sobrevivem à rotação e à volta ao catálogo; quando a atividade é destruída, ela
+ * só cancela os pedidos das suas views, com {@link #cancelAll}. O LRU em memória é liberado
+ * quando o sistema pede memória, pelos callbacks do aplicativo.
+ *
+ * Todos os métodos públicos devem ser chamados na thread principal.
+ */
+public final class PetThumbnailLoader {
+
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /** Threads que leem e decodificam as miniaturas */
+    private static final int THREAD_COUNT = 2;
+
+    /** Fração da memória do aplicativo usada pelo LRU em memória */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /** Tamanho máximo da pasta de miniaturas; as menos usadas são apagadas além disso */
+    private static final long MAX_DISK_CACHE_BYTES = 48 * 1024 * 1024;
+
+    /** Miniaturas gravadas entre duas verificações do tamanho da pasta */
+    private static final int DISK_TRIM_INTERVAL = 64;
+
+    /** Qualidade JPEG das miniaturas gravadas no disco */
+    private static final int DISK_JPEG_QUALITY = 85;
+
+    private static PetThumbnailLoader sInstance;
+
+    private final ContentResolver mResolver;
+
+    /** Lado das miniaturas, em pixels */
+    private final int mSize;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /** Pasta das miniaturas; o lado faz parte do caminho, já que muda com a densidade da tela */
+    private final File mDiskCacheDir;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Ordem dos pedidos: a fila atende primeiro o maior número */
+    private int mNextSequence;
+
+    /** Miniaturas gravadas desde a última verificação do tamanho da pasta */
+    private final AtomicInteger mDiskWrites = new AtomicInteger();
+
+    /** Pedidos ainda não entregues nem cancelados; só usado na thread principal */
+    private final Set<Request> mPending = new HashSet<>();
+
+    /**
+     * Retorna o carregador do processo, criando-o na primeira chamada, com o lado de
+     * R.dimen.pet_thumbnail_size
+     */
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            Context application = context.getApplicationContext();
+            sInstance = new PetThumbnailLoader(application,
+                    application.getResources().getDimensionPixelSize(
+                            R.dimen.pet_thumbnail_size));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param context o contexto do aplicativo
+     * @param size    lado das miniaturas, em pixels
+     */
+    private PetThumbnailLoader(Context context, int size) {
+        mResolver = context.getContentResolver();
+        mSize = size;
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int maxBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_FRACTION;
+        mMemoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String photo, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        mDiskCacheDir = new File(context.getCacheDir(), "thumbnails/" + size);
+
+        mExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(64, new Comparator<Runnable>() {
+                    @Override
+                    public int compare(Runnable a, Runnable b) {
+                        // Do pedido mais novo para o mais antigo
+                        int sequenceA = ((Request) a).mSequence;
+                        int sequenceB = ((Request) b).mSequence;
+                        return sequenceA < sequenceB ? 1 : (sequenceA == sequenceB ? 0 : -1);
+                    }
+                }),
+                new ThreadFactory() {
+                    private int mCount;
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(LOG_TAG + " #" + ++mCount) {
+                            @Override
+                            public void run() {
+                                // Abaixo da thread principal, para não disputar com a rolagem
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        };
+                    }
+                });
+
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                // O lado das miniaturas não muda com a rotação
+            }
+
+            @Override
+            public void onLowMemory() {
+                mMemoryCache.evictAll();
+            }
+        });
+    }
+
+    /**
+     * Mostra na view a miniatura da foto dada, cancelando o pedido anterior da view. Se a
+     * miniatura está no LRU em memória, ela é mostrada agora; senão a view fica vazia até a
+     * miniatura ser carregada.
+     *
+     * @param id    _id do animal, usado para ler a foto do provedor
+     * @param photo nome do arquivo da foto, ou null se o animal não tem foto
+     */
+    public void load(ImageView view, long id, String photo) {
+        cancel(view);
+        Bitmap bitmap = photo != null ? mMemoryCache.get(photo) : null;
+        view.setImageBitmap(bitmap);
+        if (photo == null || bitmap != null) {
+            return;
+        }
+
+        Request request = new Request(view, id, photo, mNextSequence++);
+        view.setTag(request);
+        mPending.add(request);
+        mExecutor.execute(request);
+    }
+
+    /**
+     * Cancela o pedido da view, se houver um. Um pedido ainda na fila sai dela, e um que uma
+     * thread acabou de tirar da fila não chega a decodificar a foto; um pedido já decodificando
+     * termina e guarda a miniatura nos caches, mas não a mostra na view.
+     */
+    public void cancel(ImageView view) {
+        Object tag = view.getTag();
+        if (tag instanceof Request) {
+            Request request = (Request) tag;
+            request.mCancelled = true;
+            mExecutor.remove(request);
+            mPending.remove(request);
+            view.setTag(null);
+        }
+    }
+
+    /**
+     * Cancela os pedidos das views do contexto dado, normalmente uma atividade sendo destruída,
+     * para que a fila não a segure nem gaste tempo com linhas que não existem mais. As
+     * miniaturas já carregadas continuam no LRU.
+     */
+    public void cancelAll(Context context) {
+        for (Request request : new ArrayList<>(mPending)) {
+            if (isOwnedBy(request.mView.getContext(), context)) {
+                cancel(request.mView);
+            }
+        }
+    }
+
+    /** Verdadeiro se o contexto da view é o contexto dado ou o envolve, como um tema da view */
+    private static boolean isOwnedBy(Context viewContext, Context context) {
+        while (viewContext != context && viewContext instanceof ContextWrapper) {
+            viewContext = ((ContextWrapper) viewContext).getBaseContext();
+        }
+        return viewContext == context;
+    }
+
+    /**
+     * Libera o LRU em memória quando o aplicativo já está em segundo plano e o sistema pede
+     * memória; veja {@link ComponentCallbacks2#onTrimMemory}. As miniaturas continuam no disco.
+     */
+    private void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.evictAll();
+        }
+    }
+
+    /**
+     * Lê a miniatura do disco ou, se ela não estiver lá, decodifica a foto e grava a miniatura.
+     * Chamado nas threads do carregador. Retorna null se a foto não pôde ser lida.
+     */
+    private Bitmap loadThumbnail(long id, String photo) {
+        File file = new File(mDiskCacheDir, photo);
+        Bitmap bitmap = null;
+        if (file.isFile()) {
+            // Mesmo formato das miniaturas recém-criadas, metade da memória do ARGB_8888
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        if (bitmap != null) {
+            // A data de modificação marca as miniaturas mais usadas; veja trimDiskCache
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        }
+
+        bitmap = decodePhoto(id);
+        if (bitmap != null) {
+            writeDiskCache(file, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodifica a foto do provedor já reduzida, com o maior inSampleSize que ainda deixa os
+     * dois lados maiores que a miniatura, e recorta o centro num quadrado do tamanho da
+     * miniatura.
+     */
+    private Bitmap decodePhoto(long id) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decodeFromProvider(id, options);
+            int width = options.outWidth;
+            int height = options.outHeight;
+            if (width <= 0 || height <= 0) {
+                Log.w(LOG_TAG, "Cannot decode photo of pet " + id);
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (Math.min(width, height) / (options.inSampleSize * 2) >= mSize) {
+                options.inSampleSize *= 2;
+            }
+            Bitmap sampled = decodeFromProvider(id, options);
+            return sampled != null ? cropToSquare(sampled) : null;
+        } catch (FileNotFoundException e) {
+            // A foto foi removida depois que a lista foi lida
+            return null;
+        }
+    }
+
+    /** Abre a foto atual do animal no provedor e a decodifica com as opções dadas */
+    private Bitmap decodeFromProvider(long id, BitmapFactory.Options options)
+            throws FileNotFoundException {
+        ParcelFileDescriptor descriptor =
+                mResolver.openFileDescriptor(PetEntry.buildPhotoUri(id), "r");
+        if (descriptor == null) {
+            throw new FileNotFoundException("No photo for pet " + id);
+        }
+        try {
+            return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null,
+                    options);
+        } finally {
+            try {
+                descriptor.close();
+            } catch (IOException e) {
+                // Só foi lido
+            }
+        }
+    }
+
+    /** Recorta o centro do bitmap num quadrado de lado {@link #mSize} e recicla o original */
+    private Bitmap cropToSquare(Bitmap source) {
+        int side = Math.min(source.getWidth(), source.getHeight());
+        int left = (source.getWidth() - side) / 2;
+        int top = (source.getHeight() - side) / 2;
+        Bitmap thumbnail = Bitmap.createBitmap(mSize, mSize, Bitmap.Config.RGB_565);
+        new Canvas(thumbnail).drawBitmap(source, new Rect(left, top, left + side, top + side),
+                new Rect(0, 0, mSize, mSize), new Paint(Paint.FILTER_BITMAP_FLAG));
+        source.recycle();
+        return thumbnail;
+    }
+
+    /**
+     * Grava a miniatura no disco, num arquivo temporário renomeado no fim, para que uma
+     * miniatura pela metade nunca seja lida. De tempos em tempos verifica o tamanho da pasta.
+     */
+    private void writeDiskCache(File file, Bitmap bitmap) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+        File temp = new File(mDiskCacheDir, file.getName() + "." + Thread.currentThread().getId());
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Cannot write thumbnail " + file, e);
+            temp.delete();
+        }
+
+        if (mDiskWrites.incrementAndGet() >= DISK_TRIM_INTERVAL) {
+            mDiskWrites.set(0);
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Apaga as miniaturas menos usadas até a pasta ficar abaixo de
+     * {@link #MAX_DISK_CACHE_BYTES}. As miniaturas de fotos substituídas ou excluídas nunca mais
+     * são lidas, então acabam apagadas aqui.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            total += files[i].length();
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        if (total <= MAX_DISK_CACHE_BYTES) {
+            return;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long modifiedA = modified[a];
+                long modifiedB = modified[b];
+                return modifiedA < modifiedB ? -1 : (modifiedA == modifiedB ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && total > MAX_DISK_CACHE_BYTES; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /** Pedido da miniatura de uma view; é a tag da view enquanto não for entregue ou cancelado */
+    private final class Request implements Runnable {
+
+        final ImageView mView;
+        final long mId;
+        final String mPhoto;
+        final int mSequence;
+
+        /** Gravado por {@link #cancel} na thread principal */
+        volatile boolean mCancelled;
+
+        Request(ImageView view, long id, String photo, int sequence) {
+            mView = view;
+            mId = id;
+            mPhoto = photo;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            // Outro pedido pode ter carregado a mesma foto enquanto este estava na fila
+            Bitmap bitmap = mMemoryCache.get(mPhoto);
+            if (bitmap == null) {
+                bitmap = loadThumbnail(mId, mPhoto);
+                if (bitmap != null) {
+                    mMemoryCache.put(mPhoto, bitmap);
+                }
+            }
+
+            final Bitmap thumbnail = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mPending.remove(Request.this);
+                    // A view pode ter sido reciclada para outro animal
+                    if (mView.getTag() == Request.this) {
+                        mView.setTag(null);
+                        if (thumbnail != null) {
+                            mView.setImageBitmap(thumbnail);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
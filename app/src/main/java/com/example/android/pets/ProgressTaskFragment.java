@@ -0,0 +1,180 @@
+package com.example.android.pets;
+
+import android.app.Activity;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.app.FragmentManager;
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
+import android.widget.Toast;
+
+/**
+ * Executa um trabalho longo (importar, gerar animais, excluir todos, teste de carga) fora da
+ * thread principal, mostrando o andamento num diálogo que permite cancelar.
+ *
+ * O fragmento é retido ({@link #setRetainInstance}), então o trabalho, o seu andamento e o
+ * botão de cancelar sobrevivem a uma rotação: só o diálogo é recriado, na nova atividade. O
+ * trabalho nunca guarda a atividade, só o contexto do aplicativo, e o aviso do resultado é
+ * mostrado com ele, como o ToastCallback do EditorActivity; o diálogo só é fechado pelo
+ * fragmento, que sabe se ainda está na tela.
+ */
+public class ProgressTaskFragment extends DialogFragment {
+
+    /** Etiqueta do fragmento; só um trabalho roda por vez */
+    private static final String TAG = ProgressTaskFragment.class.getSimpleName();
+
+    /** Recebe as mensagens de andamento de um {@link Job}, em qualquer thread */
+    public interface Progress {
+        void publish(String message);
+    }
+
+    /** Um trabalho longo que pode ser cancelado */
+    public abstract static class Job {
+
+        /**
+         * Executa o trabalho, numa thread de fundo. O andamento vai para progress.
+         *
+         * @param context o contexto do aplicativo
+         * @return o texto do aviso mostrado quando o trabalho termina
+         */
+        protected abstract String run(Context context, Progress progress);
+
+        /** Pede que {@link #run} termine logo; chamado na thread principal */
+        protected abstract void cancel();
+    }
+
+    /** Trabalho deste fragmento, ou null se ele foi recriado depois que o processo morreu */
+    private Job mJob;
+    private JobTask mTask;
+
+    /** Contexto do aplicativo, usado pelo trabalho e pelo aviso do resultado */
+    private Context mContext;
+
+    /** Última mensagem de andamento, mostrada de novo quando o diálogo é recriado */
+    private String mMessage;
+
+    /** Verdadeiro depois que o usuário pediu para cancelar */
+    private boolean mCancelRequested;
+
+    /**
+     * Começa um trabalho e mostra o diálogo de andamento dele.
+     *
+     * @param message mensagem de andamento inicial
+     * @return false, sem fazer nada, se outro trabalho ainda está em andamento
+     */
+    public static boolean start(Activity activity, String message, Job job) {
+        FragmentManager fragmentManager = activity.getFragmentManager();
+        if (fragmentManager.findFragmentByTag(TAG) != null) {
+            return false;
+        }
+        ProgressTaskFragment fragment = new ProgressTaskFragment();
+        fragment.mJob = job;
+        fragment.mMessage = message;
+        fragment.show(fragmentManager, TAG);
+        return true;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+        setCancelable(false);
+        mContext = getActivity().getApplicationContext();
+        if (mJob != null && mTask == null) {
+            // Não no executor serial padrão, que ele ocuparia por minutos
+            mTask = new JobTask();
+            mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        if (mJob == null) {
+            // O processo morreu com o trabalho; só o fragmento foi restaurado
+            dismissAllowingStateLoss();
+        }
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        final ProgressDialog dialog = new ProgressDialog(getActivity());
+        dialog.setMessage(mMessage);
+        // O botão é trocado em onShow, para que o diálogo continue aberto até o trabalho parar
+        dialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel),
+                (DialogInterface.OnClickListener) null);
+        dialog.setOnShowListener(new DialogInterface.OnShowListener() {
+            @Override
+            public void onShow(DialogInterface dialogInterface) {
+                final Button cancel = dialog.getButton(DialogInterface.BUTTON_NEGATIVE);
+                cancel.setEnabled(!mCancelRequested);
+                cancel.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        mCancelRequested = true;
+                        cancel.setEnabled(false);
+                        if (mJob != null) {
+                            mJob.cancel();
+                        }
+                    }
+                });
+            }
+        });
+        return dialog;
+    }
+
+    @Override
+    public void onDestroyView() {
+        // Sem isto, o DialogFragment retido fecha o diálogo (e se remove) ao girar a tela
+        if (getDialog() != null && getRetainInstance()) {
+            getDialog().setDismissMessage(null);
+        }
+        super.onDestroyView();
+    }
+
+    /** Mostra a mensagem de andamento, se o diálogo está na tela */
+    private void showProgress(String message) {
+        mMessage = message;
+        ProgressDialog dialog = (ProgressDialog) getDialog();
+        if (dialog != null) {
+            dialog.setMessage(message);
+        }
+    }
+
+    /** Mostra o aviso do resultado e fecha o diálogo, se a atividade ainda existe */
+    private void finish(String message) {
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+        if (isAdded()) {
+            dismissAllowingStateLoss();
+        }
+    }
+
+    /** Executa o {@link Job}; o fragmento é retido, então referenciá-lo não vaza a atividade */
+    private class JobTask extends AsyncTask<Void, String, String> implements Progress {
+
+        @Override
+        protected String doInBackground(Void... params) {
+            return mJob.run(mContext, this);
+        }
+
+        @Override
+        public void publish(String message) {
+            publishProgress(message);
+        }
+
+        @Override
+        protected void onProgressUpdate(String... messages) {
+            showProgress(messages[0]);
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            finish(message);
+        }
+    }
+}
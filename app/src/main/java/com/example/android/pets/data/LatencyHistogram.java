@@ -0,0 +1,103 @@
+package com.example.android.pets.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de durações, em nanossegundos, que pode ser alimentado por várias threads sem
+ * trava e sem criar objetos.
+ *
+ * Cada potência de 2 é dividida em 4 faixas, então um percentil é devolvido com erro de no
+ * máximo 25%, e 160 contadores cobrem de 0 ns a mais de 18 minutos. {@link #record} só faz
+ * incrementos atômicos. As leituras não são um retrato atômico: um registro feito durante a
+ * leitura pode aparecer na contagem e não nas faixas, o que não importa para um relatório.
+ */
+public final class LatencyHistogram {
+
+    /** Faixas por potência de 2 */
+    private static final int SUB_BUCKETS = 4;
+
+    /** Número de faixas; a última também recebe as durações maiores */
+    private static final int BUCKETS = 160;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /** Registra uma duração */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            // O relógio monotônico não volta, mas uma duração calculada errada não deve quebrar
+            nanos = 0;
+        }
+        mBuckets.incrementAndGet(bucketFor(nanos));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Retorna o limite superior da faixa que contém o percentil dado (0 a 100), limitado pela
+     * maior duração registrada, ou 0 se nada foi registrado.
+     */
+    public long getPercentileNanos(double percent) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mBuckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percent / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Faixa de uma duração. Abaixo de 4 ns cada valor tem a sua faixa; acima, a faixa é dada
+     * pela posição do bit mais alto e pelos 2 bits seguintes.
+     */
+    private static int bucketFor(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + sub);
+    }
+
+    /** Maior duração da faixa dada */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1L) << (exponent - 2)) - 1;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+/**
+ * Exclui todos os animais de estimação em partes de {@link #CHUNK_ROWS} linhas, pela ordem do
+ * _id, com o URI de {@link PetEntry#buildDeleteUri}.
+ *
+ * Cada parte é uma transação curta, então as leituras e escritas dos outros não esperam pela
+ * exclusão inteira, só pela parte em andamento. O andamento é informado ao {@link Listener}
+ * depois de cada parte, e a exclusão pode ser cancelada entre duas partes. Os observadores são
+ * notificados uma única vez, no fim; se a exclusão for cancelada, as partes já excluídas
+ * continuam excluídas.
+ *
+ * Escreve no banco, então deve ser executado fora da thread principal.
+ */
+public final class PetBulkDeleter {
+
+    /** Recebe o andamento da exclusão, na thread que executa {@link #deleteAll} */
+    public interface Listener {
+        /**
+         * Chamado depois de cada parte excluída.
+         *
+         * @param petsDeleted animais excluídos até agora
+         * @param petsTotal   animais que havia no início, ou -1 se não foi possível contar
+         */
+        void onProgress(long petsDeleted, long petsTotal);
+    }
+
+    /** Linhas excluídas por transação */
+    private static final int CHUNK_ROWS = 500;
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+
+    private final Uri mDeleteUri = PetEntry.buildDeleteUri(CHUNK_ROWS);
+
+    private long mPetsDeleted;
+
+    private volatile boolean mCancelled;
+
+    public PetBulkDeleter(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Exclui todos os animais, ou os que houver até o cancelamento.
+     *
+     * @return número de animais excluídos
+     */
+    public long deleteAll() {
+        long petsTotal = countPets();
+        try {
+            while (!mCancelled) {
+                int rowsDeleted = mResolver.delete(mDeleteUri, null, null);
+                if (rowsDeleted == 0) {
+                    break;
+                }
+                mPetsDeleted += rowsDeleted;
+                mListener.onProgress(mPetsDeleted, petsTotal);
+            }
+        } finally {
+            if (mPetsDeleted > 0) {
+                mResolver.notifyChange(PetEntry.CONTENT_URI, null);
+            }
+        }
+        return mPetsDeleted;
+    }
+
+    /**
+     * Interrompe a exclusão depois da parte atual. Pode ser chamado de qualquer thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public long getPetsDeleted() {
+        return mPetsDeleted;
+    }
+
+    /** Conta os animais pela tabela de estatísticas, sem percorrer a tabela de animais */
+    private long countPets() {
+        Cursor cursor = mResolver.query(PetStatsEntry.CONTENT_URI,
+                new String[] { PetStatsEntry.COLUMN_TOTAL }, null, null, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Junta as notificações de alteração do {@link com.example.android.pets.PetProvider} e as
+ * envia de uma vez.
+ *
+ * Cada notificação faz o CursorLoader do catálogo consultar a tabela de novo, então uma
+ * sequência rápida de escritas viraria uma sequência de consultas. Aqui os URIs alterados são
+ * guardados até que nada mude por uma janela curta (cada alteração recomeça a contagem), e cada
+ * URI distinto é notificado uma única vez. Para que escritas contínuas não adiem a lista para
+ * sempre, as alterações nunca esperam mais que um atraso máximo, contado a partir da primeira.
+ * Se muitos animais diferentes mudaram, uma única notificação de {@link PetEntry#CONTENT_URI}
+ * alcança todos os observadores.
+ */
+public final class PetChangeNotifier {
+
+    /** Acima deste número de URIs distintos, notifica só {@link PetEntry#CONTENT_URI} */
+    private static final int MAX_DISTINCT_URIS = 8;
+
+    private final ContentResolver mResolver;
+    private final long mWindowMillis;
+    private final long mMaxDelayMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** URIs alterados que ainda não foram notificados, na ordem da alteração */
+    private final Set<Uri> mPending = new LinkedHashSet<>();
+
+    /** Momento, em SystemClock.uptimeMillis(), da primeira alteração ainda não notificada */
+    private long mFirstPendingMillis;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param resolver       usado para enviar as notificações
+     * @param windowMillis   por quanto tempo nada pode mudar antes de as alterações serem
+     *                       notificadas; 0 notifica cada alteração na hora
+     * @param maxDelayMillis quanto tempo, no máximo, uma alteração espera para ser notificada;
+     *                       não menor que windowMillis
+     */
+    public PetChangeNotifier(ContentResolver resolver, long windowMillis, long maxDelayMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Window must not be negative: " + windowMillis);
+        }
+        if (maxDelayMillis < windowMillis) {
+            throw new IllegalArgumentException("Max delay " + maxDelayMillis
+                    + " is shorter than the window " + windowMillis);
+        }
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Registra que os dados do URI mudaram. A notificação é enviada quando nada mudar por uma
+     * janela, ou no atraso máximo, ou antes, se {@link #flush()} for chamado.
+     */
+    public void notifyChange(Uri uri) {
+        if (mWindowMillis == 0) {
+            mResolver.notifyChange(uri, null);
+            return;
+        }
+
+        // Os observadores recebem as notificações pelo caminho, então URIs que só diferem nos
+        // parâmetros da consulta são a mesma alteração
+        if (uri.getQuery() != null || uri.getFragment() != null) {
+            uri = uri.buildUpon().clearQuery().fragment(null).build();
+        }
+        long now = SystemClock.uptimeMillis();
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                mFirstPendingMillis = now;
+            }
+            mPending.add(uri);
+            // Recomeça a janela, sem passar do atraso máximo da primeira alteração
+            long delay = Math.min(mWindowMillis, mFirstPendingMillis + mMaxDelayMillis - now);
+            mHandler.removeCallbacks(mFlushRunnable);
+            mHandler.postDelayed(mFlushRunnable, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Envia agora as notificações guardadas. Chamado no fim de cada lote, para que os
+     * observadores vejam o resultado da transação sem esperar a janela.
+     */
+    public void flush() {
+        ArrayList<Uri> uris;
+        synchronized (mPending) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            uris = new ArrayList<>(mPending);
+            mPending.clear();
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+
+        if (uris.size() > MAX_DISTINCT_URIS || containsCollection(uris)) {
+            // Notificar a coleção também notifica quem observa cada animal
+            mResolver.notifyChange(PetEntry.CONTENT_URI, null);
+            return;
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /** Retorna se algum dos URIs é o da coleção inteira, {@link PetEntry#CONTENT_URI} */
+    private static boolean containsCollection(ArrayList<Uri> uris) {
+        for (Uri uri : uris) {
+            if (PetContract.CONTENT_AUTHORITY.equals(uri.getAuthority())
+                    && PetEntry.CONTENT_URI.getPathSegments().equals(uri.getPathSegments())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -40,12 +40,79 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Caminho da busca de texto, anexado a {@link PetEntry#CONTENT_URI}. Por exemplo,
+     * content://com.example.android.pets/pets/search/toto busca "toto" no nome e na raça.
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Caminho das estatísticas do abrigo, anexado a {@link PetEntry#CONTENT_URI}:
+     * content://com.example.android.pets/pets/stats
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Caminho da exportação de todos os animais, anexado a {@link PetEntry#CONTENT_URI} e seguido
+     * do formato: content://com.example.android.pets/pets/export/csv
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Caminho das métricas do provedor, anexado a {@link PetEntry#CONTENT_URI}:
+     * content://com.example.android.pets/pets/metrics
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /**
+     * Caminho da foto de um animal, anexado ao URI dele:
+     * content://com.example.android.pets/pets/3/photo
+     */
+    public static final String PATH_PHOTO = "photo";
+
+    /**
+     * Método de {@link ContentResolver#call} que exclui de vez os animais já excluídos,
+     * compacta o arquivo do banco e atualiza as estatísticas do planejador de consultas.
+     * Demorado: deve ser chamado fora da thread principal, de preferência com o aparelho ocioso.
+     * O Bundle devolvido tem {@link #KEY_PURGED_ROWS} e {@link #KEY_FREED_PAGES}.
+     */
+    public static final String METHOD_PURGE = "purge";
+
+    /**
+     * Método de {@link ContentResolver#call} que interrompe um {@link #METHOD_PURGE} em
+     * andamento depois do lote atual. O que sobrar fica para a próxima purga.
+     */
+    public static final String METHOD_CANCEL_PURGE = "cancel_purge";
+
+    /** Número de linhas excluídas de vez por {@link #METHOD_PURGE} */
+    public static final String KEY_PURGED_ROWS = "purged_rows";
+
+    /** Número de páginas devolvidas ao sistema de arquivos por {@link #METHOD_PURGE} */
+    public static final String KEY_FREED_PAGES = "freed_pages";
+
     /* Classe interna que define o conteúdo da tabela */
     public static abstract class PetEntry implements BaseColumns{
 
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /** The content URI to search pets by name and breed */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /** The content URI to export all pets; see {@link #buildExportUri} */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /** Export formats, the last path segment of an export URI */
+        public static final String EXPORT_FORMAT_CSV = "csv";
+        public static final String EXPORT_FORMAT_JSON = "json";
+
+        /** The MIME types of the export URIs */
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+        public static final String EXPORT_JSON_TYPE = "application/json";
+
+        /** The MIME type of a pet photo; see {@link #buildPhotoUri} */
+        public static final String PHOTO_TYPE = "image/jpeg";
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -58,8 +125,49 @@ public final class PetContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        /**
+         * Query parameters of {@link #CONTENT_URI} for keyset pagination, see {@link PetQuery}.
+         * "sort" is {@link PetQuery#SORT_ID}, {@link PetQuery#SORT_NAME} or
+         * {@link PetQuery#SORT_WEIGHT}; "after_key" and "after_id" identify the last row of the
+         * previous page; "limit" is the page size.
+         *
+         * "limit" also applies to deletes of {@link #CONTENT_URI}: only that many of the
+         * selected rows, the ones with the lowest _id, are deleted. See {@link #buildDeleteUri}.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Filter parameters of {@link #CONTENT_URI}, see {@link #buildPageUri}: "gender" is one
+         * of the GENDER constants, and "min_weight" and "max_weight" are an inclusive weight
+         * range. They are turned into parameterized SQL, so only matching rows are read. Callers
+         * must use them, and the "sort" parameter, instead of their own selection and sort
+         * order: queries of this URI and of the search URI reject any selection with an
+         * IllegalArgumentException, and only accept a sort order made of plain column names.
+         */
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} for bulk writes. With "false", the provider
+         * doesn't notify observers, and the caller sends a single notification when it is done.
+         */
+        public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} for single inserts, see
+         * {@link #buildInsertUri}: a key that makes the insert idempotent. Bulk inserts reject it.
+         */
+        public static final String QUERY_PARAMETER_WRITE_KEY = "write_key";
+
         public static final String TABLE_NAME = "pets";
 
+        /** Tabela FTS com o nome e a raça de cada animal; o docid é o _id na tabela pets */
+        public static final String SEARCH_TABLE_NAME = "pets_fts";
+
         public static final String _ID = BaseColumns._ID;
 
         public static final String COLUMN_PET_NAME = "name";
@@ -67,6 +175,28 @@ public final class PetContract {
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * Marca de exclusão: 0 para um animal existente, 1 para um animal excluído. Uma exclusão
+         * só marca a linha; as linhas marcadas não aparecem em nenhuma consulta do provedor e
+         * são apagadas de vez por {@link PetContract#METHOD_PURGE}. Não pode ser gravada pelos
+         * clientes.
+         */
+        public static final String COLUMN_PET_DELETED = "deleted";
+
+        /**
+         * Referência da foto: o nome do arquivo guardado pelo provedor, ou nulo se o animal não
+         * tem foto. Muda a cada foto nova, então serve de chave para caches de miniaturas. A
+         * imagem é lida e gravada pelo URI de {@link #buildPhotoUri}; a coluna não pode ser
+         * gravada pelos clientes.
+         */
+        public static final String COLUMN_PET_PHOTO = "photo";
+
+        /**
+         * Chave da inserção que criou a linha, ou nulo: a gravada por {@link #buildInsertUri}.
+         * Cada chave aparece em no máximo uma linha. Não pode ser gravada pelos clientes.
+         */
+        public static final String COLUMN_PET_WRITE_KEY = "write_key";
+
         /** Possiveis valores para GENDER
          * 0 - Desconhecido, 1 - Masculino, 2 - Feminino
          */
@@ -84,10 +214,202 @@ public final class PetContract {
             }
             return false;
         }
+
+        /**
+         * Returns whether or not the given weight is valid: zero or more kilograms.
+         */
+        public static boolean isValidWeight(int weight) {
+            return weight >= 0;
+        }
+
+        /**
+         * Returns the content URI for one page of pets sorted by the given key.
+         *
+         * @param sort     {@link PetQuery#SORT_ID}, {@link PetQuery#SORT_NAME} or
+         *                 {@link PetQuery#SORT_WEIGHT}
+         * @param afterKey sort key of the last row of the previous page, or null for the first page
+         * @param afterId  _id of the last row of the previous page, or -1 for the first page
+         * @param limit    page size
+         */
+        public static Uri buildPageUri(String sort, String afterKey, long afterId, int limit) {
+            return buildPageUri(sort, PetQuery.ANY_GENDER, PetQuery.NO_WEIGHT, PetQuery.NO_WEIGHT,
+                    afterKey, afterId, limit);
+        }
+
+        /**
+         * Returns the content URI for one page of the pets that match the given filters, sorted
+         * by the given key.
+         *
+         * @param gender    the gender of the pets, or {@link PetQuery#ANY_GENDER}
+         * @param minWeight the lowest weight, inclusive, or {@link PetQuery#NO_WEIGHT}
+         * @param maxWeight the highest weight, inclusive, or {@link PetQuery#NO_WEIGHT}
+         * @see #buildPageUri(String, String, long, int)
+         */
+        public static Uri buildPageUri(String sort, int gender, int minWeight, int maxWeight,
+                                       String afterKey, long afterId, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sort)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (gender != PetQuery.ANY_GENDER) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GENDER, String.valueOf(gender));
+            }
+            if (minWeight != PetQuery.NO_WEIGHT) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT,
+                        String.valueOf(minWeight));
+            }
+            if (maxWeight != PetQuery.NO_WEIGHT) {
+                builder.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT,
+                        String.valueOf(maxWeight));
+            }
+            if (afterId >= 0) {
+                if (afterKey != null) {
+                    builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey);
+                }
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the URI for deleting, without notifying observers, at most limit of the
+         * selected pets. A large delete is made by deleting chunks with this URI until none is
+         * left, so the database is not locked for the whole delete, and then notifying
+         * {@link #CONTENT_URI} once.
+         */
+        public static Uri buildDeleteUri(int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_NOTIFY, "false")
+                    .build();
+        }
+
+        /**
+         * Returns the URI for inserting a pet at most once: an insert with a key that is already
+         * in the table doesn't insert anything, and returns the URI of the pet inserted with that
+         * key. A caller that retries an insert after a crash, without knowing whether the first
+         * attempt was committed, uses the same key for both attempts. The key is a positive
+         * number, unique for the caller, like the sequence of a journal.
+         */
+        public static Uri buildInsertUri(long writeKey) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_WRITE_KEY, String.valueOf(writeKey))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that searches for the given text in pet names and breeds.
+         * Each word of the query is matched as a prefix. Without a sort order the results come
+         * by relevance; sorting by {@link #_ID} is much faster on large tables, since the
+         * provider then stops at the result limit instead of ranking every match, and is the
+         * order to use while the user is still typing.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(query).build();
+        }
+
+        /**
+         * Returns the content URI of the photo of the given pet, a JPEG image. It is read with
+         * {@link ContentResolver#openInputStream} and replaced with
+         * {@link ContentResolver#openOutputStream}: the new photo is only shown, and
+         * {@link #COLUMN_PET_PHOTO} only changes, once the stream is closed. Closing the stream
+         * without writing anything removes the photo.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return CONTENT_URI.buildUpon().appendPath(String.valueOf(id)).appendPath(PATH_PHOTO)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that exports every pet in the given format. The URI is read with
+         * {@link ContentResolver#openInputStream}, and the rows are streamed as they are read
+         * from the database.
+         *
+         * @param format {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_JSON}
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_EXPORT_URI.buildUpon().appendPath(format).build();
+        }
+    }
+
+    /* Classe interna que define as estatísticas do abrigo, uma única linha */
+    public static abstract class PetStatsEntry implements BaseColumns {
+
+        /** The content URI to read the statistics of all pets */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}, which always has exactly one row.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * Query parameter of {@link #CONTENT_URI}. When "true", the statistics are compared with
+         * a full recompute over the pets table (and rebuilt if they differ) before being returned.
+         */
+        public static final String QUERY_PARAMETER_VERIFY = "verify";
+
+        public static final String TABLE_NAME = "pet_stats";
+
+        /** Número total de animais */
+        public static final String COLUMN_TOTAL = "total";
+
+        /** Número de animais de cada gênero */
+        public static final String COLUMN_COUNT_UNKNOWN = "count_unknown";
+        public static final String COLUMN_COUNT_MALE = "count_male";
+        public static final String COLUMN_COUNT_FEMALE = "count_female";
+
+        /** Soma dos pesos, usada para calcular a média */
+        public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+
+        /** Maior peso; 0 quando não há animais */
+        public static final String COLUMN_WEIGHT_MAX = "weight_max";
+
+        /** Peso médio (coluna calculada na consulta); nulo quando não há animais */
+        public static final String COLUMN_WEIGHT_AVERAGE = "weight_avg";
     }
 
+    /* Classe interna que define as métricas do provedor, uma linha por operação e URI */
+    public static abstract class PetMetricsEntry implements BaseColumns {
+
+        /** The content URI to read the latency and counters of the provider; read-only */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI,
+                PATH_METRICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /** Operação: query, insert, bulkInsert, update, delete ou applyBatch */
+        public static final String COLUMN_OPERATION = "operation";
+
+        /** URI da operação: pets, pets/#, pets/search... ou * para um lote */
+        public static final String COLUMN_URI_MATCH = "uri_match";
+
+        /** Número de chamadas, incluindo as que falharam */
+        public static final String COLUMN_CALLS = "calls";
 
+        /** Chamadas recusadas por valores ou URI inválidos (IllegalArgumentException) */
+        public static final String COLUMN_VALIDATION_FAILURES = "validation_failures";
 
+        /** Chamadas que falharam por outro motivo */
+        public static final String COLUMN_ERRORS = "errors";
 
+        /** Consultas canceladas pelo cliente antes de terminar (CancellationSignal) */
+        public static final String COLUMN_CANCELLED = "cancelled";
 
+        /** Linhas inseridas, alteradas ou excluídas; as consultas não contam linhas */
+        public static final String COLUMN_ROWS = "rows";
+
+        /** Tempo total das chamadas, em milissegundos */
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+
+        /** Percentis e máximo da duração de uma chamada, em microssegundos */
+        public static final String COLUMN_P50_US = "p50_us";
+        public static final String COLUMN_P90_US = "p90_us";
+        public static final String COLUMN_P99_US = "p99_us";
+        public static final String COLUMN_MAX_US = "max_us";
+    }
 }
@@ -0,0 +1,54 @@
+package com.example.android.pets.data;
+
+/**
+ * Configuração de conexão do banco de dados shelter.db, aplicada por {@link PetDbHelper}
+ * toda vez que o banco é aberto. O journal vale para o arquivo; o cache, o mmap e o modo
+ * synchronous só valem para a conexão principal, a das escritas (veja
+ * {@link PetDbHelper#onConfigure}).
+ */
+public final class PetDbConfig {
+
+    /** Valores possíveis para {@link #synchronousMode}, iguais aos do PRAGMA synchronous */
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    /**
+     * Configuração padrão do aplicativo: WAL ligado, 2 MB de cache de páginas, 32 MB de mmap e
+     * synchronous NORMAL, que com WAL não corrompe o banco e só faz fsync nos checkpoints.
+     */
+    public static final PetDbConfig DEFAULT =
+            new PetDbConfig(true, 2 * 1024, 32L * 1024 * 1024, SYNCHRONOUS_NORMAL);
+
+    /** Se verdadeiro, usa o journal write-ahead log, que permite leituras durante uma escrita */
+    public final boolean writeAheadLogging;
+
+    /** Tamanho do cache de páginas da conexão principal, em KB */
+    public final int cacheSizeKb;
+
+    /** Quantidade máxima do arquivo mapeada em memória, em bytes (0 desliga o mmap) */
+    public final long mmapSizeBytes;
+
+    /**
+     * Modo do PRAGMA synchronous: {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL} ou
+     * {@link #SYNCHRONOUS_FULL}.
+     */
+    public final int synchronousMode;
+
+    public PetDbConfig(boolean writeAheadLogging, int cacheSizeKb, long mmapSizeBytes,
+                       int synchronousMode) {
+        if (cacheSizeKb <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + cacheSizeKb);
+        }
+        if (mmapSizeBytes < 0) {
+            throw new IllegalArgumentException("Mmap size must not be negative: " + mmapSizeBytes);
+        }
+        if (synchronousMode < SYNCHRONOUS_OFF || synchronousMode > SYNCHRONOUS_FULL) {
+            throw new IllegalArgumentException("Unknown synchronous mode: " + synchronousMode);
+        }
+        this.writeAheadLogging = writeAheadLogging;
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.synchronousMode = synchronousMode;
+    }
+}
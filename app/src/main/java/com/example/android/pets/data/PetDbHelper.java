@@ -1,9 +1,13 @@
 package com.example.android.pets.data;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
-import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
 
 public class PetDbHelper extends SQLiteOpenHelper {
 
@@ -12,17 +16,40 @@ public class PetDbHelper extends SQLiteOpenHelper {
     /** Nome do arquivo de Banco de Dados */
     private static final String DATABASE_NAME = "shelter.db";
     /**
-     * Versão do banco de dados. Se você alterar o esquema do banco de dados, você deve incrementar a versão do banco de dados.
+     * Versão do banco de dados. Se você alterar o esquema do banco de dados, você deve incrementar
+     * a versão em {@link PetSchema#VERSION}.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = PetSchema.VERSION;
+
+    /** Configuração aplicada às conexões toda vez que o banco é aberto */
+    private final PetDbConfig mConfig;
 
     /**
-     * Constrói uma nova instância de {@link PetDbHelper}.
+     * Constrói uma nova instância de {@link PetDbHelper} com a {@link PetDbConfig#DEFAULT}.
      *
      * @param context do aplicativo
      */
     public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, PetDbConfig.DEFAULT);
+    }
+
+    /**
+     * Constrói uma nova instância de {@link PetDbHelper}.
+     *
+     * @param context do aplicativo
+     * @param config journal, cache, mmap e modo synchronous do banco
+     */
+    public PetDbHelper(Context context, PetDbConfig config) {
+        this(context, DATABASE_NAME, config);
+    }
+
+    /**
+     * Constrói um {@link PetDbHelper} para outro arquivo, para que os testes não mexam no banco
+     * do aplicativo.
+     */
+    PetDbHelper(Context context, String name, PetDbConfig config) {
+        super(context, name, null, DATABASE_VERSION);
+        mConfig = config;
     }
 
     /**
@@ -30,24 +57,147 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Crie uma String que contenha o esquema SQL para criar uma tabela Pets
-        String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
-                + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
-                + PetEntry.COLUMN_PET_BREED + " TEXT, "
-                + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
-                + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+        // 	Execute a instrução SQL que cria a tabela Pets
+        db.execSQL(PetSchema.CREATE_PETS_TABLE);
 
-        // 	Execute a instrução SQL
-        db.execSQL(SQL_CREATE_PETS_TABLE);
+        // A tabela acima é o esquema da versão 1. Um banco novo passa pelas mesmas migrações
+        // que um banco antigo, assim os dois caminhos sempre chegam ao mesmo esquema.
+        onUpgrade(db, 1, DATABASE_VERSION);
+    }
+
+    /**
+     * Chamado toda vez que o banco é aberto, antes de onCreate e onUpgrade e fora de qualquer
+     * transação, a partir da API 16. Configurar aqui faz as migrações já rodarem com WAL e com
+     * o cache maior.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
+    }
+
+    /**
+     * Chamado toda vez que o banco é aberto, fora de qualquer transação.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Antes da API 16 não existe onConfigure
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configure(db);
+        }
+    }
+
+    /**
+     * Aplica a {@link PetDbConfig} ao banco.
+     *
+     * Com WAL, uma escrita do EditorActivity não bloqueia as leituras do catálogo: o
+     * SQLiteDatabase passa a manter um pool de conexões e as consultas usam conexões
+     * secundárias enquanto a principal segura a transação.
+     *
+     * Os PRAGMAs, porém, só valem para a conexão em que são executados, e o SQLiteDatabase não
+     * dá acesso às conexões secundárias: elas são abertas pelo pool quando uma leitura precisa
+     * delas, sem nenhum callback, e ficam com o cache_size e o mmap_size padrão do SQLite. Só a
+     * conexão principal é ajustada. Ela faz todas as escritas, então o synchronous, que só
+     * afeta escritas, vale para todo o banco; e as leituras feitas dentro de uma transação, como
+     * as dos lotes, também a usam.
+     */
+    private void configure(SQLiteDatabase db) {
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (mConfig.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        }
+
+        // O valor negativo em cache_size é em KB, não em páginas
+        execPragma(db, "cache_size = " + (-mConfig.cacheSizeKb));
+        execPragma(db, "mmap_size = " + mConfig.mmapSizeBytes);
+        execPragma(db, "synchronous = " + mConfig.synchronousMode);
+    }
+
+    /**
+     * Executa um PRAGMA. Alguns PRAGMAs devolvem uma linha, o que faz o execSQL falhar, então
+     * usamos rawQuery e percorremos o resultado.
+     */
+    static void execPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
      * Isso é chamado quando o banco de dados precisa ser atualizado.
+     * Aplica, em ordem, cada migração entre oldVersion e newVersion. O SQLiteOpenHelper já
+     * executa este método dentro de uma transação, então uma falha desfaz todas as etapas.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // O banco de dados ainda está na versão 1, então não há nada que seja feito aqui.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(db, version);
+        }
+    }
+
+    /**
+     * Leva o banco da versão toVersion - 1 para a versão toVersion, com as instruções de
+     * {@link PetSchema#getMigration}.
+     */
+    private static void migrate(SQLiteDatabase db, int toVersion) {
+        for (String sql : PetSchema.getMigration(toVersion)) {
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * Compara a linha da tabela de estatísticas com um recálculo completo sobre a tabela pets.
+     * Percorre toda a tabela, então serve para verificação, não para a leitura normal.
+     *
+     * @return true se as duas batem; as diferenças são registradas no log
+     */
+    public static boolean checkStats(SQLiteDatabase db) {
+        long[] stored = readStats(db, PetSchema.SQL_SELECT_STATS);
+        long[] expected = readStats(db, PetSchema.SQL_RECOMPUTE_STATS);
+        if (stored == null) {
+            Log.e(LOG_TAG, "Missing row in " + PetStatsEntry.TABLE_NAME);
+            return false;
+        }
+
+        boolean consistent = true;
+        for (int i = 0; i < PetSchema.STATS_COLUMNS.length; i++) {
+            if (stored[i] != expected[i]) {
+                Log.e(LOG_TAG, "Inconsistent " + PetSchema.STATS_COLUMNS[i] + ": stored "
+                        + stored[i] + ", recomputed " + expected[i]);
+                consistent = false;
+            }
+        }
+        return consistent;
+    }
+
+    /**
+     * Substitui a linha da tabela de estatísticas por um recálculo completo sobre a tabela pets.
+     */
+    public static void rebuildStats(SQLiteDatabase db) {
+        db.execSQL(PetSchema.SQL_REBUILD_STATS);
     }
 
-}
\ No newline at end of file
+    /** Lê a primeira linha da consulta como números, na ordem de {@link PetSchema#STATS_COLUMNS} */
+    private static long[] readStats(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            long[] values = new long[PetSchema.STATS_COLUMNS.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = cursor.getLong(i);
+            }
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+}
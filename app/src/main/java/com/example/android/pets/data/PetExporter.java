@@ -0,0 +1,341 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Escreve todos os animais de estimação num pipe, em CSV ou JSON, para
+ * {@link ContentProvider#openPipeHelper}.
+ *
+ * A tabela é lida em blocos de {@link #CHUNK_ROWS} linhas, cada um começando depois do último
+ * _id do bloco anterior (veja {@link PetQuery}). Cada bloco é uma busca curta na chave primária,
+ * o cursor nunca conta a tabela inteira e nenhuma leitura segura o banco durante toda a
+ * exportação. Os textos são copiados do cursor para buffers reutilizados e escritos num
+ * {@link BufferedWriter} de tamanho fixo, então a memória usada não depende do tamanho da
+ * tabela.
+ *
+ * A exportação não é um retrato de um instante: uma escrita feita durante a exportação pode
+ * aparecer ou não. Cada animal que existe do começo ao fim aparece exatamente uma vez, na ordem
+ * do _id.
+ */
+public final class PetExporter implements ContentProvider.PipeDataWriter<String> {
+
+    private static final String LOG_TAG = PetExporter.class.getSimpleName();
+
+    /** Linhas lidas por consulta */
+    private static final int CHUNK_ROWS = 1000;
+
+    /** Tamanho, em caracteres, do buffer de escrita */
+    private static final int BUFFER_CHARS = 32 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Colunas exportadas, na ordem em que são escritas */
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final PetDbHelper mDbHelper;
+
+    public PetExporter(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Retorna o tipo MIME do formato dado, ou null se o formato não é conhecido.
+     */
+    public static String getType(String format) {
+        if (PetEntry.EXPORT_FORMAT_CSV.equals(format)) {
+            return PetEntry.EXPORT_CSV_TYPE;
+        }
+        if (PetEntry.EXPORT_FORMAT_JSON.equals(format)) {
+            return PetEntry.EXPORT_JSON_TYPE;
+        }
+        return null;
+    }
+
+    /**
+     * Chamado numa thread em segundo plano pelo {@link ContentProvider#openPipeHelper}, que fecha
+     * o pipe quando este método retorna.
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, String format) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor()), UTF_8), BUFFER_CHARS);
+        try {
+            long rows = export(writer, PetEntry.EXPORT_FORMAT_JSON.equals(format));
+            writer.flush();
+            Log.i(LOG_TAG, "Exported " + rows + " pets as " + format);
+        } catch (IOException e) {
+            // Quem lia o pipe o fechou antes do fim
+            Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+        }
+    }
+
+    /**
+     * Escreve todos os animais e retorna quantos foram escritos.
+     */
+    private long export(Writer writer, boolean json) throws IOException {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        RowWriter rowWriter = newRowWriter(writer, json);
+        CharArrayBuffer name = new CharArrayBuffer(64);
+        CharArrayBuffer breed = new CharArrayBuffer(64);
+
+        rowWriter.begin();
+        long rows = 0;
+        long lastId = -1;
+        int chunkRows;
+        do {
+            PetQuery chunk = new PetQuery(PetQuery.SORT_ID, null, lastId, CHUNK_ROWS);
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, COLUMNS,
+                    PetQuery.andSelection(PetSchema.SELECTION_LIVE, chunk.getSelection()),
+                    chunk.getSelectionArgs(), null, null, chunk.getSortOrder(), chunk.getLimit());
+            chunkRows = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    cursor.copyStringToBuffer(1, name);
+                    boolean hasBreed = !cursor.isNull(2);
+                    if (hasBreed) {
+                        cursor.copyStringToBuffer(2, breed);
+                    }
+                    rowWriter.row(rows, lastId, name, hasBreed ? breed : null,
+                            cursor.getInt(3), cursor.getInt(4));
+                    rows++;
+                    chunkRows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (chunkRows == CHUNK_ROWS);
+        rowWriter.end();
+        return rows;
+    }
+
+    /**
+     * Retorna quem escreve as linhas em JSON ou CSV. Os testes usam as linhas sem o banco, para
+     * lê-las de volta com o {@link PetImporter}.
+     */
+    static RowWriter newRowWriter(Writer out, boolean json) {
+        return json ? new JsonRowWriter(out) : new CsvRowWriter(out);
+    }
+
+    /** Escreve o começo, as linhas e o fim da exportação num formato */
+    abstract static class RowWriter {
+
+        final Writer mOut;
+
+        /** Dígitos de um número, escritos sem criar uma String */
+        private final char[] mDigits = new char[20];
+
+        RowWriter(Writer out) {
+            mOut = out;
+        }
+
+        abstract void begin() throws IOException;
+
+        /**
+         * @param index posição da linha na exportação, começando em 0
+         * @param breed null se a raça é nula
+         */
+        abstract void row(long index, long id, CharArrayBuffer name, CharArrayBuffer breed,
+                          int gender, int weight) throws IOException;
+
+        abstract void end() throws IOException;
+
+        void writeNumber(long value) throws IOException {
+            if (value < 0) {
+                // Não acontece com as colunas exportadas; Long.MIN_VALUE não cabe no laço abaixo
+                mOut.write(Long.toString(value));
+                return;
+            }
+            int start = mDigits.length;
+            do {
+                mDigits[--start] = (char) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            mOut.write(mDigits, start, mDigits.length - start);
+        }
+    }
+
+    /**
+     * CSV (RFC 4180) com cabeçalho. Um campo com vírgula, aspas ou quebra de linha é escrito
+     * entre aspas, com as aspas dobradas; a raça nula é um campo vazio.
+     */
+    private static final class CsvRowWriter extends RowWriter {
+
+        CsvRowWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin() throws IOException {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    mOut.write(',');
+                }
+                mOut.write(COLUMNS[i]);
+            }
+            mOut.write("\r\n");
+        }
+
+        @Override
+        void row(long index, long id, CharArrayBuffer name, CharArrayBuffer breed, int gender,
+                 int weight) throws IOException {
+            writeNumber(id);
+            mOut.write(',');
+            writeField(name);
+            mOut.write(',');
+            if (breed != null) {
+                writeField(breed);
+            }
+            mOut.write(',');
+            writeNumber(gender);
+            mOut.write(',');
+            writeNumber(weight);
+            mOut.write("\r\n");
+        }
+
+        @Override
+        void end() {
+        }
+
+        private void writeField(CharArrayBuffer field) throws IOException {
+            char[] data = field.data;
+            int length = field.sizeCopied;
+            boolean quote = false;
+            for (int i = 0; i < length && !quote; i++) {
+                char c = data[i];
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                mOut.write(data, 0, length);
+                return;
+            }
+
+            mOut.write('"');
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (data[i] == '"') {
+                    // Escreve até as aspas, inclusive, e as repete
+                    mOut.write(data, start, i + 1 - start);
+                    mOut.write('"');
+                    start = i + 1;
+                }
+            }
+            mOut.write(data, start, length - start);
+            mOut.write('"');
+        }
+    }
+
+    /**
+     * Um array JSON com um objeto por animal; a raça nula é null.
+     */
+    private static final class JsonRowWriter extends RowWriter {
+
+        JsonRowWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin() throws IOException {
+            mOut.write('[');
+        }
+
+        @Override
+        void row(long index, long id, CharArrayBuffer name, CharArrayBuffer breed, int gender,
+                 int weight) throws IOException {
+            if (index > 0) {
+                mOut.write(',');
+            }
+            mOut.write("\n{\"");
+            mOut.write(PetEntry._ID);
+            mOut.write("\":");
+            writeNumber(id);
+            writeKey(PetEntry.COLUMN_PET_NAME);
+            writeString(name);
+            writeKey(PetEntry.COLUMN_PET_BREED);
+            if (breed != null) {
+                writeString(breed);
+            } else {
+                mOut.write("null");
+            }
+            writeKey(PetEntry.COLUMN_PET_GENDER);
+            writeNumber(gender);
+            writeKey(PetEntry.COLUMN_PET_WEIGHT);
+            writeNumber(weight);
+            mOut.write('}');
+        }
+
+        @Override
+        void end() throws IOException {
+            mOut.write("\n]\n");
+        }
+
+        private void writeKey(String key) throws IOException {
+            mOut.write(",\"");
+            mOut.write(key);
+            mOut.write("\":");
+        }
+
+        private void writeString(CharArrayBuffer value) throws IOException {
+            char[] data = value.data;
+            int length = value.sizeCopied;
+            mOut.write('"');
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                char c = data[i];
+                if (c != '"' && c != '\\' && c >= 0x20) {
+                    continue;
+                }
+                mOut.write(data, start, i - start);
+                start = i + 1;
+                switch (c) {
+                    case '"':
+                        mOut.write("\\\"");
+                        break;
+                    case '\\':
+                        mOut.write("\\\\");
+                        break;
+                    case '\n':
+                        mOut.write("\\n");
+                        break;
+                    case '\r':
+                        mOut.write("\\r");
+                        break;
+                    case '\t':
+                        mOut.write("\\t");
+                        break;
+                    default:
+                        mOut.write("\\u00");
+                        mOut.write(HEX_DIGITS[c >> 4]);
+                        mOut.write(HEX_DIGITS[c & 0xf]);
+                        break;
+                }
+            }
+            mOut.write(data, start, length - start);
+            mOut.write('"');
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Importa animais de estimação de um arquivo CSV ou JSON, nos formatos escritos pelo
+ * {@link PetExporter}.
+ *
+ * O arquivo é lido registro por registro, sem ser carregado inteiro. Cada registro é validado
+ * com as mesmas regras do {@link com.example.android.pets.PetProvider} (nome presente, gênero
+ * válido e peso zero ou mais); um registro inválido é rejeitado e informado ao {@link Listener},
+ * sem interromper a importação. Os registros válidos são enviados em blocos de
+ * {@link #CHUNK_ROWS} por {@link ContentResolver#bulkInsert}, que grava cada bloco numa
+ * transação com as instruções pré-compiladas. Os ContentValues dos blocos são reutilizados, então
+ * a memória usada não depende do tamanho do arquivo.
+ *
+ * Os observadores são notificados uma única vez, no fim. Se a importação for cancelada ou
+ * falhar, os blocos já gravados permanecem.
+ *
+ * Faz E/S e escreve no banco, então deve ser executado fora da thread principal.
+ */
+public final class PetImporter {
+
+    /** Recebe o andamento da importação, na thread que executa {@link #importPets} */
+    public interface Listener {
+        /**
+         * Chamado depois de cada bloco gravado.
+         *
+         * @param recordsRead   registros lidos do arquivo até agora
+         * @param petsImported  animais gravados até agora
+         */
+        void onProgress(long recordsRead, long petsImported);
+
+        /**
+         * Chamado para cada registro rejeitado.
+         *
+         * @param record número do registro no arquivo, começando em 1 (sem contar o cabeçalho)
+         * @param reason por que o registro foi rejeitado
+         */
+        void onReject(long record, String reason);
+    }
+
+    /** Formatos aceitos, os mesmos da exportação */
+    public static final String FORMAT_CSV = PetEntry.EXPORT_FORMAT_CSV;
+    public static final String FORMAT_JSON = PetEntry.EXPORT_FORMAT_JSON;
+
+    /** Registros gravados por transação */
+    private static final int CHUNK_ROWS = 500;
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+
+    /** URI dos blocos; o importador notifica sozinho no fim */
+    private final Uri mInsertUri = PetEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(PetEntry.QUERY_PARAMETER_NOTIFY, "false")
+            .build();
+
+    /** Bloco em montagem; os ContentValues são criados uma vez e reaproveitados */
+    private final ContentValues[] mChunk = new ContentValues[CHUNK_ROWS];
+    private int mChunkSize;
+
+    private long mRecordsRead;
+    private long mPetsImported;
+    private long mRecordsRejected;
+
+    private volatile boolean mCancelled;
+
+    public PetImporter(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+        for (int i = 0; i < CHUNK_ROWS; i++) {
+            mChunk[i] = new ContentValues(4);
+        }
+    }
+
+    /**
+     * Importa os animais lidos de reader, que não é fechado.
+     *
+     * @param format {@link #FORMAT_CSV} ou {@link #FORMAT_JSON}
+     * @return número de animais gravados
+     * @throws IOException se o arquivo não pode ser lido ou não está no formato
+     */
+    public long importPets(Reader reader, String format) throws IOException {
+        RecordReader records;
+        if (FORMAT_CSV.equals(format)) {
+            records = new CsvRecordReader(reader);
+        } else if (FORMAT_JSON.equals(format)) {
+            records = new JsonRecordReader(reader);
+        } else {
+            throw new IllegalArgumentException("Unknown import format " + format);
+        }
+
+        try {
+            Record record = new Record();
+            while (!mCancelled && records.next(record)) {
+                mRecordsRead++;
+                addRecord(record);
+                if (mChunkSize == CHUNK_ROWS) {
+                    flushChunk();
+                }
+            }
+            if (!mCancelled) {
+                flushChunk();
+            }
+        } finally {
+            if (mPetsImported > 0) {
+                mResolver.notifyChange(PetEntry.CONTENT_URI, null);
+            }
+        }
+        return mPetsImported;
+    }
+
+    /**
+     * Interrompe a importação depois do registro atual. Pode ser chamado de qualquer thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public long getRecordsRead() {
+        return mRecordsRead;
+    }
+
+    public long getPetsImported() {
+        return mPetsImported;
+    }
+
+    public long getRecordsRejected() {
+        return mRecordsRejected;
+    }
+
+    /**
+     * Valida o registro e, se ele for válido, o copia para o próximo ContentValues do bloco.
+     * Todas as colunas são preenchidas, para que o provedor use a inserção pré-compilada.
+     */
+    private void addRecord(Record record) {
+        if (record.name == null || record.name.isEmpty()) {
+            reject("Pet requires a name");
+            return;
+        }
+        int gender;
+        try {
+            gender = Integer.parseInt(record.gender);
+        } catch (NumberFormatException e) {
+            reject("Pet requires valid gender: " + record.gender);
+            return;
+        }
+        if (!PetEntry.isValidGender(gender)) {
+            reject("Pet requires valid gender: " + gender);
+            return;
+        }
+        int weight = 0;
+        if (record.weight != null && !record.weight.isEmpty()) {
+            try {
+                weight = Integer.parseInt(record.weight);
+            } catch (NumberFormatException e) {
+                reject("Pet requires valid weight: " + record.weight);
+                return;
+            }
+        }
+        if (!PetEntry.isValidWeight(weight)) {
+            reject("Pet requires valid weight: " + weight);
+            return;
+        }
+
+        ContentValues values = mChunk[mChunkSize++];
+        values.put(PetEntry.COLUMN_PET_NAME, record.name);
+        if (record.breed == null || record.breed.isEmpty()) {
+            values.putNull(PetEntry.COLUMN_PET_BREED);
+        } else {
+            values.put(PetEntry.COLUMN_PET_BREED, record.breed);
+        }
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+    }
+
+    private void reject(String reason) {
+        mRecordsRejected++;
+        mListener.onReject(mRecordsRead, reason);
+    }
+
+    /** Grava o bloco em montagem numa única transação */
+    private void flushChunk() {
+        if (mChunkSize == 0) {
+            return;
+        }
+        ContentValues[] chunk = mChunk;
+        if (mChunkSize < CHUNK_ROWS) {
+            // Último bloco, menor
+            chunk = new ContentValues[mChunkSize];
+            System.arraycopy(mChunk, 0, chunk, 0, mChunkSize);
+        }
+        int inserted = mResolver.bulkInsert(mInsertUri, chunk);
+        mPetsImported += inserted;
+        if (inserted < mChunkSize) {
+            // O banco recusou linhas já validadas; o provedor registra o motivo no log
+            mRecordsRejected += mChunkSize - inserted;
+            mListener.onReject(mRecordsRead, (mChunkSize - inserted)
+                    + " pets were rejected by the database");
+        }
+        mChunkSize = 0;
+        mListener.onProgress(mRecordsRead, mPetsImported);
+    }
+
+    /** Campos de um registro, como texto; null se o campo não existe ou é nulo */
+    private static final class Record {
+        String name;
+        String breed;
+        String gender;
+        String weight;
+
+        void clear() {
+            name = null;
+            breed = null;
+            gender = null;
+            weight = null;
+        }
+
+        /** Guarda o valor se a chave é uma das colunas importadas; as outras são ignoradas */
+        void set(String key, String value) {
+            if (PetEntry.COLUMN_PET_NAME.equals(key)) {
+                name = value;
+            } else if (PetEntry.COLUMN_PET_BREED.equals(key)) {
+                breed = value;
+            } else if (PetEntry.COLUMN_PET_GENDER.equals(key)) {
+                gender = value;
+            } else if (PetEntry.COLUMN_PET_WEIGHT.equals(key)) {
+                weight = value;
+            }
+        }
+    }
+
+    /** Lê um registro por vez de um arquivo */
+    private abstract static class RecordReader {
+
+        private final Reader mIn;
+
+        /** Caractere lido por {@link #peek()} e ainda não consumido, ou -2 se nenhum */
+        private int mPeeked = -2;
+
+        /** Linha atual, para as mensagens de erro */
+        int mLine = 1;
+
+        RecordReader(Reader in) {
+            mIn = in;
+        }
+
+        /**
+         * Preenche record com o próximo registro. Retorna false no fim do arquivo.
+         */
+        abstract boolean next(Record record) throws IOException;
+
+        /** Lê o próximo caractere, ou -1 no fim do arquivo */
+        int read() throws IOException {
+            int c;
+            if (mPeeked != -2) {
+                c = mPeeked;
+                mPeeked = -2;
+            } else {
+                c = mIn.read();
+            }
+            if (c == '\n') {
+                mLine++;
+            }
+            return c;
+        }
+
+        /** Retorna o próximo caractere sem consumi-lo, ou -1 no fim do arquivo */
+        int peek() throws IOException {
+            if (mPeeked == -2) {
+                mPeeked = mIn.read();
+            }
+            return mPeeked;
+        }
+
+        IOException error(String message) {
+            return new IOException("Line " + mLine + ": " + message);
+        }
+    }
+
+    /**
+     * CSV (RFC 4180) cuja primeira linha tem os nomes das colunas. Aceita quebras de linha
+     * \r\n ou \n, e campos entre aspas com aspas dobradas. A coluna _id é ignorada: cada animal
+     * importado recebe um _id novo.
+     */
+    private static final class CsvRecordReader extends RecordReader {
+
+        /** Campos do registro atual e o texto do campo em leitura, reutilizados */
+        private final List<String> mFields = new ArrayList<>();
+        private final StringBuilder mField = new StringBuilder();
+
+        /** Nome da coluna de cada posição, lido do cabeçalho */
+        private String[] mHeader;
+
+        CsvRecordReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        boolean next(Record record) throws IOException {
+            if (mHeader == null) {
+                if (!readFields()) {
+                    return false;
+                }
+                mHeader = mFields.toArray(new String[mFields.size()]);
+            }
+
+            // Linhas em branco são puladas
+            do {
+                if (!readFields()) {
+                    return false;
+                }
+            } while (mFields.size() == 1 && mFields.get(0).isEmpty());
+
+            record.clear();
+            for (int i = 0; i < mFields.size() && i < mHeader.length; i++) {
+                record.set(mHeader[i], mFields.get(i));
+            }
+            return true;
+        }
+
+        /** Lê os campos da próxima linha. Retorna false no fim do arquivo. */
+        private boolean readFields() throws IOException {
+            mFields.clear();
+            if (peek() == -1) {
+                return false;
+            }
+            while (true) {
+                mField.setLength(0);
+                int c = read();
+                if (c == '"') {
+                    // Campo entre aspas: vai até as aspas que não são seguidas de outras aspas
+                    while (true) {
+                        c = read();
+                        if (c == -1) {
+                            throw error("Unterminated quoted field");
+                        }
+                        if (c == '"') {
+                            if (peek() != '"') {
+                                break;
+                            }
+                            read();
+                        }
+                        mField.append((char) c);
+                    }
+                    c = read();
+                } else {
+                    while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                        mField.append((char) c);
+                        c = read();
+                    }
+                }
+                mFields.add(mField.toString());
+
+                if (c == ',') {
+                    continue;
+                }
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                } else if (c != '\n' && c != '\r' && c != -1) {
+                    throw error("Unexpected character after quoted field: " + (char) c);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * JSON com um objeto por animal, dentro de um array (como na exportação) ou um depois do
+     * outro. Cada objeto só pode ter valores texto, número, booleano ou null. A chave _id é
+     * ignorada: cada animal importado recebe um _id novo.
+     */
+    private static final class JsonRecordReader extends RecordReader {
+
+        private final StringBuilder mText = new StringBuilder();
+
+        /** Se o arquivo começa com "[" */
+        private boolean mInArray;
+        private boolean mStarted;
+
+        JsonRecordReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        boolean next(Record record) throws IOException {
+            int c = skipWhitespace();
+            if (!mStarted) {
+                mStarted = true;
+                if (c == '[') {
+                    mInArray = true;
+                    read();
+                    c = skipWhitespace();
+                }
+            } else if (c == ',') {
+                read();
+                c = skipWhitespace();
+            }
+
+            if (c == -1) {
+                if (mInArray) {
+                    throw error("Unterminated array");
+                }
+                return false;
+            }
+            if (c == ']' && mInArray) {
+                read();
+                if (skipWhitespace() != -1) {
+                    throw error("Unexpected content after the array");
+                }
+                return false;
+            }
+            if (c != '{') {
+                throw error("Expected an object");
+            }
+            read();
+
+            record.clear();
+            c = skipWhitespace();
+            if (c == '}') {
+                read();
+                return true;
+            }
+            while (true) {
+                if (skipWhitespace() != '"') {
+                    throw error("Expected a key");
+                }
+                String key = readString();
+                if (skipWhitespace() != ':') {
+                    throw error("Expected ':' after " + key);
+                }
+                read();
+                record.set(key, readValue());
+
+                c = skipWhitespace();
+                read();
+                if (c == '}') {
+                    return true;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        /** Lê um valor texto, número, booleano ou null. Retorna o texto do valor. */
+        private String readValue() throws IOException {
+            int c = skipWhitespace();
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                throw error("Nested values are not supported");
+            }
+            mText.setLength(0);
+            while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                mText.append((char) read());
+                c = peek();
+            }
+            String literal = mText.toString();
+            if (literal.isEmpty()) {
+                throw error("Expected a value");
+            }
+            return "null".equals(literal) ? null : literal;
+        }
+
+        /** Lê um texto entre aspas, tratando os escapes */
+        private String readString() throws IOException {
+            read();
+            mText.setLength(0);
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    throw error("Unterminated string");
+                }
+                if (c == '"') {
+                    return mText.toString();
+                }
+                if (c != '\\') {
+                    mText.append((char) c);
+                    continue;
+                }
+                c = read();
+                switch (c) {
+                    case 'n':
+                        mText.append('\n');
+                        break;
+                    case 'r':
+                        mText.append('\r');
+                        break;
+                    case 't':
+                        mText.append('\t');
+                        break;
+                    case 'b':
+                        mText.append('\b');
+                        break;
+                    case 'f':
+                        mText.append('\f');
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error("Invalid \\u escape");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        mText.append((char) code);
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        mText.append((char) c);
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            }
+        }
+
+        /** Pula os espaços e retorna o próximo caractere sem consumi-lo */
+        private int skipWhitespace() throws IOException {
+            int c = peek();
+            while (c != -1 && Character.isWhitespace(c)) {
+                read();
+                c = peek();
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Carrega animais gerados pelo {@link ShelterDataGenerator} através do
+ * {@link com.example.android.pets.PetProvider} e mede o provedor sob uma carga mista de leituras
+ * e escritas.
+ *
+ * {@link #load} envia os animais em blocos de {@link #CHUNK_ROWS} por
+ * {@link ContentResolver#bulkInsert}, como o {@link PetImporter}: cada bloco é uma transação
+ * com a inserção pré-compilada, os ContentValues são reaproveitados e os observadores são
+ * notificados uma única vez, no fim.
+ *
+ * {@link #drive} repete, numa taxa fixa de operações por segundo, a mistura de
+ * {@link #OP_MIX}: páginas do catálogo em ordens e filtros sorteados, animais lidos pelo _id,
+ * buscas por prefixos de nomes, inserções, atualizações e exclusões. As escritas só alteram
+ * os animais inseridos pela própria carga, então os dados do usuário só são lidos. A carga é
+ * de laço aberto: cada operação tem a sua hora marcada, e a latência é contada a partir dessa
+ * hora, não de quando a operação começou. Assim, quando o provedor não acompanha a taxa, a
+ * espera das operações atrasadas aparece nos percentis em vez de sumir.
+ *
+ * A mesma semente repete a mesma sequência de animais e de operações. Escreve no banco, então
+ * deve ser executado fora da thread principal.
+ */
+public final class PetLoadDriver {
+
+    /** Recebe o andamento, na thread que executa {@link #load} ou {@link #drive} */
+    public interface Listener {
+        /**
+         * Chamado depois de cada bloco carregado e a cada segundo da carga mista.
+         *
+         * @param done  animais carregados ou operações feitas até agora
+         * @param total animais a carregar ou operações previstas
+         */
+        void onProgress(long done, long total);
+    }
+
+    /** Operações da carga mista */
+    private static final int OP_PAGE = 0;
+    private static final int OP_PET = 1;
+    private static final int OP_SEARCH = 2;
+    private static final int OP_INSERT = 3;
+    private static final int OP_UPDATE = 4;
+    private static final int OP_DELETE = 5;
+
+    private static final String[] OP_NAMES = {
+            "page", "pet", "search", "insert", "update", "delete" };
+
+    /** Fração de cada operação na carga mista, na ordem das constantes OP_* */
+    private static final double[] OP_MIX = { 0.50, 0.20, 0.10, 0.10, 0.07, 0.03 };
+
+    /** Animais gravados por transação ao carregar */
+    private static final int CHUNK_ROWS = 500;
+
+    /** Tamanho da página do catálogo, o mesmo do PetPager */
+    private static final int PAGE_SIZE = 50;
+
+    /** Quantos animais inseridos pela carga mista ficam disponíveis para as escritas */
+    private static final int MAX_OWN_IDS = 10000;
+
+    private static final String[] PAGE_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private static final String[] PET_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Colunas da busca, as mesmas da busca do catálogo sem a foto */
+    private static final String[] SEARCH_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED };
+
+    private static final String[] SORTS = {
+            PetQuery.SORT_NAME, PetQuery.SORT_WEIGHT, PetQuery.SORT_ID };
+
+    private static final int[] GENDERS = {
+            PetQuery.ANY_GENDER, PetQuery.ANY_GENDER, PetEntry.GENDER_MALE,
+            PetEntry.GENDER_FEMALE };
+
+    /** Ordem da busca, a mesma da busca do catálogo */
+    private static final String SEARCH_SORT_ORDER = PetEntry._ID + " DESC";
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+    private final ShelterDataGenerator mGenerator;
+    private final Random mRandom;
+
+    /** URI dos blocos; a carga notifica sozinha no fim */
+    private final Uri mInsertUri = PetEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(PetEntry.QUERY_PARAMETER_NOTIFY, "false")
+            .build();
+
+    /** ContentValues das escritas, reaproveitados */
+    private final ContentValues[] mChunk = new ContentValues[CHUNK_ROWS];
+
+    /** _id da última página lida, para as leituras pelo _id */
+    private final long[] mPageIds = new long[PAGE_SIZE];
+    private int mPageIdCount;
+
+    /** _id dos animais inseridos pela carga mista e ainda não excluídos */
+    private final long[] mOwnIds = new long[MAX_OWN_IDS];
+    private int mOwnIdCount;
+
+    private volatile boolean mCancelled;
+
+    public PetLoadDriver(ContentResolver resolver, long seed, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+        mGenerator = new ShelterDataGenerator(seed);
+        mRandom = new Random(seed);
+        for (int i = 0; i < CHUNK_ROWS; i++) {
+            mChunk[i] = new ContentValues(4);
+        }
+    }
+
+    /**
+     * Carrega rows animais gerados, ou os que houver até o cancelamento.
+     *
+     * @return número de animais gravados
+     */
+    public long load(long rows) {
+        long loaded = 0;
+        try {
+            while (loaded < rows && !mCancelled) {
+                int size = (int) Math.min(CHUNK_ROWS, rows - loaded);
+                ContentValues[] chunk = mChunk;
+                if (size < CHUNK_ROWS) {
+                    // Último bloco, menor
+                    chunk = new ContentValues[size];
+                    System.arraycopy(mChunk, 0, chunk, 0, size);
+                }
+                for (ContentValues values : chunk) {
+                    nextPet(values);
+                }
+                loaded += mResolver.bulkInsert(mInsertUri, chunk);
+                mListener.onProgress(loaded, rows);
+            }
+        } finally {
+            if (loaded > 0) {
+                mResolver.notifyChange(PetEntry.CONTENT_URI, null);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Executa a carga mista na taxa dada durante o tempo dado, ou até o cancelamento, e
+     * retorna a vazão alcançada e as latências de cada operação.
+     */
+    public Report drive(int opsPerSecond, long durationMillis) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / opsPerSecond;
+        long total = opsPerSecond * durationMillis / 1000;
+        Report report = new Report(opsPerSecond);
+
+        long startNanos = System.nanoTime();
+        long ops = 0;
+        while (ops < total && !mCancelled) {
+            long scheduledNanos = startNanos + ops * intervalNanos;
+            long waitNanos;
+            while ((waitNanos = scheduledNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            int op = run(pickOp());
+            report.record(op, System.nanoTime() - scheduledNanos);
+            ops++;
+            if (ops % opsPerSecond == 0) {
+                mListener.onProgress(ops, total);
+            }
+        }
+        report.finish(ops, System.nanoTime() - startNanos);
+        return report;
+    }
+
+    /**
+     * Interrompe a carga depois do bloco ou da operação atual. Pode ser chamado de qualquer
+     * thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private int pickOp() {
+        double value = mRandom.nextDouble();
+        for (int op = 0; op < OP_MIX.length - 1; op++) {
+            value -= OP_MIX[op];
+            if (value < 0) {
+                return op;
+            }
+        }
+        return OP_MIX.length - 1;
+    }
+
+    /**
+     * Executa a operação dada e retorna a operação executada: sem uma página lida, a leitura
+     * pelo _id vira leitura de página, e sem animais da própria carga, as atualizações e
+     * exclusões viram inserções.
+     */
+    private int run(int op) {
+        if (op == OP_PET && mPageIdCount == 0) {
+            op = OP_PAGE;
+        }
+        if ((op == OP_UPDATE || op == OP_DELETE) && mOwnIdCount == 0) {
+            op = OP_INSERT;
+        }
+
+        switch (op) {
+            case OP_PAGE:
+                readPage();
+                break;
+            case OP_PET:
+                readAll(mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                        mPageIds[mRandom.nextInt(mPageIdCount)]), PET_PROJECTION, null, null,
+                        null));
+                break;
+            case OP_SEARCH:
+                // O que o usuário digitou até agora: o começo de um nome
+                mGenerator.next();
+                String name = mGenerator.getName();
+                readAll(mResolver.query(PetEntry.buildSearchUri(
+                        name.substring(0, 1 + mRandom.nextInt(name.length()))),
+                        SEARCH_PROJECTION, null, null, SEARCH_SORT_ORDER));
+                break;
+            case OP_INSERT:
+                Uri uri = mResolver.insert(PetEntry.CONTENT_URI, nextPet(mChunk[0]));
+                if (uri != null) {
+                    addOwnId(ContentUris.parseId(uri));
+                }
+                break;
+            case OP_UPDATE:
+                mResolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                        mOwnIds[mRandom.nextInt(mOwnIdCount)]), nextPet(mChunk[0]), null, null);
+                break;
+            case OP_DELETE:
+                mResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                        removeOwnId(mRandom.nextInt(mOwnIdCount))), null, null);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + op);
+        }
+        return op;
+    }
+
+    /** Lê a primeira página de uma ordem e de um filtro sorteados e guarda os _id dela */
+    private void readPage() {
+        Cursor cursor = mResolver.query(PetEntry.buildPageUri(
+                SORTS[mRandom.nextInt(SORTS.length)], GENDERS[mRandom.nextInt(GENDERS.length)],
+                PetQuery.NO_WEIGHT, PetQuery.NO_WEIGHT, null, -1, PAGE_SIZE),
+                PAGE_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int count = 0;
+            while (cursor.moveToNext() && count < PAGE_SIZE) {
+                mPageIds[count++] = cursor.getLong(0);
+                cursor.getString(1);
+                cursor.getString(2);
+                cursor.getInt(3);
+            }
+            // Uma página vazia mantém os _id da anterior
+            if (count > 0) {
+                mPageIdCount = count;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Lê todas as colunas de todas as linhas, como a lista faria, e fecha o cursor */
+    private static void readAll(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columns; column++) {
+                    cursor.getString(column);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Põe em values o próximo animal gerado e retorna values */
+    private ContentValues nextPet(ContentValues values) {
+        mGenerator.next();
+        values.put(PetEntry.COLUMN_PET_NAME, mGenerator.getName());
+        values.put(PetEntry.COLUMN_PET_BREED, mGenerator.getBreed());
+        values.put(PetEntry.COLUMN_PET_GENDER, mGenerator.getGender());
+        values.put(PetEntry.COLUMN_PET_WEIGHT, mGenerator.getWeight());
+        return values;
+    }
+
+    /** Guarda o _id de um animal inserido; cheio, substitui um _id sorteado */
+    private void addOwnId(long id) {
+        if (mOwnIdCount < MAX_OWN_IDS) {
+            mOwnIds[mOwnIdCount++] = id;
+        } else {
+            mOwnIds[mRandom.nextInt(MAX_OWN_IDS)] = id;
+        }
+    }
+
+    /** Tira e retorna o _id da posição dada, trocando-o pelo último */
+    private long removeOwnId(int index) {
+        long id = mOwnIds[index];
+        mOwnIds[index] = mOwnIds[--mOwnIdCount];
+        return id;
+    }
+
+    /** Vazão alcançada e latências de uma execução de {@link #drive} */
+    public static final class Report {
+
+        private final int mTargetOpsPerSecond;
+        private final LatencyHistogram mAll = new LatencyHistogram();
+        private final LatencyHistogram[] mByOp = new LatencyHistogram[OP_NAMES.length];
+
+        private long mOps;
+        private long mElapsedNanos;
+
+        Report(int targetOpsPerSecond) {
+            mTargetOpsPerSecond = targetOpsPerSecond;
+            for (int op = 0; op < mByOp.length; op++) {
+                mByOp[op] = new LatencyHistogram();
+            }
+        }
+
+        void record(int op, long nanos) {
+            mAll.record(nanos);
+            mByOp[op].record(nanos);
+        }
+
+        void finish(long ops, long elapsedNanos) {
+            mOps = ops;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        public int getTargetOpsPerSecond() {
+            return mTargetOpsPerSecond;
+        }
+
+        /** Operações por segundo de fato executadas */
+        public double getAchievedOpsPerSecond() {
+            return mElapsedNanos == 0 ? 0 : mOps * 1e9 / mElapsedNanos;
+        }
+
+        /** Percentil dado (0 a 100) da latência de todas as operações, em milissegundos */
+        public double getPercentileMillis(double percent) {
+            return mAll.getPercentileNanos(percent) / 1e6;
+        }
+
+        /** Uma linha com a vazão e uma linha com os percentis de cada operação */
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format(Locale.US,
+                    "%d ops in %.1f s: %.1f ops/s of %d targeted", mOps, mElapsedNanos / 1e9,
+                    getAchievedOpsPerSecond(), mTargetOpsPerSecond));
+            appendLine(report, "all", mAll);
+            for (int op = 0; op < mByOp.length; op++) {
+                appendLine(report, OP_NAMES[op], mByOp[op]);
+            }
+            return report.toString();
+        }
+
+        private static void appendLine(StringBuilder report, String name,
+                                       LatencyHistogram histogram) {
+            if (histogram.getCount() == 0) {
+                return;
+            }
+            report.append(String.format(Locale.US,
+                    "%n%-7s %7d ops  p50 %8.2f  p90 %8.2f  p99 %8.2f  max %8.2f ms", name,
+                    histogram.getCount(), histogram.getPercentileNanos(50) / 1e6,
+                    histogram.getPercentileNanos(90) / 1e6,
+                    histogram.getPercentileNanos(99) / 1e6, histogram.getMaxNanos() / 1e6));
+        }
+    }
+}
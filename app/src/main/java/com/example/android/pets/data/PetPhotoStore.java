@@ -0,0 +1,174 @@
+package com.example.android.pets.data;
+
+import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Arquivos das fotos dos animais de estimação, na pasta "photos" dos arquivos do aplicativo.
+ * O banco só guarda o nome do arquivo, em {@link PetEntry#COLUMN_PET_PHOTO}.
+ *
+ * Cada foto nova ganha um arquivo novo, com um nome que nunca se repete, e um arquivo nunca é
+ * alterado depois de gravado. Quem está lendo a foto antiga continua lendo um arquivo inteiro, e
+ * o nome serve de chave para os caches de miniaturas, que nunca ficam desatualizados.
+ *
+ * Uma foto é gravada por um pipe: o cliente escreve na ponta devolvida por
+ * {@link #openForWrite}, e uma thread em segundo plano copia o que chega para um arquivo
+ * temporário. Só quando o cliente fecha a ponta e a cópia termina sem erro o arquivo recebe o
+ * nome definitivo e o {@link Listener} grava o nome no banco.
+ */
+public final class PetPhotoStore {
+
+    /** Grava no banco a foto recebida */
+    public interface Listener {
+        /**
+         * Chamado na thread da cópia quando a foto de um animal terminou de ser gravada.
+         *
+         * @param id    _id do animal
+         * @param photo nome do arquivo da foto, ou null se o cliente não escreveu nada, o que
+         *              remove a foto
+         * @return se a foto foi aceita; se não foi, o arquivo é apagado
+         */
+        boolean onPhotoWritten(long id, String photo);
+    }
+
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    /** Pasta das fotos, dentro dos arquivos do aplicativo */
+    private static final String DIRECTORY = "photos";
+
+    private static final String PHOTO_SUFFIX = ".jpg";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Maior foto aceita. Uma foto maior é descartada e a foto anterior é mantida. */
+    private static final long MAX_PHOTO_BYTES = 8 * 1024 * 1024;
+
+    private final File mDirectory;
+    private final Listener mListener;
+
+    /**
+     * @param filesDir pasta dos arquivos do aplicativo; a pasta das fotos é criada dentro dela
+     *                 na primeira gravação
+     */
+    public PetPhotoStore(File filesDir, Listener listener) {
+        mDirectory = new File(filesDir, DIRECTORY);
+        mListener = listener;
+    }
+
+    /** Retorna o arquivo da foto com o nome dado */
+    public File getFile(String photo) {
+        return new File(mDirectory, photo);
+    }
+
+    /**
+     * Abre a gravação de uma foto nova para o animal do _id dado. A foto só passa a valer quando
+     * o cliente fecha o arquivo devolvido.
+     */
+    public ParcelFileDescriptor openForWrite(final long id) throws FileNotFoundException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new FileNotFoundException("Cannot create " + mDirectory);
+        }
+        final File temp;
+        final ParcelFileDescriptor[] pipe;
+        try {
+            temp = File.createTempFile(id + "-", TEMP_SUFFIX, mDirectory);
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            FileNotFoundException notFound = new FileNotFoundException(
+                    "Cannot open photo of pet " + id);
+            notFound.initCause(e);
+            throw notFound;
+        }
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                receive(id, pipe[0], temp);
+            }
+        });
+        return pipe[1];
+    }
+
+    /** Apaga o arquivo da foto com o nome dado; não faz nada se photo for null */
+    public void delete(String photo) {
+        if (photo != null && !getFile(photo).delete()) {
+            Log.w(LOG_TAG, "Cannot delete photo " + photo);
+        }
+    }
+
+    /**
+     * Copia o que o cliente escreve no pipe para o arquivo temporário e, quando ele fecha o
+     * pipe, entrega a foto ao {@link Listener}. Chamado numa thread em segundo plano.
+     */
+    private void receive(long id, ParcelFileDescriptor source, File temp) {
+        long length = -1;
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                length = copy(in, out);
+                // O nome só vai para o banco depois que os bytes estão no disco
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Photo of pet " + id + " was not received", e);
+            length = -1;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // A cópia já terminou
+            }
+        }
+
+        if (length < 0) {
+            temp.delete();
+            return;
+        }
+        if (length == 0) {
+            temp.delete();
+            mListener.onPhotoWritten(id, null);
+            return;
+        }
+
+        // O nome do temporário já é único na pasta; a foto fica com o mesmo nome e outra extensão
+        String tempName = temp.getName();
+        String photo = tempName.substring(0, tempName.length() - TEMP_SUFFIX.length())
+                + PHOTO_SUFFIX;
+        File file = getFile(photo);
+        if (!temp.renameTo(file)) {
+            Log.w(LOG_TAG, "Cannot rename " + temp + " to " + file);
+            temp.delete();
+        } else if (!mListener.onPhotoWritten(id, photo)) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Copia in para out e retorna o número de bytes copiados. Lança IOException se passar de
+     * {@link #MAX_PHOTO_BYTES}.
+     */
+    private static long copy(InputStream in, FileOutputStream out) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        long length = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            length += read;
+            if (length > MAX_PHOTO_BYTES) {
+                throw new IOException("Photo is larger than " + MAX_PHOTO_BYTES + " bytes");
+            }
+            out.write(buffer, 0, read);
+        }
+        return length;
+    }
+}
@@ -1,21 +1,57 @@
 package com.example.android.pets;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
 
 /**
  * Created by VALDIR on 15/03/2018.
  */
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import com.example.android.pets.data.PetChangeNotifier;
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetMetricsEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetExporter;
+import com.example.android.pets.data.PetPhotoStore;
+import com.example.android.pets.data.PetProviderMetrics;
+import com.example.android.pets.data.PetPurger;
+import com.example.android.pets.data.PetQuery;
+import com.example.android.pets.data.PetRowCache;
+import com.example.android.pets.data.PetSchema;
+import com.example.android.pets.data.PetStartupTrace;
+import com.example.android.pets.data.PetStatements;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class PetProvider extends ContentProvider {
 
@@ -28,6 +64,75 @@ public class PetProvider extends ContentProvider {
     /** Código URI Matcher para o conteúdo URI para um único animal de estimação na mesa de animais de estimação */
     private static final int PET_ID = 101;
 
+    /** Código URI Matcher para a busca de texto por nome e raça */
+    private static final int SEARCH = 102;
+
+    /** Código URI Matcher para as estatísticas de todos os animais de estimação */
+    private static final int STATS = 103;
+
+    /** Código URI Matcher para a exportação de todos os animais de estimação */
+    private static final int EXPORT = 104;
+
+    /** Código URI Matcher para as medições de desempenho do próprio provedor */
+    private static final int METRICS = 105;
+
+    /** Código URI Matcher para a foto de um único animal de estimação, lida e gravada como arquivo */
+    private static final int PET_PHOTO = 106;
+
+    /** Valor de id para as escritas que não são de um único animal de estimação */
+    private static final long NO_ID = -1;
+
+    /**
+     * Janela, em milissegundos, em que as alterações são juntadas antes de notificar os
+     * observadores: a lista só é recarregada depois de 100 ms sem nenhuma alteração. Curta o
+     * bastante para a lista parecer imediata.
+     */
+    private static final long NOTIFY_WINDOW_MS = 100;
+
+    /** Maior atraso de uma notificação, para que escritas contínuas não congelem a lista */
+    private static final long NOTIFY_MAX_DELAY_MS = 1000;
+
+    /** Valores gravados por uma exclusão, que só marca as linhas */
+    private static final ContentValues DELETED_VALUES = new ContentValues(1);
+    static {
+        DELETED_VALUES.put(PetEntry.COLUMN_PET_DELETED, 1);
+    }
+
+    /** Todas as colunas da tabela, na ordem em que são lidas para o cache de linhas */
+    private static final String[] PET_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /**
+     * Colunas da tabela pets que os clientes podem pedir. A marca de exclusão fica de fora.
+     * As consultas são montadas em modo estrito, que recusa qualquer outra coluna ou expressão
+     * na projeção.
+     */
+    private static final Map<String, String> sPetsProjectionMap = new HashMap<>();
+
+    /**
+     * Ordem de classificação aceita de um cliente: nomes de coluna de
+     * {@link #sPetsProjectionMap}, cada um opcionalmente com ASC ou DESC, separados por vírgula.
+     * Qualquer outro texto (expressões, subconsultas, COLLATE...) é recusado.
+     */
+    private static final Pattern SORT_ORDER_TERM =
+            Pattern.compile("\\s*(\\w+)(\\s+(?i:ASC|DESC))?\\s*");
+
+    /**
+     * Colunas que podem ser pedidas numa busca. Como a consulta junta pets e pets_fts, que têm
+     * colunas com o mesmo nome, cada coluna é qualificada com a tabela pets.
+     */
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<>();
+
+    /**
+     * Colunas que podem ser pedidas nas estatísticas. O peso médio é calculado a partir da soma,
+     * e média e máximo ficam nulos quando não há nenhum animal.
+     */
+    private static final Map<String, String> sStatsProjectionMap = new HashMap<>();
+
     /**
      * Objeto UriMatcher para combinar um URI de conteúdo com um código correspondente.
      * A entrada passada para o construtor representa o código para retornar para o URI da raiz.
@@ -54,52 +159,270 @@ public class PetProvider extends ContentProvider {
         // Por exemplo, "conteúdo: //com.example.android.pets/pets/3" corresponde, mas
         // "conteúdo: //com.example.android.pets/pets" (sem um número no final) não corresponde.
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+
+        // "content://com.example.android.pets/pets/search/texto" busca o texto no nome e na raça.
+        // Sem o texto, a busca não devolve nenhum animal.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH, SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", SEARCH);
+
+        // "content://com.example.android.pets/pets/stats" devolve uma única linha com as
+        // estatísticas. O "#" só aceita números, então este caminho não se confunde com PET_ID.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, STATS);
+
+        // "content://com.example.android.pets/pets/export/csv" (ou /json) é lido como arquivo,
+        // por openFile, e não como cursor.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT + "/*", EXPORT);
+
+        // "content://com.example.android.pets/pets/metrics" devolve uma linha por operação e URI
+        // com as durações medidas desde que o processo começou.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_METRICS, METRICS);
+
+        // "content://com.example.android.pets/pets/3/photo" é a foto do animal 3, lida e
+        // gravada por openFile.
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+
+        for (String column : new String[] { PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT,
+                PetEntry.COLUMN_PET_PHOTO }) {
+            sPetsProjectionMap.put(column, column);
+            sSearchProjectionMap.put(column, PetEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+
+        for (String column : new String[] { PetStatsEntry._ID, PetStatsEntry.COLUMN_TOTAL,
+                PetStatsEntry.COLUMN_COUNT_UNKNOWN, PetStatsEntry.COLUMN_COUNT_MALE,
+                PetStatsEntry.COLUMN_COUNT_FEMALE, PetStatsEntry.COLUMN_WEIGHT_SUM }) {
+            sStatsProjectionMap.put(column, column);
+        }
+        sStatsProjectionMap.put(PetStatsEntry.COLUMN_WEIGHT_MAX, "CASE WHEN "
+                + PetStatsEntry.COLUMN_TOTAL + " = 0 THEN NULL ELSE "
+                + PetStatsEntry.COLUMN_WEIGHT_MAX + " END AS " + PetStatsEntry.COLUMN_WEIGHT_MAX);
+
+        sStatsProjectionMap.put(PetStatsEntry.COLUMN_WEIGHT_AVERAGE, "CAST("
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " AS REAL) / NULLIF("
+                + PetStatsEntry.COLUMN_TOTAL + ", 0) AS " + PetStatsEntry.COLUMN_WEIGHT_AVERAGE);
     }
 
     /** Objeto auxiliar de banco de dados*/
     private PetDbHelper mDbHelper;
 
+    /** Instruções pré-compiladas para o banco gravável atual; veja {@link #getStatements} */
+    private PetStatements mStatements;
+
+    /** Escreve a exportação no pipe devolvido por {@link #openFile} */
+    private PetExporter mExporter;
+
+    /** Arquivos das fotos, lidas e gravadas por {@link #openFile} */
+    private PetPhotoStore mPhotoStore;
+
+    /** Apaga de vez os animais excluídos; veja {@link #call} */
+    private PetPurger mPurger;
+
+    /** Junta as notificações de alteração; veja {@link #notifyChange} */
+    private PetChangeNotifier mNotifier;
+
+    /**
+     * Linhas lidas recentemente pelo URI de um único animal de estimação; o tamanho vem de
+     * R.integer.pet_row_cache_size
+     */
+    private PetRowCache mRowCache;
+
+    /**
+     * Durações e falhas de cada operação, por código do UriMatcher. As operações de um
+     * applyBatch são medidas uma a uma e também o lote inteiro.
+     */
+    private final PetProviderMetrics mMetrics = new PetProviderMetrics(
+            new int[] { PETS, PET_ID, SEARCH, STATS, EXPORT, METRICS, PET_PHOTO },
+            new String[] { "pets", "pets/#", "pets/search", "pets/stats", "pets/export",
+                    "pets/metrics", "pets/#/photo" });
+
+    /**
+     * URIs alterados pelo lote em andamento nesta thread (bulkInsert ou applyBatch).
+     * Enquanto houver um lote, as notificações ficam retidas aqui e são enviadas uma única vez
+     * quando a transação termina com sucesso.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<>();
+
     @Override
     public boolean onCreate() {
+        PetStartupTrace.begin(PetStartupTrace.PHASE_PROVIDER_CREATE);
         mDbHelper = new PetDbHelper(getContext());
+        mRowCache = new PetRowCache(getContext().getResources().getInteger(
+                R.integer.pet_row_cache_size));
+        mExporter = new PetExporter(mDbHelper);
+        mPhotoStore = new PetPhotoStore(getContext().getFilesDir(),
+                new PetPhotoStore.Listener() {
+                    @Override
+                    public boolean onPhotoWritten(long id, String photo) {
+                        return replacePhoto(id, photo);
+                    }
+                });
+        mPurger = new PetPurger(mDbHelper, mPhotoStore);
+        mNotifier = new PetChangeNotifier(getContext().getContentResolver(), NOTIFY_WINDOW_MS,
+                NOTIFY_MAX_DELAY_MS);
+        warmUp();
+        PetStartupTrace.end(PetStartupTrace.PHASE_PROVIDER_CREATE);
         return true;
     }
 
+    /**
+     * Abre o banco numa thread própria assim que o provedor é criado, em vez de deixar a
+     * abertura (com a criação ou migração do esquema) para a primeira consulta do catálogo.
+     * Uma leitura do esquema abre também a conexão de leitura do WAL, e as escritas
+     * pré-compiladas são compiladas em seguida.
+     *
+     * A consulta que chegar antes do fim só espera pelo que falta: o SQLiteOpenHelper
+     * sincroniza a abertura, então o banco nunca é aberto duas vezes. Uma falha aqui só é
+     * registrada; a próxima chamada tenta abrir de novo e lança o erro para quem chamou.
+     */
+    private void warmUp() {
+        new Thread(LOG_TAG + "-warm-up") {
+            @Override
+            public void run() {
+                try {
+                    PetStartupTrace.begin(PetStartupTrace.PHASE_DATABASE_OPEN);
+                    SQLiteDatabase database = mDbHelper.getWritableDatabase();
+                    DatabaseUtils.longForQuery(database, "SELECT count(*) FROM sqlite_master",
+                            null);
+                    PetStartupTrace.end(PetStartupTrace.PHASE_DATABASE_OPEN);
+
+                    getStatements(database).precompile();
+                    PetStartupTrace.end(PetStartupTrace.PHASE_STATEMENTS);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to warm up the database", e);
+                }
+            }
+        }.start();
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        // descubra se o URI Matcher pode combinar o URI com um código específico
+        int match = sUriMatcher.match(uri);
+        long startNanos = System.nanoTime();
+        try {
+            Cursor cursor = query(uri, match, projection, selection, selectionArgs, sortOrder,
+                    null);
+            // As linhas não são contadas: getCount() obrigaria o cursor a ler todas agora
+            mMetrics.record(PetProviderMetrics.OP_QUERY, match, startNanos,
+                    PetProviderMetrics.ROWS_NOT_COUNTED);
+            return cursor;
+        } catch (RuntimeException e) {
+            mMetrics.recordFailure(PetProviderMetrics.OP_QUERY, match, startNanos, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Consulta que pode ser cancelada, chamada pelo ContentResolver a partir da API 16 (o
+     * CursorLoader cancela a sua consulta quando é reiniciado). O sinal chega ao SQLite, que
+     * interrompe a consulta no meio, inclusive enquanto o cursor preenche a primeira janela.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        int match = sUriMatcher.match(uri);
+        long startNanos = System.nanoTime();
+        try {
+            Cursor cursor = query(uri, match, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+            mMetrics.record(PetProviderMetrics.OP_QUERY, match, startNanos,
+                    PetProviderMetrics.ROWS_NOT_COUNTED);
+            return cursor;
+        } catch (OperationCanceledException e) {
+            // Um cancelamento não é erro: o cliente não quer mais o resultado
+            mMetrics.recordCancelled(PetProviderMetrics.OP_QUERY, match, startNanos);
+            throw e;
+        } catch (RuntimeException e) {
+            mMetrics.recordFailure(PetProviderMetrics.OP_QUERY, match, startNanos, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param cancellationSignal sinal de cancelamento da consulta, ou null; só é diferente de
+     *                           null a partir da API 16
+     */
+    private Cursor query(Uri uri, int match, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder,
+                         CancellationSignal cancellationSignal) {
+        // As medições não estão no banco e não mudam com os animais
+        if (match == METRICS) {
+            return mMetrics.query(projection);
+        }
+
         // Obter banco de dados legível
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // Este cursor manterá o resultado da consulta
         Cursor cursor;
 
-        // descubra se o URI Matcher pode combinar o URI com um código específico
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                // Para o código PETS, consulte a tabela de animais de estimação diretamente com o dado
-                // projeção, seleção, argumentos de seleção e ordem de classificação. O cursor
-                // pode conter várias linhas da tabela de animais de estimação.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                checkNoSelection(uri, selection, selectionArgs);
+                PetQuery page = parsePage(uri);
+                SQLiteQueryBuilder builder = newPetsQueryBuilder();
+                if (page == null) {
+                    // Para o código PETS, consulte a tabela de animais de estimação com o dado
+                    // projeção, seleção, argumentos de seleção e ordem de classificação. O cursor
+                    // pode conter várias linhas da tabela de animais de estimação.
+                    cursor = query(builder, database, projection, null, null,
+                            checkSortOrder(uri, sortOrder, null), null, cancellationSignal);
+                } else {
+                    // Uma página: a ordem vem do parâmetro "sort", e os filtros e o início da
+                    // página, dos outros parâmetros
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException(
+                                "Paged queries are sorted by the sort parameter: " + uri);
+                    }
+                    if (page.getSelection() != null) {
+                        builder.appendWhere(" AND " + page.getSelection());
+                    }
+                    cursor = query(builder, database, projection, null,
+                            page.getSelectionArgs(), page.getSortOrder(), page.getLimit(),
+                            cancellationSignal);
+                }
                 break;
             case PET_ID:
+                // As colunas da tabela são atendidas pelo cache de linhas
+                if (PetRowCache.canServe(projection)) {
+                    cursor = queryPetById(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+
                 // Para o código PET_ID, extraia a ID do URI.
                 // Para um exemplo de URI, como "conteúdo: //com.example.android.pets/pets/3",
-                // a seleção será "_id =?" e o argumento da seleção será um
-                // String array contendo a ID real de 3 neste caso.
-                //
-                // Para cada "?" Na seleção, precisamos ter um elemento na seleção
-                // argumentos que preencherão o "?". Uma vez que temos 1 ponto de interrogação na
-                // seleção, temos 1 String nos argumentos de seleção 'String array.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                // a consulta será feita com "_id = 3". O _id já foi convertido em número, então
+                // vai direto na cláusula fixa: uma seleção com "?" obrigaria o modo estrito a
+                // compilar a consulta duas vezes.
+                SQLiteQueryBuilder idBuilder = newPetsQueryBuilder();
+                idBuilder.appendWhere(" AND " + PetEntry._ID + " = " + ContentUris.parseId(uri));
 
                 // Isso executará uma consulta na tabela de animais de estimação onde o _id é igual a 3 para retornar um
                 // Cursor contendo essa linha da tabela.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = idBuilder.query(database, projection, null, null, null, null, null);
+                break;
+            case SEARCH:
+                checkNoSelection(uri, selection, selectionArgs);
+                cursor = searchPets(database, uri, projection, sortOrder, cancellationSignal);
+                // O resultado da busca muda sempre que qualquer animal muda
+                uri = PetEntry.CONTENT_URI;
+                break;
+            case STATS:
+                if (Boolean.parseBoolean(uri.getQueryParameter(
+                        PetStatsEntry.QUERY_PARAMETER_VERIFY))) {
+                    verifyStats();
+                }
+                cursor = queryStats(database, projection, selection, selectionArgs, sortOrder);
+                // As estatísticas mudam sempre que qualquer animal muda
+                uri = PetEntry.CONTENT_URI;
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -114,9 +437,266 @@ public class PetProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Retorna um construtor de consultas da tabela pets, em modo estrito e já limitado aos
+     * animais que não foram excluídos. No modo estrito, a projeção só aceita as colunas de
+     * {@link #sPetsProjectionMap}; a seleção do chamador nem chega aqui, veja
+     * {@link #checkNoSelection}.
+     */
+    private static SQLiteQueryBuilder newPetsQueryBuilder() {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetEntry.TABLE_NAME);
+        builder.setProjectionMap(sPetsProjectionMap);
+        builder.setStrict(true);
+        builder.appendWhere(PetSchema.SELECTION_LIVE);
+        return builder;
+    }
+
+    /**
+     * Recusa a seleção de um cliente. Os filtros da lista e da busca só vêm dos parâmetros
+     * tipados do URI, que viram SQL com argumentos; uma seleção seria SQL escrito pelo cliente,
+     * e o modo estrito só recusa as que tentam sair dos parênteses, e só a partir da API 16.
+     */
+    private static void checkNoSelection(Uri uri, String selection, String[] selectionArgs) {
+        if (selection != null || selectionArgs != null) {
+            throw new IllegalArgumentException("Selection is not supported for " + uri
+                    + "; use the query parameters of PetEntry.buildPageUri");
+        }
+    }
+
+    /**
+     * Verifica a ordem de classificação pedida por um cliente: só nomes de coluna da tabela
+     * pets, com ASC ou DESC. Retorna a ordem, com cada coluna qualificada pela tabela dada
+     * (table pode ser null), ou null se o cliente não pediu ordem.
+     */
+    private static String checkSortOrder(Uri uri, String sortOrder, String table) {
+        if (sortOrder == null) {
+            return null;
+        }
+        StringBuilder checked = new StringBuilder();
+        for (String term : sortOrder.split(",", -1)) {
+            Matcher matcher = SORT_ORDER_TERM.matcher(term);
+            if (!matcher.matches() || !sPetsProjectionMap.containsKey(matcher.group(1))) {
+                throw new IllegalArgumentException("Invalid sort order \"" + sortOrder
+                        + "\" for " + uri);
+            }
+            if (checked.length() > 0) {
+                checked.append(", ");
+            }
+            if (table != null) {
+                checked.append(table).append('.');
+            }
+            checked.append(matcher.group(1));
+            if (matcher.group(2) != null) {
+                checked.append(matcher.group(2));
+            }
+        }
+        return checked.toString();
+    }
+
+    /**
+     * Retorna o animal de estimação do _id dado, do cache de linhas se ele estiver lá, ou do
+     * banco, guardando-o no cache.
+     */
+    private Cursor queryPetById(SQLiteDatabase database, long id, String[] projection) {
+        Cursor cursor = mRowCache.get(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        long generation = mRowCache.getGeneration();
+        Cursor row = database.query(PetEntry.TABLE_NAME, PET_COLUMNS,
+                PetEntry._ID + "=? AND " + PetSchema.SELECTION_LIVE,
+                new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            if (!row.moveToFirst()) {
+                return new MatrixCursor(projection != null ? projection : PET_COLUMNS, 0);
+            }
+            return mRowCache.put(generation, id, row.getString(1), row.getString(2),
+                    row.getInt(3), row.getInt(4), projection);
+        } finally {
+            row.close();
+        }
+    }
+
+    /**
+     * Lê a linha da tabela de estatísticas, que os gatilhos mantêm em dia a cada escrita.
+     * O custo não depende do número de animais.
+     */
+    private static Cursor queryStats(SQLiteDatabase database, String[] projection,
+                                     String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetStatsEntry.TABLE_NAME);
+        builder.setProjectionMap(sStatsProjectionMap);
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder);
+    }
+
+    /**
+     * Compara as estatísticas com um recálculo completo e as reconstrói se forem diferentes.
+     * Percorre toda a tabela, por isso só é feito quando o URI pede.
+     */
+    private void verifyStats() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            if (!PetDbHelper.checkStats(database)) {
+                Log.w(LOG_TAG, "Rebuilding inconsistent " + PetStatsEntry.TABLE_NAME);
+                PetDbHelper.rebuildStats(database);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Lê os parâmetros de paginação e os filtros de um URI de {@link PetEntry#CONTENT_URI}.
+     * Retorna null se o URI não pede uma página nem um filtro.
+     */
+    private static PetQuery parsePage(Uri uri) {
+        String sort = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        String afterId = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        String gender = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_GENDER);
+        String minWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT);
+        String maxWeight = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT);
+        if (sort == null && afterId == null && limit == null && gender == null
+                && minWeight == null && maxWeight == null) {
+            return null;
+        }
+
+        try {
+            return new PetQuery(sort != null ? sort : PetQuery.SORT_ID,
+                    gender != null ? Integer.parseInt(gender) : PetQuery.ANY_GENDER,
+                    minWeight != null ? Integer.parseInt(minWeight) : PetQuery.NO_WEIGHT,
+                    maxWeight != null ? Integer.parseInt(maxWeight) : PetQuery.NO_WEIGHT,
+                    uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_KEY),
+                    afterId != null ? Long.parseLong(afterId) : -1,
+                    limit != null ? Integer.parseInt(limit) : PetQuery.NO_LIMIT);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page parameters in " + uri, e);
+        }
+    }
+
+    /** Lê o parâmetro "limit" de uma exclusão, que precisa ser um número positivo */
+    private static int parseLimit(Uri uri, String limit) {
+        try {
+            int rows = Integer.parseInt(limit);
+            if (rows > 0) {
+                return rows;
+            }
+        } catch (NumberFormatException e) {
+            // Tratado abaixo, junto com os números que não são positivos
+        }
+        throw new IllegalArgumentException("Invalid limit in " + uri);
+    }
+
+    /** Lê o parâmetro "write_key" de uma inserção, que precisa ser um número positivo */
+    private static long parseWriteKey(Uri uri, String writeKey) {
+        try {
+            long key = Long.parseLong(writeKey);
+            if (key > 0) {
+                return key;
+            }
+        } catch (NumberFormatException e) {
+            // Tratado abaixo, junto com os números que não são positivos
+        }
+        throw new IllegalArgumentException("Invalid write key in " + uri);
+    }
+
+    /**
+     * Retorna o _id do animal inserido com a chave de escrita dada, excluído ou não, ou -1 se
+     * nenhum foi. Um animal excluído depois da inserção continua excluído: a inserção repetida
+     * não o traz de volta.
+     */
+    private static long findByWriteKey(SQLiteDatabase database, long key) {
+        Cursor cursor = database.rawQuery(PetSchema.SQL_SELECT_BY_WRITE_KEY,
+                new String[] { String.valueOf(key) });
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Busca animais de estimação pelo texto no último segmento do URI, usando a tabela FTS.
+     * Cada palavra do texto é buscada como prefixo, no nome ou na raça, e todas precisam
+     * aparecer. Sem ordem de classificação, os resultados vêm pela relevância; com a ordem
+     * pelo _id, que não precisa calcular a relevância, vêm muito mais rápido.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String sortOrder, CancellationSignal cancellationSignal) {
+        String matchExpression = PetSchema.buildMatchExpression(
+                uri.getPathSegments().size() > 2 ? uri.getLastPathSegment() : "");
+        if (matchExpression.isEmpty()) {
+            // Nada para buscar: devolva um cursor vazio com as colunas pedidas
+            return new MatrixCursor(projection != null ? projection
+                    : sSearchProjectionMap.keySet().toArray(new String[0]));
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(PetSchema.SEARCH_TABLES);
+        builder.setProjectionMap(sSearchProjectionMap);
+        builder.setStrict(true);
+        // A tabela de busca ainda tem os animais excluídos que não foram purgados
+        builder.appendWhere(PetEntry.TABLE_NAME + "." + PetSchema.SELECTION_LIVE + " AND "
+                + PetEntry.SEARCH_TABLE_NAME + " MATCH ");
+        builder.appendWhereEscapeString(matchExpression);
+
+        String order = PetSchema.SEARCH_RANK_ORDER;
+        if (sortOrder != null) {
+            // O _id é o docid da tabela FTS; pelo docid, o FTS já entrega os resultados em
+            // ordem e a consulta para no limite, em vez de ordenar tudo que foi encontrado
+            order = checkSortOrder(uri, sortOrder, PetEntry.TABLE_NAME).replace(
+                    PetEntry.TABLE_NAME + "." + PetEntry._ID, PetSchema.SEARCH_DOCID);
+        }
+        return query(builder, database, projection, null, null, order,
+                String.valueOf(PetSchema.SEARCH_LIMIT), cancellationSignal);
+    }
+
+    /**
+     * Executa a consulta do construtor, sem agrupamento, repassando o sinal de cancelamento
+     * quando houver um. O sinal só existe a partir da API 16, assim como o método do
+     * SQLiteQueryBuilder que o recebe.
+     */
+    private static Cursor query(SQLiteQueryBuilder builder, SQLiteDatabase database,
+                                String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder, String limit,
+                                CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return builder.query(database, projection, selection, selectionArgs, null, null,
+                    sortOrder, limit);
+        }
+        return queryCancellable(builder, database, projection, selection, selectionArgs,
+                sortOrder, limit, cancellationSignal);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Cursor queryCancellable(SQLiteQueryBuilder builder, SQLiteDatabase database,
+                                           String[] projection, String selection,
+                                           String[] selectionArgs, String sortOrder,
+                                           String limit, CancellationSignal cancellationSignal) {
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder, limit, cancellationSignal);
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        long startNanos = System.nanoTime();
+        try {
+            Uri newUri = insert(uri, match, contentValues);
+            mMetrics.record(PetProviderMetrics.OP_INSERT, match, startNanos, newUri != null ? 1 : 0);
+            return newUri;
+        } catch (RuntimeException e) {
+            mMetrics.recordFailure(PetProviderMetrics.OP_INSERT, match, startNanos, e);
+            throw e;
+        }
+    }
+
+    private Uri insert(Uri uri, int match, ContentValues contentValues) {
         switch (match) {
             case PETS:
                 return insertPet(uri, contentValues);
@@ -130,58 +710,134 @@ public class PetProvider extends ContentProvider {
             * para essa linha específica no banco de dados.
      */
     private Uri insertPet(Uri uri, ContentValues values) {
-        //Verifique se o nome não é nulo
-        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Pet requires a name");
-        }
-
-        //Verifique se o gênero é válido
-        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        if (gender == null || !PetEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("Pet requires valid gender");
-        }
-
-        //Se o peso for fornecido, verifique se é maior ou igual a 0 kg
-        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (weight != null && weight < 0) {
-            throw new IllegalArgumentException("Pet requires valid weight");
-        }
-
-        // Não é necessário verificar a raça, qualquer valor é válido (incluindo nulo).
+        // Nome e gênero são obrigatórios numa inserção
+        validatePet(values, true);
 
         //Obter banco de dados gravável
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // nsira o novo animal de estimação com os valores dados
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
+        // Uma inserção com chave de escrita só acontece uma vez: se a chave já está na tabela, a
+        // primeira tentativa foi gravada, e o animal dela é devolvido sem inserir nem notificar
+        String writeKey = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_WRITE_KEY);
+        if (writeKey != null) {
+            long key = parseWriteKey(uri, writeKey);
+            long existingId = findByWriteKey(database, key);
+            if (existingId != -1) {
+                return ContentUris.withAppendedId(PetEntry.CONTENT_URI, existingId);
+            }
+            values = new ContentValues(values);
+            values.put(PetEntry.COLUMN_PET_WRITE_KEY, key);
+        }
+
+        // Insira o novo animal de estimação com os valores dados. Uma linha completa, que é o
+        // caso do editor, usa a instrução pré-compilada.
+        long id;
+        if (PetStatements.isFullRow(values)) {
+            try {
+                id = getStatements(database).insert(values.getAsString(PetEntry.COLUMN_PET_NAME),
+                        values.getAsString(PetEntry.COLUMN_PET_BREED),
+                        values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                        values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+            } catch (SQLException e) {
+                // Mesmo comportamento de SQLiteDatabase.insert, que devolve -1 em vez de lançar
+                Log.e(LOG_TAG, "Error inserting " + values, e);
+                id = -1;
+            }
+        } else {
+            id = database.insert(PetEntry.TABLE_NAME, null, values);
+        }
         // Se o ID for -1, então a inserção falhou. Registre um erro e volte nulo.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
-        // Notificar todos os ouvintes que os dados mudaram para o URI do conteúdo do animal de estimação
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Retornar o novo URI com o ID (da linha recém-inserida) anexado no final, sem os
+        // parâmetros do URI da inserção
+        Uri newUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+
+        // Notificar todos os ouvintes que os dados mudaram. Uma inserção avulsa notifica o URI
+        // da nova linha, que também alcança quem observa a tabela, para que um PetSnapshot
+        // aplique só essa linha; num lote, a tabela inteira é notificada uma vez.
+        notifyChange(mBatchChanges.get() == null ? newUri : PetEntry.CONTENT_URI);
 
-        // Retornar o novo URI com o ID (da linha recém-inserida) anexado no final
-        return ContentUris.withAppendedId(uri, id);
+        return newUri;
+    }
+
+    /**
+     * Insere todos os animais de estimação numa única transação, em vez de uma transação (e uma
+     * notificação) por linha como faria a implementação padrão de {@link ContentProvider}.
+     * Se alguma linha for inválida, nenhuma linha do lote é gravada.
+     * Retorna o número de linhas inseridas.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        long startNanos = System.nanoTime();
+        try {
+            int rowsInserted = bulkInsert(uri, match, values);
+            mMetrics.record(PetProviderMetrics.OP_BULK_INSERT, match, startNanos, rowsInserted);
+            return rowsInserted;
+        } catch (RuntimeException e) {
+            mMetrics.recordFailure(PetProviderMetrics.OP_BULK_INSERT, match, startNanos, e);
+            throw e;
+        }
+    }
+
+    private int bulkInsert(Uri uri, int match, ContentValues[] values) {
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        // Uma chave vale para uma única linha
+        if (uri.getQueryParameter(PetEntry.QUERY_PARAMETER_WRITE_KEY) != null) {
+            throw new IllegalArgumentException("Write keys are not supported for bulk inserts");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> changedUris = beginBatch(database);
+        int rowsInserted = 0;
+        try {
+            for (ContentValues petValues : values) {
+                if (insertPet(uri, petValues) != null) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            endBatch(database);
+        }
+
+        // Uma única notificação para o lote inteiro, a menos que o chamador vá notificar
+        if (shouldNotify(uri)) {
+            notifyBatchChanges(changedUris);
+        }
+        return rowsInserted;
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long startNanos = System.nanoTime();
+        try {
+            int rowsUpdated = update(uri, match, contentValues, selection, selectionArgs);
+            mMetrics.record(PetProviderMetrics.OP_UPDATE, match, startNanos, rowsUpdated);
+            return rowsUpdated;
+        } catch (RuntimeException e) {
+            mMetrics.recordFailure(PetProviderMetrics.OP_UPDATE, match, startNanos, e);
+            throw e;
+        }
+    }
+
+    private int update(Uri uri, int match, ContentValues contentValues, String selection,
+                       String[] selectionArgs) {
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                return updatePet(uri, contentValues, selection, selectionArgs, NO_ID);
             case PET_ID:
                 // Para o código PET_ID, extraia o ID do URI,
-                // então sabemos qual linha para atualizar. A seleção será "_id =?" e seleção
-                // argumentos serão uma matriz de Cadeia de caracteres que contém a identificação real.
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                // então sabemos qual linha para atualizar.
+                return updatePet(uri, contentValues, null, null, ContentUris.parseId(uri));
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -192,36 +848,11 @@ public class PetProvider extends ContentProvider {
             * especificado nos argumentos de seleção e seleção (que podem ser 0 ou 1 ou mais animais de estimação).
             * Retorna o número de linhas que foram atualizadas com sucesso.
      */
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        // Se a chave {@link PetEntry # COLUMN_PET_NAME} estiver presente,
-        // verifique se o valor do nome não é nulo.
-        if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
-            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
-            }
-        }
+    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                          long id) {
+        // Numa atualização só são verificadas as colunas presentes em values
+        validatePet(values, false);
 
-        // Se a chave {@link PetEntry # COLUMN_PET_GENDER} estiver presente,
-        // verifique se o valor de gênero é válido.
-        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
-            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-            if (gender == null || !PetEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Pet requires valid gender");
-            }
-        }
-
-        // Se a chave {@link PetEntry # COLUMN_PET_WEIGHT} estiver presente,
-        // verifique se o valor do peso é válido.
-        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
-            // Verifique se o peso é maior ou igual a 0 kg
-            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Pet requires valid weight");
-            }
-        }
-
-        // Não é necessário verificar a raça, qualquer valor é válido (incluindo nulo).
         // Se não houver valores para atualizar, então não tente atualizar o banco de dados
         if (values.size() == 0) {
             return 0;
@@ -232,12 +863,34 @@ public class PetProvider extends ContentProvider {
 
 
         // Execute a atualização no banco de dados e obtenha o número de linhas afetadas
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        if (id != NO_ID && PetStatements.isFullRow(values)) {
+            // O editor sempre grava a linha completa: use a instrução pré-compilada
+            rowsUpdated = getStatements(database).updateById(id,
+                    values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        } else {
+            if (id != NO_ID) {
+                // A seleção será "_id =?" e o argumento será o ID real
+                selection = PetEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(id) };
+            }
+            // Um animal excluído não pode ser alterado
+            rowsUpdated = database.update(PetEntry.TABLE_NAME, values,
+                    PetQuery.andSelection(PetSchema.SELECTION_LIVE, selection), selectionArgs);
+        }
 
-        // Se 1 ou mais linhas foram atualizadas, notifique todos os ouvintes que os dados no
-        // URI dado mudou
+        // Se 1 ou mais linhas foram atualizadas, descarte-as do cache e notifique todos os
+        // ouvintes que os dados no URI dado mudou
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (id != NO_ID) {
+                mRowCache.invalidate(id);
+            } else {
+                mRowCache.invalidateAll();
+            }
+            notifyChange(uri);
         }
 
         // Retorna o número de linhas atualizadas
@@ -246,37 +899,354 @@ public class PetProvider extends ContentProvider {
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        long startNanos = System.nanoTime();
+        try {
+            int rowsDeleted = delete(uri, match, selection, selectionArgs);
+            mMetrics.record(PetProviderMetrics.OP_DELETE, match, startNanos, rowsDeleted);
+            return rowsDeleted;
+        } catch (RuntimeException e) {
+            mMetrics.recordFailure(PetProviderMetrics.OP_DELETE, match, startNanos, e);
+            throw e;
+        }
+    }
+
+    private int delete(Uri uri, int match, String selection, String[] selectionArgs) {
         // Obter banco de dados gravável
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Rastreie o número de linhas que foram excluídas
         int rowsDeleted;
 
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // A exclusão só marca as linhas; elas são apagadas de vez pela purga
+                selection = PetQuery.andSelection(PetSchema.SELECTION_LIVE, selection);
+                String limit = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    // Exclui só as primeiras linhas selecionadas, pela ordem do _id: quem exclui
+                    // muitas linhas o faz em partes, e o banco fica livre entre uma e outra
+                    selection = PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM "
+                            + PetEntry.TABLE_NAME + " WHERE " + selection
+                            + " ORDER BY " + PetEntry._ID + " LIMIT " + parseLimit(uri, limit)
+                            + ")";
+                }
+                rowsDeleted = database.update(PetEntry.TABLE_NAME, DELETED_VALUES, selection,
+                        selectionArgs);
+                if (rowsDeleted != 0) {
+                    mRowCache.invalidateAll();
+                }
                 break;
             case PET_ID:
-                // Excluir uma única linha dada pela ID no URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Excluir (marcar) uma única linha dada pela ID no URI
+                long id = ContentUris.parseId(uri);
+                rowsDeleted = getStatements(database).deleteById(id);
+                if (rowsDeleted != 0) {
+                    mRowCache.invalidate(id);
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
         // Se 1 ou mais linhas foram excluídas, notifique a todos os ouvintes que os dados no
-        // URI dado mudou
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        // URI dado mudou, a menos que o chamador vá notificar
+        if (rowsDeleted != 0 && shouldNotify(uri)) {
+            notifyChange(uri);
         }
 
         // Retorna o número de linhas excluídas
         return rowsDeleted;
     }
 
+    /**
+     * Aplica todas as operações numa única transação. As operações continuam passando por
+     * {@link #insert}, {@link #update} e {@link #delete}, então a validação é a mesma, mas
+     * os ouvintes só são notificados uma vez, depois que o lote inteiro foi gravado.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Um lote pode misturar URIs, então ele é medido sem código do UriMatcher
+        long startNanos = System.nanoTime();
+        try {
+            ContentProviderResult[] results = applyBatchInTransaction(operations);
+            mMetrics.record(PetProviderMetrics.OP_APPLY_BATCH, UriMatcher.NO_MATCH, startNanos,
+                    results.length);
+            return results;
+        } catch (OperationApplicationException | RuntimeException e) {
+            mMetrics.recordFailure(PetProviderMetrics.OP_APPLY_BATCH, UriMatcher.NO_MATCH,
+                    startNanos, e);
+            throw e;
+        }
+    }
+
+    private ContentProviderResult[] applyBatchInTransaction(
+            ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> changedUris = beginBatch(database);
+        ContentProviderResult[] results;
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            endBatch(database);
+        }
+
+        // Enquanto a transação estava aberta, outra thread pode ter lido e guardado no cache
+        // uma linha com os valores antigos
+        if (!changedUris.isEmpty()) {
+            mRowCache.invalidateAll();
+        }
+
+        notifyBatchChanges(changedUris);
+        return results;
+    }
+
+    /**
+     * Verifica os valores de um animal de estimação antes de gravá-los.
+     *
+     * @param values valores a serem gravados
+     * @param isInsert se verdadeiro, nome e gênero são obrigatórios; caso contrário só as colunas
+     *                 presentes em values são verificadas
+     */
+    private static void validatePet(ContentValues values, boolean isInsert) {
+        //Verifique se o nome não é nulo
+        if (isInsert || values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+            if (name == null) {
+                throw new IllegalArgumentException("Pet requires a name");
+            }
+        }
+
+        //Verifique se o gênero é válido
+        if (isInsert || values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            if (gender == null || !PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Pet requires valid gender");
+            }
+        }
+
+        //Se o peso for fornecido, verifique se é maior ou igual a 0 kg
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        if (weight != null && !PetEntry.isValidWeight(weight)) {
+            throw new IllegalArgumentException("Pet requires valid weight");
+        }
+
+        // Não é necessário verificar a raça, qualquer valor é válido (incluindo nulo).
+
+        // A marca de exclusão só é gravada pelas exclusões
+        if (values.containsKey(PetEntry.COLUMN_PET_DELETED)) {
+            throw new IllegalArgumentException("Pet deletion mark is not writable");
+        }
+
+        // A foto só é gravada pelo URI da foto, que também grava o arquivo
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Pet photo is written through its photo URI");
+        }
+
+        // A chave de escrita só é gravada pelo URI de PetEntry.buildInsertUri
+        if (values.containsKey(PetEntry.COLUMN_PET_WRITE_KEY)) {
+            throw new IllegalArgumentException("Pet write key is written through its insert URI");
+        }
+    }
+
+    /**
+     * Retorna as instruções pré-compiladas para o banco dado, compilando-as de novo se o
+     * banco foi reaberto desde a última escrita.
+     */
+    private synchronized PetStatements getStatements(SQLiteDatabase database) {
+        if (mStatements == null || !mStatements.isFor(database)) {
+            if (mStatements != null) {
+                mStatements.close();
+            }
+            mStatements = new PetStatements(database);
+        }
+        return mStatements;
+    }
+
+    /**
+     * Abre a transação de um lote e passa a reter as notificações desta thread.
+     * Retorna o conjunto onde os URIs alterados serão acumulados.
+     */
+    private Set<Uri> beginBatch(SQLiteDatabase database) {
+        Set<Uri> changedUris = new HashSet<>();
+        database.beginTransaction();
+        mBatchChanges.set(changedUris);
+        return changedUris;
+    }
+
+    /**
+     * Encerra a transação aberta por {@link #beginBatch}. Deve ser chamado num bloco finally.
+     */
+    private void endBatch(SQLiteDatabase database) {
+        mBatchChanges.remove();
+        database.endTransaction();
+    }
+
+    /**
+     * Notifica os ouvintes de que os dados do URI mudaram. Dentro de um lote a notificação
+     * é apenas registrada, e enviada por {@link #notifyBatchChanges} no final. Fora de um lote,
+     * ela é juntada com as outras alterações até a lista ficar {@link #NOTIFY_WINDOW_MS} sem
+     * alterações.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> changedUris = mBatchChanges.get();
+        if (changedUris != null) {
+            changedUris.add(uri);
+        } else {
+            mNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Retorna se as escritas do URI devem notificar os observadores. Quem grava em vários lotes
+     * seguidos, como o {@link com.example.android.pets.data.PetImporter}, pede "notify=false" e
+     * notifica uma única vez no fim.
+     */
+    private static boolean shouldNotify(Uri uri) {
+        return !"false".equals(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_NOTIFY));
+    }
+
+    /**
+     * Envia as notificações de um lote que terminou, junto com as que estavam aguardando a
+     * janela, sem esperar a janela fechar.
+     */
+    private void notifyBatchChanges(Set<Uri> changedUris) {
+        for (Uri uri : changedUris) {
+            mNotifier.notifyChange(uri);
+        }
+        mNotifier.flush();
+    }
+
+    /**
+     * Abre a exportação de todos os animais de estimação para leitura. O arquivo devolvido é a
+     * ponta de leitura de um pipe; as linhas são escritas na outra ponta, numa thread em segundo
+     * plano, à medida que são lidas do banco.
+     *
+     * Também abre a foto de um animal, para leitura ("r") ou para gravar uma foto nova ("w" ou
+     * "wt"); veja {@link PetPhotoStore}.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match == PET_PHOTO) {
+            return openPhoto(uri, mode);
+        }
+        if (match != EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export is read-only: " + uri + " mode " + mode);
+        }
+        String format = uri.getLastPathSegment();
+        String mimeType = PetExporter.getType(format);
+        if (mimeType == null) {
+            throw new FileNotFoundException("Unknown export format in " + uri);
+        }
+        return openPipeHelper(uri, mimeType, null, format, mExporter);
+    }
+
+    /**
+     * Abre o arquivo da foto atual do animal para leitura, ou a gravação de uma foto nova. A
+     * foto de um animal excluído não pode ser lida nem gravada.
+     */
+    private ParcelFileDescriptor openPhoto(Uri uri, String mode) throws FileNotFoundException {
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        if ("r".equals(mode)) {
+            String photo = queryPhoto(database, id);
+            if (photo == null) {
+                throw new FileNotFoundException("No photo for " + uri);
+            }
+            // Se uma foto nova substituir esta agora, o arquivo já aberto continua legível
+            return ParcelFileDescriptor.open(mPhotoStore.getFile(photo),
+                    ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+        if ("w".equals(mode) || "wt".equals(mode)) {
+            if (DatabaseUtils.queryNumEntries(database, PetEntry.TABLE_NAME,
+                    PetEntry._ID + "=? AND " + PetSchema.SELECTION_LIVE,
+                    new String[] { String.valueOf(id) }) == 0) {
+                throw new FileNotFoundException("No pet for " + uri);
+            }
+            return mPhotoStore.openForWrite(id);
+        }
+        throw new FileNotFoundException("Pet photos can't be opened with mode " + mode + ": "
+                + uri);
+    }
+
+    /** Retorna o nome do arquivo da foto do animal, ou null se ele não tem foto ou não existe */
+    private static String queryPhoto(SQLiteDatabase database, long id) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME,
+                new String[] { PetEntry.COLUMN_PET_PHOTO },
+                PetEntry._ID + "=? AND " + PetSchema.SELECTION_LIVE,
+                new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Grava a foto recebida por {@link PetPhotoStore} e apaga o arquivo da foto anterior.
+     * Retorna false, para que o arquivo novo seja apagado, se o animal foi excluído enquanto a
+     * foto era gravada.
+     */
+    private boolean replacePhoto(long id, String photo) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues(1);
+        values.put(PetEntry.COLUMN_PET_PHOTO, photo);
+        String oldPhoto;
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            oldPhoto = queryPhoto(database, id);
+            rowsUpdated = database.update(PetEntry.TABLE_NAME, values,
+                    PetEntry._ID + "=? AND " + PetSchema.SELECTION_LIVE,
+                    new String[] { String.valueOf(id) });
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (rowsUpdated == 0) {
+            return false;
+        }
+
+        // Quem já abriu a foto anterior continua lendo o arquivo até fechá-lo
+        mPhotoStore.delete(oldPhoto);
+        notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
+        return true;
+    }
+
+    /**
+     * Executa {@link PetContract#METHOD_PURGE}: apaga de vez os animais excluídos, compacta o
+     * banco e atualiza as estatísticas do planejador. Os animais visíveis não mudam, então
+     * ninguém é notificado. {@link PetContract#METHOD_CANCEL_PURGE} interrompe uma purga em
+     * andamento, chamada em outra thread.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (PetContract.METHOD_CANCEL_PURGE.equals(method)) {
+            mPurger.cancel();
+            return null;
+        }
+        if (!PetContract.METHOD_PURGE.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        long startMillis = System.currentTimeMillis();
+        long purgedRows = mPurger.purge();
+        long freedPages = mPurger.compact();
+        Log.i(LOG_TAG, (mPurger.isCancelled() ? "Cancelled after purging " : "Purged ")
+                + purgedRows + " rows and freed " + freedPages + " pages in "
+                + (System.currentTimeMillis() - startMillis) + " ms");
+
+        Bundle result = new Bundle();
+        result.putLong(PetContract.KEY_PURGED_ROWS, purgedRows);
+        result.putLong(PetContract.KEY_FREED_PAGES, freedPages);
+        return result;
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -285,9 +1255,38 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case STATS:
+                return PetStatsEntry.CONTENT_ITEM_TYPE;
+            case EXPORT:
+                String type = PetExporter.getType(uri.getLastPathSegment());
+                if (type == null) {
+                    throw new IllegalArgumentException("Unknown export format in " + uri);
+                }
+                return type;
+            case METRICS:
+                return PetMetricsEntry.CONTENT_LIST_TYPE;
+            case PET_PHOTO:
+                return PetEntry.PHOTO_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
+    /**
+     * Escreve as fases da abertura do aplicativo, as medições do provedor e o estado do cache de
+     * linhas. Para ver o relatório:
+     * adb shell dumpsys activity provider com.example.android.pets/.PetProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        PetStartupTrace.dump(writer);
+        writer.println();
+        writer.println("Latency by operation and URI since process start:");
+        mMetrics.dump(writer);
+        writer.println();
+        writer.println("Row cache: " + mRowCache);
+    }
+
 }
@@ -0,0 +1,220 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetMetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Duração, linhas afetadas e falhas das chamadas do
+ * {@link com.example.android.pets.PetProvider}, por operação e por URI.
+ *
+ * Cada combinação de operação e código do UriMatcher tem o seu {@link LatencyHistogram} e os
+ * seus contadores, criados no construtor. Registrar uma chamada só encontra o índice da
+ * combinação e faz incrementos atômicos: não trava e não cria objetos. Os relatórios são
+ * montados sob demanda por {@link #dump} e {@link #query}.
+ */
+public final class PetProviderMetrics {
+
+    /** Operações medidas */
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_BULK_INSERT = 2;
+    public static final int OP_UPDATE = 3;
+    public static final int OP_DELETE = 4;
+    public static final int OP_APPLY_BATCH = 5;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulkInsert", "update", "delete", "applyBatch" };
+
+    /** Valor de rows para as chamadas que não contam linhas, como as consultas */
+    public static final int ROWS_NOT_COUNTED = -1;
+
+    /** Nome das chamadas que não pertencem a um único URI, como um lote */
+    private static final String ANY_MATCH_NAME = "*";
+
+    /** Todas as colunas de {@link #query}, na ordem de {@link #row} */
+    private static final String[] COLUMNS = {
+            PetMetricsEntry._ID,
+            PetMetricsEntry.COLUMN_OPERATION,
+            PetMetricsEntry.COLUMN_URI_MATCH,
+            PetMetricsEntry.COLUMN_CALLS,
+            PetMetricsEntry.COLUMN_VALIDATION_FAILURES,
+            PetMetricsEntry.COLUMN_ERRORS,
+            PetMetricsEntry.COLUMN_CANCELLED,
+            PetMetricsEntry.COLUMN_ROWS,
+            PetMetricsEntry.COLUMN_TOTAL_MS,
+            PetMetricsEntry.COLUMN_P50_US,
+            PetMetricsEntry.COLUMN_P90_US,
+            PetMetricsEntry.COLUMN_P99_US,
+            PetMetricsEntry.COLUMN_MAX_US };
+
+    /** Códigos do UriMatcher e o nome de cada um; a última posição é {@link #ANY_MATCH_NAME} */
+    private final int[] mMatchCodes;
+    private final String[] mMatchNames;
+
+    /** Um histograma e quatro contadores por combinação; veja {@link #slot} */
+    private final LatencyHistogram[] mLatency;
+    private final AtomicLongArray mRows;
+    private final AtomicLongArray mValidationFailures;
+    private final AtomicLongArray mErrors;
+    private final AtomicLongArray mCancelled;
+
+    /**
+     * @param matchCodes códigos do UriMatcher do provedor; qualquer outro código, inclusive
+     *                   UriMatcher.NO_MATCH, é registrado como {@link #ANY_MATCH_NAME}
+     * @param matchNames nome de cada código, mostrado nos relatórios
+     */
+    public PetProviderMetrics(int[] matchCodes, String[] matchNames) {
+        if (matchCodes.length != matchNames.length) {
+            throw new IllegalArgumentException("Each match code needs a name");
+        }
+        mMatchCodes = matchCodes.clone();
+        mMatchNames = new String[matchNames.length + 1];
+        System.arraycopy(matchNames, 0, mMatchNames, 0, matchNames.length);
+        mMatchNames[matchNames.length] = ANY_MATCH_NAME;
+
+        int slots = OPERATION_NAMES.length * mMatchNames.length;
+        mLatency = new LatencyHistogram[slots];
+        for (int i = 0; i < slots; i++) {
+            mLatency[i] = new LatencyHistogram();
+        }
+        mRows = new AtomicLongArray(slots);
+        mValidationFailures = new AtomicLongArray(slots);
+        mErrors = new AtomicLongArray(slots);
+        mCancelled = new AtomicLongArray(slots);
+    }
+
+    /**
+     * Registra uma chamada que terminou.
+     *
+     * @param startNanos valor de {@link System#nanoTime()} no início da chamada
+     * @param rows       linhas afetadas, ou {@link #ROWS_NOT_COUNTED}
+     */
+    public void record(int operation, int match, long startNanos, int rows) {
+        int slot = slot(operation, match);
+        mLatency[slot].record(System.nanoTime() - startNanos);
+        if (rows > 0) {
+            mRows.addAndGet(slot, rows);
+        }
+    }
+
+    /**
+     * Registra uma chamada que lançou e. IllegalArgumentException, que o provedor lança para
+     * valores ou URIs inválidos, conta como falha de validação; o resto, como erro.
+     */
+    public void recordFailure(int operation, int match, long startNanos, Exception e) {
+        int slot = slot(operation, match);
+        mLatency[slot].record(System.nanoTime() - startNanos);
+        if (e instanceof IllegalArgumentException) {
+            mValidationFailures.incrementAndGet(slot);
+        } else {
+            mErrors.incrementAndGet(slot);
+        }
+    }
+
+    /**
+     * Registra uma consulta cancelada pelo cliente. Ela conta como chamada, mas não como erro.
+     */
+    public void recordCancelled(int operation, int match, long startNanos) {
+        int slot = slot(operation, match);
+        mLatency[slot].record(System.nanoTime() - startNanos);
+        mCancelled.incrementAndGet(slot);
+    }
+
+    /**
+     * Escreve uma tabela com as combinações que tiveram chamadas, para o
+     * ContentProvider.dump (adb shell dumpsys activity provider ...).
+     */
+    public void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.US,
+                "%-10s %-14s %8s %6s %6s %6s %9s %10s %9s %9s %9s %9s",
+                "operation", "uri", "calls", "inval", "errors", "cancel", "rows", "total_ms",
+                "p50_us", "p90_us", "p99_us", "max_us"));
+        for (int slot = 0; slot < mLatency.length; slot++) {
+            Object[] row = row(slot);
+            if (row == null) {
+                continue;
+            }
+            writer.println(String.format(Locale.US,
+                    "%-10s %-14s %8d %6d %6d %6d %9d %10.1f %9.1f %9.1f %9.1f %9.1f",
+                    row[1], row[2], row[3], row[4], row[5], row[6], row[7], row[8], row[9],
+                    row[10], row[11], row[12]));
+        }
+    }
+
+    /**
+     * Retorna um cursor com uma linha por combinação que teve chamadas e as colunas de
+     * {@link PetMetricsEntry} pedidas (null são todas).
+     */
+    public Cursor query(String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < COLUMNS.length; j++) {
+                if (COLUMNS[j].equals(projection[i])) {
+                    columns[i] = j;
+                }
+            }
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("Unknown metrics column " + projection[i]);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection);
+        for (int slot = 0; slot < mLatency.length; slot++) {
+            Object[] row = row(slot);
+            if (row == null) {
+                continue;
+            }
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = row[columns[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /** Retorna os valores de {@link #COLUMNS} da combinação, ou null se ela não teve chamadas */
+    private Object[] row(int slot) {
+        LatencyHistogram latency = mLatency[slot];
+        long calls = latency.getCount();
+        if (calls == 0) {
+            return null;
+        }
+        return new Object[] {
+                slot,
+                OPERATION_NAMES[slot / mMatchNames.length],
+                mMatchNames[slot % mMatchNames.length],
+                calls,
+                mValidationFailures.get(slot),
+                mErrors.get(slot),
+                mCancelled.get(slot),
+                mRows.get(slot),
+                latency.getTotalNanos() / 1e6,
+                latency.getPercentileNanos(50) / 1e3,
+                latency.getPercentileNanos(90) / 1e3,
+                latency.getPercentileNanos(99) / 1e3,
+                latency.getMaxNanos() / 1e3 };
+    }
+
+    /** Índice da combinação de operação e código do UriMatcher */
+    private int slot(int operation, int match) {
+        int matchIndex = mMatchCodes.length;
+        for (int i = 0; i < mMatchCodes.length; i++) {
+            if (mMatchCodes[i] == match) {
+                matchIndex = i;
+                break;
+            }
+        }
+        return operation * mMatchNames.length + matchIndex;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tarefa periódica que chama {@link PetContract#METHOD_PURGE} com o aparelho ocioso e
+ * carregando: apaga de vez os animais excluídos, compacta o banco e executa ANALYZE, sem
+ * disputar o banco com o usuário.
+ *
+ * Se o aparelho deixa de estar ocioso ou carregando, a purga é interrompida depois do lote atual
+ * e o JobScheduler agenda de novo o que sobrou.
+ *
+ * O JobScheduler só existe a partir da API 21. Nas versões anteriores a tarefa não é agendada,
+ * e os animais excluídos continuam marcados (e invisíveis) até uma purga.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PetPurgeJobService extends JobService {
+
+    private static final String LOG_TAG = PetPurgeJobService.class.getSimpleName();
+
+    /** Identificador da tarefa no JobScheduler, único no aplicativo */
+    private static final int JOB_ID = 1;
+
+    /** Intervalo entre as purgas */
+    private static final long PERIOD_MS = TimeUnit.DAYS.toMillis(1);
+
+    /** Verdadeiro depois que o sistema interrompeu a execução atual */
+    private volatile boolean mStopped;
+
+    /**
+     * Agenda a purga periódica, se ela ainda não estiver agendada. Só pode ser chamado a partir
+     * da API 21.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        // Agendar de novo recomeçaria a contagem do intervalo
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, PetPurgeJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        // O JobService é chamado na thread principal; a purga é feita numa thread própria
+        new Thread(LOG_TAG) {
+            @Override
+            public void run() {
+                try {
+                    if (!mStopped) {
+                        getContentResolver().call(PetEntry.CONTENT_URI,
+                                PetContract.METHOD_PURGE, null, null);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Purge failed", e);
+                }
+                // Depois do onStopJob o sistema já não espera o jobFinished
+                if (!mStopped) {
+                    jobFinished(params, false);
+                }
+            }
+        }.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // O aparelho deixou de estar ocioso: a purga para depois do lote atual, sem chegar ao
+        // VACUUM, e o resto é agendado de novo
+        mStopped = true;
+        getContentResolver().call(PetEntry.CONTENT_URI, PetContract.METHOD_CANCEL_PURGE, null,
+                null);
+        return true;
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Apaga de vez os animais marcados como excluídos e devolve ao sistema de arquivos o espaço
+ * que eles ocupavam. O SQL está em {@link PetSchema}.
+ *
+ * As linhas marcadas são lidas pelo _id, em lotes de {@link #CHUNK_ROWS}, e cada lote é apagado
+ * numa transação curta, então as outras escritas só esperam pelo lote em andamento. Apagar a
+ * linha dispara os gatilhos que a tiram da tabela de busca e atualiza os índices; as
+ * estatísticas já não contavam a linha desde a marcação. As fotos das linhas apagadas são
+ * apagadas do {@link PetPhotoStore} depois que o lote é gravado.
+ *
+ * Depois da purga, {@link #compact} devolve as páginas livres com o auto_vacuum incremental e
+ * atualiza as estatísticas do planejador com ANALYZE. Tudo isso é demorado e deve ser feito fora
+ * da thread principal, de preferência com o aparelho ocioso. Quando o aparelho deixa de estar
+ * ocioso, {@link #cancel} interrompe a purga entre dois lotes e pula o que falta da compactação.
+ */
+public final class PetPurger {
+
+    private static final String LOG_TAG = PetPurger.class.getSimpleName();
+
+    /** Linhas apagadas por transação */
+    private static final int CHUNK_ROWS = 500;
+
+    /** Valor do PRAGMA auto_vacuum que permite o incremental_vacuum */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final PetDbHelper mDbHelper;
+    private final PetPhotoStore mPhotoStore;
+
+    private volatile boolean mCancelled;
+
+    public PetPurger(PetDbHelper dbHelper, PetPhotoStore photoStore) {
+        mDbHelper = dbHelper;
+        mPhotoStore = photoStore;
+    }
+
+    /**
+     * Apaga de vez todos os animais marcados como excluídos, ou os que houver até o
+     * cancelamento. Começar uma purga descarta um cancelamento anterior.
+     *
+     * @return número de linhas apagadas
+     */
+    public long purge() {
+        mCancelled = false;
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteStatement purge = database.compileStatement(PetSchema.SQL_PURGE_BY_ID);
+        long[] ids = new long[CHUNK_ROWS];
+        String[] photos = new String[CHUNK_ROWS];
+        long lastId = -1;
+        long purged = 0;
+        try {
+            int count;
+            do {
+                count = readDeleted(database, lastId, ids, photos);
+                if (count == 0) {
+                    break;
+                }
+                database.beginTransaction();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        purge.bindLong(1, ids[i]);
+                        if (purge.executeUpdateDelete() == 0) {
+                            // A linha não está mais lá: a foto não é desta purga
+                            photos[i] = null;
+                        } else {
+                            purged++;
+                        }
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                // Só depois do commit: se o lote falhar, as linhas continuam com as fotos
+                for (int i = 0; i < count; i++) {
+                    mPhotoStore.delete(photos[i]);
+                }
+                lastId = ids[count - 1];
+            } while (count == CHUNK_ROWS && !mCancelled);
+        } finally {
+            purge.close();
+        }
+        return purged;
+    }
+
+    /**
+     * Devolve ao sistema de arquivos as páginas livres do banco e atualiza as estatísticas do
+     * planejador de consultas.
+     *
+     * O incremental_vacuum só funciona num banco com auto_vacuum INCREMENTAL, e um banco criado
+     * sem ele só muda de modo com um VACUUM completo. Esse VACUUM reescreve o arquivo inteiro,
+     * mas acontece uma única vez; depois disso cada compactação só move as páginas livres.
+     *
+     * Não faz nada depois de um {@link #cancel}, e o ANALYZE é pulado se o cancelamento chegar
+     * durante o vacuum.
+     *
+     * @return número de páginas devolvidas
+     */
+    public long compact() {
+        if (mCancelled) {
+            return 0;
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long pagesBefore = DatabaseUtils.longForQuery(database, "PRAGMA page_count", null);
+
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            Log.i(LOG_TAG, "Switching to incremental auto_vacuum with a full VACUUM");
+            PetDbHelper.execPragma(database, "auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            database.execSQL("VACUUM");
+        } else if (DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null) > 0) {
+            // Cada passo do incremental_vacuum devolve uma única página: o cursor precisa ser
+            // lido até o fim
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Nada a ler: cada passo devolve uma página
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (!mCancelled) {
+            database.execSQL("ANALYZE");
+        }
+
+        return pagesBefore - DatabaseUtils.longForQuery(database, "PRAGMA page_count", null);
+    }
+
+    /**
+     * Interrompe a purga depois do lote atual, e a compactação antes do próximo passo. Pode ser
+     * chamado de qualquer thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /** Verdadeiro se a última purga foi cancelada */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Lê em ids e photos o _id e a foto das próximas linhas marcadas depois de afterId e retorna
+     * quantas foram lidas.
+     */
+    private static int readDeleted(SQLiteDatabase database, long afterId, long[] ids,
+                                   String[] photos) {
+        Cursor cursor = database.rawQuery(PetSchema.SQL_SELECT_DELETED, new String[] {
+                String.valueOf(afterId), String.valueOf(ids.length) });
+        try {
+            int count = 0;
+            while (cursor.moveToNext()) {
+                ids[count] = cursor.getLong(0);
+                photos[count++] = cursor.getString(1);
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+
+/**
+ * Consulta paginada na tabela de animais de estimação, montada a partir dos parâmetros de
+ * {@link PetEntry#CONTENT_URI}.
+ *
+ * A paginação é por chave (keyset): em vez de OFFSET, cada página começa logo depois da última
+ * linha da página anterior, identificada pelo valor da chave de ordenação e pelo _id. Assim a
+ * consulta de qualquer página é uma busca no índice, não importa quantas linhas vêm antes.
+ *
+ * Os filtros por gênero e faixa de peso também viram SQL com parâmetros: só as linhas que
+ * passam pelo filtro saem do SQLite. Com a ordenação pelo peso e um gênero, o índice
+ * (gender, weight) atende o filtro e a ordem ao mesmo tempo.
+ */
+public final class PetQuery {
+
+    /** Ordenação pela chave primária */
+    public static final String SORT_ID = "id";
+
+    /** Ordenação pelo nome, desempatada pelo _id */
+    public static final String SORT_NAME = "name";
+
+    /** Ordenação pelo peso, desempatada pelo _id */
+    public static final String SORT_WEIGHT = "weight";
+
+    /** Sem limite de linhas */
+    public static final int NO_LIMIT = 0;
+
+    /** Sem filtro por gênero */
+    public static final int ANY_GENDER = -1;
+
+    /** Sem limite de peso, mínimo ou máximo */
+    public static final int NO_WEIGHT = -1;
+
+    private final String mSort;
+    private final String mAfterKey;
+    private final long mAfterId;
+    private final int mLimit;
+
+    /** Cláusula WHERE (filtros e início da página) e os seus argumentos, ou null */
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+
+    /**
+     * Consulta sem filtros.
+     *
+     * @param sort     {@link #SORT_ID}, {@link #SORT_NAME} ou {@link #SORT_WEIGHT}
+     * @param afterKey valor da chave de ordenação da última linha já lida, ou null para a
+     *                 primeira página (ignorado na ordenação por _id)
+     * @param afterId  _id da última linha já lida, ou -1 para a primeira página
+     * @param limit    número máximo de linhas, ou {@link #NO_LIMIT}
+     */
+    public PetQuery(String sort, String afterKey, long afterId, int limit) {
+        this(sort, ANY_GENDER, NO_WEIGHT, NO_WEIGHT, afterKey, afterId, limit);
+    }
+
+    /**
+     * Consulta com filtros.
+     *
+     * @param gender    gênero dos animais, ou {@link #ANY_GENDER}
+     * @param minWeight menor peso, inclusive, ou {@link #NO_WEIGHT}
+     * @param maxWeight maior peso, inclusive, ou {@link #NO_WEIGHT}
+     * @see #PetQuery(String, String, long, int)
+     */
+    public PetQuery(String sort, int gender, int minWeight, int maxWeight, String afterKey,
+                    long afterId, int limit) {
+        if (!SORT_ID.equals(sort) && !SORT_NAME.equals(sort) && !SORT_WEIGHT.equals(sort)) {
+            throw new IllegalArgumentException("Unknown sort key " + sort);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative: " + limit);
+        }
+        if (afterId >= 0 && afterKey == null && !SORT_ID.equals(sort)) {
+            throw new IllegalArgumentException("Sorting by " + sort + " requires the last key");
+        }
+        if (afterId >= 0 && SORT_WEIGHT.equals(sort)) {
+            try {
+                Integer.parseInt(afterKey);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid last weight " + afterKey, e);
+            }
+        }
+        // As regras de PetEntry.isValidGender e isValidWeight, só com as constantes: o
+        // benchmark usa esta classe sem o android.jar, e PetEntry herda de BaseColumns
+        if (gender != ANY_GENDER && gender != PetEntry.GENDER_UNKNOWN
+                && gender != PetEntry.GENDER_MALE && gender != PetEntry.GENDER_FEMALE) {
+            throw new IllegalArgumentException("Invalid gender " + gender);
+        }
+        if ((minWeight != NO_WEIGHT && minWeight < 0)
+                || (maxWeight != NO_WEIGHT && maxWeight < 0)) {
+            throw new IllegalArgumentException("Invalid weight range " + minWeight + " to "
+                    + maxWeight);
+        }
+        mSort = sort;
+        mAfterKey = afterKey;
+        mAfterId = afterId;
+        mLimit = limit;
+
+        // O gênero vem primeiro, na ordem das colunas do índice (gender, weight)
+        StringBuilder selection = new StringBuilder();
+        ArrayList<String> args = new ArrayList<>();
+        if (gender != ANY_GENDER) {
+            appendClause(selection, PetEntry.COLUMN_PET_GENDER + " = ?");
+            args.add(String.valueOf(gender));
+        }
+        if (minWeight != NO_WEIGHT) {
+            appendClause(selection, PetEntry.COLUMN_PET_WEIGHT + " >= ?");
+            args.add(String.valueOf(minWeight));
+        }
+        if (maxWeight != NO_WEIGHT) {
+            appendClause(selection, PetEntry.COLUMN_PET_WEIGHT + " <= ?");
+            args.add(String.valueOf(maxWeight));
+        }
+        if (hasAnchor()) {
+            String afterIdArg = String.valueOf(mAfterId);
+            if (SORT_ID.equals(mSort)) {
+                appendClause(selection, PetEntry._ID + " > ?");
+                args.add(afterIdArg);
+            } else {
+                // A forma "chave >= ? AND (chave > ? OR _id > ?)" deixa o SQLite usar o limite
+                // inferior no índice da chave, o que não acontece com um OR no nível de cima
+                appendClause(selection, mSort + " >= ? AND (" + mSort + " > ? OR "
+                        + PetEntry._ID + " > ?)");
+                args.add(mAfterKey);
+                args.add(mAfterKey);
+                args.add(afterIdArg);
+            }
+        }
+        mSelection = selection.length() > 0 ? selection.toString() : null;
+        mSelectionArgs = args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    /** Retorna se esta consulta começa depois de uma linha já lida */
+    private boolean hasAnchor() {
+        return mAfterId >= 0;
+    }
+
+    /** Retorna a chave de ordenação: {@link #SORT_ID}, {@link #SORT_NAME} ou {@link #SORT_WEIGHT} */
+    public String getSort() {
+        return mSort;
+    }
+
+    /**
+     * Retorna a cláusula WHERE com os filtros e o início da página (que pula as linhas das
+     * páginas anteriores), ou null na primeira página sem filtros. Todos os valores são
+     * parâmetros; veja {@link #getSelectionArgs()}.
+     */
+    public String getSelection() {
+        return mSelection;
+    }
+
+    /** Retorna os argumentos de {@link #getSelection()} */
+    public String[] getSelectionArgs() {
+        return mSelectionArgs;
+    }
+
+    /** Retorna a ordem de classificação; o _id sempre desempata para a chave ser única */
+    public String getSortOrder() {
+        if (SORT_ID.equals(mSort)) {
+            return PetEntry._ID;
+        }
+        return mSort + ", " + PetEntry._ID;
+    }
+
+    /** Retorna a cláusula LIMIT, ou null se não houver limite */
+    public String getLimit() {
+        return mLimit == NO_LIMIT ? null : String.valueOf(mLimit);
+    }
+
+    private static void appendClause(StringBuilder selection, String clause) {
+        if (selection.length() > 0) {
+            selection.append(" AND ");
+        }
+        selection.append(clause);
+    }
+
+    /**
+     * Junta duas cláusulas WHERE com AND. Qualquer uma pode ser null.
+     */
+    public static String andSelection(String first, String second) {
+        if (first == null || first.isEmpty()) {
+            return second;
+        }
+        if (second == null || second.isEmpty()) {
+            return first;
+        }
+        return "(" + first + ") AND (" + second + ")";
+    }
+
+    /**
+     * Concatena os argumentos de duas cláusulas juntadas por {@link #andSelection}.
+     */
+    public static String[] concatArgs(String[] first, String[] second) {
+        if (first == null || first.length == 0) {
+            return second;
+        }
+        if (second == null || second.length == 0) {
+            return first;
+        }
+        String[] args = new String[first.length + second.length];
+        System.arraycopy(first, 0, args, 0, first.length);
+        System.arraycopy(second, 0, args, first.length, second.length);
+        return args;
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Cache LRU de linhas da tabela de animais de estimação, indexado pelo _id.
+ *
+ * Atende as consultas de um único animal (o caso do EditorActivity) sem ir ao SQLite. As
+ * chaves ficam num {@link LongSparseArray}, sem criar um Long por consulta, e as entradas formam
+ * uma lista duplamente ligada da mais recente para a menos recente. Todos os métodos são
+ * sincronizados, pois o provedor é chamado de várias threads.
+ *
+ * Quem escreve no banco deve invalidar as linhas afetadas depois da escrita. Quem lê do banco
+ * deve guardar {@link #getGeneration()} antes da leitura e passá-la para {@link #put}, para que
+ * uma linha lida antes de uma invalidação não volte para o cache.
+ */
+public final class PetRowCache {
+
+    /** Colunas que o cache consegue devolver */
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /** Uma linha da tabela */
+    private static final class Entry {
+        long id;
+        String name;
+        String breed;
+        int gender;
+        int weight;
+
+        /** Entrada usada mais recentemente antes e depois desta */
+        Entry newer;
+        Entry older;
+    }
+
+    private final int mMaxEntries;
+    private final LongSparseArray<Entry> mEntries;
+
+    /** Entradas usadas mais e menos recentemente */
+    private Entry mNewest;
+    private Entry mOldest;
+
+    /** Incrementado a cada invalidação */
+    private long mGeneration;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxEntries número máximo de linhas guardadas; a mais antiga é descartada quando o
+     *                   cache está cheio
+     */
+    public PetRowCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        mMaxEntries = maxEntries;
+        mEntries = new LongSparseArray<>(maxEntries);
+    }
+
+    /**
+     * Retorna se o cache consegue devolver todas as colunas pedidas. null pede todas as
+     * colunas, inclusive a foto, que o cache não guarda.
+     */
+    public static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return false;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Retorna um cursor com a linha do _id dado e as colunas pedidas, ou null se ela não estiver
+     * no cache. Conta um acerto ou uma falha.
+     */
+    public synchronized Cursor get(long id, String[] projection) {
+        Entry entry = mEntries.get(id);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        moveToNewest(entry);
+        return toCursor(entry, projection);
+    }
+
+    /** Retorna o valor atual da geração, a ser passado para {@link #put} */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Guarda uma linha lida do banco e retorna um cursor com ela. A linha só é guardada se
+     * nenhuma invalidação aconteceu desde que generation foi lida.
+     */
+    public synchronized Cursor put(long generation, long id, String name, String breed, int gender,
+                                   int weight, String[] projection) {
+        Entry entry = new Entry();
+        entry.id = id;
+        entry.name = name;
+        entry.breed = breed;
+        entry.gender = gender;
+        entry.weight = weight;
+
+        if (generation == mGeneration) {
+            Entry previous = mEntries.get(id);
+            if (previous != null) {
+                unlink(previous);
+            }
+            mEntries.put(id, entry);
+            moveToNewest(entry);
+            if (mEntries.size() > mMaxEntries) {
+                evictOldest();
+            }
+        }
+        return toCursor(entry, projection);
+    }
+
+    /** Descarta a linha do _id dado, depois que ela foi alterada ou excluída */
+    public synchronized void invalidate(long id) {
+        mGeneration++;
+        Entry entry = mEntries.get(id);
+        if (entry != null) {
+            unlink(entry);
+            mEntries.remove(id);
+        }
+    }
+
+    /** Descarta todas as linhas, depois de uma escrita que pode ter alterado qualquer uma */
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+        mNewest = null;
+        mOldest = null;
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public int maxSize() {
+        return mMaxEntries;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PetRowCache[size=" + mEntries.size() + "/" + mMaxEntries + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "]";
+    }
+
+    private void evictOldest() {
+        Entry oldest = mOldest;
+        unlink(oldest);
+        mEntries.remove(oldest.id);
+        mEvictionCount++;
+    }
+
+    private void moveToNewest(Entry entry) {
+        if (mNewest == entry) {
+            return;
+        }
+        unlink(entry);
+        entry.older = mNewest;
+        if (mNewest != null) {
+            mNewest.newer = entry;
+        }
+        mNewest = entry;
+        if (mOldest == null) {
+            mOldest = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else if (mNewest == entry) {
+            mNewest = entry.older;
+        }
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else if (mOldest == entry) {
+            mOldest = entry.newer;
+        }
+        entry.newer = null;
+        entry.older = null;
+    }
+
+    private static Cursor toCursor(Entry entry, String[] projection) {
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            switch (columnIndex(projection[i])) {
+                case 0:
+                    row[i] = entry.id;
+                    break;
+                case 1:
+                    row[i] = entry.name;
+                    break;
+                case 2:
+                    row[i] = entry.breed;
+                    break;
+                case 3:
+                    row[i] = entry.gender;
+                    break;
+                case 4:
+                    row[i] = entry.weight;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown column " + projection[i]);
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,509 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.util.Locale;
+
+/**
+ * SQL do banco shelter.db: o esquema de cada versão e as escritas pré-compiladas.
+ *
+ * Esta classe só usa Java puro e as constantes de {@link PetContract}, que o compilador copia
+ * para cá, para que o módulo benchmark execute exatamente o mesmo SQL do aplicativo numa JVM
+ * comum. O {@link PetDbHelper} aplica as migrações e o {@link PetStatements} compila as escritas.
+ */
+public final class PetSchema {
+
+    /**
+     * Versão atual do esquema. Ao alterar o esquema, incremente a versão e adicione a migração
+     * correspondente em {@link #getMigration}.
+     */
+    public static final int VERSION = 8;
+
+    /** Esquema da versão 1: a tabela de animais de estimação */
+    public static final String CREATE_PETS_TABLE = "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
+            + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+            + PetEntry.COLUMN_PET_BREED + " TEXT, "
+            + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+            + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
+
+    /**
+     * Seleção dos animais que não foram excluídos (versão 6). Toda consulta da tabela pets
+     * precisa dela; sem argumentos, pode ser juntada com qualquer outra seleção.
+     */
+    public static final String SELECTION_LIVE = PetEntry.COLUMN_PET_DELETED + " = 0";
+
+    /** Insere uma linha completa: nome, raça, gênero e peso */
+    public static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+            + ") VALUES (?, ?, ?, ?)";
+
+    /**
+     * Lê o _id da linha inserida com a chave de escrita do primeiro parâmetro (versão 5), mesmo
+     * que ela já tenha sido excluída
+     */
+    public static final String SQL_SELECT_BY_WRITE_KEY = "SELECT " + PetEntry._ID + " FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_WRITE_KEY + " = ?";
+
+    /**
+     * Substitui nome, raça, gênero e peso da linha com o _id do quinto parâmetro, se ela não
+     * foi excluída
+     */
+    public static final String SQL_UPDATE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_NAME + " = ?, " + PetEntry.COLUMN_PET_BREED + " = ?, "
+            + PetEntry.COLUMN_PET_GENDER + " = ?, " + PetEntry.COLUMN_PET_WEIGHT + " = ? WHERE "
+            + PetEntry._ID + " = ? AND " + SELECTION_LIVE;
+
+    /**
+     * Exclui a linha com o _id dado, marcando-a. A marca não está em nenhum índice, então a
+     * exclusão só reescreve a linha; os índices e a tabela de busca só são alterados na purga.
+     */
+    public static final String SQL_DELETE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_DELETED + " = 1 WHERE " + PetEntry._ID + " = ? AND "
+            + SELECTION_LIVE;
+
+    /**
+     * Lê o _id e a foto das próximas linhas excluídas depois do _id do primeiro parâmetro, no
+     * máximo o número do segundo parâmetro. A purga avança pelo _id, então percorre a tabela uma
+     * única vez.
+     */
+    public static final String SQL_SELECT_DELETED = "SELECT " + PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_PHOTO + " FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + " > ? AND "
+            + PetEntry.COLUMN_PET_DELETED + " != 0 ORDER BY " + PetEntry._ID + " LIMIT ?";
+
+    /** Apaga de vez a linha excluída com o _id dado */
+    public static final String SQL_PURGE_BY_ID = "DELETE FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry._ID + " = ? AND " + PetEntry.COLUMN_PET_DELETED + " != 0";
+
+    /**
+     * Tabelas de uma busca: cada animal junto da sua linha na tabela FTS. A tabela FTS ainda
+     * tem os animais excluídos que não foram purgados, então a busca também precisa de
+     * {@link #SELECTION_LIVE}.
+     */
+    public static final String SEARCH_TABLES = PetEntry.TABLE_NAME + " JOIN "
+            + PetEntry.SEARCH_TABLE_NAME + " ON (" + PetEntry.TABLE_NAME + "." + PetEntry._ID
+            + " = " + PetEntry.SEARCH_TABLE_NAME + ".docid)";
+
+    /** Número máximo de resultados devolvidos por uma busca */
+    public static final int SEARCH_LIMIT = 100;
+
+    /**
+     * Ordem padrão da busca: primeiro os animais com mais ocorrências dos termos buscados.
+     * offsets() devolve quatro números por ocorrência, então o tamanho do texto cresce com elas.
+     */
+    public static final String SEARCH_RANK_ORDER =
+            "length(offsets(" + PetEntry.SEARCH_TABLE_NAME + ")) DESC, "
+                    + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME;
+
+    /** Coluna da tabela FTS com o _id do animal; a ordem por ela vem pronta do índice FTS */
+    public static final String SEARCH_DOCID = PetEntry.SEARCH_TABLE_NAME + ".docid";
+
+    /**
+     * Ordem da busca do mais novo para o mais antigo. Ao contrário de
+     * {@link #SEARCH_RANK_ORDER}, que calcula offsets() para cada animal encontrado antes de
+     * ordenar, o FTS entrega os resultados nesta ordem, e a consulta para no LIMIT. Um prefixo
+     * de uma letra, que casa com boa parte da tabela, custa o mesmo que um nome inteiro.
+     */
+    public static final String SEARCH_NEWEST_ORDER = SEARCH_DOCID + " DESC";
+
+    /** Índices secundários da tabela de animais de estimação (versão 2) */
+    private static final String INDEX_NAME_BREED = "pets_name_breed_idx";
+    private static final String INDEX_BREED = "pets_breed_idx";
+    private static final String INDEX_GENDER_WEIGHT = "pets_gender_weight_idx";
+
+    /** Gatilhos que mantêm a tabela de busca em sincronia com a tabela pets (versão 3) */
+    private static final String TRIGGER_SEARCH_INSERT = "pets_fts_insert";
+    private static final String TRIGGER_SEARCH_UPDATE = "pets_fts_update";
+    private static final String TRIGGER_SEARCH_DELETE = "pets_fts_delete";
+
+    /** Índice do peso, usado para recalcular o peso máximo (versão 4) */
+    private static final String INDEX_WEIGHT = "pets_weight_idx";
+
+    /** Índice único da versão 5 */
+    private static final String INDEX_WRITE_KEY = "pets_write_key_idx";
+
+    /**
+     * Índices das páginas do catálogo pelo nome, com e sem o filtro de gênero, e pelo _id com o
+     * filtro de gênero (versão 8). Todo índice termina no _id, então eles já estão na ordem
+     * (nome, _id) ou (_id) das páginas.
+     */
+    private static final String INDEX_NAME = "pets_name_idx";
+    private static final String INDEX_GENDER_NAME = "pets_gender_name_idx";
+    private static final String INDEX_GENDER = "pets_gender_idx";
+
+    /** Gatilhos que mantêm a tabela de estatísticas em dia com a tabela pets (versão 4) */
+    private static final String TRIGGER_STATS_INSERT = "pet_stats_insert";
+    private static final String TRIGGER_STATS_UPDATE = "pet_stats_update";
+    private static final String TRIGGER_STATS_DELETE = "pet_stats_delete";
+
+    /** Gatilho que tira das estatísticas o animal marcado como excluído (versão 6) */
+    private static final String TRIGGER_STATS_MARK_DELETED = "pet_stats_mark_deleted";
+
+    /** _id da única linha da tabela de estatísticas */
+    private static final long STATS_ROW_ID = 1;
+
+    /**
+     * Colunas da tabela de estatísticas, na ordem em que {@link #SQL_SELECT_STATS} e
+     * {@link #SQL_RECOMPUTE_STATS} as devolvem.
+     */
+    static final String[] STATS_COLUMNS = {
+            PetStatsEntry.COLUMN_TOTAL,
+            PetStatsEntry.COLUMN_COUNT_UNKNOWN,
+            PetStatsEntry.COLUMN_COUNT_MALE,
+            PetStatsEntry.COLUMN_COUNT_FEMALE,
+            PetStatsEntry.COLUMN_WEIGHT_SUM,
+            PetStatsEntry.COLUMN_WEIGHT_MAX };
+
+    /** Expressões que calculam as estatísticas percorrendo toda a tabela pets */
+    private static final String RECOMPUTE_STATS = "COUNT(*), "
+            + "IFNULL(SUM(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_UNKNOWN + "), 0), "
+            + "IFNULL(SUM(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_MALE + "), 0), "
+            + "IFNULL(SUM(" + PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_FEMALE + "), 0), "
+            + "IFNULL(SUM(" + PetEntry.COLUMN_PET_WEIGHT + "), 0), "
+            + "IFNULL(MAX(" + PetEntry.COLUMN_PET_WEIGHT + "), 0)";
+
+    /** Lê a linha guardada na tabela de estatísticas */
+    static final String SQL_SELECT_STATS = "SELECT " + join(STATS_COLUMNS) + " FROM "
+            + PetStatsEntry.TABLE_NAME + " WHERE " + PetStatsEntry._ID + " = " + STATS_ROW_ID;
+
+    /** Calcula as estatísticas percorrendo todos os animais não excluídos */
+    static final String SQL_RECOMPUTE_STATS = "SELECT " + RECOMPUTE_STATS + " FROM "
+            + PetEntry.TABLE_NAME + " WHERE " + SELECTION_LIVE;
+
+    /** Substitui a linha da tabela de estatísticas por um recálculo completo */
+    static final String SQL_REBUILD_STATS = rebuildStats(" WHERE " + SELECTION_LIVE);
+
+    private PetSchema() {
+    }
+
+    /**
+     * Converte o texto digitado numa expressão MATCH do FTS. Tudo que não é letra ou número
+     * separa palavras, de modo que o texto do usuário nunca vira sintaxe do FTS (aspas, NEAR,
+     * OR...). Cada palavra vira um prefixo: "to ter" vira "to* ter*".
+     */
+    public static String buildMatchExpression(String query) {
+        StringBuilder expression = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                if (expression.length() > 0) {
+                    expression.append(' ');
+                }
+                // Em minúsculas, "and" ou "or" não são confundidos com operadores do FTS
+                expression.append(word.toString().toLowerCase(Locale.US)).append('*');
+                word.setLength(0);
+            }
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Retorna as instruções que levam o banco da versão toVersion - 1 para a versão toVersion.
+     */
+    public static String[] getMigration(int toVersion) {
+        switch (toVersion) {
+            case 2:
+                return migrationToVersion2();
+            case 3:
+                return migrationToVersion3();
+            case 4:
+                return migrationToVersion4();
+            case 5:
+                return migrationToVersion5();
+            case 6:
+                return migrationToVersion6();
+            case 7:
+                return migrationToVersion7();
+            case 8:
+                return migrationToVersion8();
+            default:
+                throw new IllegalStateException("No migration to database version " + toVersion);
+        }
+    }
+
+    /**
+     * Versão 2: índices secundários. (name, breed) cobre a projeção do catálogo, já que o _id
+     * está em todo índice; (gender, weight) atende os filtros por gênero e faixa de peso.
+     */
+    private static String[] migrationToVersion2() {
+        return new String[] {
+                "CREATE INDEX IF NOT EXISTS " + INDEX_NAME_BREED + " ON "
+                        + PetEntry.TABLE_NAME + " ("
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ");",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_BREED + " ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ");",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_GENDER_WEIGHT + " ON "
+                        + PetEntry.TABLE_NAME + " ("
+                        + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ");" };
+    }
+
+    /**
+     * Versão 3: tabela FTS para a busca por nome e raça. Um LIKE '%x%' não usa índice; a
+     * tabela FTS tem um índice invertido por palavra, mantido em sincronia pelos gatilhos abaixo.
+     */
+    private static String[] migrationToVersion3() {
+        return new String[] {
+                "CREATE VIRTUAL TABLE " + PetEntry.SEARCH_TABLE_NAME + " USING fts4("
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ");",
+
+                // Indexe os animais que já existem
+                "INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + " (docid, "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") SELECT "
+                        + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME + ";",
+
+                "CREATE TRIGGER " + TRIGGER_SEARCH_INSERT + " AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN INSERT INTO " + PetEntry.SEARCH_TABLE_NAME
+                        + " (docid, " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                        + ") VALUES (new." + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME
+                        + ", new." + PetEntry.COLUMN_PET_BREED + "); END;",
+                "CREATE TRIGGER " + TRIGGER_SEARCH_UPDATE + " AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " ON "
+                        + PetEntry.TABLE_NAME + " BEGIN UPDATE " + PetEntry.SEARCH_TABLE_NAME
+                        + " SET " + PetEntry.COLUMN_PET_NAME + " = new." + PetEntry.COLUMN_PET_NAME
+                        + ", " + PetEntry.COLUMN_PET_BREED + " = new." + PetEntry.COLUMN_PET_BREED
+                        + " WHERE docid = new." + PetEntry._ID + "; END;",
+                "CREATE TRIGGER " + TRIGGER_SEARCH_DELETE + " AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN DELETE FROM " + PetEntry.SEARCH_TABLE_NAME
+                        + " WHERE docid = old." + PetEntry._ID + "; END;" };
+    }
+
+    /**
+     * Versão 4: tabela de estatísticas com uma única linha (total, contagem por gênero, soma e
+     * máximo do peso), mantida pelos gatilhos abaixo. Ler as estatísticas custa uma linha, seja
+     * qual for o tamanho da tabela pets.
+     *
+     * Somas e contagens são atualizadas pela diferença. O máximo só é recalculado quando o
+     * animal mais pesado perde peso ou é excluído, e o recálculo usa o índice do peso.
+     */
+    private static String[] migrationToVersion4() {
+        String recomputeMax = "(SELECT IFNULL(MAX(" + PetEntry.COLUMN_PET_WEIGHT + "), 0) FROM "
+                + PetEntry.TABLE_NAME + ")";
+        String whereStatsRow = " WHERE " + PetStatsEntry._ID + " = " + STATS_ROW_ID + "; END;";
+
+        return new String[] {
+                "CREATE TABLE " + PetStatsEntry.TABLE_NAME + " ("
+                        + PetStatsEntry._ID + " INTEGER PRIMARY KEY, "
+                        + PetStatsEntry.COLUMN_TOTAL + " INTEGER NOT NULL, "
+                        + PetStatsEntry.COLUMN_COUNT_UNKNOWN + " INTEGER NOT NULL, "
+                        + PetStatsEntry.COLUMN_COUNT_MALE + " INTEGER NOT NULL, "
+                        + PetStatsEntry.COLUMN_COUNT_FEMALE + " INTEGER NOT NULL, "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL, "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " INTEGER NOT NULL);",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_WEIGHT + " ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_WEIGHT + ");",
+
+                // Calcule as estatísticas dos animais que já existem. A versão 4 ainda não tem
+                // a marca de exclusão: todas as linhas contam.
+                rebuildStats(""),
+
+                "CREATE TRIGGER " + TRIGGER_STATS_INSERT + " AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+                        + PetStatsEntry.COLUMN_TOTAL + " = " + PetStatsEntry.COLUMN_TOTAL + " + 1, "
+                        + genderCounts(null, "new") + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                        + " + new." + PetEntry.COLUMN_PET_WEIGHT + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " = MAX("
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + ", new." + PetEntry.COLUMN_PET_WEIGHT
+                        + ")" + whereStatsRow,
+                "CREATE TRIGGER " + TRIGGER_STATS_UPDATE + " AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + " ON "
+                        + PetEntry.TABLE_NAME + " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+                        + genderCounts("old", "new") + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                        + " - old." + PetEntry.COLUMN_PET_WEIGHT
+                        + " + new." + PetEntry.COLUMN_PET_WEIGHT + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " = CASE"
+                        + " WHEN new." + PetEntry.COLUMN_PET_WEIGHT + " >= "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " THEN new." + PetEntry.COLUMN_PET_WEIGHT
+                        + " WHEN old." + PetEntry.COLUMN_PET_WEIGHT + " < "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " THEN " + PetStatsEntry.COLUMN_WEIGHT_MAX
+                        + " ELSE " + recomputeMax + " END" + whereStatsRow,
+                "CREATE TRIGGER " + TRIGGER_STATS_DELETE + " AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+                        + PetStatsEntry.COLUMN_TOTAL + " = " + PetStatsEntry.COLUMN_TOTAL + " - 1, "
+                        + genderCounts("old", null) + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                        + " - old." + PetEntry.COLUMN_PET_WEIGHT + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " = CASE"
+                        + " WHEN old." + PetEntry.COLUMN_PET_WEIGHT + " < "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " THEN " + PetStatsEntry.COLUMN_WEIGHT_MAX
+                        + " ELSE " + recomputeMax + " END" + whereStatsRow };
+    }
+
+    /**
+     * Versão 5: chave de escrita. A fila de escritas grava cada inserção com a sequência dela no
+     * diário; se o processo morrer depois da transação e antes de o diário ser limpo, a inserção
+     * repetida encontra a chave e não cria um segundo animal. As linhas sem chave são nulas no
+     * índice único e não conflitam entre si. O índice não é parcial (WHERE write_key IS NOT
+     * NULL) porque o SQLite das versões mais antigas do Android não os aceita.
+     */
+    private static String[] migrationToVersion5() {
+        return new String[] {
+                "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_PET_WRITE_KEY + " INTEGER;",
+                "CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_WRITE_KEY + " ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_WRITE_KEY + ");" };
+    }
+
+    /**
+     * Versão 6: exclusão por marca. Uma exclusão passa a só marcar a linha com
+     * {@link PetEntry#COLUMN_PET_DELETED}, e as linhas marcadas são apagadas depois, em lotes, pela
+     * purga. A marca fica fora dos índices: com ela em algum índice, marcar a linha também
+     * reescreveria o índice, que é justamente o custo que a exclusão quer adiar. As consultas
+     * filtram a marca ao ler cada linha, e a tabela de busca continua com as linhas marcadas até
+     * a purga, já que a busca junta pets e filtra a marca.
+     *
+     * Os gatilhos de estatísticas passam a contar só os animais não excluídos: marcar a linha
+     * tira o animal das estatísticas, e a purga, que apaga uma linha já descontada, não muda nada.
+     */
+    private static String[] migrationToVersion6() {
+        String live = " = 0";
+        // O índice do peso é percorrido do mais pesado para o mais leve até o primeiro animal
+        // não excluído; MAX() com WHERE percorreria a tabela inteira
+        String recomputeMax = "IFNULL((SELECT " + PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + SELECTION_LIVE + " ORDER BY "
+                + PetEntry.COLUMN_PET_WEIGHT + " DESC LIMIT 1), 0)";
+        String whereStatsRow = " WHERE " + PetStatsEntry._ID + " = " + STATS_ROW_ID + "; END;";
+        String removeOld = " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+                + PetStatsEntry.COLUMN_TOTAL + " = " + PetStatsEntry.COLUMN_TOTAL + " - 1, "
+                + genderCounts("old", null) + ", "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                + " - old." + PetEntry.COLUMN_PET_WEIGHT + ", "
+                + PetStatsEntry.COLUMN_WEIGHT_MAX + " = CASE"
+                + " WHEN old." + PetEntry.COLUMN_PET_WEIGHT + " < "
+                + PetStatsEntry.COLUMN_WEIGHT_MAX + " THEN " + PetStatsEntry.COLUMN_WEIGHT_MAX
+                + " ELSE " + recomputeMax + " END" + whereStatsRow;
+
+        return new String[] {
+                "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_PET_DELETED + " INTEGER NOT NULL DEFAULT 0;",
+
+                "DROP TRIGGER IF EXISTS " + TRIGGER_STATS_INSERT + ";",
+                "DROP TRIGGER IF EXISTS " + TRIGGER_STATS_UPDATE + ";",
+                "DROP TRIGGER IF EXISTS " + TRIGGER_STATS_DELETE + ";",
+
+                "CREATE TRIGGER " + TRIGGER_STATS_INSERT + " AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " WHEN new." + PetEntry.COLUMN_PET_DELETED + live
+                        + " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+                        + PetStatsEntry.COLUMN_TOTAL + " = " + PetStatsEntry.COLUMN_TOTAL + " + 1, "
+                        + genderCounts(null, "new") + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                        + " + new." + PetEntry.COLUMN_PET_WEIGHT + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " = MAX("
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + ", new." + PetEntry.COLUMN_PET_WEIGHT
+                        + ")" + whereStatsRow,
+                "CREATE TRIGGER " + TRIGGER_STATS_UPDATE + " AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + " ON "
+                        + PetEntry.TABLE_NAME + " WHEN old." + PetEntry.COLUMN_PET_DELETED + live
+                        + " AND new." + PetEntry.COLUMN_PET_DELETED + live
+                        + " BEGIN UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+                        + genderCounts("old", "new") + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_SUM + " = " + PetStatsEntry.COLUMN_WEIGHT_SUM
+                        + " - old." + PetEntry.COLUMN_PET_WEIGHT
+                        + " + new." + PetEntry.COLUMN_PET_WEIGHT + ", "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " = CASE"
+                        + " WHEN new." + PetEntry.COLUMN_PET_WEIGHT + " >= "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " THEN new." + PetEntry.COLUMN_PET_WEIGHT
+                        + " WHEN old." + PetEntry.COLUMN_PET_WEIGHT + " < "
+                        + PetStatsEntry.COLUMN_WEIGHT_MAX + " THEN " + PetStatsEntry.COLUMN_WEIGHT_MAX
+                        + " ELSE " + recomputeMax + " END" + whereStatsRow,
+                "CREATE TRIGGER " + TRIGGER_STATS_MARK_DELETED + " AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_DELETED + " ON " + PetEntry.TABLE_NAME
+                        + " WHEN old." + PetEntry.COLUMN_PET_DELETED + live
+                        + " AND new." + PetEntry.COLUMN_PET_DELETED + " != 0" + removeOld,
+                "CREATE TRIGGER " + TRIGGER_STATS_DELETE + " AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " WHEN old." + PetEntry.COLUMN_PET_DELETED + live
+                        + removeOld };
+    }
+
+    /**
+     * Versão 7: foto de cada animal. A coluna guarda só o nome do arquivo, gravado pelo
+     * provedor; a imagem fica fora do banco, para que as linhas continuem pequenas. A coluna não
+     * entra em nenhum índice nem nos gatilhos: trocar a foto só reescreve a linha.
+     */
+    private static String[] migrationToVersion7() {
+        return new String[] {
+                "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_PET_PHOTO + " TEXT;" };
+    }
+
+    /**
+     * Versão 8: índices na ordem das páginas pelo nome. As páginas são ordenadas por (nome, _id),
+     * mas o índice (name, breed) está na ordem (nome, raça, _id): animais com o mesmo nome
+     * precisavam ser ordenados de novo, e com o filtro de gênero todos os animais do gênero eram
+     * ordenados a cada página. O mesmo acontecia com o filtro de gênero na ordem do _id, já que
+     * o índice (gender, weight) está na ordem do peso. O índice (name, breed) cobria a projeção
+     * antiga do catálogo, que agora também lê o peso e a foto; ele é trocado pelo índice do nome.
+     */
+    private static String[] migrationToVersion8() {
+        return new String[] {
+                "DROP INDEX IF EXISTS " + INDEX_NAME_BREED + ";",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_NAME + " ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + ");",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_GENDER_NAME + " ON "
+                        + PetEntry.TABLE_NAME + " ("
+                        + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_NAME + ");",
+                "CREATE INDEX IF NOT EXISTS " + INDEX_GENDER + " ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ");" };
+    }
+
+    /**
+     * Monta as atribuições das três contagens por gênero para um gatilho: cada contagem perde 1
+     * se a linha antiga (oldRow) tinha aquele gênero e ganha 1 se a nova (newRow) tem. oldRow e
+     * newRow são "old", "new" ou null quando o gatilho não tem aquela linha. O SQLite só aplica
+     * a última atribuição de uma coluna, por isso as duas partes vão na mesma expressão.
+     */
+    private static String genderCounts(String oldRow, String newRow) {
+        String[] columns = {
+                PetStatsEntry.COLUMN_COUNT_UNKNOWN,
+                PetStatsEntry.COLUMN_COUNT_MALE,
+                PetStatsEntry.COLUMN_COUNT_FEMALE };
+        int[] genders = { PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE };
+
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns[i]).append(" = ").append(columns[i]);
+            if (oldRow != null) {
+                sql.append(" - (").append(oldRow).append('.').append(PetEntry.COLUMN_PET_GENDER)
+                        .append(" = ").append(genders[i]).append(')');
+            }
+            if (newRow != null) {
+                sql.append(" + (").append(newRow).append('.').append(PetEntry.COLUMN_PET_GENDER)
+                        .append(" = ").append(genders[i]).append(')');
+            }
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Monta a instrução que substitui a linha da tabela de estatísticas por um recálculo sobre
+     * as linhas de pets que passam pela cláusula where ("" para todas).
+     */
+    private static String rebuildStats(String where) {
+        return "INSERT OR REPLACE INTO " + PetStatsEntry.TABLE_NAME + " (" + PetStatsEntry._ID
+                + ", " + join(STATS_COLUMNS) + ") SELECT " + STATS_ROW_ID + ", "
+                + RECOMPUTE_STATS + " FROM " + PetEntry.TABLE_NAME + where + ";";
+    }
+
+    /** Junta os nomes de colunas separados por vírgula */
+    private static String join(String[] columns) {
+        StringBuilder sql = new StringBuilder();
+        for (String column : columns) {
+            if (sql.length() > 0) {
+                sql.append(", ");
+            }
+            sql.append(column);
+        }
+        return sql.toString();
+    }
+}
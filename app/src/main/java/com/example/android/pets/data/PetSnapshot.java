@@ -0,0 +1,776 @@
+package com.example.android.pets.data;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Cópia em memória da tabela de animais de estimação, guardada por colunas em vetores de tipos
+ * primitivos, para filtrar e ordenar o catálogo sem consultar o banco e sem criar objetos.
+ *
+ * Cada animal ocupa uma posição (row) nos vetores de _id, gênero, peso e raça. As raças são
+ * trocadas por códigos de um dicionário, e cada texto de raça existe uma única vez. Os nomes
+ * ficam todos num único vetor de bytes em UTF-8, e os 4 primeiros bytes de cada nome também
+ * ficam num int, a primeira chave da ordenação por nome. Comparar os bytes em UTF-8 dá a mesma
+ * ordem da collation BINARY do SQLite, a mesma das páginas de {@link PetQuery}.
+ *
+ * {@link #select} e {@link #sort} trabalham sobre um vetor de posições fornecido por quem chama
+ * e só criam objetos quando os vetores de trabalho da ordenação precisam crescer. Só
+ * {@link #getName} cria uma String, e ela só é chamada para as linhas que aparecem na tela.
+ *
+ * As alterações são aplicadas uma a uma por {@link #put} e {@link #remove}: remover um animal
+ * move o último para a posição dele, então as posições mudam a cada alteração e um vetor de
+ * posições só vale até a próxima. A classe não é sincronizada; veja {@link PetSnapshotLoader}.
+ */
+public final class PetSnapshot {
+
+    /** Valor de gênero em {@link #select} que aceita todos os gêneros */
+    public static final int ANY_GENDER = -1;
+
+    /** Código de raça dos animais sem raça (nula) */
+    public static final int NO_BREED = -1;
+
+    /** Ordenações de {@link #sort}; todas são desempatadas pelo _id */
+    public static final int ORDER_ID = 0;
+    public static final int ORDER_NAME = 1;
+    public static final int ORDER_WEIGHT = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Bytes do nome ordenados por radix sort em {@link #sort}; o resto usa o comparador */
+    private static final int MAX_KEY_DEPTH = 64;
+
+    /** Trechos menores que isto são ordenados por inserção, sem as passadas do radix sort */
+    private static final int RADIX_SORT_THRESHOLD = 64;
+
+    /** Bytes de nomes removidos ou substituídos a partir dos quais o vetor de nomes é compactado */
+    private static final int MIN_COMPACT_BYTES = 64 * 1024;
+
+    private int mSize;
+    private long[] mIds;
+    private int[] mGenders;
+    private int[] mWeights;
+    private int[] mBreedCodes;
+
+    /** Início, tamanho e 4 primeiros bytes (como int sem sinal) do nome de cada posição */
+    private int[] mNameOffsets;
+    private int[] mNameLengths;
+    private int[] mNamePrefixes;
+
+    /** Nomes em UTF-8, um depois do outro; só os bytes até mNameEnd estão em uso */
+    private byte[] mNameBytes;
+    private int mNameEnd;
+
+    /** Bytes antes de mNameEnd que não pertencem a nenhum nome atual */
+    private int mNameGarbage;
+
+    /**
+     * Nome do arquivo da foto de cada posição, ou null. A maioria dos animais não tem foto, e o
+     * nome só serve de chave para as miniaturas, então não vale a pena codificá-lo como os nomes.
+     */
+    private String[] mPhotos;
+
+    /** Posição de cada _id */
+    private final LongIntMap mRowsById;
+
+    /** Texto de cada código de raça e a tabela de espalhamento do texto para o código */
+    private String[] mBreeds = new String[16];
+    private int mBreedCount;
+    private int[] mBreedTable = newTable(32);
+
+    /** Vetores de trabalho de {@link #sort}, reaproveitados de uma ordenação para a outra */
+    private long[] mSortIds = new long[0];
+    private int[] mSortKeys = new int[0];
+    private int[] mSortKeysTmp = new int[0];
+    private int[] mSortRowsTmp = new int[0];
+    private final int[] mRadixCounts = new int[256];
+
+    /** Nome ou raça da linha sendo gravada, em UTF-16, reaproveitado em cada {@link #put} */
+    private char[] mChars = new char[64];
+
+    /**
+     * @param capacity número de animais esperado; os vetores crescem se for preciso
+     */
+    public PetSnapshot(int capacity) {
+        capacity = Math.max(capacity, 16);
+        mIds = new long[capacity];
+        mGenders = new int[capacity];
+        mWeights = new int[capacity];
+        mBreedCodes = new int[capacity];
+        mNameOffsets = new int[capacity];
+        mNameLengths = new int[capacity];
+        mNamePrefixes = new int[capacity];
+        mNameBytes = new byte[capacity * 8];
+        mPhotos = new String[capacity];
+        mRowsById = new LongIntMap(capacity);
+    }
+
+    /** Retorna o número de animais */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Grava um animal, substituindo o que tiver o mesmo _id.
+     *
+     * @param breed raça, ou null
+     */
+    public void put(long id, String name, String breed, int gender, int weight) {
+        int nameLength = name.length();
+        char[] nameChars = chars(nameLength);
+        name.getChars(0, nameLength, nameChars, 0);
+        int breedCode = NO_BREED;
+        if (breed != null) {
+            breedCode = breedCode(breed.toCharArray(), breed.length());
+        }
+        putRow(id, nameChars, nameLength, breedCode, gender, weight);
+    }
+
+    /**
+     * Grava um animal a partir de texto já copiado para vetores, como os de um
+     * android.database.CharArrayBuffer, sem criar Strings. Os vetores não são guardados.
+     *
+     * @param breedLength tamanho da raça, ou -1 se ela é nula
+     */
+    public void put(long id, char[] name, int nameLength, char[] breed, int breedLength,
+                    int gender, int weight) {
+        int breedCode = breedLength < 0 ? NO_BREED : breedCode(breed, breedLength);
+        putRow(id, name, nameLength, breedCode, gender, weight);
+    }
+
+    /**
+     * Grava a foto do animal do _id dado, que já precisa ter sido gravado com {@link #put}.
+     * Um animal novo começa sem foto.
+     *
+     * @param photo nome do arquivo da foto, ou null
+     */
+    public void setPhoto(long id, String photo) {
+        int row = mRowsById.get(id);
+        if (row >= 0) {
+            mPhotos[row] = photo;
+        }
+    }
+
+    /**
+     * Remove o animal do _id dado. O último animal passa a ocupar a posição dele.
+     * Retorna se o animal existia.
+     */
+    public boolean remove(long id) {
+        int row = mRowsById.remove(id);
+        if (row < 0) {
+            return false;
+        }
+        mNameGarbage += mNameLengths[row];
+        int last = --mSize;
+        if (row != last) {
+            mIds[row] = mIds[last];
+            mGenders[row] = mGenders[last];
+            mWeights[row] = mWeights[last];
+            mBreedCodes[row] = mBreedCodes[last];
+            mNameOffsets[row] = mNameOffsets[last];
+            mNameLengths[row] = mNameLengths[last];
+            mNamePrefixes[row] = mNamePrefixes[last];
+            mPhotos[row] = mPhotos[last];
+            mRowsById.put(mIds[row], row);
+        }
+        mPhotos[last] = null;
+        return true;
+    }
+
+    /** Remove todos os animais; o dicionário de raças é mantido */
+    public void clear() {
+        Arrays.fill(mPhotos, 0, mSize, null);
+        mSize = 0;
+        mNameEnd = 0;
+        mNameGarbage = 0;
+        mRowsById.clear();
+    }
+
+    /** Retorna a posição do animal do _id dado, ou -1 */
+    public int indexOf(long id) {
+        return mRowsById.get(id);
+    }
+
+    public long getId(int row) {
+        return mIds[row];
+    }
+
+    public int getGender(int row) {
+        return mGenders[row];
+    }
+
+    public int getWeight(int row) {
+        return mWeights[row];
+    }
+
+    /** Retorna o código da raça, ou {@link #NO_BREED} */
+    public int getBreedCode(int row) {
+        return mBreedCodes[row];
+    }
+
+    /** Retorna a raça, ou null; o mesmo texto é devolvido para todos os animais da raça */
+    public String getBreed(int row) {
+        int code = mBreedCodes[row];
+        return code == NO_BREED ? null : mBreeds[code];
+    }
+
+    /** Retorna o nome do arquivo da foto, ou null */
+    public String getPhoto(int row) {
+        return mPhotos[row];
+    }
+
+    /** Retorna o nome, decodificado numa nova String */
+    public String getName(int row) {
+        return new String(mNameBytes, mNameOffsets[row], mNameLengths[row], UTF_8);
+    }
+
+    /**
+     * Escreve em rows as posições dos animais com o gênero (ou {@link #ANY_GENDER}) e o peso,
+     * de minWeight a maxWeight inclusive, dados. Retorna quantas posições foram escritas.
+     *
+     * @param rows precisa ter pelo menos {@link #size()} posições
+     */
+    public int select(int gender, int minWeight, int maxWeight, int[] rows) {
+        int count = 0;
+        int[] genders = mGenders;
+        int[] weights = mWeights;
+        for (int row = 0; row < mSize; row++) {
+            int weight = weights[row];
+            if ((gender == ANY_GENDER || genders[row] == gender)
+                    && weight >= minWeight && weight <= maxWeight) {
+                rows[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Ordena as count primeiras posições de rows pela ordem dada ({@link #ORDER_ID},
+     * {@link #ORDER_NAME} ou {@link #ORDER_WEIGHT}), no próprio vetor.
+     *
+     * Primeiro as posições são postas na ordem do _id, se ainda não estiverem. Depois elas são
+     * ordenadas por radix sort, que é estável e não compara posições: cada passada distribui as
+     * posições por um byte de uma chave int, lida em sequência de um vetor. Por ser estável, a
+     * ordem do _id desempata as chaves iguais. Os nomes entram de 4 em 4 bytes: só os grupos com
+     * os mesmos bytes até ali são ordenados de novo pelos 4 bytes seguintes.
+     */
+    public void sort(int[] rows, int count, int order) {
+        if (order != ORDER_ID && order != ORDER_NAME && order != ORDER_WEIGHT) {
+            throw new IllegalArgumentException("Unknown order " + order);
+        }
+        ensureSortCapacity(count);
+        if (!isSortedById(rows, count)) {
+            sortById(rows, count);
+        }
+        if (order == ORDER_NAME) {
+            sortByName(rows, 0, count, 0);
+        } else if (order == ORDER_WEIGHT) {
+            int[] keys = mSortKeys;
+            for (int i = 0; i < count; i++) {
+                // Trocar o bit de sinal faz a ordem sem sinal dos bytes ser a ordem do int
+                keys[i] = mWeights[rows[i]] ^ Integer.MIN_VALUE;
+            }
+            radixSort(rows, keys, 0, count);
+        }
+    }
+
+    /** Compara duas posições pela ordem dada */
+    public int compare(int rowA, int rowB, int order) {
+        int result = 0;
+        if (order == ORDER_NAME) {
+            result = compareNames(rowA, rowB);
+        } else if (order == ORDER_WEIGHT) {
+            result = compareInts(mWeights[rowA], mWeights[rowB]);
+        }
+        if (result != 0) {
+            return result;
+        }
+        long idA = mIds[rowA];
+        long idB = mIds[rowB];
+        return idA < idB ? -1 : (idA == idB ? 0 : 1);
+    }
+
+    /** Compara os nomes byte a byte, sem sinal, como a collation BINARY do SQLite */
+    private int compareNames(int rowA, int rowB) {
+        byte[] bytes = mNameBytes;
+        int offsetA = mNameOffsets[rowA];
+        int offsetB = mNameOffsets[rowB];
+        int lengthA = mNameLengths[rowA];
+        int lengthB = mNameLengths[rowB];
+        int length = Math.min(lengthA, lengthB);
+        for (int i = 0; i < length; i++) {
+            int a = bytes[offsetA + i] & 0xff;
+            int b = bytes[offsetB + i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    private static int compareInts(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Retorna se as posições já estão na ordem do _id, como as de {@link #select} quando os
+     * animais foram carregados na ordem do _id e nenhum foi removido depois.
+     */
+    private boolean isSortedById(int[] rows, int count) {
+        for (int i = 1; i < count; i++) {
+            if (mIds[rows[i - 1]] > mIds[rows[i]]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Põe as posições na ordem do _id */
+    private void sortById(int[] rows, int count) {
+        long[] ids = mSortIds;
+        for (int i = 0; i < count; i++) {
+            ids[i] = mIds[rows[i]];
+        }
+        Arrays.sort(ids, 0, count);
+        for (int i = 0; i < count; i++) {
+            rows[i] = mRowsById.get(ids[i]);
+        }
+    }
+
+    /**
+     * Ordena rows[from, to) pelos nomes, que são iguais até o byte depth. Nomes que só diferem
+     * por bytes 0 no fim têm os mesmos bytes em todos os grupos e são separados pelo tamanho.
+     * Nomes iguais nos primeiros {@link #MAX_KEY_DEPTH} bytes, raros, usam o comparador.
+     */
+    private void sortByName(int[] rows, int from, int to, int depth) {
+        int[] keys = mSortKeys;
+        for (int i = from; i < to; i++) {
+            keys[i] = depth == 0 ? mNamePrefixes[rows[i]] : nameChunk(rows[i], depth);
+        }
+        radixSort(rows, keys, from, to);
+
+        int start = from;
+        while (start < to) {
+            int end = start + 1;
+            while (end < to && keys[end] == keys[start]) {
+                end++;
+            }
+            if (end - start > 1) {
+                int next = depth + 4;
+                boolean longer = false;
+                boolean sameLength = true;
+                int length = mNameLengths[rows[start]];
+                for (int i = start; i < end; i++) {
+                    int rowLength = mNameLengths[rows[i]];
+                    longer |= rowLength > next;
+                    sameLength &= rowLength == length;
+                }
+                if (longer && next >= MAX_KEY_DEPTH) {
+                    insertionSortByName(rows, start, end);
+                } else if (longer) {
+                    sortByName(rows, start, end, next);
+                } else if (!sameLength) {
+                    for (int i = start; i < end; i++) {
+                        keys[i] = mNameLengths[rows[i]];
+                    }
+                    radixSort(rows, keys, start, end);
+                }
+            }
+            start = end;
+        }
+    }
+
+    /** 4 bytes do nome a partir de offset, completados com 0, como um int sem sinal */
+    private int nameChunk(int row, int offset) {
+        int start = mNameOffsets[row];
+        int length = mNameLengths[row];
+        int chunk = 0;
+        for (int i = offset; i < offset + 4; i++) {
+            chunk = (chunk << 8) | (i < length ? mNameBytes[start + i] & 0xff : 0);
+        }
+        return chunk;
+    }
+
+    private void insertionSortByName(int[] rows, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            int row = rows[i];
+            int j = i - 1;
+            while (j >= from && compare(rows[j], row, ORDER_NAME) > 0) {
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            rows[j + 1] = row;
+        }
+    }
+
+    /**
+     * Ordena rows[from, to) pelas chaves sem sinal de keys[from, to), que acompanham as
+     * posições, mantendo a ordem das chaves iguais. Passadas em que todas as chaves têm o
+     * mesmo byte são puladas.
+     */
+    private void radixSort(int[] rows, int[] keys, int from, int to) {
+        int count = to - from;
+        if (count < RADIX_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int key = keys[i];
+                int j = i - 1;
+                while (j >= from && (keys[j] ^ Integer.MIN_VALUE) > (key ^ Integer.MIN_VALUE)) {
+                    rows[j + 1] = rows[j];
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+                keys[j + 1] = key;
+            }
+            return;
+        }
+
+        int[] sourceRows = rows;
+        int[] sourceKeys = keys;
+        int[] targetRows = mSortRowsTmp;
+        int[] targetKeys = mSortKeysTmp;
+        int[] counts = mRadixCounts;
+        for (int shift = 0; shift < 32; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = from; i < to; i++) {
+                counts[(sourceKeys[i] >>> shift) & 0xff]++;
+            }
+            if (counts[(sourceKeys[from] >>> shift) & 0xff] == count) {
+                continue;
+            }
+            int position = from;
+            for (int digit = 0; digit < counts.length; digit++) {
+                int digitCount = counts[digit];
+                counts[digit] = position;
+                position += digitCount;
+            }
+            for (int i = from; i < to; i++) {
+                int target = counts[(sourceKeys[i] >>> shift) & 0xff]++;
+                targetRows[target] = sourceRows[i];
+                targetKeys[target] = sourceKeys[i];
+            }
+
+            int[] swapRows = sourceRows;
+            sourceRows = targetRows;
+            targetRows = swapRows;
+            int[] swapKeys = sourceKeys;
+            sourceKeys = targetKeys;
+            targetKeys = swapKeys;
+        }
+        if (sourceRows != rows) {
+            System.arraycopy(sourceRows, from, rows, from, count);
+            System.arraycopy(sourceKeys, from, keys, from, count);
+        }
+    }
+
+    /** Garante que os vetores de trabalho de {@link #sort} tenham pelo menos count posições */
+    private void ensureSortCapacity(int count) {
+        if (mSortKeys.length < count) {
+            int capacity = Math.max(count, mIds.length);
+            mSortIds = new long[capacity];
+            mSortKeys = new int[capacity];
+            mSortKeysTmp = new int[capacity];
+            mSortRowsTmp = new int[capacity];
+        }
+    }
+
+    private void putRow(long id, char[] name, int nameLength, int breedCode, int gender,
+                        int weight) {
+        int row = mRowsById.get(id);
+        if (row < 0) {
+            if (mSize == mIds.length) {
+                grow();
+            }
+            row = mSize++;
+            mIds[row] = id;
+            mNameLengths[row] = 0;
+            mPhotos[row] = null;
+            mRowsById.put(id, row);
+        }
+        mGenders[row] = gender;
+        mWeights[row] = weight;
+        mBreedCodes[row] = breedCode;
+        putName(row, name, nameLength);
+    }
+
+    /**
+     * Grava o nome da posição em UTF-8. Um nome que cabe no lugar do anterior é escrito por
+     * cima; os outros vão para o fim do vetor, que é compactado quando o espaço perdido cresce.
+     */
+    private void putName(int row, char[] name, int length) {
+        int oldLength = mNameLengths[row];
+        int needed = utf8Length(name, length);
+        int offset;
+        if (oldLength > 0 && needed <= oldLength) {
+            offset = mNameOffsets[row];
+            mNameGarbage += oldLength - needed;
+        } else {
+            mNameGarbage += oldLength;
+            if (mNameGarbage > MIN_COMPACT_BYTES && mNameGarbage > mNameEnd / 2) {
+                compactNames(row);
+            }
+            if (mNameEnd + needed > mNameBytes.length) {
+                mNameBytes = Arrays.copyOf(mNameBytes,
+                        Math.max(mNameEnd + needed, mNameBytes.length * 2));
+            }
+            offset = mNameEnd;
+            mNameEnd += needed;
+        }
+
+        encodeUtf8(name, length, mNameBytes, offset);
+        mNameOffsets[row] = offset;
+        mNameLengths[row] = needed;
+        mNamePrefixes[row] = nameChunk(row, 0);
+    }
+
+    /** Copia os nomes em uso, menos o da posição skipRow, para o início de um vetor novo */
+    private void compactNames(int skipRow) {
+        byte[] bytes = new byte[Math.max(mNameBytes.length, 16)];
+        int end = 0;
+        for (int row = 0; row < mSize; row++) {
+            if (row == skipRow) {
+                continue;
+            }
+            int length = mNameLengths[row];
+            System.arraycopy(mNameBytes, mNameOffsets[row], bytes, end, length);
+            mNameOffsets[row] = end;
+            end += length;
+        }
+        mNameBytes = bytes;
+        mNameEnd = end;
+        mNameGarbage = 0;
+        mNameLengths[skipRow] = 0;
+    }
+
+    private void grow() {
+        int capacity = mIds.length * 2;
+        mIds = Arrays.copyOf(mIds, capacity);
+        mGenders = Arrays.copyOf(mGenders, capacity);
+        mWeights = Arrays.copyOf(mWeights, capacity);
+        mBreedCodes = Arrays.copyOf(mBreedCodes, capacity);
+        mNameOffsets = Arrays.copyOf(mNameOffsets, capacity);
+        mNameLengths = Arrays.copyOf(mNameLengths, capacity);
+        mNamePrefixes = Arrays.copyOf(mNamePrefixes, capacity);
+        mPhotos = Arrays.copyOf(mPhotos, capacity);
+    }
+
+    /** Retorna o código da raça, acrescentando-a ao dicionário se ela for nova */
+    private int breedCode(char[] breed, int length) {
+        int mask = mBreedTable.length - 1;
+        for (int slot = hash(breed, length) & mask; ; slot = (slot + 1) & mask) {
+            int code = mBreedTable[slot];
+            if (code == NO_BREED) {
+                code = mBreedCount++;
+                if (code == mBreeds.length) {
+                    mBreeds = Arrays.copyOf(mBreeds, code * 2);
+                }
+                mBreeds[code] = new String(breed, 0, length);
+                mBreedTable[slot] = code;
+                if (mBreedCount * 2 > mBreedTable.length) {
+                    rehashBreeds();
+                }
+                return code;
+            }
+            if (sameText(mBreeds[code], breed, length)) {
+                return code;
+            }
+        }
+    }
+
+    private void rehashBreeds() {
+        mBreedTable = newTable(mBreedTable.length * 2);
+        int mask = mBreedTable.length - 1;
+        for (int code = 0; code < mBreedCount; code++) {
+            String breed = mBreeds[code];
+            int slot = breed.hashCode() & mask;
+            while (mBreedTable[slot] != NO_BREED) {
+                slot = (slot + 1) & mask;
+            }
+            mBreedTable[slot] = code;
+        }
+    }
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, NO_BREED);
+        return table;
+    }
+
+    /** O mesmo valor de String.hashCode, para o texto guardado e o texto novo combinarem */
+    private static int hash(char[] text, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + text[i];
+        }
+        return hash;
+    }
+
+    private static boolean sameText(String value, char[] text, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Retorna mChars com pelo menos length posições */
+    private char[] chars(int length) {
+        if (mChars.length < length) {
+            mChars = new char[Math.max(length, mChars.length * 2)];
+        }
+        return mChars;
+    }
+
+    /** Tamanho do texto em UTF-8; um surrogate sem par vira '?', como no String.getBytes */
+    private static int utf8Length(char[] text, int length) {
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text[i + 1])) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static void encodeUtf8(char[] text, int length, byte[] out, int offset) {
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (c < 0x80) {
+                out[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                out[offset++] = (byte) (0xc0 | (c >> 6));
+                out[offset++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text[i + 1])) {
+                int codePoint = Character.toCodePoint(c, text[++i]);
+                out[offset++] = (byte) (0xf0 | (codePoint >> 18));
+                out[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[offset++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out[offset++] = '?';
+            } else {
+                out[offset++] = (byte) (0xe0 | (c >> 12));
+                out[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[offset++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Mapa de _id para posição com endereçamento aberto e sondagem linear, sem objetos por
+     * entrada. Uma posição -1 marca um espaço livre.
+     */
+    private static final class LongIntMap {
+
+        private long[] mKeys;
+        private int[] mValues;
+        private int mCount;
+
+        LongIntMap(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+            mKeys = new long[size];
+            mValues = newTable(size);
+        }
+
+        int get(long key) {
+            int mask = mKeys.length - 1;
+            for (int slot = slot(key, mask); mValues[slot] >= 0; slot = (slot + 1) & mask) {
+                if (mKeys[slot] == key) {
+                    return mValues[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((mCount + 1) * 2 > mKeys.length) {
+                rehash(mKeys.length * 2);
+            }
+            int mask = mKeys.length - 1;
+            int slot = slot(key, mask);
+            while (mValues[slot] >= 0 && mKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (mValues[slot] < 0) {
+                mCount++;
+            }
+            mKeys[slot] = key;
+            mValues[slot] = value;
+        }
+
+        /**
+         * Remove a chave e retorna a sua posição, ou -1. As entradas seguintes do mesmo grupo
+         * são puxadas para trás, para que nenhuma busca pare antes de achá-las.
+         */
+        int remove(long key) {
+            int mask = mKeys.length - 1;
+            int slot = slot(key, mask);
+            while (mValues[slot] >= 0 && mKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            int value = mValues[slot];
+            if (value < 0) {
+                return -1;
+            }
+            mCount--;
+
+            int hole = slot;
+            for (int next = (hole + 1) & mask; mValues[next] >= 0; next = (next + 1) & mask) {
+                int home = slot(mKeys[next], mask);
+                // A entrada pode ir para o buraco se o buraco está entre a sua posição ideal e
+                // a posição atual, contando a volta no fim da tabela
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    mKeys[hole] = mKeys[next];
+                    mValues[hole] = mValues[next];
+                    hole = next;
+                }
+            }
+            mValues[hole] = -1;
+            return value;
+        }
+
+        void clear() {
+            Arrays.fill(mValues, -1);
+            mCount = 0;
+        }
+
+        private void rehash(int size) {
+            long[] keys = mKeys;
+            int[] values = mValues;
+            mKeys = new long[size];
+            mValues = newTable(size);
+            int mask = size - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] >= 0) {
+                    int slot = slot(keys[i], mask);
+                    while (mValues[slot] >= 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    mKeys[slot] = keys[i];
+                    mValues[slot] = values[i];
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
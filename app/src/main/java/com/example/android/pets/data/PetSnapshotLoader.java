@@ -0,0 +1,247 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Mantém um {@link PetSnapshot} da tabela de animais de estimação em dia com o
+ * {@link com.example.android.pets.PetProvider}.
+ *
+ * A tabela é lida uma vez, numa thread própria, e o snapshot é entregue na thread principal.
+ * Depois disso, cada alteração de um único animal (notificada pelo URI dele) é lida do provedor
+ * e aplicada ao snapshot existente; só as alterações de vários animais de uma vez, notificadas
+ * por {@link PetEntry#CONTENT_URI}, leem a tabela inteira de novo. As leituras são feitas na
+ * thread própria e as alterações são aplicadas na thread principal, na ordem em que foram
+ * notificadas, então o snapshot só deve ser usado na thread principal.
+ *
+ * O carregador não guarda a atividade: ela se registra com {@link #setListener} e sai ao ser
+ * destruída, e o carregador continua acompanhando a tabela enquanto isso, para que a atividade
+ * recriada numa rotação receba o snapshot na hora, sem ler a tabela de novo.
+ */
+public final class PetSnapshotLoader {
+
+    /** Recebe o snapshot, na thread principal, sempre que ele muda */
+    public interface Listener {
+        /**
+         * @param snapshot o snapshot, o mesmo objeto depois de cada alteração de um único animal
+         *                 e um objeto novo depois de cada leitura completa
+         */
+        void onSnapshotChanged(PetSnapshot snapshot);
+    }
+
+    private static final String LOG_TAG = PetSnapshotLoader.class.getSimpleName();
+
+    /** Colunas lidas, na ordem usada por {@link #readRow} */
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO };
+
+    private final ContentResolver mResolver;
+    private Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private ContentObserver mObserver;
+
+    /** Snapshot entregue ao ouvinte; só é lido e alterado na thread principal */
+    private PetSnapshot mSnapshot;
+
+    /** Nome e raça da linha sendo lida, reaproveitados de uma linha para a outra */
+    private final CharArrayBuffer mName = new CharArrayBuffer(64);
+    private final CharArrayBuffer mBreed = new CharArrayBuffer(64);
+
+    public PetSnapshotLoader(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Troca quem recebe o snapshot, ou o remove com null. Um snapshot já lido é entregue ao
+     * novo ouvinte na hora. Chamado na thread principal.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+        if (listener != null && mSnapshot != null) {
+            listener.onSnapshotChanged(mSnapshot);
+        }
+    }
+
+    /** Lê a tabela e começa a acompanhar as alterações. Chamado na thread principal. */
+    public void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Antes da API 16 o URI alterado não é informado
+                loadAll();
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                if (uri != null && uri.getPathSegments().size() == 2) {
+                    long id;
+                    try {
+                        id = ContentUris.parseId(uri);
+                    } catch (NumberFormatException e) {
+                        id = -1;
+                    }
+                    if (id >= 0) {
+                        loadRow(id);
+                        return;
+                    }
+                }
+                loadAll();
+            }
+        };
+        mResolver.registerContentObserver(PetEntry.CONTENT_URI, true, mObserver);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadAll();
+            }
+        });
+    }
+
+    /** Para de acompanhar as alterações e descarta as leituras pendentes */
+    public void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mResolver.unregisterContentObserver(mObserver);
+        mThread.quit();
+        mMainHandler.removeCallbacksAndMessages(null);
+        mThread = null;
+        mHandler = null;
+        mObserver = null;
+        mSnapshot = null;
+    }
+
+    /** Retorna o último snapshot entregue, ou null se a tabela ainda não foi lida */
+    public PetSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /** Lê a tabela inteira num snapshot novo. Chamado na thread própria. */
+    private void loadAll() {
+        long startMillis = System.currentTimeMillis();
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, PROJECTION, null, null,
+                PetEntry._ID);
+        if (cursor == null) {
+            return;
+        }
+        final PetSnapshot snapshot;
+        try {
+            snapshot = new PetSnapshot(cursor.getCount());
+            while (cursor.moveToNext()) {
+                readRow(cursor, snapshot);
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.d(LOG_TAG, "Loaded " + snapshot.size() + " pets in "
+                + (System.currentTimeMillis() - startMillis) + " ms");
+
+        final Thread loaderThread = Thread.currentThread();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (loaderThread != mThread) {
+                    // Leitura de um carregador que já foi parado
+                    return;
+                }
+                mSnapshot = snapshot;
+                if (mListener != null) {
+                    mListener.onSnapshotChanged(snapshot);
+                }
+            }
+        });
+    }
+
+    /** Lê um único animal e o aplica ao snapshot. Chamado na thread própria. */
+    private void loadRow(final long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        final String name;
+        final String breed;
+        final int gender;
+        final int weight;
+        final String photo;
+        try {
+            if (!cursor.moveToFirst()) {
+                name = null;
+                breed = null;
+                gender = 0;
+                weight = 0;
+                photo = null;
+            } else {
+                name = cursor.getString(1);
+                breed = cursor.getString(2);
+                gender = cursor.getInt(3);
+                weight = cursor.getInt(4);
+                photo = cursor.getString(5);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        final Thread loaderThread = Thread.currentThread();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Sem snapshot, a leitura completa pendente já vai incluir a alteração
+                if (loaderThread != mThread || mSnapshot == null) {
+                    return;
+                }
+                if (name == null) {
+                    mSnapshot.remove(id);
+                } else {
+                    mSnapshot.put(id, name, breed, gender, weight);
+                    mSnapshot.setPhoto(id, photo);
+                }
+                if (mListener != null) {
+                    mListener.onSnapshotChanged(mSnapshot);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copia a linha atual do cursor para o snapshot sem criar Strings, a não ser para a foto,
+     * que a maioria dos animais não tem
+     */
+    private void readRow(Cursor cursor, PetSnapshot snapshot) {
+        cursor.copyStringToBuffer(1, mName);
+        boolean noBreed = cursor.isNull(2);
+        if (!noBreed) {
+            cursor.copyStringToBuffer(2, mBreed);
+        }
+        snapshot.put(cursor.getLong(0), mName.data, mName.sizeCopied,
+                mBreed.data, noBreed ? -1 : mBreed.sizeCopied,
+                cursor.getInt(3), cursor.getInt(4));
+        if (!cursor.isNull(5)) {
+            snapshot.setPhoto(cursor.getLong(0), cursor.getString(5));
+        }
+    }
+}
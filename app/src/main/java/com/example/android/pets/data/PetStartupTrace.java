@@ -0,0 +1,141 @@
+package com.example.android.pets.data;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Fases da abertura do aplicativo, do início do processo até a primeira linha do catálogo
+ * desenhada na tela.
+ *
+ * O provedor e o CatalogActivity marcam o início e o fim de cada fase; algumas acontecem ao
+ * mesmo tempo em threads diferentes, como a abertura do banco e a criação da atividade. Os
+ * tempos são contados a partir do início do processo (a partir da API 24; antes disso, a
+ * partir do carregamento desta classe, que acontece na criação do provedor, antes de qualquer
+ * atividade). Quando a primeira linha é desenhada, {@link #finish} registra no log o resumo de
+ * todas as fases e avisa se o total passou da meta. O resumo também aparece no dump do
+ * provedor.
+ *
+ * Só a primeira vez de cada fase conta: uma segunda atividade no mesmo processo não muda nada.
+ */
+public final class PetStartupTrace {
+
+    private static final String LOG_TAG = PetStartupTrace.class.getSimpleName();
+
+    /** Criação do provedor, na thread principal */
+    public static final int PHASE_PROVIDER_CREATE = 0;
+
+    /** Abertura do banco, com a criação ou migração do esquema, numa thread própria */
+    public static final int PHASE_DATABASE_OPEN = 1;
+
+    /** Compilação das escritas pré-compiladas, logo depois da abertura */
+    public static final int PHASE_STATEMENTS = 2;
+
+    /** onCreate do CatalogActivity */
+    public static final int PHASE_CATALOG_CREATE = 3;
+
+    /** Da criação do catálogo até a primeira página (ou snapshot) carregada */
+    public static final int PHASE_FIRST_PAGE = 4;
+
+    /** Da primeira página até a primeira linha desenhada */
+    public static final int PHASE_FIRST_DRAW = 5;
+
+    private static final String[] PHASE_NAMES = {
+            "provider create", "database open", "statements", "catalog create", "first page",
+            "first draw" };
+
+    /** Início do processo, em SystemClock.uptimeMillis() */
+    private static final long sProcessStart = processStartUptime();
+
+    /** Início e fim de cada fase, em SystemClock.uptimeMillis(); 0 se ainda não aconteceu */
+    private static final long[] sBegin = new long[PHASE_NAMES.length];
+    private static final long[] sEnd = new long[PHASE_NAMES.length];
+
+    /** Meta do total, em milissegundos, passada a {@link #finish}; 0 antes disso */
+    private static long sTargetMs;
+
+    private PetStartupTrace() {
+    }
+
+    /** Marca o início de uma fase */
+    public static synchronized void begin(int phase) {
+        if (sBegin[phase] == 0) {
+            sBegin[phase] = SystemClock.uptimeMillis();
+        }
+    }
+
+    /** Marca o fim de uma fase; uma fase sem início começa onde a fase anterior terminou */
+    public static synchronized void end(int phase) {
+        if (sEnd[phase] != 0) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (sBegin[phase] == 0) {
+            sBegin[phase] = phase > 0 && sEnd[phase - 1] != 0 ? sEnd[phase - 1] : now;
+        }
+        sEnd[phase] = now;
+        Log.v(LOG_TAG, PHASE_NAMES[phase] + " took " + (now - sBegin[phase]) + " ms");
+    }
+
+    /** Retorna se a fase já terminou */
+    public static synchronized boolean isDone(int phase) {
+        return sEnd[phase] != 0;
+    }
+
+    /**
+     * Marca o fim da abertura, com a primeira linha do catálogo desenhada, e registra o resumo
+     * no log, como aviso se o total passou de targetMs.
+     */
+    public static synchronized void finish(long targetMs) {
+        if (sEnd[PHASE_FIRST_DRAW] != 0) {
+            return;
+        }
+        end(PHASE_FIRST_DRAW);
+        sTargetMs = targetMs;
+        long total = sEnd[PHASE_FIRST_DRAW] - sProcessStart;
+        String summary = "First catalog row drawn " + total + " ms after process start (target "
+                + targetMs + " ms): " + phases();
+        if (total > targetMs) {
+            Log.w(LOG_TAG, summary);
+        } else {
+            Log.i(LOG_TAG, summary);
+        }
+    }
+
+    /** Escreve as fases e a meta, para o ContentProvider.dump */
+    public static synchronized void dump(PrintWriter writer) {
+        writer.println("Startup phases, in ms since process start: " + phases());
+        if (sEnd[PHASE_FIRST_DRAW] != 0) {
+            writer.println("First row drawn at " + (sEnd[PHASE_FIRST_DRAW] - sProcessStart)
+                    + " ms; target " + sTargetMs + " ms");
+        }
+    }
+
+    /** "fase begin-end (duração)" de cada fase que já aconteceu */
+    private static String phases() {
+        StringBuilder phases = new StringBuilder();
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            if (sEnd[phase] == 0) {
+                continue;
+            }
+            if (phases.length() > 0) {
+                phases.append(", ");
+            }
+            phases.append(PHASE_NAMES[phase]).append(' ')
+                    .append(sBegin[phase] - sProcessStart).append('-')
+                    .append(sEnd[phase] - sProcessStart).append(" (")
+                    .append(sEnd[phase] - sBegin[phase]).append(')');
+        }
+        return phases.toString();
+    }
+
+    private static long processStartUptime() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartUptimeMillis();
+        }
+        return SystemClock.uptimeMillis();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Instruções pré-compiladas para as escritas mais comuns na tabela de animais de estimação:
+ * inserir uma linha completa, atualizar uma linha completa pelo _id e excluir pelo _id. O SQL
+ * está em {@link PetSchema}.
+ *
+ * Com elas, o {@link SQLiteDatabase} não precisa montar o SQL a partir de um ContentValues nem
+ * criar o array de argumentos da seleção a cada escrita; os valores são ligados diretamente.
+ * Um {@link SQLiteStatement} não pode ser usado por duas threads ao mesmo tempo, por isso cada
+ * escrita é sincronizada.
+ */
+public final class PetStatements {
+
+    /** Banco para o qual as instruções foram compiladas */
+    private final SQLiteDatabase mDatabase;
+
+    /** Instruções compiladas na primeira vez em que são usadas */
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdateById;
+    private SQLiteStatement mDeleteById;
+
+    public PetStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /** Retorna se estas instruções foram compiladas para o banco dado */
+    public boolean isFor(SQLiteDatabase database) {
+        return mDatabase == database;
+    }
+
+    /**
+     * Retorna se values tem exatamente as colunas de uma linha completa (nome, raça, gênero e
+     * peso, com gênero e peso não nulos), que é o formato aceito por {@link #insert} e
+     * {@link #updateById}.
+     */
+    public static boolean isFullRow(ContentValues values) {
+        return values.size() == 4
+                && values.containsKey(PetEntry.COLUMN_PET_NAME)
+                && values.containsKey(PetEntry.COLUMN_PET_BREED)
+                && values.getAsInteger(PetEntry.COLUMN_PET_GENDER) != null
+                && values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT) != null;
+    }
+
+    /**
+     * Insere uma linha completa. Os valores já devem ter sido validados.
+     * Retorna o _id da nova linha, ou -1 se a inserção falhou.
+     */
+    public synchronized long insert(String name, String breed, int gender, int weight) {
+        if (mInsert == null) {
+            mInsert = mDatabase.compileStatement(PetSchema.SQL_INSERT);
+        }
+        bindRow(mInsert, name, breed, gender, weight);
+        return mInsert.executeInsert();
+    }
+
+    /**
+     * Substitui todas as colunas da linha com o _id dado, se ela não foi excluída. Os valores já
+     * devem ter sido validados. Retorna o número de linhas atualizadas.
+     */
+    public synchronized int updateById(long id, String name, String breed, int gender,
+                                       int weight) {
+        if (mUpdateById == null) {
+            mUpdateById = mDatabase.compileStatement(PetSchema.SQL_UPDATE_BY_ID);
+        }
+        bindRow(mUpdateById, name, breed, gender, weight);
+        mUpdateById.bindLong(5, id);
+        return mUpdateById.executeUpdateDelete();
+    }
+
+    /**
+     * Exclui a linha com o _id dado, marcando-a; veja {@link PetSchema#SQL_DELETE_BY_ID}.
+     * Retorna o número de linhas excluídas.
+     */
+    public synchronized int deleteById(long id) {
+        if (mDeleteById == null) {
+            mDeleteById = mDatabase.compileStatement(PetSchema.SQL_DELETE_BY_ID);
+        }
+        mDeleteById.bindLong(1, id);
+        return mDeleteById.executeUpdateDelete();
+    }
+
+    /**
+     * Compila de uma vez as instruções que ainda não foram compiladas, para que a primeira
+     * escrita não pague por isso. Chamado fora da thread principal, logo depois de abrir o banco.
+     */
+    public synchronized void precompile() {
+        if (mInsert == null) {
+            mInsert = mDatabase.compileStatement(PetSchema.SQL_INSERT);
+        }
+        if (mUpdateById == null) {
+            mUpdateById = mDatabase.compileStatement(PetSchema.SQL_UPDATE_BY_ID);
+        }
+        if (mDeleteById == null) {
+            mDeleteById = mDatabase.compileStatement(PetSchema.SQL_DELETE_BY_ID);
+        }
+    }
+
+    /** Libera as instruções compiladas */
+    public synchronized void close() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        if (mUpdateById != null) {
+            mUpdateById.close();
+            mUpdateById = null;
+        }
+        if (mDeleteById != null) {
+            mDeleteById.close();
+            mDeleteById = null;
+        }
+    }
+
+    /** Liga nome, raça, gênero e peso aos quatro primeiros parâmetros da instrução */
+    private static void bindRow(SQLiteStatement statement, String name, String breed, int gender,
+                                int weight) {
+        statement.bindString(1, name);
+        if (breed == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, breed);
+        }
+        statement.bindLong(3, gender);
+        statement.bindLong(4, weight);
+    }
+}
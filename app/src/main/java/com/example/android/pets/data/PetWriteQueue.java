@@ -0,0 +1,618 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fila de escritas em segundo plano para os animais de estimação.
+ *
+ * Quem grava (o EditorActivity) só põe a escrita na fila e segue em frente; a thread da fila
+ * grava as escritas pendentes em pequenos lotes, cada um numa única transação do
+ * {@link android.content.ContentProvider#applyBatch}, e avisa o resultado de cada escrita na thread principal.
+ *
+ * Enquanto uma escrita espera, as seguintes do mesmo animal são juntadas a ela: duas
+ * atualizações viram uma só, e uma exclusão substitui as atualizações pendentes.
+ *
+ * Cada escrita pendente é gravada num diário (SharedPreferences) antes de ir para o banco, e só
+ * sai do diário depois de gravada. Se o processo morrer no meio, as escritas do diário são
+ * gravadas na próxima vez que a fila for criada. Uma escrita pode ter sido gravada no banco
+ * pouco antes de o processo morrer, sem ter saído do diário, e então é repetida:
+ * <ul>
+ * <li>uma inserção leva a sua sequência como chave de escrita
+ * ({@link PetEntry#buildInsertUri}); repetida, ela encontra o animal da primeira vez e não cria
+ * outro;</li>
+ * <li>uma atualização grava os mesmos valores de novo;</li>
+ * <li>uma exclusão não encontra o animal, que já foi excluído, e isso também é um sucesso.</li>
+ * </ul>
+ *
+ * Só uma escrita inválida (IllegalArgumentException do provedor) sai da fila como falha. Uma
+ * falha passageira, como o banco travado, o disco cheio ou o provedor morto no meio da chamada,
+ * deixa a escrita no diário e na fila, e a gravação é tentada de novo com espera crescente, de
+ * {@link #RETRY_MIN_DELAY_MS} até {@link #RETRY_MAX_DELAY_MS}.
+ */
+public final class PetWriteQueue {
+
+    /** Recebe, na thread principal, o resultado de uma escrita */
+    public interface Callback {
+        /**
+         * @param success se a escrita foi gravada; uma atualização que não encontrou o animal
+         *                não é um sucesso, mas uma exclusão de um animal que já não existe é
+         */
+        void onWriteFinished(boolean success);
+    }
+
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /** Tipos de escrita */
+    private static final int OP_INSERT = 0;
+    private static final int OP_UPDATE = 1;
+    private static final int OP_DELETE = 2;
+
+    /** Arquivo do diário; cada escrita pendente é uma entrada com a chave "w" + sequência */
+    static final String JOURNAL_NAME = "pet_write_queue";
+    private static final String JOURNAL_KEY_PREFIX = "w";
+
+    /** Tempo, em milissegundos, que a primeira escrita espera pelas seguintes */
+    private static final long COMMIT_DELAY_MS = 100;
+
+    /** Número máximo de escritas numa transação, para não segurar o banco por muito tempo */
+    private static final int MAX_BATCH_SIZE = 20;
+
+    /** Espera antes de tentar de novo depois de uma falha passageira; dobra a cada falha */
+    private static final long RETRY_MIN_DELAY_MS = 1000;
+    private static final long RETRY_MAX_DELAY_MS = 60000;
+
+    /** Resultados de uma escrita */
+    private static final int RESULT_WRITTEN = 0;
+    private static final int RESULT_FAILED = 1;
+    private static final int RESULT_RETRY = 2;
+
+    private static PetWriteQueue sInstance;
+
+    /** Uma escrita pendente */
+    private static final class Write {
+        /** Ordem da escrita; a chave dela no diário */
+        final long sequence;
+        int op;
+        /** _id do animal; -1 numa inserção */
+        final long id;
+        /** Valores de uma inserção ou atualização; null numa exclusão */
+        ContentValues values;
+        /** Quem espera o resultado; vazio numa escrita lida do diário */
+        final List<Callback> callbacks = new ArrayList<>(1);
+
+        Write(long sequence, int op, long id, ContentValues values) {
+            this.sequence = sequence;
+            this.op = op;
+            this.id = id;
+            this.values = values;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final SharedPreferences mJournal;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mHandler;
+
+    /**
+     * Escritas pendentes na ordem da sequência, e as de cada animal, pelo _id. Guardadas com
+     * {@code synchronized (mPending)}, já que a fila recebe escritas na thread principal e as
+     * grava na própria thread.
+     */
+    private final TreeMap<Long, Write> mPending = new TreeMap<>();
+    private final HashMap<Long, Write> mPendingById = new HashMap<>();
+
+    /** Escritas novas ou alteradas que ainda precisam ser gravadas no diário */
+    private final ArrayList<Write> mUnjournaled = new ArrayList<>();
+
+    /** Última sequência usada */
+    private long mSequence;
+
+    /** Verdadeiro enquanto há uma gravação agendada na thread da fila */
+    private boolean mCommitScheduled;
+
+    /** Espera da próxima tentativa depois de uma falha passageira; só usado na thread da fila */
+    private long mRetryDelayMs = RETRY_MIN_DELAY_MS;
+
+    private final Runnable mJournalRunnable = new Runnable() {
+        @Override
+        public void run() {
+            journal();
+        }
+    };
+
+    private final Runnable mCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commit();
+        }
+    };
+
+    /** Retorna a fila do processo, criando-a (e relendo o diário) na primeira chamada */
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread(LOG_TAG);
+            thread.start();
+            sInstance = new PetWriteQueue(context.getApplicationContext(), thread.getLooper());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Cria uma fila que grava na thread do looper dado. Fora dos testes, que gravam na thread
+     * principal, a fila é a de {@link #getInstance}.
+     */
+    PetWriteQueue(Context context, Looper looper) {
+        mResolver = context.getContentResolver();
+        mJournal = context.getSharedPreferences(JOURNAL_NAME, Context.MODE_PRIVATE);
+        // A sequência segue o relógio, então as escritas novas vêm depois das do diário
+        mSequence = System.currentTimeMillis() * 1000;
+
+        mHandler = new Handler(looper);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                recover();
+            }
+        });
+    }
+
+    /** Põe na fila a inserção de um novo animal */
+    public void insert(ContentValues values, Callback callback) {
+        enqueue(OP_INSERT, -1, new ContentValues(values), callback);
+    }
+
+    /** Põe na fila a atualização do animal do _id dado */
+    public void update(long id, ContentValues values, Callback callback) {
+        enqueue(OP_UPDATE, id, new ContentValues(values), callback);
+    }
+
+    /** Põe na fila a exclusão do animal do _id dado */
+    public void delete(long id, Callback callback) {
+        enqueue(OP_DELETE, id, null, callback);
+    }
+
+    private void enqueue(int op, long id, ContentValues values, Callback callback) {
+        boolean rejected;
+        synchronized (mPending) {
+            Write write = new Write(++mSequence, op, id, values);
+            if (callback != null) {
+                write.callbacks.add(callback);
+            }
+            rejected = !add(write);
+            scheduleCommit();
+        }
+        if (rejected) {
+            postResult(callback, false);
+        }
+    }
+
+    /**
+     * Acrescenta a escrita às pendentes, juntando-a com a escrita pendente do mesmo animal.
+     * Retorna falso se a escrita não faz sentido (atualizar um animal que vai ser excluído).
+     * Chamado com mPending travado.
+     */
+    private boolean add(Write write) {
+        Write older = write.op == OP_INSERT ? null : mPendingById.get(write.id);
+        if (older == null) {
+            mPending.put(write.sequence, write);
+            if (write.op != OP_INSERT) {
+                mPendingById.put(write.id, write);
+            }
+            mUnjournaled.add(write);
+            return true;
+        }
+
+        if (older.op == OP_DELETE) {
+            // O animal vai ser excluído: uma atualização dele não encontraria a linha
+            if (write.op != OP_DELETE) {
+                return false;
+            }
+            older.callbacks.addAll(write.callbacks);
+            return true;
+        }
+        if (write.op == OP_DELETE) {
+            older.op = OP_DELETE;
+            older.values = null;
+        } else {
+            older.values.putAll(write.values);
+        }
+        older.callbacks.addAll(write.callbacks);
+        if (!mUnjournaled.contains(older)) {
+            mUnjournaled.add(older);
+        }
+        return true;
+    }
+
+    /** Agenda a gravação no diário e, se não houver uma agendada, a gravação no banco */
+    private void scheduleCommit() {
+        mHandler.post(mJournalRunnable);
+        if (!mCommitScheduled) {
+            mCommitScheduled = true;
+            mHandler.postDelayed(mCommitRunnable, COMMIT_DELAY_MS);
+        }
+    }
+
+    /** Grava no diário as escritas novas ou alteradas. Chamado na thread da fila. */
+    private void journal() {
+        SharedPreferences.Editor editor;
+        synchronized (mPending) {
+            if (mUnjournaled.isEmpty()) {
+                return;
+            }
+            editor = mJournal.edit();
+            for (Write write : mUnjournaled) {
+                // Uma escrita que já saiu da fila foi gravada antes de chegar ao diário
+                if (mPending.get(write.sequence) == write) {
+                    editor.putString(JOURNAL_KEY_PREFIX + write.sequence, toJson(write));
+                }
+            }
+            mUnjournaled.clear();
+        }
+        // commit, e não apply: a escrita só pode ir para o banco depois de estar no disco
+        if (!editor.commit()) {
+            Log.e(LOG_TAG, "Failed to write the journal");
+        }
+    }
+
+    /**
+     * Grava as escritas pendentes no banco, em lotes de até {@link #MAX_BATCH_SIZE}, e avisa o
+     * resultado de cada uma. As escritas que falharam por um motivo passageiro voltam para a
+     * fila, ainda no diário, e a gravação é agendada de novo mais tarde. Chamado na thread da
+     * fila.
+     */
+    private void commit() {
+        journal();
+        while (true) {
+            ArrayList<Write> batch = new ArrayList<>();
+            synchronized (mPending) {
+                Iterator<Write> iterator = mPending.values().iterator();
+                while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                    Write write = iterator.next();
+                    iterator.remove();
+                    if (write.op != OP_INSERT) {
+                        mPendingById.remove(write.id);
+                    }
+                    batch.add(write);
+                }
+                if (batch.isEmpty()) {
+                    mCommitScheduled = false;
+                    return;
+                }
+            }
+
+            int[] results = apply(batch);
+
+            ArrayList<Write> finished = new ArrayList<>(batch.size());
+            ArrayList<Write> retries = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                if (results[i] == RESULT_RETRY) {
+                    retries.add(batch.get(i));
+                } else {
+                    finished.add(batch.get(i));
+                }
+            }
+
+            // Só as escritas terminadas saem do diário. Uma escrita a repetir que foi juntada
+            // com uma mais nova só sai depois que a mais nova, com os valores das duas, estiver
+            // no diário.
+            List<Write> merged = requeue(retries);
+            if (!merged.isEmpty()) {
+                journal();
+            }
+            SharedPreferences.Editor editor = mJournal.edit();
+            for (Write write : finished) {
+                editor.remove(JOURNAL_KEY_PREFIX + write.sequence);
+            }
+            for (Write write : merged) {
+                editor.remove(JOURNAL_KEY_PREFIX + write.sequence);
+            }
+            editor.commit();
+
+            for (int i = 0; i < batch.size(); i++) {
+                if (results[i] == RESULT_RETRY) {
+                    continue;
+                }
+                for (Callback callback : batch.get(i).callbacks) {
+                    postResult(callback, results[i] == RESULT_WRITTEN);
+                }
+            }
+
+            if (!retries.isEmpty()) {
+                Log.w(LOG_TAG, retries.size() + " writes failed, retrying in " + mRetryDelayMs
+                        + " ms");
+                // mCommitScheduled continua verdadeiro: as escritas novas esperam a tentativa
+                mHandler.postDelayed(mCommitRunnable, mRetryDelayMs);
+                mRetryDelayMs = Math.min(mRetryDelayMs * 2, RETRY_MAX_DELAY_MS);
+                return;
+            }
+            mRetryDelayMs = RETRY_MIN_DELAY_MS;
+        }
+    }
+
+    /**
+     * Põe de volta na fila as escritas a repetir. Uma escrita do mesmo animal que entrou na fila
+     * depois é mais nova, e a escrita a repetir é juntada a ela. Retorna as escritas juntadas,
+     * que não estão mais na fila. Chamado na thread da fila.
+     */
+    private List<Write> requeue(List<Write> retries) {
+        ArrayList<Write> merged = new ArrayList<>();
+        synchronized (mPending) {
+            for (Write write : retries) {
+                Write newer = write.op == OP_INSERT ? null : mPendingById.get(write.id);
+                if (newer == null) {
+                    // A entrada do diário desta escrita continua valendo
+                    mPending.put(write.sequence, write);
+                    if (write.op != OP_INSERT) {
+                        mPendingById.put(write.id, write);
+                    }
+                } else {
+                    mergeInto(write, newer);
+                    merged.add(write);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Junta a escrita older à escrita pendente newer, do mesmo animal e mais nova: os valores
+     * de newer prevalecem, e uma exclusão prevalece sobre uma atualização. Os avisos de older
+     * passam para newer, que precisa ser gravada de novo no diário. Chamado com mPending
+     * travado.
+     */
+    private void mergeInto(Write older, Write newer) {
+        if (newer.op != OP_DELETE) {
+            if (older.op == OP_DELETE) {
+                newer.op = OP_DELETE;
+                newer.values = null;
+            } else {
+                older.values.putAll(newer.values);
+                newer.values = older.values;
+            }
+        }
+        newer.callbacks.addAll(0, older.callbacks);
+        if (!mUnjournaled.contains(newer)) {
+            mUnjournaled.add(newer);
+        }
+    }
+
+    /**
+     * Grava o lote numa única transação. Se a transação falhar (uma escrita inválida desfaz o
+     * lote inteiro), as escritas são gravadas uma a uma, para que só a inválida falhe.
+     * Retorna o resultado de cada escrita, um dos RESULT_*.
+     */
+    private int[] apply(List<Write> batch) {
+        long startMillis = System.currentTimeMillis();
+        int[] results = new int[batch.size()];
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            operations.add(toOperation(write));
+        }
+        try {
+            ContentProviderResult[] batchResults =
+                    mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < batch.size(); i++) {
+                ContentProviderResult result = batchResults[i];
+                results[i] = isWritten(batch.get(i), result.uri != null,
+                        result.count != null ? result.count : 0)
+                        ? RESULT_WRITTEN : RESULT_FAILED;
+            }
+            Log.v(LOG_TAG, "Committed " + batch.size() + " writes in "
+                    + (System.currentTimeMillis() - startMillis) + " ms");
+            return results;
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            Log.w(LOG_TAG, "Batch of " + batch.size() + " writes failed, retrying one by one", e);
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            results[i] = applyOne(batch.get(i));
+        }
+        return results;
+    }
+
+    /** Grava uma única escrita e retorna o resultado dela, um dos RESULT_* */
+    private int applyOne(Write write) {
+        try {
+            boolean written;
+            switch (write.op) {
+                case OP_INSERT:
+                    written = isWritten(write, mResolver.insert(
+                            PetEntry.buildInsertUri(write.sequence), write.values) != null, 0);
+                    break;
+                case OP_UPDATE:
+                    written = isWritten(write, false,
+                            mResolver.update(petUri(write.id), write.values, null, null));
+                    break;
+                default:
+                    written = isWritten(write, false,
+                            mResolver.delete(petUri(write.id), null, null));
+                    break;
+            }
+            return written ? RESULT_WRITTEN : RESULT_FAILED;
+        } catch (IllegalArgumentException e) {
+            // Uma escrita inválida nunca vai ser gravada: ela sai da fila como falha
+            Log.e(LOG_TAG, "Dropping invalid write " + write.sequence + " on pet " + write.id, e);
+            return RESULT_FAILED;
+        } catch (RuntimeException e) {
+            // Banco travado, disco cheio, provedor morto: a escrita fica para a próxima tentativa
+            Log.w(LOG_TAG, "Write " + write.sequence + " on pet " + write.id + " failed", e);
+            return RESULT_RETRY;
+        }
+    }
+
+    /**
+     * Retorna se a escrita foi gravada, pelo URI devolvido por uma inserção (inserted) ou pelo
+     * número de linhas de uma atualização ou exclusão. Uma exclusão que não encontrou o animal
+     * foi repetida depois de gravada, ou chegou depois de outra exclusão: o animal não existe
+     * mais, que é o que ela pedia.
+     */
+    private static boolean isWritten(Write write, boolean inserted, int count) {
+        switch (write.op) {
+            case OP_INSERT:
+                return inserted;
+            case OP_UPDATE:
+                return count > 0;
+            default:
+                return true;
+        }
+    }
+
+    private static ContentProviderOperation toOperation(Write write) {
+        switch (write.op) {
+            case OP_INSERT:
+                // A chave de escrita faz com que uma inserção repetida não crie outro animal
+                return ContentProviderOperation.newInsert(PetEntry.buildInsertUri(write.sequence))
+                        .withValues(write.values).build();
+            case OP_UPDATE:
+                return ContentProviderOperation.newUpdate(petUri(write.id))
+                        .withValues(write.values).build();
+            default:
+                return ContentProviderOperation.newDelete(petUri(write.id)).build();
+        }
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+    }
+
+    private void postResult(final Callback callback, final boolean success) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onWriteFinished(success);
+            }
+        });
+    }
+
+    /**
+     * Põe de volta na fila as escritas que ficaram no diário quando o processo morreu.
+     * Chamado uma vez, na thread da fila, antes de qualquer gravação.
+     *
+     * As entradas só saem do diário depois que as escritas que as substituem estão nele: uma
+     * escrita recuperada fica com a sua entrada, e uma escrita juntada com outra mais nova só
+     * perde a sua depois que a mais nova, com os valores das duas, foi gravada no diário.
+     */
+    private void recover() {
+        Map<String, ?> entries = mJournal.getAll();
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        TreeMap<Long, Write> recovered = new TreeMap<>();
+        ArrayList<String> obsoleteKeys = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            try {
+                long sequence = Long.parseLong(key.substring(JOURNAL_KEY_PREFIX.length()));
+                recovered.put(sequence, fromJson(sequence, (String) entry.getValue()));
+            } catch (JSONException | RuntimeException e) {
+                Log.e(LOG_TAG, "Dropping unreadable journal entry " + key, e);
+                obsoleteKeys.add(key);
+            }
+        }
+
+        synchronized (mPending) {
+            for (Write write : recovered.values()) {
+                Write newer = write.op == OP_INSERT ? null : mPendingById.get(write.id);
+                if (newer == null) {
+                    add(write);
+                } else {
+                    // Uma escrita feita depois que o processo voltou é mais nova que a do
+                    // diário: os valores dela prevalecem
+                    mergeInto(write, newer);
+                    obsoleteKeys.add(JOURNAL_KEY_PREFIX + write.sequence);
+                }
+            }
+            Log.i(LOG_TAG, "Recovered " + recovered.size() + " writes from the journal");
+        }
+
+        journal();
+        if (!obsoleteKeys.isEmpty()) {
+            SharedPreferences.Editor editor = mJournal.edit();
+            for (String key : obsoleteKeys) {
+                editor.remove(key);
+            }
+            editor.commit();
+        }
+
+        synchronized (mPending) {
+            scheduleCommit();
+        }
+    }
+
+    private static String toJson(Write write) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("op", write.op);
+            json.put("id", write.id);
+            if (write.values != null) {
+                JSONObject values = new JSONObject();
+                for (Map.Entry<String, Object> value : write.values.valueSet()) {
+                    values.put(value.getKey(),
+                            value.getValue() != null ? value.getValue() : JSONObject.NULL);
+                }
+                json.put("values", values);
+            }
+            return json.toString();
+        } catch (JSONException e) {
+            // Só acontece com números não finitos, que um animal não tem
+            throw new IllegalArgumentException("Cannot journal " + write.values, e);
+        }
+    }
+
+    private static Write fromJson(long sequence, String text) throws JSONException {
+        JSONObject json = new JSONObject(text);
+        ContentValues values = null;
+        JSONObject jsonValues = json.optJSONObject("values");
+        if (jsonValues != null) {
+            values = new ContentValues();
+            Iterator<String> keys = jsonValues.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = jsonValues.get(key);
+                if (value == JSONObject.NULL) {
+                    values.putNull(key);
+                } else if (value instanceof Integer) {
+                    values.put(key, (Integer) value);
+                } else if (value instanceof Long) {
+                    values.put(key, (Long) value);
+                } else if (value instanceof Number) {
+                    values.put(key, ((Number) value).doubleValue());
+                } else if (value instanceof Boolean) {
+                    values.put(key, (Boolean) value);
+                } else {
+                    values.put(key, value.toString());
+                }
+            }
+        }
+        return new Write(sequence, json.getInt("op"), json.getLong("id"), values);
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Gera animais de estimação fictícios, com distribuições parecidas com as de um abrigo de
+ * verdade, para encher o banco em testes de carga e no benchmark.
+ *
+ * Os nomes seguem uma distribuição de Zipf: poucos nomes muito comuns e uma cauda longa de
+ * nomes raros, como num abrigo, onde há muitos "Max" e "Luna". As raças também têm pesos
+ * diferentes (vira-latas são os mais comuns), e parte dos animais não tem raça. O peso, em
+ * quilos, segue uma distribuição normal em torno do peso típico da raça, e um em cada seis
+ * animais é filhote, com uma fração desse peso.
+ *
+ * A mesma semente gera sempre a mesma sequência, então uma carga pode ser repetida. Cada
+ * chamada de {@link #next} só sorteia números: os nomes e as raças são constantes, e nenhum
+ * objeto é criado por animal. Uma instância não pode ser usada por duas threads ao mesmo tempo.
+ *
+ * Não depende do Android, então também é usado pelo benchmark numa JVM comum.
+ */
+public final class ShelterDataGenerator {
+
+    /** Nomes, do mais comum ao mais raro; o nome de posição r tem peso 1 / r */
+    private static final String[] NAMES = {
+            "Max", "Luna", "Bella", "Charlie", "Lucy", "Cooper", "Daisy", "Milo", "Bailey",
+            "Sadie", "Rocky", "Molly", "Buddy", "Maggie", "Tucker", "Chloe", "Bear", "Sophie",
+            "Duke", "Zoe", "Oliver", "Lola", "Jack", "Stella", "Toby", "Penny", "Leo", "Ruby",
+            "Winston", "Rosie", "Teddy", "Gracie", "Finn", "Ellie", "Murphy", "Coco", "Oscar",
+            "Nala", "Rex", "Toto", "Simba", "Mel", "Pipoca", "Thor", "Nina", "Bidu", "Mia",
+            "Fred", "Amora", "Pretinha", "Belinha", "Pandora", "Zeus", "Kiara", "Lili", "Bob",
+            "Pingo", "Tigrão", "Frida", "Paçoca", "Chico", "Princesa", "Floquinho", "Biscoito",
+            "Farofa", "Sushi", "Ozzy", "Marley", "Hachi", "Mingau", "Bolinha", "Jade", "Scooby",
+            "Salem", "Garfield", "Tom", "Nemo", "Apolo", "Dora", "Lupita", "Cacau", "Jujuba",
+            "Tobias", "Suri", "Bento", "Lara", "Hércules", "Petit", "Fumaça", "Caramelo",
+            "Maya", "Dudu", "Kira", "Romeu", "Julieta", "Banzé", "Fofucho", "Gaia", "Nescau",
+            "Vida" };
+
+    /** Raças, cada uma com a sua popularidade relativa e o seu peso típico, em quilos */
+    private static final String[] BREEDS = {
+            "Vira-lata", "Labrador", "Poodle", "Shih Tzu", "Pinscher", "Beagle", "Bulldog",
+            "Dachshund", "Yorkshire", "Golden Retriever", "Pastor Alemão", "Boxer", "Husky",
+            "Border Collie", "Chihuahua", "Pug", "Rottweiler", "Lhasa Apso", "Siamês", "Persa",
+            "Maine Coon", "Angorá", "Sphynx", "Bengal", "Ragdoll" };
+    private static final double[] BREED_POPULARITY = {
+            30, 8, 7, 7, 6, 4, 4, 4, 4, 3, 3, 2, 2, 2, 2, 2, 2, 2, 5, 3, 1, 1, 0.5, 0.5, 0.5 };
+    private static final double[] BREED_MEAN_KG = {
+            14, 30, 6, 6, 4, 11, 24, 8, 3, 30, 33, 29, 23, 17, 2, 8, 45, 6, 4, 4, 7, 4, 4, 5, 7 };
+
+    /** Fração dos animais sem raça informada */
+    private static final double NO_BREED_RATE = 0.12;
+
+    /** Fração dos animais de gênero desconhecido; o resto se divide entre macho e fêmea */
+    private static final double UNKNOWN_GENDER_RATE = 0.05;
+
+    /** Fração dos animais que são filhotes */
+    private static final double YOUNG_RATE = 1.0 / 6;
+
+    /** Desvio padrão do peso, como fração do peso típico da raça */
+    private static final double WEIGHT_DEVIATION = 0.2;
+
+    /** Distribuições acumuladas dos nomes e das raças, normalizadas para terminar em 1 */
+    private static final double[] NAME_CUMULATIVE = zipfCumulative(NAMES.length);
+    private static final double[] BREED_CUMULATIVE = cumulative(BREED_POPULARITY);
+
+    private final Random mRandom;
+
+    private String mName;
+    private String mBreed;
+    private int mGender;
+    private int mWeight;
+
+    public ShelterDataGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /** Sorteia o próximo animal, lido em seguida com os getters */
+    public void next() {
+        mName = NAMES[pick(NAME_CUMULATIVE, mRandom.nextDouble())];
+
+        // O peso vem da raça sorteada mesmo quando a raça não é informada
+        int breed = pick(BREED_CUMULATIVE, mRandom.nextDouble());
+        mBreed = mRandom.nextDouble() < NO_BREED_RATE ? null : BREEDS[breed];
+
+        double gender = mRandom.nextDouble();
+        if (gender < UNKNOWN_GENDER_RATE) {
+            mGender = PetEntry.GENDER_UNKNOWN;
+        } else if (gender < (1 + UNKNOWN_GENDER_RATE) / 2) {
+            mGender = PetEntry.GENDER_MALE;
+        } else {
+            mGender = PetEntry.GENDER_FEMALE;
+        }
+
+        double weight = BREED_MEAN_KG[breed] * (1 + WEIGHT_DEVIATION * mRandom.nextGaussian());
+        if (mRandom.nextDouble() < YOUNG_RATE) {
+            weight *= 0.2 + 0.5 * mRandom.nextDouble();
+        }
+        mWeight = Math.max(1, (int) Math.round(weight));
+    }
+
+    /** Nome do animal atual */
+    public String getName() {
+        return mName;
+    }
+
+    /** Raça do animal atual, ou null se ela não é informada */
+    public String getBreed() {
+        return mBreed;
+    }
+
+    /** Gênero do animal atual, uma das constantes PetEntry.GENDER_* */
+    public int getGender() {
+        return mGender;
+    }
+
+    /** Peso do animal atual, em quilos, pelo menos 1 */
+    public int getWeight() {
+        return mWeight;
+    }
+
+    /** Índice da faixa de cumulative que contém value, entre 0 e 1 */
+    private static int pick(double[] cumulative, double value) {
+        int index = Arrays.binarySearch(cumulative, value);
+        // Sem o valor exato, binarySearch retorna -(ponto de inserção) - 1
+        return Math.min(index < 0 ? -index - 1 : index + 1, cumulative.length - 1);
+    }
+
+    private static double[] zipfCumulative(int count) {
+        double[] weights = new double[count];
+        for (int rank = 1; rank <= count; rank++) {
+            weights[rank - 1] = 1.0 / rank;
+        }
+        return cumulative(weights);
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] cumulative = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < cumulative.length; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+}
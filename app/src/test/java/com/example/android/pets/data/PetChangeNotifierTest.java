@@ -0,0 +1,114 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Verifica que o {@link PetChangeNotifier} junta as alterações: cada notificação enviada é uma
+ * nova consulta do catálogo, então muitas escritas seguidas devem virar poucas notificações.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetChangeNotifierTest {
+
+    private static final long WINDOW_MS = 100;
+    private static final long MAX_DELAY_MS = 1000;
+
+    private ShadowContentResolver mResolver;
+    private PetChangeNotifier mNotifier;
+
+    @Before
+    public void setUp() {
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        mResolver = shadowOf(resolver);
+        mNotifier = new PetChangeNotifier(resolver, WINDOW_MS, MAX_DELAY_MS);
+    }
+
+    @Test
+    public void thousandUpdatesCauseFewReloads() {
+        // Uma escrita por milissegundo, cada uma num animal diferente, como uma importação
+        for (int i = 0; i < 1000; i++) {
+            mNotifier.notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, i + 1));
+            advance(1);
+        }
+        advance(WINDOW_MS);
+
+        List<ShadowContentResolver.NotifiedUri> notified = mResolver.getNotifiedUris();
+        // Uma notificação por atraso máximo, mais a do fim da sequência
+        assertTrue("Too many reloads: " + notified.size(), notified.size() <= 2);
+        for (ShadowContentResolver.NotifiedUri change : notified) {
+            assertEquals(PetEntry.CONTENT_URI, change.uri);
+        }
+    }
+
+    @Test
+    public void eachChangeRestartsTheWindow() {
+        Uri pet = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+        for (int i = 0; i < 5; i++) {
+            mNotifier.notifyChange(pet);
+            advance(WINDOW_MS / 2);
+        }
+        // As alterações vieram a cada meia janela, então nada foi notificado ainda
+        assertEquals(0, mResolver.getNotifiedUris().size());
+
+        advance(WINDOW_MS);
+        assertEquals(1, mResolver.getNotifiedUris().size());
+        assertEquals(pet, mResolver.getNotifiedUris().get(0).uri);
+    }
+
+    @Test
+    public void continuousChangesAreNotifiedWithinTheMaxDelay() {
+        Uri pet = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+        for (long elapsed = 0; elapsed <= MAX_DELAY_MS; elapsed += WINDOW_MS / 2) {
+            mNotifier.notifyChange(pet);
+            advance(WINDOW_MS / 2);
+        }
+        assertEquals(1, mResolver.getNotifiedUris().size());
+    }
+
+    @Test
+    public void collectionWithQueryParametersNotifiesTheCollectionOnce() {
+        mNotifier.notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1));
+        mNotifier.notifyChange(PetEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID, "7").build());
+        mNotifier.notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, 2));
+        advance(WINDOW_MS);
+
+        assertEquals(1, mResolver.getNotifiedUris().size());
+        assertEquals(PetEntry.CONTENT_URI, mResolver.getNotifiedUris().get(0).uri);
+    }
+
+    @Test
+    public void flushNotifiesRightAway() {
+        Uri pet = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+        mNotifier.notifyChange(pet);
+        mNotifier.flush();
+        assertEquals(1, mResolver.getNotifiedUris().size());
+
+        // A janela agendada não notifica de novo
+        advance(MAX_DELAY_MS);
+        assertEquals(1, mResolver.getNotifiedUris().size());
+    }
+
+    /** Avança o relógio da thread principal, executando o que estava agendado até lá */
+    private static void advance(long millis) {
+        Robolectric.getForegroundThreadScheduler().advanceBy(millis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Lê de volta, com o {@link PetImporter}, o que o {@link PetExporter} escreve: cada animal
+ * exportado em CSV ou JSON tem que voltar com o mesmo nome, raça, gênero e peso, inclusive os
+ * textos que precisam de aspas ou de escapes. Também verifica os arquivos escritos à mão que o
+ * importador aceita (quebras de linha só com LF, escapes unicode) e os registros que ele rejeita.
+ *
+ * As linhas são escritas sem o banco, direto pelo escritor de cada formato, e os animais
+ * importados são guardados por um provedor falso.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetExportImportTest {
+
+    /** Guarda uma cópia de cada linha recebida; o importador reutiliza os ContentValues */
+    public static class FakePetProvider extends ContentProvider {
+        final List<ContentValues> inserted = new ArrayList<>();
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            throw new UnsupportedOperationException("The importer only uses bulkInsert");
+        }
+
+        @Override
+        public int bulkInsert(Uri uri, ContentValues[] values) {
+            for (ContentValues pet : values) {
+                inserted.add(new ContentValues(pet));
+            }
+            return values.length;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    /** Guarda o número de cada registro rejeitado */
+    private static final class Rejects implements PetImporter.Listener {
+        final List<Long> records = new ArrayList<>();
+
+        @Override
+        public void onProgress(long recordsRead, long petsImported) {
+        }
+
+        @Override
+        public void onReject(long record, String reason) {
+            records.add(record);
+        }
+    }
+
+    /**
+     * Animais exportados: nome, raça (null quando não tem), gênero e peso. Os nomes têm tudo o
+     * que o CSV põe entre aspas e o JSON escapa.
+     */
+    private static final Object[][] PETS = {
+            { "Toto", "Terrier", PetEntry.GENDER_MALE, 7 },
+            { "Rex, o grande", "Poodle, toy", PetEntry.GENDER_MALE, 30 },
+            { "Diz \"oi\"", null, PetEntry.GENDER_FEMALE, 4 },
+            { "\"", "\"\"", PetEntry.GENDER_UNKNOWN, 0 },
+            { "Linha\r\nnova", "Só\nLF", PetEntry.GENDER_FEMALE, 12 },
+            { "Só\rCR", "Tab\tx", PetEntry.GENDER_MALE, 1 },
+            { "Barra \\ invertida", "a/b", PetEntry.GENDER_UNKNOWN, 2 },
+            { "Controle \u0001\u001f\b\f", null, PetEntry.GENDER_FEMALE, 3 },
+            { "Mel é 猫 \ud83d\udc15", "Vira-lata", PetEntry.GENDER_FEMALE, 2147483647 } };
+
+    private FakePetProvider mProvider;
+    private Rejects mRejects;
+    private PetImporter mImporter;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(FakePetProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+        mRejects = new Rejects();
+        mImporter = new PetImporter(RuntimeEnvironment.application.getContentResolver(),
+                mRejects);
+    }
+
+    @Test
+    public void csvRoundTrip() throws IOException {
+        String csv = export(false);
+        assertEquals(PETS.length, mImporter.importPets(new StringReader(csv),
+                PetImporter.FORMAT_CSV));
+        assertImported(PETS);
+    }
+
+    @Test
+    public void jsonRoundTrip() throws IOException {
+        String json = export(true);
+        assertEquals(PETS.length, mImporter.importPets(new StringReader(json),
+                PetImporter.FORMAT_JSON));
+        assertImported(PETS);
+    }
+
+    @Test
+    public void csvEmptyBreedIsImportedAsNull() throws IOException {
+        // O CSV escreve a raça nula como um campo vazio, então uma raça vazia volta nula
+        mImporter.importPets(new StringReader("_id,name,breed,gender,weight\r\n"
+                + "1,Toto,,1,7\r\n"
+                + "2,Rex,\"\",1,7\r\n"), PetImporter.FORMAT_CSV);
+        assertEquals(2, mProvider.inserted.size());
+        assertNull(mProvider.inserted.get(0).getAsString(PetEntry.COLUMN_PET_BREED));
+        assertNull(mProvider.inserted.get(1).getAsString(PetEntry.COLUMN_PET_BREED));
+    }
+
+    @Test
+    public void csvAcceptsLfLineBreaksBlankLinesAndOtherColumnOrders() throws IOException {
+        mImporter.importPets(new StringReader("weight,name,gender,color\n"
+                + "7,Toto,1,preto\n"
+                + "\n"
+                + "30,\"Rex\r\nII\",1,\r\n"
+                + "0,Luna,2"), PetImporter.FORMAT_CSV);
+        assertImported(new Object[][] {
+                { "Toto", null, PetEntry.GENDER_MALE, 7 },
+                { "Rex\r\nII", null, PetEntry.GENDER_MALE, 30 },
+                { "Luna", null, PetEntry.GENDER_FEMALE, 0 } });
+    }
+
+    @Test
+    public void jsonDecodesEscapes() throws IOException {
+        mImporter.importPets(new StringReader("[{\"name\":\"\\u00e9\\u0041\\ud83d\\udc15\","
+                + "\"breed\":\"a\\/b \\\"c\\\" \\\\ \\t\",\"gender\":1,\"weight\":3}]"),
+                PetImporter.FORMAT_JSON);
+        assertImported(new Object[][] {
+                { "\u00e9A\ud83d\udc15", "a/b \"c\" \\ \t", PetEntry.GENDER_MALE, 3 } });
+    }
+
+    @Test
+    public void jsonAcceptsObjectsOutsideAnArray() throws IOException {
+        mImporter.importPets(new StringReader("{\"name\":\"Toto\",\"gender\":1}\r\n"
+                + "{\"weight\":4,\"breed\":null,\"name\":\"Binx\",\"gender\":\"2\"}\r\n"),
+                PetImporter.FORMAT_JSON);
+        assertImported(new Object[][] {
+                { "Toto", null, PetEntry.GENDER_MALE, 0 },
+                { "Binx", null, PetEntry.GENDER_FEMALE, 4 } });
+    }
+
+    @Test
+    public void invalidRecordsAreRejectedAndTheRestImported() throws IOException {
+        long imported = mImporter.importPets(new StringReader("name,breed,gender,weight\r\n"
+                + ",Terrier,1,7\r\n"
+                + "Toto,Terrier,7,7\r\n"
+                + "Toto,Terrier,macho,7\r\n"
+                + "Toto,Terrier,1,-1\r\n"
+                + "Toto,Terrier,1,7kg\r\n"
+                + "Rex,Boxer,1,40\r\n"
+                + "Luna,,2\r\n"), PetImporter.FORMAT_CSV);
+
+        assertEquals(2, imported);
+        assertEquals(7, mImporter.getRecordsRead());
+        assertEquals(5, mImporter.getRecordsRejected());
+        assertEquals(5, mRejects.records.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i + 1, (long) mRejects.records.get(i));
+        }
+        assertImported(new Object[][] {
+                { "Rex", "Boxer", PetEntry.GENDER_MALE, 40 },
+                { "Luna", null, PetEntry.GENDER_FEMALE, 0 } });
+    }
+
+    @Test(expected = IOException.class)
+    public void csvUnterminatedQuoteFails() throws IOException {
+        mImporter.importPets(new StringReader("name,gender\r\n\"Toto,1\r\n"),
+                PetImporter.FORMAT_CSV);
+    }
+
+    @Test(expected = IOException.class)
+    public void csvTextAfterQuotedFieldFails() throws IOException {
+        mImporter.importPets(new StringReader("name,gender\r\n\"Toto\"x,1\r\n"),
+                PetImporter.FORMAT_CSV);
+    }
+
+    @Test(expected = IOException.class)
+    public void jsonInvalidUnicodeEscapeFails() throws IOException {
+        mImporter.importPets(new StringReader("[{\"name\":\"\\u00g9\",\"gender\":1}]"),
+                PetImporter.FORMAT_JSON);
+    }
+
+    @Test(expected = IOException.class)
+    public void jsonUnterminatedArrayFails() throws IOException {
+        mImporter.importPets(new StringReader("[{\"name\":\"Toto\",\"gender\":1}"),
+                PetImporter.FORMAT_JSON);
+    }
+
+    /** Escreve {@link #PETS} como a exportação, com _id a partir de 1 */
+    private static String export(boolean json) throws IOException {
+        StringWriter out = new StringWriter();
+        PetExporter.RowWriter writer = PetExporter.newRowWriter(out, json);
+        writer.begin();
+        for (int i = 0; i < PETS.length; i++) {
+            writer.row(i, i + 1, buffer((String) PETS[i][0]),
+                    PETS[i][1] != null ? buffer((String) PETS[i][1]) : null,
+                    (Integer) PETS[i][2], (Integer) PETS[i][3]);
+        }
+        writer.end();
+        return out.toString();
+    }
+
+    /** Um buffer como o que a exportação copia do cursor, maior que o texto */
+    private static CharArrayBuffer buffer(String text) {
+        CharArrayBuffer buffer = new CharArrayBuffer(text.length() + 8);
+        text.getChars(0, text.length(), buffer.data, 0);
+        buffer.sizeCopied = text.length();
+        return buffer;
+    }
+
+    /** Verifica que o provedor recebeu exatamente os animais dados, na ordem */
+    private void assertImported(Object[][] pets) {
+        assertEquals(pets.length, mProvider.inserted.size());
+        for (int i = 0; i < pets.length; i++) {
+            ContentValues values = mProvider.inserted.get(i);
+            assertEquals("Pet " + i, pets[i][0], values.getAsString(PetEntry.COLUMN_PET_NAME));
+            assertEquals("Pet " + i, pets[i][1], values.getAsString(PetEntry.COLUMN_PET_BREED));
+            assertEquals("Pet " + i, pets[i][2], values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+            assertEquals("Pet " + i, pets[i][3], values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        }
+    }
+}
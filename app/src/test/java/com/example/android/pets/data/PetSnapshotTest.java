@@ -0,0 +1,272 @@
+package com.example.android.pets.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compara o {@link PetSnapshot} com um modelo simples, um TreeMap de animais ordenado pelo
+ * Collections.sort: cada sequência de put, remove, select e sort tem que dar o mesmo resultado
+ * nos dois. O {@link PetSnapshot} é Java puro, então o teste não precisa do Robolectric.
+ */
+public class PetSnapshotTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int[] ORDERS = {
+            PetSnapshot.ORDER_ID, PetSnapshot.ORDER_NAME, PetSnapshot.ORDER_WEIGHT };
+
+    /**
+     * Pedaços dos nomes gerados: acentos e CJK (2 e 3 bytes em UTF-8), um par de surrogates
+     * (4 bytes), um surrogate sem par (vira '?') e um prefixo longo, que passa dos 64 bytes que
+     * o radix sort ordena antes de usar o comparador
+     */
+    private static final String[] NAME_PARTS = {
+            "a", "b", "Z", "é", "Ém", "猫", "\ud83d\udc15", "\ud800", " ", "",
+            "Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex Rex " };
+
+    private static final String[] BREEDS = { null, "Terrier", "Poodle", "Labrador", "Vira-lata" };
+
+    /** Animal do modelo */
+    private static final class Pet {
+        final long id;
+        final byte[] nameBytes;
+        final String breed;
+        final int gender;
+        final int weight;
+        String photo;
+
+        Pet(long id, String name, String breed, int gender, int weight) {
+            this.id = id;
+            this.nameBytes = name.getBytes(UTF_8);
+            this.breed = breed;
+            this.gender = gender;
+            this.weight = weight;
+        }
+    }
+
+    private Random mRandom;
+    private PetSnapshot mSnapshot;
+    private TreeMap<Long, Pet> mModel;
+
+    @Before
+    public void setUp() {
+        mRandom = new Random(42);
+        mSnapshot = new PetSnapshot(0);
+        mModel = new TreeMap<>();
+    }
+
+    @Test
+    public void putAndRemoveMatchTheModel() {
+        for (int i = 0; i < 20000; i++) {
+            long id = mRandom.nextInt(2000);
+            if (mRandom.nextInt(3) == 0) {
+                assertEquals(mModel.remove(id) != null, mSnapshot.remove(id));
+            } else {
+                put(id);
+            }
+            if (i % 1000 == 0) {
+                assertSameRows();
+            }
+        }
+        assertSameRows();
+    }
+
+    @Test
+    public void selectMatchesTheModel() {
+        for (int i = 0; i < 3000; i++) {
+            put(i);
+        }
+        int[] rows = new int[mSnapshot.size()];
+        for (int gender = PetSnapshot.ANY_GENDER; gender <= 2; gender++) {
+            for (int minWeight = 0; minWeight <= 60; minWeight += 15) {
+                int maxWeight = minWeight + 20;
+                int count = mSnapshot.select(gender, minWeight, maxWeight, rows);
+
+                List<Long> expected = new ArrayList<>();
+                for (Pet pet : mModel.values()) {
+                    if ((gender == PetSnapshot.ANY_GENDER || pet.gender == gender)
+                            && pet.weight >= minWeight && pet.weight <= maxWeight) {
+                        expected.add(pet.id);
+                    }
+                }
+                List<Long> actual = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    actual.add(mSnapshot.getId(rows[i]));
+                }
+                Collections.sort(actual);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void sortMatchesTheModel() {
+        // Tamanhos abaixo e acima do limite do radix sort, com alterações entre as ordenações
+        for (int size : new int[] { 0, 1, 5, 63, 64, 65, 500, 5000 }) {
+            mSnapshot.clear();
+            mModel.clear();
+            for (int i = 0; i < size; i++) {
+                put(mRandom.nextInt(size * 2 + 1));
+            }
+            for (int round = 0; round < 3; round++) {
+                for (int order : ORDERS) {
+                    assertSorted(order);
+                }
+                for (int i = 0; i < size / 10 + 1; i++) {
+                    long id = mRandom.nextInt(size * 2 + 1);
+                    if (mRandom.nextBoolean()) {
+                        mSnapshot.remove(id);
+                        mModel.remove(id);
+                    } else {
+                        put(id);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sortKeepsTheIdOrderBetweenEqualKeys() {
+        for (int i = 0; i < 300; i++) {
+            mSnapshot.put(300 - i, "Toto", "Terrier", 1, 7);
+            mModel.put(300L - i, new Pet(300 - i, "Toto", "Terrier", 1, 7));
+        }
+        assertSorted(PetSnapshot.ORDER_NAME);
+        assertSorted(PetSnapshot.ORDER_WEIGHT);
+    }
+
+    @Test
+    public void putReplacesThePetWithTheSameId() {
+        mSnapshot.put(7, "Toto", "Terrier", 1, 7);
+        mSnapshot.setPhoto(7, "toto.jpg");
+        mSnapshot.put(7, "Rex", null, 2, 30);
+
+        assertEquals(1, mSnapshot.size());
+        int row = mSnapshot.indexOf(7);
+        assertEquals("Rex", mSnapshot.getName(row));
+        assertNull(mSnapshot.getBreed(row));
+        assertEquals(PetSnapshot.NO_BREED, mSnapshot.getBreedCode(row));
+        assertEquals(2, mSnapshot.getGender(row));
+        assertEquals(30, mSnapshot.getWeight(row));
+        // A foto é gravada à parte e continua a mesma
+        assertEquals("toto.jpg", mSnapshot.getPhoto(row));
+    }
+
+    @Test
+    public void charArrayPutMatchesStringPut() {
+        char[] name = "Mel e Luna".toCharArray();
+        char[] breed = "Labrador retriever".toCharArray();
+        mSnapshot.put(1, name, 3, breed, 8, 2, 30);
+        mSnapshot.put(2, "Mel", "Labrador", 2, 30);
+        mSnapshot.put(3, name, 3, breed, -1, 2, 30);
+
+        int first = mSnapshot.indexOf(1);
+        int second = mSnapshot.indexOf(2);
+        assertEquals("Mel", mSnapshot.getName(first));
+        assertEquals(mSnapshot.getBreedCode(second), mSnapshot.getBreedCode(first));
+        assertTrue(mSnapshot.getBreed(first) == mSnapshot.getBreed(second));
+        assertNull(mSnapshot.getBreed(mSnapshot.indexOf(3)));
+    }
+
+    @Test
+    public void removeOfAMissingIdChangesNothing() {
+        mSnapshot.put(1, "Toto", "Terrier", 1, 7);
+        assertFalse(mSnapshot.remove(2));
+        assertTrue(mSnapshot.remove(1));
+        assertFalse(mSnapshot.remove(1));
+        assertEquals(0, mSnapshot.size());
+        assertEquals(-1, mSnapshot.indexOf(1));
+    }
+
+    /** Grava um animal aleatório nos dois */
+    private void put(long id) {
+        StringBuilder name = new StringBuilder();
+        for (int i = mRandom.nextInt(4); i >= 0; i--) {
+            name.append(NAME_PARTS[mRandom.nextInt(NAME_PARTS.length)]);
+        }
+        String breed = BREEDS[mRandom.nextInt(BREEDS.length)];
+        int gender = mRandom.nextInt(3);
+        int weight = mRandom.nextInt(80);
+        String photo = mRandom.nextInt(4) == 0 ? "photo-" + id + ".jpg" : null;
+
+        mSnapshot.put(id, name.toString(), breed, gender, weight);
+        mSnapshot.setPhoto(id, photo);
+        Pet pet = new Pet(id, name.toString(), breed, gender, weight);
+        pet.photo = photo;
+        mModel.put(id, pet);
+    }
+
+    /** Verifica que o snapshot tem exatamente os animais do modelo */
+    private void assertSameRows() {
+        assertEquals(mModel.size(), mSnapshot.size());
+        for (Pet pet : mModel.values()) {
+            int row = mSnapshot.indexOf(pet.id);
+            assertTrue("Missing pet " + pet.id, row >= 0);
+            assertEquals(pet.id, mSnapshot.getId(row));
+            assertEquals(new String(pet.nameBytes, UTF_8), mSnapshot.getName(row));
+            assertEquals(pet.breed, mSnapshot.getBreed(row));
+            assertEquals(pet.gender, mSnapshot.getGender(row));
+            assertEquals(pet.weight, mSnapshot.getWeight(row));
+            assertEquals(pet.photo, mSnapshot.getPhoto(row));
+        }
+    }
+
+    /** Ordena todas as posições do snapshot e compara os _id com o modelo ordenado */
+    private void assertSorted(final int order) {
+        int[] rows = new int[mSnapshot.size()];
+        int count = mSnapshot.select(PetSnapshot.ANY_GENDER, Integer.MIN_VALUE,
+                Integer.MAX_VALUE, rows);
+        // Uma ordem de posições qualquer, para que o sort não comece já na ordem do _id
+        for (int i = count - 1; i > 0; i--) {
+            int j = mRandom.nextInt(i + 1);
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+        }
+        mSnapshot.sort(rows, count, order);
+
+        List<Pet> expected = new ArrayList<>(mModel.values());
+        Collections.sort(expected, new Comparator<Pet>() {
+            @Override
+            public int compare(Pet a, Pet b) {
+                int result = 0;
+                if (order == PetSnapshot.ORDER_NAME) {
+                    result = compareBytes(a.nameBytes, b.nameBytes);
+                } else if (order == PetSnapshot.ORDER_WEIGHT) {
+                    result = a.weight < b.weight ? -1 : (a.weight == b.weight ? 0 : 1);
+                }
+                return result != 0 ? result : (a.id < b.id ? -1 : (a.id == b.id ? 0 : 1));
+            }
+        });
+        assertEquals(expected.size(), count);
+        for (int i = 0; i < count; i++) {
+            assertEquals("Order " + order + ", position " + i, expected.get(i).id,
+                    mSnapshot.getId(rows[i]));
+        }
+    }
+
+    /** A collation BINARY do SQLite: bytes sem sinal, e o prefixo vem antes */
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int result = (a[i] & 0xff) - (b[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return a.length - b.length;
+    }
+}
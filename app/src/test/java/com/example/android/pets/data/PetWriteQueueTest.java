@@ -0,0 +1,438 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.net.Uri;
+import android.os.Looper;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifica as regras da {@link PetWriteQueue}: como as escritas do mesmo animal são juntadas,
+ * como uma falha passageira é repetida e como o diário é relido depois que o processo morre.
+ *
+ * A fila grava na thread principal, cujo relógio o teste avança, num provedor falso que guarda
+ * os animais num mapa e segue o contrato do PetProvider: inserções com chave de escrita, exclusão
+ * que não encontra um animal já excluído, IllegalArgumentException para uma escrita inválida e
+ * lotes que são desfeitos por inteiro quando uma escrita falha.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PetWriteQueueTest {
+
+    /** Espera da fila antes de gravar, e a primeira espera depois de uma falha */
+    private static final long COMMIT_DELAY_MS = 100;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    /** Provedor falso com as regras de escrita do PetProvider */
+    public static class FakePetProvider extends ContentProvider {
+        /** Animais pelo _id; um animal excluído tem a marca de exclusão */
+        final Map<Long, ContentValues> pets = new HashMap<>();
+        /** _id de cada chave de escrita */
+        final Map<Long, Long> writeKeys = new HashMap<>();
+        long nextId = 1;
+        /** Se verdadeiro, toda escrita falha como se outro processo segurasse o banco */
+        boolean locked;
+        int inserts;
+        int updates;
+        int deletes;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            checkUnlocked();
+            if (values.getAsString(PetEntry.COLUMN_PET_NAME) == null) {
+                throw new IllegalArgumentException("Pet requires a name");
+            }
+            String writeKey = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_WRITE_KEY);
+            if (writeKey != null && writeKeys.containsKey(Long.parseLong(writeKey))) {
+                return ContentUris.withAppendedId(PetEntry.CONTENT_URI,
+                        writeKeys.get(Long.parseLong(writeKey)));
+            }
+            inserts++;
+            long id = nextId++;
+            ContentValues pet = new ContentValues(values);
+            pet.put(PetEntry.COLUMN_PET_DELETED, 0);
+            pets.put(id, pet);
+            if (writeKey != null) {
+                writeKeys.put(Long.parseLong(writeKey), id);
+            }
+            return ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                          String[] selectionArgs) {
+            checkUnlocked();
+            if (values.containsKey(PetEntry.COLUMN_PET_NAME)
+                    && values.getAsString(PetEntry.COLUMN_PET_NAME) == null) {
+                throw new IllegalArgumentException("Pet requires a name");
+            }
+            ContentValues pet = getLivePet(uri);
+            if (pet == null) {
+                return 0;
+            }
+            updates++;
+            pet.putAll(values);
+            return 1;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            checkUnlocked();
+            ContentValues pet = getLivePet(uri);
+            if (pet == null) {
+                return 0;
+            }
+            deletes++;
+            pet.put(PetEntry.COLUMN_PET_DELETED, 1);
+            return 1;
+        }
+
+        /** Como o PetProvider, grava o lote numa transação: uma falha desfaz o lote inteiro */
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            Map<Long, ContentValues> savedPets = new HashMap<>();
+            for (Map.Entry<Long, ContentValues> pet : pets.entrySet()) {
+                savedPets.put(pet.getKey(), new ContentValues(pet.getValue()));
+            }
+            Map<Long, Long> savedWriteKeys = new HashMap<>(writeKeys);
+            long savedNextId = nextId;
+            int savedInserts = inserts;
+            int savedUpdates = updates;
+            int savedDeletes = deletes;
+            try {
+                return super.applyBatch(operations);
+            } catch (RuntimeException | OperationApplicationException e) {
+                pets.clear();
+                pets.putAll(savedPets);
+                writeKeys.clear();
+                writeKeys.putAll(savedWriteKeys);
+                nextId = savedNextId;
+                inserts = savedInserts;
+                updates = savedUpdates;
+                deletes = savedDeletes;
+                throw e;
+            }
+        }
+
+        /** Retorna os valores do animal do URI, ou null se ele não existe ou foi excluído */
+        ContentValues getLivePet(Uri uri) {
+            ContentValues pet = pets.get(ContentUris.parseId(uri));
+            if (pet == null || pet.getAsInteger(PetEntry.COLUMN_PET_DELETED) != 0) {
+                return null;
+            }
+            return pet;
+        }
+
+        int countLivePets() {
+            int count = 0;
+            for (ContentValues pet : pets.values()) {
+                if (pet.getAsInteger(PetEntry.COLUMN_PET_DELETED) == 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void checkUnlocked() {
+            if (locked) {
+                throw new SQLiteDatabaseLockedException("database is locked");
+            }
+        }
+    }
+
+    /** Guarda os resultados avisados pela fila, na ordem em que chegaram */
+    private static final class Results implements PetWriteQueue.Callback {
+        final List<Boolean> results = new ArrayList<>();
+
+        @Override
+        public void onWriteFinished(boolean success) {
+            results.add(success);
+        }
+    }
+
+    private FakePetProvider mProvider;
+    private SharedPreferences mJournal;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(FakePetProvider.class)
+                .create(PetContract.CONTENT_AUTHORITY).get();
+        mJournal = RuntimeEnvironment.application.getSharedPreferences(
+                PetWriteQueue.JOURNAL_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Test
+    public void updatesOfTheSamePetAreMerged() {
+        long id = addPet("Toto", 7);
+        PetWriteQueue queue = newQueue();
+        Results results = new Results();
+
+        queue.update(id, values(PetEntry.COLUMN_PET_NAME, "Rex"), results);
+        queue.update(id, values(PetEntry.COLUMN_PET_WEIGHT, 9), results);
+        advance(COMMIT_DELAY_MS);
+
+        assertEquals(1, mProvider.updates);
+        assertEquals("Rex", mProvider.pets.get(id).getAsString(PetEntry.COLUMN_PET_NAME));
+        assertEquals(9, (int) mProvider.pets.get(id).getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        assertEquals(2, results.results.size());
+        assertTrue(results.results.get(0));
+        assertTrue(results.results.get(1));
+        assertTrue(mJournal.getAll().isEmpty());
+    }
+
+    @Test
+    public void deleteReplacesPendingUpdates() {
+        long id = addPet("Toto", 7);
+        PetWriteQueue queue = newQueue();
+        Results results = new Results();
+
+        queue.update(id, values(PetEntry.COLUMN_PET_NAME, "Rex"), results);
+        queue.delete(id, results);
+        advance(COMMIT_DELAY_MS);
+
+        assertEquals(0, mProvider.updates);
+        assertEquals(1, mProvider.deletes);
+        assertEquals(0, mProvider.countLivePets());
+        assertEquals(2, results.results.size());
+        assertTrue(results.results.get(0));
+        assertTrue(results.results.get(1));
+    }
+
+    @Test
+    public void updateAfterPendingDeleteIsRejected() {
+        long id = addPet("Toto", 7);
+        PetWriteQueue queue = newQueue();
+        Results deleteResult = new Results();
+        Results updateResult = new Results();
+
+        queue.delete(id, deleteResult);
+        queue.update(id, values(PetEntry.COLUMN_PET_NAME, "Rex"), updateResult);
+        // A atualização é recusada na hora, sem esperar a gravação
+        assertEquals(1, updateResult.results.size());
+        assertFalse(updateResult.results.get(0));
+
+        advance(COMMIT_DELAY_MS);
+        assertEquals(0, mProvider.updates);
+        assertEquals(1, deleteResult.results.size());
+        assertTrue(deleteResult.results.get(0));
+    }
+
+    @Test
+    public void deleteOfADeletedPetSucceeds() {
+        long id = addPet("Toto", 7);
+        PetWriteQueue queue = newQueue();
+        Results results = new Results();
+
+        queue.delete(id, results);
+        advance(COMMIT_DELAY_MS);
+        // Outra exclusão do mesmo animal, como a de uma segunda tela, não encontra a linha
+        queue.delete(id, results);
+        advance(COMMIT_DELAY_MS);
+
+        assertEquals(1, mProvider.deletes);
+        assertEquals(2, results.results.size());
+        assertTrue(results.results.get(0));
+        assertTrue(results.results.get(1));
+    }
+
+    @Test
+    public void updateOfAMissingPetFails() {
+        PetWriteQueue queue = newQueue();
+        Results results = new Results();
+
+        queue.update(42, values(PetEntry.COLUMN_PET_NAME, "Rex"), results);
+        advance(COMMIT_DELAY_MS);
+
+        assertEquals(1, results.results.size());
+        assertFalse(results.results.get(0));
+        assertTrue(mJournal.getAll().isEmpty());
+    }
+
+    @Test
+    public void invalidWriteIsDroppedAndTheRestOfTheBatchIsWritten() {
+        PetWriteQueue queue = newQueue();
+        Results valid = new Results();
+        Results invalid = new Results();
+
+        queue.insert(values(PetEntry.COLUMN_PET_NAME, "Toto"), valid);
+        queue.insert(values(PetEntry.COLUMN_PET_WEIGHT, 7), invalid);
+        advance(COMMIT_DELAY_MS);
+
+        assertEquals(1, mProvider.countLivePets());
+        assertEquals(1, valid.results.size());
+        assertTrue(valid.results.get(0));
+        assertEquals(1, invalid.results.size());
+        assertFalse(invalid.results.get(0));
+        assertTrue(mJournal.getAll().isEmpty());
+    }
+
+    @Test
+    public void transientFailureIsRetriedAndKeepsTheJournal() {
+        long id = addPet("Toto", 7);
+        PetWriteQueue queue = newQueue();
+        Results results = new Results();
+
+        mProvider.locked = true;
+        queue.update(id, values(PetEntry.COLUMN_PET_NAME, "Rex"), results);
+        advance(COMMIT_DELAY_MS);
+
+        // Nenhum resultado ainda, e a escrita continua no diário
+        assertEquals(0, results.results.size());
+        assertEquals(1, mJournal.getAll().size());
+
+        // Uma escrita nova do mesmo animal é juntada à que espera a próxima tentativa
+        queue.update(id, values(PetEntry.COLUMN_PET_WEIGHT, 9), results);
+        mProvider.locked = false;
+        advance(RETRY_DELAY_MS);
+
+        assertEquals(1, mProvider.updates);
+        assertEquals("Rex", mProvider.pets.get(id).getAsString(PetEntry.COLUMN_PET_NAME));
+        assertEquals(9, (int) mProvider.pets.get(id).getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        assertEquals(2, results.results.size());
+        assertTrue(results.results.get(0));
+        assertTrue(results.results.get(1));
+        assertTrue(mJournal.getAll().isEmpty());
+    }
+
+    @Test
+    public void recoveryWritesTheJournaledWrites() {
+        long id = addPet("Toto", 7);
+        mProvider.locked = true;
+        PetWriteQueue queue = newQueue();
+        queue.insert(values(PetEntry.COLUMN_PET_NAME, "Rex"), null);
+        queue.update(id, values(PetEntry.COLUMN_PET_WEIGHT, 9), null);
+        advance(COMMIT_DELAY_MS);
+        assertEquals(2, mJournal.getAll().size());
+
+        // O processo morre com as duas escritas no diário, antes da próxima tentativa da
+        // primeira fila; a fila seguinte as grava
+        mProvider.locked = false;
+        newQueue();
+        advance(COMMIT_DELAY_MS);
+
+        assertEquals(2, mProvider.countLivePets());
+        assertEquals(9, (int) mProvider.pets.get(id).getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        assertTrue(mJournal.getAll().isEmpty());
+    }
+
+    @Test
+    public void recoveredInsertThatWasCommittedIsNotDuplicated() {
+        PetWriteQueue queue = newQueue();
+        queue.insert(values(PetEntry.COLUMN_PET_NAME, "Rex"), null);
+        // O diário é gravado antes do banco; esta é a entrada que sobraria de uma morte entre
+        // a transação e a limpeza do diário
+        Map<String, ?> journal = new HashMap<>(mJournal.getAll());
+        assertEquals(1, journal.size());
+        advance(COMMIT_DELAY_MS);
+        assertEquals(1, mProvider.inserts);
+        assertTrue(mJournal.getAll().isEmpty());
+
+        restoreJournal(journal);
+        newQueue();
+        advance(COMMIT_DELAY_MS);
+
+        assertEquals(1, mProvider.inserts);
+        assertEquals(1, mProvider.countLivePets());
+        assertTrue(mJournal.getAll().isEmpty());
+    }
+
+    @Test
+    public void recoveredDeleteThatWasCommittedLeavesTheJournal() {
+        long id = addPet("Toto", 7);
+        PetWriteQueue queue = newQueue();
+        queue.delete(id, null);
+        Map<String, ?> journal = new HashMap<>(mJournal.getAll());
+        advance(COMMIT_DELAY_MS);
+        assertEquals(1, mProvider.deletes);
+
+        restoreJournal(journal);
+        newQueue();
+        advance(COMMIT_DELAY_MS);
+
+        // A exclusão repetida não encontra o animal, sai do diário e não é tentada de novo
+        assertEquals(1, mProvider.deletes);
+        assertTrue(mJournal.getAll().isEmpty());
+        advance(RETRY_DELAY_MS);
+        assertTrue(mJournal.getAll().isEmpty());
+    }
+
+    /** Cria uma fila que grava na thread principal e relê o diário */
+    private static PetWriteQueue newQueue() {
+        return new PetWriteQueue(RuntimeEnvironment.application, Looper.getMainLooper());
+    }
+
+    /** Grava um animal direto no provedor, sem passar pela fila, e retorna o _id dele */
+    private long addPet(String name, int weight) {
+        ContentValues values = values(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return ContentUris.parseId(mProvider.insert(PetEntry.CONTENT_URI, values));
+    }
+
+    /** Devolve ao diário as entradas copiadas antes, como se elas nunca tivessem saído */
+    private void restoreJournal(Map<String, ?> journal) {
+        SharedPreferences.Editor editor = mJournal.edit();
+        for (Map.Entry<String, ?> entry : journal.entrySet()) {
+            editor.putString(entry.getKey(), (String) entry.getValue());
+        }
+        editor.commit();
+    }
+
+    private static ContentValues values(String key, String value) {
+        ContentValues values = new ContentValues();
+        values.put(key, value);
+        return values;
+    }
+
+    private static ContentValues values(String key, int value) {
+        ContentValues values = new ContentValues();
+        values.put(key, value);
+        return values;
+    }
+
+    /** Avança o relógio da thread principal, executando o que estava agendado até lá */
+    private static void advance(long millis) {
+        Robolectric.getForegroundThreadScheduler().advanceBy(millis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resultado de uma execução do benchmark, gravado em JSON para que execuções diferentes possam
+ * ser comparadas por scripts.
+ *
+ * Formato:
+ * <pre>
+ * {
+ *   "environment": { "java": "...", "os": "...", "sqlite": "...", ... },
+ *   "results": [
+ *     { "workload": "insert", "rows": 100000, "ops": 2000, "totalMs": 12.5,
+ *       "opsPerSec": 160000.0, "p50Us": 5.1, "p90Us": 7.9, "p99Us": 21.3, "maxUs": 180.2 },
+ *     ...
+ *   ]
+ * }
+ * </pre>
+ * rows é o tamanho da tabela em que a carga foi medida; as durações são por operação.
+ */
+final class BenchmarkReport {
+
+    /** Uma linha de "results" */
+    private static final class Result {
+        String workload;
+        long rows;
+        int ops;
+        long totalNanos;
+        long p50;
+        long p90;
+        long p99;
+        long max;
+    }
+
+    private final Map<String, String> mEnvironment = new LinkedHashMap<>();
+    private final List<Result> mResults = new ArrayList<>();
+
+    /** Adiciona uma informação sobre o ambiente da execução */
+    void putEnvironment(String key, Object value) {
+        mEnvironment.put(key, String.valueOf(value));
+    }
+
+    /** Adiciona o resultado de uma carga e o escreve na saída padrão */
+    void add(String workload, long rows, LatencyRecorder recorder) {
+        Result result = new Result();
+        result.workload = workload;
+        result.rows = rows;
+        result.ops = recorder.getCount();
+        result.totalNanos = recorder.getTotalNanos();
+        result.p50 = recorder.percentile(50);
+        result.p90 = recorder.percentile(90);
+        result.p99 = recorder.percentile(99);
+        result.max = recorder.percentile(100);
+        mResults.add(result);
+
+        System.out.println(String.format(Locale.US,
+                "%-16s rows=%-8d ops=%-7d %12.0f ops/s  p50=%9.1fus  p99=%9.1fus  max=%9.1fus",
+                workload, rows, result.ops, opsPerSecond(result), micros(result.p50),
+                micros(result.p99), micros(result.max)));
+    }
+
+    /** Grava o relatório em JSON no arquivo dado, criando os diretórios que faltam */
+    void write(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("{\n  \"environment\": {");
+            boolean first = true;
+            for (Map.Entry<String, String> entry : mEnvironment.entrySet()) {
+                out.write(first ? "\n    " : ",\n    ");
+                writeString(out, entry.getKey());
+                out.write(": ");
+                writeString(out, entry.getValue());
+                first = false;
+            }
+            out.write("\n  },\n  \"results\": [");
+            for (int i = 0; i < mResults.size(); i++) {
+                Result result = mResults.get(i);
+                out.write(i == 0 ? "\n    {" : ",\n    {");
+                out.write("\"workload\": ");
+                writeString(out, result.workload);
+                out.write(String.format(Locale.US, ", \"rows\": %d, \"ops\": %d, \"totalMs\": %.3f"
+                                + ", \"opsPerSec\": %.1f, \"p50Us\": %.2f, \"p90Us\": %.2f"
+                                + ", \"p99Us\": %.2f, \"maxUs\": %.2f}",
+                        result.rows, result.ops, result.totalNanos / 1e6, opsPerSecond(result),
+                        micros(result.p50), micros(result.p90), micros(result.p99),
+                        micros(result.max)));
+            }
+            out.write("\n  ]\n}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static double opsPerSecond(Result result) {
+        return result.totalNanos == 0 ? 0 : result.ops * 1e9 / result.totalNanos;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1e3;
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
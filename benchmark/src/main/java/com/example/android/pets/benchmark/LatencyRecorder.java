@@ -0,0 +1,45 @@
+package com.example.android.pets.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Guarda a duração de cada operação de uma carga, em nanossegundos, e calcula os percentis.
+ */
+final class LatencyRecorder {
+
+    private long[] mSamples = new long[1024];
+    private int mCount;
+    private long mTotalNanos;
+
+    /** Registra uma operação que começou em startNanos (de {@link System#nanoTime()}) */
+    void record(long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSamples[mCount++] = nanos;
+        mTotalNanos += nanos;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * Retorna o percentil dado (0 a 100) das durações, em nanossegundos, pelo método do
+     * posto mais próximo.
+     */
+    long percentile(double percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100 * mCount);
+        return sorted[Math.max(0, Math.min(mCount, rank) - 1)];
+    }
+}
@@ -0,0 +1,631 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDbConfig;
+import com.example.android.pets.data.PetQuery;
+import com.example.android.pets.data.PetSchema;
+import com.example.android.pets.data.PetSnapshot;
+import com.example.android.pets.data.ShelterDataGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmark da camada de dados numa JVM comum.
+ *
+ * O {@link com.example.android.pets.PetProvider} só roda no Android, e um substituto como o
+ * Robolectric mediria o próprio substituto. Por isso o benchmark executa, com o driver
+ * sqlite-jdbc, o mesmo SQL que o aplicativo executa: o esquema e os gatilhos de
+ * {@link PetSchema}, as escritas pré-compiladas do PetStatements, as páginas do catálogo de
+ * {@link PetQuery} e os PRAGMAs de {@link PetDbConfig#DEFAULT}. O filtro e a ordenação do
+ * catálogo em memória usam o próprio {@link PetSnapshot}. Os números medem o SQLite e o
+ * SQL do aplicativo, não o custo do Binder ou do CursorWindow no aparelho.
+ *
+ * Para cada tamanho de tabela, um banco novo é carregado com animais do
+ * {@link ShelterDataGenerator}, a partir de uma semente fixa, e as cargas são medidas operação
+ * por operação. O resultado é gravado em JSON
+ * (veja {@link BenchmarkReport}).
+ *
+ * Uso: ./gradlew :benchmark:run -Pargs="--sizes 1000,100000,1000000 --ops 2000 --seed 42"
+ */
+public final class PetBenchmark {
+
+    /** Tamanho da página do catálogo, o mesmo do PetPager */
+    private static final int PAGE_SIZE = 50;
+
+    /** Linhas por transação ao carregar a tabela, o mesmo bloco do PetImporter */
+    private static final int LOAD_CHUNK_ROWS = 500;
+
+    /** Linhas excluídas apagadas por transação na purga, como no PetPurger */
+    private static final int PURGE_CHUNK_ROWS = 500;
+
+    /** Leituras completas da tabela por tamanho; cada uma percorre todas as linhas */
+    private static final int FULL_SCANS = 5;
+
+    private final Random mRandom;
+    private final ShelterDataGenerator mGenerator;
+    private final int mOps;
+    private final File mDirectory;
+    private final BenchmarkReport mReport;
+
+    /** Maior _id inserido no banco atual */
+    private long mMaxId;
+
+    private PetBenchmark(long seed, int ops, File directory, BenchmarkReport report) {
+        mRandom = new Random(seed);
+        mGenerator = new ShelterDataGenerator(seed);
+        mOps = ops;
+        mDirectory = directory;
+        mReport = report;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long[] sizes = { 1000, 100000, 1000000 };
+        int ops = 2000;
+        long seed = 42;
+        File directory = new File(System.getProperty("java.io.tmpdir"), "pets-benchmark");
+        File output = new File("build/results/benchmark-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()) + ".json");
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--sizes":
+                    String[] parts = value.split(",");
+                    sizes = new long[parts.length];
+                    for (int j = 0; j < parts.length; j++) {
+                        sizes[j] = Long.parseLong(parts[j].trim());
+                    }
+                    break;
+                case "--ops":
+                    ops = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--dir":
+                    directory = new File(value);
+                    break;
+                case "--out":
+                    output = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        BenchmarkReport report = new BenchmarkReport();
+        report.putEnvironment("java", System.getProperty("java.vm.name") + " "
+                + System.getProperty("java.version"));
+        report.putEnvironment("os", System.getProperty("os.name") + " "
+                + System.getProperty("os.arch"));
+        report.putEnvironment("processors", Runtime.getRuntime().availableProcessors());
+        report.putEnvironment("schemaVersion", PetSchema.VERSION);
+        report.putEnvironment("seed", seed);
+        report.putEnvironment("ops", ops);
+
+        PetBenchmark benchmark = new PetBenchmark(seed, ops, directory, report);
+        for (long size : sizes) {
+            benchmark.run(size);
+        }
+
+        report.write(output);
+        System.out.println("Results written to " + output.getAbsolutePath());
+    }
+
+    /** Mede todas as cargas numa tabela com rows linhas */
+    private void run(long rows) throws SQLException, IOException {
+        Connection connection = openDatabase(rows);
+        try {
+            load(connection, rows);
+            LatencyRecorder insertPerRow = measureInsert(connection, rows);
+            printSpeedup("insert: one transaction vs one per row",
+                    measureInsertOneTransaction(connection, rows), insertPerRow);
+            LatencyRecorder updateCompiled = measureUpdateById(connection, rows);
+            printSpeedup("update: compiled statement vs database.update()", updateCompiled,
+                    measureUpdateWithValues(connection, rows));
+            measureCatalogPage(connection, rows, false);
+            measureCatalogPage(connection, rows, true);
+            measureFullScan(connection, rows);
+            measureSnapshot(connection, rows);
+            measureSearch(connection, rows);
+            // Por último, para as outras cargas verem a tabela inteira
+            measureDeleteById(connection, rows);
+            measurePurge(connection, rows);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Cria um banco vazio com os PRAGMAs do aplicativo e o esquema da versão atual.
+     */
+    private Connection openDatabase(long rows) throws SQLException, IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        File file = new File(mDirectory, "shelter-" + rows + ".db");
+        for (String suffix : new String[] { "", "-wal", "-shm", "-journal" }) {
+            File old = new File(file.getPath() + suffix);
+            if (old.exists() && !old.delete()) {
+                throw new IOException("Cannot delete " + old);
+            }
+        }
+
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        PetDbConfig config = PetDbConfig.DEFAULT;
+        Statement statement = connection.createStatement();
+        try {
+            if (config.writeAheadLogging) {
+                statement.execute("PRAGMA journal_mode = WAL");
+            }
+            statement.execute("PRAGMA cache_size = " + (-config.cacheSizeKb));
+            statement.execute("PRAGMA mmap_size = " + config.mmapSizeBytes);
+            statement.execute("PRAGMA synchronous = " + config.synchronousMode);
+
+            ResultSet sqliteVersion = statement.executeQuery("SELECT sqlite_version()");
+            mReport.putEnvironment("sqlite", sqliteVersion.getString(1));
+            sqliteVersion.close();
+
+            // O mesmo caminho de um banco novo no PetDbHelper: versão 1 e todas as migrações
+            connection.setAutoCommit(false);
+            statement.execute(PetSchema.CREATE_PETS_TABLE);
+            for (int version = 2; version <= PetSchema.VERSION; version++) {
+                for (String sql : PetSchema.getMigration(version)) {
+                    statement.execute(sql);
+                }
+            }
+            connection.commit();
+            connection.setAutoCommit(true);
+        } finally {
+            statement.close();
+        }
+        mMaxId = 0;
+        return connection;
+    }
+
+    /**
+     * Carrega a tabela em transações de {@link #LOAD_CHUNK_ROWS} linhas, como o bulkInsert do
+     * provedor, medindo cada transação.
+     */
+    private void load(Connection connection, long rows) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PreparedStatement insert = connection.prepareStatement(PetSchema.SQL_INSERT);
+        connection.setAutoCommit(false);
+        try {
+            long loaded = 0;
+            while (loaded < rows) {
+                long start = System.nanoTime();
+                int chunk = (int) Math.min(LOAD_CHUNK_ROWS, rows - loaded);
+                for (int i = 0; i < chunk; i++) {
+                    bindRow(insert);
+                    insert.executeUpdate();
+                }
+                connection.commit();
+                recorder.record(start);
+                loaded += chunk;
+            }
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+        }
+        mMaxId = rows;
+        mReport.add("bulk-insert-" + LOAD_CHUNK_ROWS, rows, recorder);
+    }
+
+    /** Inserções de uma linha, cada uma na sua transação, como o salvamento no editor */
+    private LatencyRecorder measureInsert(Connection connection, long rows) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PreparedStatement insert = connection.prepareStatement(PetSchema.SQL_INSERT);
+        try {
+            for (int i = 0; i < mOps; i++) {
+                long start = System.nanoTime();
+                bindRow(insert);
+                insert.executeUpdate();
+                recorder.record(start);
+                mMaxId++;
+            }
+        } finally {
+            insert.close();
+        }
+        mReport.add("insert", rows, recorder);
+        return recorder;
+    }
+
+    /**
+     * As mesmas inserções de {@link #measureInsert}, mas todas numa única transação, como o
+     * bulkInsert e o applyBatch do provedor. O commit entra na duração da última inserção, então
+     * as ops/s das duas cargas são linhas por segundo e podem ser comparadas.
+     */
+    private LatencyRecorder measureInsertOneTransaction(Connection connection, long rows)
+            throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PreparedStatement insert = connection.prepareStatement(PetSchema.SQL_INSERT);
+        connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < mOps; i++) {
+                long start = System.nanoTime();
+                bindRow(insert);
+                insert.executeUpdate();
+                if (i == mOps - 1) {
+                    connection.commit();
+                }
+                recorder.record(start);
+                mMaxId++;
+            }
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+        }
+        mReport.add("insert-one-txn", rows, recorder);
+        return recorder;
+    }
+
+    /**
+     * Atualizações de uma linha completa por _id, cada uma na sua transação, com a instrução
+     * pré-compilada do PetStatements
+     */
+    private LatencyRecorder measureUpdateById(Connection connection, long rows)
+            throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PreparedStatement update = connection.prepareStatement(PetSchema.SQL_UPDATE_BY_ID);
+        try {
+            for (int i = 0; i < mOps; i++) {
+                long start = System.nanoTime();
+                bindRow(update);
+                update.setLong(5, randomId());
+                update.executeUpdate();
+                recorder.record(start);
+            }
+        } finally {
+            update.close();
+        }
+        mReport.add("update-by-id", rows, recorder);
+        return recorder;
+    }
+
+    /**
+     * As mesmas atualizações de {@link #measureUpdateById}, pelo caminho que o provedor usava
+     * antes das instruções pré-compiladas: SQLiteDatabase.update() com um ContentValues e a
+     * seleção "_id=?". Como o update(), cada chamada monta o SQL a partir das colunas de values,
+     * junta a seleção com a de animais não excluídos, passa o _id como texto e procura a
+     * instrução num cache pelo texto do SQL, como o cache de instruções de cada conexão do
+     * SQLiteDatabase. A diferença para a instrução pré-compilada é o custo que ela evita.
+     */
+    private LatencyRecorder measureUpdateWithValues(Connection connection, long rows)
+            throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        Map<String, PreparedStatement> statementCache = new HashMap<>();
+        try {
+            for (int i = 0; i < mOps; i++) {
+                long start = System.nanoTime();
+                mGenerator.next();
+                Map<String, Object> values = new HashMap<>();
+                values.put(PetEntry.COLUMN_PET_NAME, mGenerator.getName());
+                values.put(PetEntry.COLUMN_PET_BREED, mGenerator.getBreed());
+                values.put(PetEntry.COLUMN_PET_GENDER, mGenerator.getGender());
+                values.put(PetEntry.COLUMN_PET_WEIGHT, mGenerator.getWeight());
+                String selection = PetQuery.andSelection(PetSchema.SELECTION_LIVE,
+                        PetEntry._ID + "=?");
+                String[] selectionArgs = { String.valueOf(randomId()) };
+
+                StringBuilder sql = new StringBuilder(120);
+                sql.append("UPDATE ").append(PetEntry.TABLE_NAME).append(" SET ");
+                Object[] bindArgs = new Object[values.size() + selectionArgs.length];
+                int arg = 0;
+                for (Map.Entry<String, Object> value : values.entrySet()) {
+                    sql.append(arg > 0 ? "," : "").append(value.getKey()).append("=?");
+                    bindArgs[arg++] = value.getValue();
+                }
+                for (String selectionArg : selectionArgs) {
+                    bindArgs[arg++] = selectionArg;
+                }
+                sql.append(" WHERE ").append(selection);
+
+                String key = sql.toString();
+                PreparedStatement update = statementCache.get(key);
+                if (update == null) {
+                    update = connection.prepareStatement(key);
+                    statementCache.put(key, update);
+                }
+                for (int j = 0; j < bindArgs.length; j++) {
+                    update.setObject(j + 1, bindArgs[j]);
+                }
+                update.executeUpdate();
+                recorder.record(start);
+            }
+        } finally {
+            for (PreparedStatement update : statementCache.values()) {
+                update.close();
+            }
+        }
+        mReport.add("update-values", rows, recorder);
+        return recorder;
+    }
+
+    /**
+     * Exclusões por _id, cada uma na sua transação; um _id já excluído não exclui nada. A
+     * exclusão só marca a linha; o custo de apagá-la é medido em {@link #measurePurge}.
+     */
+    private void measureDeleteById(Connection connection, long rows) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PreparedStatement delete = connection.prepareStatement(PetSchema.SQL_DELETE_BY_ID);
+        try {
+            for (int i = 0; i < mOps; i++) {
+                long start = System.nanoTime();
+                delete.setLong(1, randomId());
+                delete.executeUpdate();
+                recorder.record(start);
+            }
+        } finally {
+            delete.close();
+        }
+        mReport.add("delete-by-id", rows, recorder);
+    }
+
+    /**
+     * Purga das linhas marcadas por {@link #measureDeleteById}, como faz o PetPurger: lê os _id
+     * de um lote pelo índice da chave primária e apaga o lote numa transação. Cada amostra é um
+     * lote inteiro.
+     */
+    private void measurePurge(Connection connection, long rows) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PreparedStatement select = connection.prepareStatement(PetSchema.SQL_SELECT_DELETED);
+        PreparedStatement purge = connection.prepareStatement(PetSchema.SQL_PURGE_BY_ID);
+        long[] ids = new long[PURGE_CHUNK_ROWS];
+        long lastId = -1;
+        int count;
+        connection.setAutoCommit(false);
+        try {
+            do {
+                long start = System.nanoTime();
+                select.setLong(1, lastId);
+                select.setInt(2, PURGE_CHUNK_ROWS);
+                ResultSet result = select.executeQuery();
+                count = 0;
+                try {
+                    while (result.next()) {
+                        ids[count++] = result.getLong(1);
+                    }
+                } finally {
+                    result.close();
+                }
+                if (count == 0) {
+                    break;
+                }
+                for (int i = 0; i < count; i++) {
+                    purge.setLong(1, ids[i]);
+                    purge.executeUpdate();
+                }
+                connection.commit();
+                recorder.record(start);
+                lastId = ids[count - 1];
+            } while (count == PURGE_CHUNK_ROWS);
+        } finally {
+            connection.setAutoCommit(true);
+            select.close();
+            purge.close();
+        }
+        if (lastId >= 0) {
+            mReport.add("purge-" + PURGE_CHUNK_ROWS, rows, recorder);
+        }
+    }
+
+    /**
+     * Páginas do catálogo por nome, com a projeção do CatalogActivity, lendo todas as linhas
+     * da página. A primeira página não tem âncora; as páginas profundas começam depois de um
+     * animal sorteado, como quando o usuário já rolou a lista. A consulta é compilada uma vez,
+     * como no cache de instruções de cada conexão do SQLiteDatabase.
+     */
+    private void measureCatalogPage(Connection connection, long rows, boolean deep)
+            throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PetQuery shape = new PetQuery(PetQuery.SORT_NAME, deep ? "" : null, deep ? 0 : -1,
+                PAGE_SIZE);
+        PreparedStatement anchor = connection.prepareStatement("SELECT "
+                + PetEntry.COLUMN_PET_NAME + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                + PetEntry._ID + " = ?");
+        // A mesma seleção do provedor: só os animais não excluídos, depois da âncora
+        PreparedStatement query = connection.prepareStatement("SELECT " + PetEntry._ID + ", "
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE "
+                + PetQuery.andSelection(PetSchema.SELECTION_LIVE, shape.getSelection())
+                + " ORDER BY " + shape.getSortOrder() + " LIMIT " + shape.getLimit());
+        try {
+            for (int i = 0; i < mOps; i++) {
+                PetQuery page = shape;
+                if (deep) {
+                    long afterId = randomId();
+                    anchor.setLong(1, afterId);
+                    ResultSet anchorRow = anchor.executeQuery();
+                    String afterKey = anchorRow.next() ? anchorRow.getString(1) : "";
+                    anchorRow.close();
+                    page = new PetQuery(PetQuery.SORT_NAME, afterKey, afterId, PAGE_SIZE);
+                }
+
+                long start = System.nanoTime();
+                String[] args = page.getSelectionArgs();
+                for (int a = 0; args != null && a < args.length; a++) {
+                    // O SQLiteDatabase liga todos os argumentos como texto
+                    query.setString(a + 1, args[a]);
+                }
+                readAll(query.executeQuery());
+                recorder.record(start);
+            }
+        } finally {
+            anchor.close();
+            query.close();
+        }
+        mReport.add(deep ? "catalog-deep" : "catalog-first", rows, recorder);
+    }
+
+    /** Leituras de todas as linhas com a projeção do catálogo, na ordem do _id */
+    private void measureFullScan(Connection connection, long rows) throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        Statement statement = connection.createStatement();
+        try {
+            for (int i = 0; i < FULL_SCANS; i++) {
+                long start = System.nanoTime();
+                readAll(statement.executeQuery("SELECT " + PetEntry._ID + ", "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " FROM "
+                        + PetEntry.TABLE_NAME + " WHERE " + PetSchema.SELECTION_LIVE
+                        + " ORDER BY " + PetEntry._ID));
+                recorder.record(start);
+            }
+        } finally {
+            statement.close();
+        }
+        mReport.add("full-scan", rows, recorder);
+    }
+
+    /**
+     * Filtro e ordenação do catálogo sobre um {@link PetSnapshot} da tabela inteira, como faz a
+     * CatalogActivity com R.bool.catalog_snapshot: todos os animais pelo nome, e as fêmeas de
+     * 10 a 30 kg pelo peso. A leitura da tabela para o snapshot não é medida.
+     */
+    private void measureSnapshot(Connection connection, long rows) throws SQLException {
+        PetSnapshot snapshot = new PetSnapshot((int) rows);
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet result = statement.executeQuery("SELECT " + PetEntry._ID + ", "
+                    + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                    + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + " FROM "
+                    + PetEntry.TABLE_NAME + " WHERE " + PetSchema.SELECTION_LIVE
+                    + " ORDER BY " + PetEntry._ID);
+            try {
+                while (result.next()) {
+                    snapshot.put(result.getLong(1), result.getString(2), result.getString(3),
+                            result.getInt(4), result.getInt(5));
+                }
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+
+        int[] positions = new int[snapshot.size()];
+        LatencyRecorder byName = new LatencyRecorder();
+        LatencyRecorder byWeight = new LatencyRecorder();
+        for (int i = 0; i < FULL_SCANS; i++) {
+            long start = System.nanoTime();
+            int count = snapshot.select(PetSnapshot.ANY_GENDER, 0, Integer.MAX_VALUE, positions);
+            snapshot.sort(positions, count, PetSnapshot.ORDER_NAME);
+            byName.record(start);
+
+            start = System.nanoTime();
+            count = snapshot.select(PetEntry.GENDER_FEMALE, 10, 30, positions);
+            snapshot.sort(positions, count, PetSnapshot.ORDER_WEIGHT);
+            byWeight.record(start);
+        }
+        mReport.add("snapshot-name", rows, byName);
+        mReport.add("snapshot-filter", rows, byWeight);
+    }
+
+    /**
+     * Busca enquanto o usuário digita, como a caixa de busca do CatalogActivity: um nome
+     * sorteado é digitado letra por letra e cada prefixo é uma consulta do FTS com o limite do
+     * provedor, lendo todo o resultado. Cada tecla é uma operação; os prefixos curtos, que
+     * casam com muitos animais, são o pior caso. A ordem do catálogo (os mais novos primeiro) é
+     * medida junto da ordem de relevância, o padrão do provedor.
+     */
+    private void measureSearch(Connection connection, long rows) throws SQLException {
+        measureSearch(connection, rows, PetSchema.SEARCH_NEWEST_ORDER, "search-typing");
+        measureSearch(connection, rows, PetSchema.SEARCH_RANK_ORDER, "search-typing-rank");
+    }
+
+    private void measureSearch(Connection connection, long rows, String sortOrder, String name)
+            throws SQLException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        PreparedStatement query = connection.prepareStatement("SELECT "
+                + PetEntry.TABLE_NAME + "." + PetEntry._ID + ", "
+                + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME + ", "
+                + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED + " FROM "
+                + PetSchema.SEARCH_TABLES + " WHERE " + PetEntry.TABLE_NAME + "."
+                + PetSchema.SELECTION_LIVE + " AND " + PetEntry.SEARCH_TABLE_NAME + " MATCH ?"
+                + " ORDER BY " + sortOrder + " LIMIT " + PetSchema.SEARCH_LIMIT);
+        try {
+            int keystrokes = 0;
+            while (keystrokes < mOps) {
+                mGenerator.next();
+                String typed = mGenerator.getName();
+                for (int length = 1; length <= typed.length() && keystrokes < mOps; length++) {
+                    long start = System.nanoTime();
+                    query.setString(1, PetSchema.buildMatchExpression(typed.substring(0, length)));
+                    readAll(query.executeQuery());
+                    recorder.record(start);
+                    keystrokes++;
+                }
+            }
+        } finally {
+            query.close();
+        }
+        mReport.add(name, rows, recorder);
+    }
+
+    /**
+     * Lê todas as colunas (_id, nome e raça) de todas as linhas e fecha o resultado. Retorna o
+     * número de linhas.
+     */
+    private static int readAll(ResultSet result) throws SQLException {
+        int count = 0;
+        try {
+            while (result.next()) {
+                result.getLong(1);
+                result.getString(2);
+                result.getString(3);
+                count++;
+            }
+        } finally {
+            result.close();
+        }
+        return count;
+    }
+
+    /** Liga nome, raça, gênero e peso do próximo animal gerado aos quatro primeiros parâmetros */
+    private void bindRow(PreparedStatement statement) throws SQLException {
+        mGenerator.next();
+        statement.setString(1, mGenerator.getName());
+        if (mGenerator.getBreed() == null) {
+            statement.setNull(2, Types.VARCHAR);
+        } else {
+            statement.setString(2, mGenerator.getBreed());
+        }
+        statement.setInt(3, mGenerator.getGender());
+        statement.setInt(4, mGenerator.getWeight());
+    }
+
+    /**
+     * Escreve quantas vezes as ops/s de uma carga são as ops/s da outra, para as cargas que
+     * medem duas formas de fazer a mesma coisa.
+     */
+    private static void printSpeedup(String comparison, LatencyRecorder recorder,
+                                     LatencyRecorder baseline) {
+        double opsPerSecond = recorder.getCount() * 1e9 / Math.max(1, recorder.getTotalNanos());
+        double baselineOpsPerSecond = baseline.getCount() * 1e9
+                / Math.max(1, baseline.getTotalNanos());
+        System.out.println(String.format(Locale.US, "  %s: %.1fx the ops/s", comparison,
+                opsPerSecond / baselineOpsPerSecond));
+    }
+
+    private long randomId() {
+        return 1 + (long) (mRandom.nextDouble() * mMaxId);
+    }
+}
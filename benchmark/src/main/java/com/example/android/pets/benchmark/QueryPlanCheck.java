@@ -0,0 +1,309 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetQuery;
+import com.example.android.pets.data.PetSchema;
+import com.example.android.pets.data.ShelterDataGenerator;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Verifica o plano (EXPLAIN QUERY PLAN) de cada forma de consulta que o
+ * {@link com.example.android.pets.PetProvider} executa, para que um índice que falta não
+ * transforme uma busca num percurso da tabela inteira sem ninguém perceber.
+ *
+ * O banco é criado em memória pelo mesmo caminho do PetDbHelper (a tabela da versão 1 e todas
+ * as migrações de {@link PetSchema}) e recebe animais do {@link ShelterDataGenerator}, a partir
+ * de uma semente fixa. As formas são verificadas duas vezes: sem estatísticas, como num banco
+ * recém-criado, e depois do ANALYZE que a purga executa, porque as estatísticas podem mudar o
+ * plano.
+ *
+ * Cada forma declara o que espera do plano:
+ * <ul>
+ * <li>{@link #SEARCH}: toda tabela é lida por uma busca num índice (SEARCH), e nada é
+ * ordenado numa árvore temporária. As páginas com âncora, a leitura por _id e as escritas.</li>
+ * <li>{@link #ORDERED_SCAN}: o índice ou a tabela pode ser percorrido (SCAN), desde que na
+ * ordem do ORDER BY, sem árvore temporária, para que o LIMIT pare a leitura. As primeiras
+ * páginas, que não têm por onde começar uma busca.</li>
+ * <li>{@link #COLD}: lê a tabela inteira de propósito, como o snapshot; o plano só é
+ * mostrado.</li>
+ * </ul>
+ * A tabela FTS é virtual: "SCAN ... VIRTUAL TABLE INDEX" é a busca no índice invertido dela.
+ *
+ * Uso: ./gradlew :benchmark:queryPlans (também executado por ./gradlew check). Sai com
+ * status 1 se alguma forma não atender ao que espera.
+ */
+public final class QueryPlanCheck {
+
+    /** Só buscas em índices, sem ordenação */
+    private static final int SEARCH = 0;
+
+    /** Percursos na ordem do ORDER BY, sem ordenação */
+    private static final int ORDERED_SCAN = 1;
+
+    /** Qualquer plano */
+    private static final int COLD = 2;
+
+    private static final String[] EXPECTATION_NAMES = { "search", "ordered-scan", "cold" };
+
+    /** Animais no banco de teste; o bastante para o planejador preferir os índices */
+    private static final int ROWS = 5000;
+
+    /** Tamanho das páginas, o mesmo do PetPager */
+    private static final int PAGE_SIZE = 50;
+
+    /** Projeção do catálogo */
+    private static final String CATALOG_COLUMNS = PetEntry._ID + ", "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_PHOTO;
+
+    /** Uma forma de consulta: o SQL, com "?" nos argumentos, e o que o plano deve atender */
+    private static final class Shape {
+        final String name;
+        final String sql;
+        final int expectation;
+        /** Se a forma pode ordenar numa árvore temporária, como a busca por relevância */
+        final boolean sorts;
+
+        Shape(String name, String sql, int expectation, boolean sorts) {
+            this.name = name;
+            this.sql = sql;
+            this.expectation = expectation;
+            this.sorts = sorts;
+        }
+    }
+
+    private QueryPlanCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seed = 42;
+        for (int i = 0; i < args.length; i++) {
+            if ("--seed".equals(args[i]) && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<Shape> shapes = shapes();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        int failures;
+        try {
+            createDatabase(connection, seed);
+            failures = check(connection, shapes, "fresh");
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute("ANALYZE");
+            } finally {
+                statement.close();
+            }
+            failures += check(connection, shapes, "analyzed");
+        } finally {
+            connection.close();
+        }
+
+        System.out.println(shapes.size() + " query shapes, " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Todas as formas de consulta do provedor e das escritas pré-compiladas. Ao adicionar um
+     * URI, um filtro ou uma ordem ao provedor, adicione a forma aqui.
+     */
+    private static List<Shape> shapes() {
+        List<Shape> shapes = new ArrayList<>();
+
+        // PETS: páginas do catálogo em cada ordem, com e sem cada filtro, a primeira (sem
+        // âncora) e as seguintes (depois da última linha da página anterior). Uma faixa de peso
+        // com outra ordem não tem índice que atenda aos dois: os animais da faixa são ordenados.
+        // Todas as outras combinações, inclusive as do menu do catálogo, não ordenam nada.
+        String[] sorts = { PetQuery.SORT_NAME, PetQuery.SORT_WEIGHT, PetQuery.SORT_ID };
+        String[] lastKeys = { "Pet m", "20", null };
+        for (int s = 0; s < sorts.length; s++) {
+            String sort = sorts[s];
+            for (int filter = 0; filter < 4; filter++) {
+                int gender = (filter & 1) != 0 ? PetEntry.GENDER_FEMALE : PetQuery.ANY_GENDER;
+                int minWeight = (filter & 2) != 0 ? 10 : PetQuery.NO_WEIGHT;
+                int maxWeight = (filter & 2) != 0 ? 30 : PetQuery.NO_WEIGHT;
+                for (int next = 0; next < 2; next++) {
+                    PetQuery page = new PetQuery(sort, gender, minWeight, maxWeight,
+                            next == 0 ? null : lastKeys[s], next == 0 ? -1 : 100, PAGE_SIZE);
+                    shapes.add(new Shape("pets sort=" + sort
+                            + ((filter & 1) != 0 ? " gender" : "")
+                            + ((filter & 2) != 0 ? " weight" : "")
+                            + (next == 0 ? " first" : " next"),
+                            "SELECT " + CATALOG_COLUMNS + " FROM " + PetEntry.TABLE_NAME
+                                    + " WHERE " + PetQuery.andSelection(
+                                    PetSchema.SELECTION_LIVE, page.getSelection())
+                                    + " ORDER BY " + page.getSortOrder()
+                                    + " LIMIT " + page.getLimit(),
+                            next == 0 ? ORDERED_SCAN : SEARCH,
+                            (filter & 2) != 0 && !PetQuery.SORT_WEIGHT.equals(sort)));
+                }
+            }
+        }
+
+        // PETS sem página, como o snapshot, que lê a tabela inteira
+        shapes.add(new Shape("pets all by _id", "SELECT " + CATALOG_COLUMNS + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + PetSchema.SELECTION_LIVE
+                + " ORDER BY " + PetEntry._ID, COLD, false));
+
+        // PET_ID: o provedor coloca o _id direto na cláusula
+        shapes.add(new Shape("pets/#", "SELECT " + CATALOG_COLUMNS + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + PetSchema.SELECTION_LIVE + " AND "
+                + PetEntry._ID + " = 7", SEARCH, false));
+
+        // SEARCH: pela relevância, que ordena todos os resultados, e pelo _id
+        String search = "SELECT " + PetEntry.TABLE_NAME + "." + PetEntry._ID + ", "
+                + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME + " FROM "
+                + PetSchema.SEARCH_TABLES + " WHERE " + PetEntry.TABLE_NAME + "."
+                + PetSchema.SELECTION_LIVE + " AND " + PetEntry.SEARCH_TABLE_NAME + " MATCH ?"
+                + " ORDER BY ";
+        shapes.add(new Shape("pets/search rank", search + PetSchema.SEARCH_RANK_ORDER
+                + " LIMIT " + PetSchema.SEARCH_LIMIT, SEARCH, true));
+        shapes.add(new Shape("pets/search newest", search + PetSchema.SEARCH_NEWEST_ORDER
+                + " LIMIT " + PetSchema.SEARCH_LIMIT, SEARCH, false));
+
+        // Exclusão em partes: as primeiras linhas não excluídas pela ordem do _id
+        shapes.add(new Shape("pets delete chunk", "UPDATE " + PetEntry.TABLE_NAME + " SET "
+                + PetEntry.COLUMN_PET_DELETED + " = 1 WHERE " + PetEntry._ID + " IN (SELECT "
+                + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                + PetSchema.SELECTION_LIVE + " ORDER BY " + PetEntry._ID + " LIMIT 500)",
+                ORDERED_SCAN, false));
+
+        // Escritas pré-compiladas e a purga
+        shapes.add(new Shape("update by _id", PetSchema.SQL_UPDATE_BY_ID, SEARCH, false));
+        shapes.add(new Shape("delete by _id", PetSchema.SQL_DELETE_BY_ID, SEARCH, false));
+        shapes.add(new Shape("select deleted", PetSchema.SQL_SELECT_DELETED, SEARCH, false));
+        shapes.add(new Shape("purge by _id", PetSchema.SQL_PURGE_BY_ID, SEARCH, false));
+        shapes.add(new Shape("select by write key", PetSchema.SQL_SELECT_BY_WRITE_KEY, SEARCH,
+                false));
+        return shapes;
+    }
+
+    /**
+     * Cria o esquema como o PetDbHelper e carrega {@link #ROWS} animais do
+     * {@link ShelterDataGenerator}, alguns excluídos
+     */
+    private static void createDatabase(Connection connection, long seed) throws SQLException {
+        ShelterDataGenerator generator = new ShelterDataGenerator(seed);
+        Random random = new Random(seed);
+        connection.setAutoCommit(false);
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute(PetSchema.CREATE_PETS_TABLE);
+            for (int version = 2; version <= PetSchema.VERSION; version++) {
+                for (String sql : PetSchema.getMigration(version)) {
+                    statement.execute(sql);
+                }
+            }
+        } finally {
+            statement.close();
+        }
+
+        PreparedStatement insert = connection.prepareStatement(PetSchema.SQL_INSERT);
+        PreparedStatement delete = connection.prepareStatement(PetSchema.SQL_DELETE_BY_ID);
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                generator.next();
+                insert.setString(1, generator.getName());
+                if (generator.getBreed() == null) {
+                    insert.setNull(2, Types.VARCHAR);
+                } else {
+                    insert.setString(2, generator.getBreed());
+                }
+                insert.setInt(3, generator.getGender());
+                insert.setInt(4, generator.getWeight());
+                insert.executeUpdate();
+            }
+            for (int i = 0; i < ROWS / 20; i++) {
+                delete.setLong(1, 1 + random.nextInt(ROWS));
+                delete.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+            insert.close();
+            delete.close();
+        }
+    }
+
+    /** Mostra o plano de cada forma e retorna quantas não atendem ao que esperam */
+    private static int check(Connection connection, List<Shape> shapes, String label)
+            throws SQLException {
+        System.out.println("== " + label);
+        int failures = 0;
+        for (Shape shape : shapes) {
+            List<String> plan = explain(connection, shape.sql);
+            String problem = findProblem(shape, plan);
+            System.out.println((problem == null ? "ok   " : "FAIL ") + shape.name + " ["
+                    + EXPECTATION_NAMES[shape.expectation] + "]"
+                    + (problem == null ? "" : ": " + problem));
+            for (String step : plan) {
+                System.out.println("       " + step);
+            }
+            if (problem != null) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Retorna as linhas do EXPLAIN QUERY PLAN do SQL. Os argumentos são ligados a NULL: o
+     * SQLite do Android não tem as estatísticas por valor (STAT4), então o plano não depende
+     * deles.
+     */
+    private static List<String> explain(Connection connection, String sql) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+        try {
+            int parameters = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                statement.setNull(i, Types.NULL);
+            }
+            ResultSet result = statement.executeQuery();
+            try {
+                // A última coluna é a descrição do passo, em todas as versões do SQLite
+                int detail = result.getMetaData().getColumnCount();
+                while (result.next()) {
+                    plan.add(result.getString(detail));
+                }
+            } finally {
+                result.close();
+            }
+        } finally {
+            statement.close();
+        }
+        return plan;
+    }
+
+    /** Retorna o problema do plano, ou null se ele atende ao que a forma espera */
+    private static String findProblem(Shape shape, List<String> plan) {
+        if (shape.expectation == COLD) {
+            return null;
+        }
+        for (String step : plan) {
+            if (step.startsWith("USE TEMP B-TREE") && !shape.sorts) {
+                return "sorts in a temporary b-tree";
+            }
+            if (step.startsWith("SCAN ") && !step.contains(" VIRTUAL TABLE INDEX ")
+                    && shape.expectation == SEARCH) {
+                return "scans instead of searching an index";
+            }
+        }
+        return null;
+    }
+}